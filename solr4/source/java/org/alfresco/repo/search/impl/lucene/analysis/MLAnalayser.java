@@ -31,6 +31,7 @@ import java.io.Reader;
 import java.util.Locale;
 
 import org.alfresco.repo.search.MLAnalysisMode;
+import org.alfresco.repo.search.impl.lucene.analysis.MLAnalyserResolver.FieldKind;
 import org.alfresco.solr.AlfrescoAnalyzerWrapper.Mode;
 import org.alfresco.util.Pair;
 import org.apache.commons.logging.Log;
@@ -42,7 +43,6 @@ import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
-import org.apache.solr.schema.FieldType;
 import org.apache.solr.schema.IndexSchema;
 import org.springframework.extensions.surf.util.I18NUtil;
 
@@ -52,23 +52,27 @@ public class MLAnalayser extends Analyzer
 
     private MLAnalysisMode mlAnalaysisMode;
    
-    private IndexSchema schema;
-
-	private Mode mode;
+    private MLAnalyserResolver resolver;
     
     public MLAnalayser(MLAnalysisMode mlAnalaysisMode, IndexSchema schema, Mode mode)
+    {
+        this(mlAnalaysisMode, new MLAnalyserResolver(schema, mode));
+    }
+
+    /**
+     * @param mlAnalaysisMode MLAnalysisMode
+     * @param resolver shared by all the analysers created for the same schema and mode
+     */
+    public MLAnalayser(MLAnalysisMode mlAnalaysisMode, MLAnalyserResolver resolver)
     {
         super(Analyzer.PER_FIELD_REUSE_STRATEGY);
         this.mlAnalaysisMode = mlAnalaysisMode;
-        this.schema = schema;
-        this.mode = mode;
+        this.resolver = resolver;
     }
 
-
     public MLAnalayser(MLAnalysisMode mlAnalaysisMode)
     {
-        super(Analyzer.PER_FIELD_REUSE_STRATEGY);
-        this.mlAnalaysisMode = mlAnalaysisMode;
+        this(mlAnalaysisMode, new MLAnalyserResolver(null, null));
     }
 
   
@@ -76,7 +80,7 @@ public class MLAnalayser extends Analyzer
     @Override
     protected TokenStreamComponents createComponents(String fieldName, Reader reader) 
     {
-        MLTokenizer mltokenizer = new MLTokenizer(fieldName, reader, schema, mlAnalaysisMode, mode);
+        MLTokenizer mltokenizer = new MLTokenizer(fieldName, reader, resolver, mlAnalaysisMode);
         try
         {
             mltokenizer.setLocaleAndPositionReaderAfterLocaleEncoding(reader);
@@ -118,7 +122,9 @@ public class MLAnalayser extends Analyzer
         
         String fieldName;
         
-        private IndexSchema schema;
+        private final FieldKind fieldKind;
+        
+        private final MLAnalyserResolver resolver;
         
         MLAnalysisMode mlAnalaysisMode;
 
@@ -130,15 +136,13 @@ public class MLAnalayser extends Analyzer
         
         private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
 
-		private Mode mode;
-     
-        MLTokenizer(String fieldName, Reader reader, IndexSchema schema, MLAnalysisMode mlAnalaysisMode, Mode mode) 
+        MLTokenizer(String fieldName, Reader reader, MLAnalyserResolver resolver, MLAnalysisMode mlAnalaysisMode) 
         {
             super(reader);
             this.fieldName = fieldName;
-            this.schema = schema;
+            this.fieldKind = FieldKind.of(fieldName);
+            this.resolver = resolver;
             this.mlAnalaysisMode = mlAnalaysisMode;
-            this.mode = mode;
         }
         
         
@@ -155,7 +159,7 @@ public class MLAnalayser extends Analyzer
             {
                 s_logger.debug("Created ML analyser token stream for "+fieldName+ " with locale "+pair.getFirst());
             }
-            TokenStream source = getAnalyser(fieldName, pair.getFirst()).tokenStream(fieldName, pair.getSecond());
+            TokenStream source = resolver.getAnalyser(fieldKind, pair.getFirst()).tokenStream(fieldName, pair.getSecond());
             ts =  new MLTokenDuplicator(source, pair.getFirst(), pair.getSecond(), mlAnalaysisMode);
             return pair.getSecond();
         }
@@ -329,63 +333,6 @@ public class MLAnalayser extends Analyzer
                 }
                 return null;
             }
-        }   
-        
-
-        private Analyzer getAnalyser(String fieldName, Locale locale)
-        {
-             if(schema != null)
-             {
-                 if(fieldName.contains("l_@{"))
-                 {
-                     FieldType fieldType = schema.getFieldTypeByName("identifier");
-                     return selectAnalyzer(fieldType);
-                 }
-                 else if(fieldName.contains("lt@{"))
-                 {
-                     StringBuilder builder = new StringBuilder();
-                     builder.append("text_");
-                     builder.append(locale.getLanguage());
-                     FieldType fieldType = schema.getFieldTypeByName(builder.toString());
-                     if(fieldType == null)
-                     {
-                         fieldType = schema.getFieldTypeByName("text_en");
-                     }
-                     return selectAnalyzer(fieldType);
-                 }
-                 else
-                 {
-                     return null;
-                 }
-                 
-             }
-             else
-             {
-                 return null;
-             }
         }
-
-
-
-		private Analyzer selectAnalyzer(FieldType fieldType) {
-			if(mode == null)
-			 {
-			     return fieldType.getAnalyzer();
-			 }
-			 else if(mode == Mode.INDEX)
-			 {
-				 return fieldType.getIndexAnalyzer();
-			 }
-			 else if(mode == Mode.QUERY)
-			 {
-				 return fieldType.getQueryAnalyzer();
-			 }
-			 else
-			 {
-				 return null;
-			 }
-		}
-     
-
     }
 }
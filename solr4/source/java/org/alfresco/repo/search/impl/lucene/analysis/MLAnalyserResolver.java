@@ -0,0 +1,156 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.lucene.analysis;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.solr.AlfrescoAnalyzerWrapper.Mode;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+
+/**
+ * Resolves the schema analyser used for the localised content of a multilingual field.
+ * <p/>
+ * Identifier fields (<tt>l_@{</tt>) use the identifier field type and tokenised fields (<tt>lt@{</tt>) use the
+ * <tt>text_&lt;language&gt;</tt> field type, falling back to <tt>text_en</tt>.  The analysers are looked up once per
+ * language and kept for the life of the schema; a schema reload creates new field types and with them a new resolver.
+ * 
+ * @since 5.2
+ */
+public class MLAnalyserResolver
+{
+    /**
+     * How a field name is analysed
+     */
+    public static enum FieldKind
+    {
+        IDENTIFIER, TEXT, NONE;
+
+        /**
+         * @param fieldName String
+         * @return the kind of the field
+         */
+        public static FieldKind of(String fieldName)
+        {
+            if (fieldName.contains("l_@{"))
+            {
+                return IDENTIFIER;
+            }
+            else if (fieldName.contains("lt@{"))
+            {
+                return TEXT;
+            }
+            else
+            {
+                return NONE;
+            }
+        }
+    }
+
+    private final IndexSchema schema;
+
+    private final Mode mode;
+
+    private volatile Analyzer identifierAnalyser;
+
+    private final ConcurrentHashMap<String, Analyzer> textAnalysers = new ConcurrentHashMap<String, Analyzer>();
+
+    /**
+     * @param schema the schema the analysers come from (may be <tt>null</tt>, when there are none)
+     * @param mode INDEX, QUERY or <tt>null</tt> for the default analyser of the field type
+     */
+    public MLAnalyserResolver(IndexSchema schema, Mode mode)
+    {
+        this.schema = schema;
+        this.mode = mode;
+    }
+
+    /**
+     * @param kind the kind of the field being analysed
+     * @param locale the locale of the content
+     * @return the analyser or <tt>null</tt> if there is none
+     */
+    public Analyzer getAnalyser(FieldKind kind, Locale locale)
+    {
+        if (schema == null)
+        {
+            return null;
+        }
+
+        switch (kind)
+        {
+        case IDENTIFIER:
+            Analyzer analyser = identifierAnalyser;
+            if (analyser == null)
+            {
+                analyser = selectAnalyzer(schema.getFieldTypeByName("identifier"));
+                identifierAnalyser = analyser;
+            }
+            return analyser;
+        case TEXT:
+            String language = locale.getLanguage();
+            analyser = textAnalysers.get(language);
+            if (analyser == null)
+            {
+                FieldType fieldType = schema.getFieldTypeByName("text_" + language);
+                if (fieldType == null)
+                {
+                    fieldType = schema.getFieldTypeByName("text_en");
+                }
+                analyser = selectAnalyzer(fieldType);
+                if (analyser != null)
+                {
+                    textAnalysers.putIfAbsent(language, analyser);
+                }
+            }
+            return analyser;
+        default:
+            return null;
+        }
+    }
+
+    private Analyzer selectAnalyzer(FieldType fieldType)
+    {
+        if (mode == null)
+        {
+            return fieldType.getAnalyzer();
+        }
+        else if (mode == Mode.INDEX)
+        {
+            return fieldType.getIndexAnalyzer();
+        }
+        else if (mode == Mode.QUERY)
+        {
+            return fieldType.getQueryAnalyzer();
+        }
+        else
+        {
+            return null;
+        }
+    }
+}
@@ -38,16 +38,19 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.analysis.Token;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
 
 /**
  * Create duplicate tokens for multilingual varients The forms are Tokens: Token - all languages {fr}Token - if a
  * language is specified {fr_CA}Token - if a language and country is specified {fr_CA_Varient}Token - for all three
  * {fr__Varient}Token - for a language varient with no country
+ * <p>
+ * The duplicates are streamed straight into the attributes: the current source token is copied once into a reused
+ * buffer and each prefixed form is written from it in turn, so no intermediate {@link Token}s are created.
  * 
  * @author andyh
  */
@@ -59,10 +62,11 @@ public class MLTokenDuplicator extends TokenStream
 
     Locale locale;
 
-    Iterator<Token> it;
-
     HashSet<String> prefixes;
     
+    /** The prefixes in the iteration order of {@link #prefixes}, which is the order the duplicates are emitted in */
+    private char[][] prefixChars;
+    
     private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
 
     private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
@@ -71,34 +75,38 @@ public class MLTokenDuplicator extends TokenStream
     
     private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
 
+    private CharTermAttribute sourceTermAtt;
+
+    private OffsetAttribute sourceOffsetAtt;
+
+    private TypeAttribute sourceTypeAtt;
+
+    private PositionIncrementAttribute sourcePosIncAtt;
+
+    /* The current source token */
+
+    private char[] termBuffer = new char[32];
+
+    private int termLength;
+
+    private int startOffset;
+
+    private int endOffset;
+
+    private String type;
+
+    private int positionIncrement;
+
+    /* The next prefix to emit for the current source token */
+    private int prefixIndex;
+
     private boolean done = false;
 
     public MLTokenDuplicator(TokenStream source, Locale locale, Reader reader, MLAnalysisMode mlAnalysisMode)
     {
         this.source = source;
         this.locale = locale;
-        
-        Collection<Locale> locales = MLAnalysisMode.getLocales(mlAnalysisMode, locale, false);
-        prefixes = new HashSet<String>(locales.size());
-        for(Locale toAdd : locales)
-        {
-            String localeString = toAdd.toString();
-            if(localeString.length() == 0)
-            {
-                prefixes.add("");
-            }
-            else
-            {
-                StringBuilder builder = new StringBuilder(16);
-                builder.append("{").append(localeString).append("}");
-                prefixes.add(builder.toString());
-            }
-        }
-        if(s_logger.isDebugEnabled())
-        {
-            s_logger.debug("Locale "+ locale +" using "+mlAnalysisMode+" is "+prefixes);
-        }
-
+        buildPrefixes(mlAnalysisMode);
     }
 
     /**
@@ -109,7 +117,11 @@ public class MLTokenDuplicator extends TokenStream
     public MLTokenDuplicator(Locale locale, MLAnalysisMode mlAnalysisMode)
     {
         this.locale = locale;
-        
+        buildPrefixes(mlAnalysisMode);
+    }
+
+    private void buildPrefixes(MLAnalysisMode mlAnalysisMode)
+    {
         Collection<Locale> locales = MLAnalysisMode.getLocales(mlAnalysisMode, locale, false);
         prefixes = new HashSet<String>(locales.size());
         for(Locale toAdd : locales)
@@ -126,6 +138,13 @@ public class MLTokenDuplicator extends TokenStream
                 prefixes.add(builder.toString());
             }
         }
+        prefixChars = new char[prefixes.size()][];
+        int i = 0;
+        for (String prefix : prefixes)
+        {
+            prefixChars[i++] = prefix.toCharArray();
+        }
+        prefixIndex = prefixChars.length;
         if(s_logger.isDebugEnabled())
         {
             s_logger.debug("Locale "+ locale +" using "+mlAnalysisMode+" is "+prefixes);
@@ -150,6 +169,8 @@ public class MLTokenDuplicator extends TokenStream
     {
         source.reset();
         super.reset();
+        prefixIndex = prefixChars.length;
+        done = false;
     }
 
     /* (non-Javadoc)
@@ -162,69 +183,45 @@ public class MLTokenDuplicator extends TokenStream
         super.end();
     }
 
-    private Token next() throws IOException
+    /**
+     * Copy the next source token into the reused buffer.
+     * 
+     * @return false if the source is exhausted
+     */
+    private boolean nextSourceToken() throws IOException
     {
-        Token t = null;
-        if (it == null)
-        {
-            it = buildIterator();
-        }
-        if (it == null)
-        {
-            return null;
-        }
-        if (it.hasNext())
-        {
-            t = it.next();
-            
-            return t;
-        }
-        else
+        if (done || !source.incrementToken())
         {
-            it = null;
-            t = this.next();
-            return t;
+            done = true;
+            return false;
         }
-    }
-
-    private Iterator<Token> buildIterator() throws IOException
-    {
-        // TODO: use incrementToken() somehow?
-        if(!done && source.incrementToken())
+        if (sourceTermAtt == null)
         {
-            CharTermAttribute cta = source.getAttribute(CharTermAttribute.class);
-            OffsetAttribute offsetAtt = source.getAttribute(OffsetAttribute.class);
-            TypeAttribute typeAtt = null;
+            sourceTermAtt = source.getAttribute(CharTermAttribute.class);
+            sourceOffsetAtt = source.getAttribute(OffsetAttribute.class);
             if(source.hasAttribute(TypeAttribute.class))
             {
-                typeAtt = source.getAttribute(TypeAttribute.class);
+                sourceTypeAtt = source.getAttribute(TypeAttribute.class);
             }
-            PositionIncrementAttribute posIncAtt = null;
             if(source.hasAttribute(PositionIncrementAttribute.class))
             {
-                posIncAtt = source.getAttribute(PositionIncrementAttribute.class);
-            }
-            Token token = new Token(cta.buffer(), 0, cta.length(), offsetAtt.startOffset(), offsetAtt.endOffset());
-            if(typeAtt != null)
-            {
-                token.setType(typeAtt.type());
-            }
-            if(posIncAtt != null)
-            {
-                token.setPositionIncrement(posIncAtt.getPositionIncrement());
+                sourcePosIncAtt = source.getAttribute(PositionIncrementAttribute.class);
             }
-            return buildIterator(token);
         }
-        else
+        termLength = sourceTermAtt.length();
+        if (termBuffer.length < termLength)
         {
-            done = true;
-            return buildIterator(null);
+            termBuffer = ArrayUtil.grow(termBuffer, termLength);
         }
-        
-
+        System.arraycopy(sourceTermAtt.buffer(), 0, termBuffer, 0, termLength);
+        startOffset = sourceOffsetAtt.startOffset();
+        endOffset = sourceOffsetAtt.endOffset();
+        type = (sourceTypeAtt == null) ? TypeAttribute.DEFAULT_TYPE : sourceTypeAtt.type();
+        positionIncrement = (sourcePosIncAtt == null) ? 1 : sourcePosIncAtt.getPositionIncrement();
+        prefixIndex = 0;
+        return true;
     }
 
-
     public Iterator<Token> buildIterator(Token token)
     {
         if (token == null)
@@ -256,16 +253,24 @@ public class MLTokenDuplicator extends TokenStream
     {
         clearAttributes();
         
-        Token next = next();
-        if (next == null)
+        // With no prefixes at all this drains the source and emits nothing
+        while (prefixIndex >= prefixChars.length)
         {
-            return false;
+            if (!nextSourceToken())
+            {
+                return false;
+            }
         }
         
-        termAtt.copyBuffer(next.buffer(), 0, next.length());
-        offsetAtt.setOffset(next.startOffset(), next.endOffset());
-        typeAtt.setType(next.type());
-        posIncAtt.setPositionIncrement(next.getPositionIncrement());
+        char[] prefix = prefixChars[prefixIndex];
+        char[] buffer = termAtt.resizeBuffer(prefix.length + termLength);
+        System.arraycopy(prefix, 0, buffer, 0, prefix.length);
+        System.arraycopy(termBuffer, 0, buffer, prefix.length, termLength);
+        termAtt.setLength(prefix.length + termLength);
+        offsetAtt.setOffset(startOffset, endOffset);
+        typeAtt.setType(type);
+        posIncAtt.setPositionIncrement(prefixIndex == 0 ? positionIncrement : 0);
+        prefixIndex++;
         return true;
         
     }
@@ -27,17 +27,13 @@ package org.alfresco.repo.search.impl.lucene.analysis;
 
 import java.io.IOException;
 import java.io.Reader;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.util.Iterator;
-import java.util.LinkedList;
 
-import org.apache.lucene.analysis.Token;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
 import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
+import org.apache.lucene.util.ArrayUtil;
 
 /**
  * @author andyh TODO To change the template for this generated type comment go to Window - Preferences - Java - Code
@@ -91,13 +87,54 @@ public class PathTokenFilter extends Tokenizer
 
     char nsPrefixDelimiter = ':';
 
-    LinkedList<Token> tokens = new LinkedList<Token>();
+    private static final String[] TOKEN_TYPES = new String[] { TOKEN_TYPE_PATH_SEP, TOKEN_TYPE_PATH_ELEMENT_NAME,
+            TOKEN_TYPE_PATH_ELEMENT_NAMESPACE, TOKEN_TYPE_PATH_ELEMENT_NAMESPACE_PREFIX };
 
-    Iterator<Token> it = null;
+    private static final int TYPE_PATH_SEP = 0;
+
+    private static final int TYPE_PATH_ELEMENT_NAME = 1;
+
+    private static final int TYPE_PATH_ELEMENT_NAMESPACE = 2;
+
+    private static final int TYPE_PATH_ELEMENT_NAMESPACE_PREFIX = 3;
+
+    /* Each buffered token is: text start and length in pathBuffer, start offset, end offset, type */
+    private static final int TOKEN_DATA_SIZE = 5;
+
+    /*
+     * The tokens for the current path. Only one path is held at a time; the first token is always the path length,
+     * which is only known once the whole path has been read.
+     */
+    private int[] tokenData = new int[16 * TOKEN_DATA_SIZE];
+
+    private int tokenCount = 0;
+
+    private int tokenIndex = 0;
+
+    private int pathLength = 0;
+
+    /* The text of the current path's raw elements and any constant token text they need */
+    private char[] pathBuffer = new char[128];
+
+    private int pathBufferLength = 0;
+
+    private final char[] countBuffer = new char[INTEGER_FORMAT.length()];
+
+    private final char[] ioBuffer = new char[1024];
+
+    private int ioBufferPosition = 0;
+
+    private int ioBufferLength = 0;
+
+    private int elementStartOffset;
+
+    private int elementEndOffset;
 
     private boolean includeNamespace;
 
     private boolean endOfStream = false;
+
+    private boolean finished = false;
     
     public PathTokenFilter(Reader in, char pathSeparator, String separatorTokenText, String noNsTokenText,
             char nsStartDelimiter, char nsEndDelimiter, boolean includeNameSpace)
@@ -115,171 +152,197 @@ public class PathTokenFilter extends Tokenizer
 
     }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see org.apache.lucene.analysis.TokenStream#next()
+    /**
+     * Read the next path, up to and including its separator, into the token buffer.
      */
-
-    public Token next() throws IOException
+    private void readPath() throws IOException
     {
-        Token nextToken;
-        if (it == null)
-        {
-            buildTokenListAndIterator();
-        }
-        if (it.hasNext())
-        {
-            nextToken = it.next();
-        }
-        else
-        {
-            nextToken = null;
-        }
-        return nextToken;
-    }
+        tokenCount = 1; // the path length goes first
+        tokenIndex = 0;
+        pathLength = 0;
+        pathBufferLength = 0;
 
-    // TODO: temporary replacement for Token.termText()
-    private String termText(Token token)
-    {
-        return new String(token.buffer(), 0, token.length());
-    }
-    
-    private void buildTokenListAndIterator() throws IOException
-    {
-        NumberFormat nf = new DecimalFormat(INTEGER_FORMAT);
-
-        // Could optimise to read each path ata time - not just all paths
-        int insertCountAt = 0;
-        int lengthCounter = 0;
-        Token t;
-        Token pathSplitToken = null;
-        Token nameToken = null;
-        Token countToken = null;
-        Token namespaceToken = null;
-        while ((t = nextToken()) != null)
+        while (!endOfStream)
         {
-            String text = termText(t);
+            int textStart = pathBufferLength;
+            readElement();
+            int textLength = pathBufferLength - textStart;
 
-            if (text.length() == 0)
+            if (textLength == 0)
             {
                 continue; // Skip if we find // or /; or ;; etc
             }
 
-            if (text.charAt(text.length() - 1) == pathSeparator)
+            boolean endOfPath = false;
+            if (pathBuffer[textStart + textLength - 1] == pathSeparator)
             {
-                text = text.substring(0, text.length() - 1);
-                pathSplitToken = new Token(separatorTokenText, t.startOffset(), t.endOffset(), TOKEN_TYPE_PATH_SEP);
-                pathSplitToken.setPositionIncrement(1);
-
+                textLength--;
+                endOfPath = true;
             }
 
             int split = -1;
             boolean isPrefix = false;
 
-            if ((text.length() > 0) && (text.charAt(0) == nsStartDelimiter))
+            if ((textLength > 0) && (pathBuffer[textStart] == nsStartDelimiter))
             {
-                split = text.indexOf(nsEndDelimiter);
+                split = indexOf(textStart, textLength, nsEndDelimiter);
             }
 
             if (split == -1)
             {
-                split = text.indexOf(nsPrefixDelimiter);
+                split = indexOf(textStart, textLength, nsPrefixDelimiter);
                 isPrefix = true;
             }
 
+            int start = elementStartOffset;
+            int end = elementEndOffset;
             if (split == -1)
             {
-                namespaceToken = new Token(noNsTokenText, t.startOffset(), t.startOffset(),
-                        TOKEN_TYPE_PATH_ELEMENT_NAMESPACE);
-                nameToken = new Token(text, t.startOffset(), t.endOffset(), TOKEN_TYPE_PATH_ELEMENT_NAME);
-
+                if (includeNamespace)
+                {
+                    addNoNamespaceToken(start);
+                }
+                addToken(textStart, textLength, start, end, TYPE_PATH_ELEMENT_NAME);
             }
             else
             {
+                int nsStart;
+                int nsLength;
+                int nsType;
                 if (isPrefix)
                 {
-                    namespaceToken = new Token(text.substring(0, split), t.startOffset(), t.startOffset() + split,
-                            TOKEN_TYPE_PATH_ELEMENT_NAMESPACE_PREFIX);
-                    nameToken = new Token(text.substring(split + 1), t.startOffset() + split + 1, t.endOffset(),
-                            TOKEN_TYPE_PATH_ELEMENT_NAME);
+                    nsStart = textStart;
+                    nsLength = split;
+                    nsType = TYPE_PATH_ELEMENT_NAMESPACE_PREFIX;
                 }
                 else
                 {
-                    namespaceToken = new Token(text.substring(nsStartDelimiterLength,
-                            (split + nsEndDelimiterLength - 1)), t.startOffset(), t.startOffset() + split,
-                            TOKEN_TYPE_PATH_ELEMENT_NAMESPACE);
-                    nameToken = new Token(text.substring(split + nsEndDelimiterLength), t.startOffset()
-                            + split + nsEndDelimiterLength, t.endOffset(), TOKEN_TYPE_PATH_ELEMENT_NAME);
+                    nsStart = textStart + nsStartDelimiterLength;
+                    nsLength = split + nsEndDelimiterLength - 1 - nsStartDelimiterLength;
+                    nsType = TYPE_PATH_ELEMENT_NAMESPACE;
                 }
-            }
-
-            namespaceToken.setPositionIncrement(1);
-            nameToken.setPositionIncrement(1);
-
-            if (includeNamespace)
-            {
-                if (termText(namespaceToken).equals(""))
+                if (includeNamespace)
                 {
-                    namespaceToken = new Token(noNsTokenText, t.startOffset(), t.startOffset(),
-                            TOKEN_TYPE_PATH_ELEMENT_NAMESPACE);
-                    namespaceToken.setPositionIncrement(1);
+                    if (nsLength == 0)
+                    {
+                        addNoNamespaceToken(start);
+                    }
+                    else
+                    {
+                        addToken(nsStart, nsLength, start, start + split, nsType);
+                    }
                 }
+                int nameStart = split + (isPrefix ? 1 : nsEndDelimiterLength);
+                addToken(textStart + nameStart, textLength - nameStart, start + nameStart, end,
+                        TYPE_PATH_ELEMENT_NAME);
+            }
 
-                tokens.add(namespaceToken);
+            pathLength++;
 
+            if (endOfPath)
+            {
+                setPathLengthOffsets(start, end);
+                addToken(appendToPath(separatorTokenText), separatorTokenText.length(), start, end, TYPE_PATH_SEP);
+                return;
             }
-            tokens.add(nameToken);
+        }
 
-            lengthCounter++;
+        // The last path is always closed, even if it is empty
+        setPathLengthOffsets(0, 0);
+        addToken(appendToPath(separatorTokenText), separatorTokenText.length(), 0, 0, TYPE_PATH_SEP);
+        finished = true;
+    }
 
-            if (pathSplitToken != null)
+    private int indexOf(int textStart, int textLength, char c)
+    {
+        for (int i = 0; i < textLength; i++)
+        {
+            if (pathBuffer[textStart + i] == c)
             {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-                String countString = nf.format(lengthCounter);
-                countToken = new Token(countString, t.startOffset(), t.endOffset(), TOKEN_TYPE_PATH_SEP);
-                countToken.setPositionIncrement(1);
-
-                tokens.add(insertCountAt, countToken);
-                tokens.add(pathSplitToken);
+    private void addNoNamespaceToken(int offset)
+    {
+        addToken(appendToPath(noNsTokenText), noNsTokenText.length(), offset, offset, TYPE_PATH_ELEMENT_NAMESPACE);
+    }
 
-                lengthCounter = 0;
-                insertCountAt = tokens.size();
+    private void setPathLengthOffsets(int start, int end)
+    {
+        tokenData[2] = start;
+        tokenData[3] = end;
+        tokenData[4] = TYPE_PATH_SEP;
+    }
 
-                pathSplitToken = null;
-            }
+    private void addToken(int textStart, int textLength, int start, int end, int type)
+    {
+        int base = tokenCount * TOKEN_DATA_SIZE;
+        if (base + TOKEN_DATA_SIZE > tokenData.length)
+        {
+            tokenData = ArrayUtil.grow(tokenData, base + TOKEN_DATA_SIZE);
         }
+        tokenData[base] = textStart;
+        tokenData[base + 1] = textLength;
+        tokenData[base + 2] = start;
+        tokenData[base + 3] = end;
+        tokenData[base + 4] = type;
+        tokenCount++;
+    }
 
-        String countString = nf.format(lengthCounter);
-        countToken = new Token(countString, 0, 0, TOKEN_TYPE_PATH_SEP);
-        countToken.setPositionIncrement(1);
+    private int appendToPath(String text)
+    {
+        int start = pathBufferLength;
+        ensurePathCapacity(pathBufferLength + text.length());
+        text.getChars(0, text.length(), pathBuffer, pathBufferLength);
+        pathBufferLength += text.length();
+        return start;
+    }
 
-        tokens.add(insertCountAt, countToken);
+    private void appendToPath(char c)
+    {
+        ensurePathCapacity(pathBufferLength + 1);
+        pathBuffer[pathBufferLength++] = c;
+    }
 
-        if ((tokens.size() == 0) || !(termText(tokens.get(tokens.size() - 1)).equals(TOKEN_TYPE_PATH_SEP)))
+    private void ensurePathCapacity(int size)
+    {
+        if (size > pathBuffer.length)
         {
-            pathSplitToken = new Token(separatorTokenText, 0, 0, TOKEN_TYPE_PATH_SEP);
-            pathSplitToken.setPositionIncrement(1);
-            tokens.add(pathSplitToken);
+            pathBuffer = ArrayUtil.grow(pathBuffer, size);
         }
-
-        it = tokens.iterator();
     }
 
     int readerPosition = 0;
 
-    private Token nextToken() throws IOException
+    private int read() throws IOException
     {
-        if (endOfStream)
+        while (ioBufferPosition >= ioBufferLength)
         {
-            return null;
+            ioBufferLength = input.read(ioBuffer, 0, ioBuffer.length);
+            ioBufferPosition = 0;
+            if (ioBufferLength == -1)
+            {
+                ioBufferLength = 0;
+                return -1;
+            }
         }
-        StringBuilder buffer = new StringBuilder(64);
+        return ioBuffer[ioBufferPosition++];
+    }
+
+    /**
+     * Append the next raw path element to the path buffer and set its offsets.
+     */
+    private void readElement() throws IOException
+    {
+        int textStart = pathBufferLength;
         boolean inNameSpace = false;
         int start = readerPosition;
         int current;
         char c;
-        while ((current = input.read()) != -1)
+        while ((current = read()) != -1)
         {
             c = (char) current;
             readerPosition++;
@@ -293,15 +356,19 @@ public class PathTokenFilter extends Tokenizer
             }
             else if (!inNameSpace && (c == '/'))
             {
-                return new Token(buffer.toString(), start, readerPosition - 1, "QNAME");
+                elementStartOffset = start;
+                elementEndOffset = readerPosition - 1;
+                return;
             }
             else if (!inNameSpace && (c == ';'))
             {
-                buffer.append(c);
-                return new Token(buffer.toString(), start, readerPosition, "LASTQNAME");
+                appendToPath(c);
+                elementStartOffset = start;
+                elementEndOffset = readerPosition;
+                return;
             }
 
-            buffer.append(c);
+            appendToPath(c);
         }
         int end = readerPosition - 1;
         // Stop the final token being returned with an end before the start.
@@ -312,11 +379,13 @@ public class PathTokenFilter extends Tokenizer
         endOfStream = true;
         if (!inNameSpace)
         {
-            return new Token(buffer.toString(), start, end, "QNAME");
+            elementStartOffset = start;
+            elementEndOffset = end;
         }
         else
         {
-            throw new IllegalStateException("QName terminated incorrectly: " + buffer.toString());
+            throw new IllegalStateException("QName terminated incorrectly: "
+                    + new String(pathBuffer, textStart, pathBufferLength - textStart));
         }
 
     }
@@ -326,27 +395,57 @@ public class PathTokenFilter extends Tokenizer
     {
         clearAttributes();
         
-        Token next = next();
-        if (next == null)
+        while (tokenIndex >= tokenCount)
         {
-            return false;
+            if (finished)
+            {
+                return false;
+            }
+            readPath();
         }
         
-        termAtt.copyBuffer(next.buffer(), 0, next.length());
-        offsetAtt.setOffset(correctOffset(next.startOffset()), correctOffset(next.endOffset()));
-        typeAtt.setType(next.type());
-        posIncAtt.setPositionIncrement(next.getPositionIncrement());
+        int base = tokenIndex * TOKEN_DATA_SIZE;
+        if (tokenIndex == 0)
+        {
+            formatPathLength();
+            termAtt.copyBuffer(countBuffer, 0, countBuffer.length);
+        }
+        else
+        {
+            termAtt.copyBuffer(pathBuffer, tokenData[base], tokenData[base + 1]);
+        }
+        offsetAtt.setOffset(correctOffset(tokenData[base + 2]), correctOffset(tokenData[base + 3]));
+        typeAtt.setType(TOKEN_TYPES[tokenData[base + 4]]);
+        posIncAtt.setPositionIncrement(1);
+        tokenIndex++;
         return true;
     }
 
+    /**
+     * Zero pad the path length as {@link #INTEGER_FORMAT} would.
+     */
+    private void formatPathLength()
+    {
+        int value = pathLength;
+        for (int i = countBuffer.length - 1; i >= 0; i--)
+        {
+            countBuffer[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+    }
+
     @Override
     public void reset() throws IOException
     {
         super.reset();
-        tokens.clear();
-        it = null;
+        tokenCount = 0;
+        tokenIndex = 0;
+        pathBufferLength = 0;
+        ioBufferPosition = 0;
+        ioBufferLength = 0;
         readerPosition = 0;
         endOfStream = false;
+        finished = false;
     }
 
     @Override
@@ -356,4 +455,4 @@ public class PathTokenFilter extends Tokenizer
         int finalOffset = correctOffset(readerPosition);
         offsetAtt.setOffset(finalOffset, finalOffset);
     }
-}
\ No newline at end of file
+}
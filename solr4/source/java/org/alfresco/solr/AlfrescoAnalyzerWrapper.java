@@ -27,6 +27,7 @@ package org.alfresco.solr;
 
 import org.alfresco.repo.search.MLAnalysisMode;
 import org.alfresco.repo.search.impl.lucene.analysis.MLAnalayser;
+import org.alfresco.repo.search.impl.lucene.analysis.MLAnalyserResolver;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.AnalyzerWrapper;
 import org.apache.solr.schema.IndexSchema;
@@ -50,6 +51,8 @@ public class AlfrescoAnalyzerWrapper extends AnalyzerWrapper
     
     Mode mode;
     
+    MLAnalyserResolver resolver;
+    
     /**
      * @param schema
      * @param index 
@@ -59,6 +62,7 @@ public class AlfrescoAnalyzerWrapper extends AnalyzerWrapper
         super(Analyzer.PER_FIELD_REUSE_STRATEGY);
         this.schema = schema;
         this.mode = mode;
+        this.resolver = new MLAnalyserResolver(schema, mode);
     }
     
     
@@ -82,11 +86,11 @@ public class AlfrescoAnalyzerWrapper extends AnalyzerWrapper
     {
         if(fieldName.contains("l_@{"))
         {
-            return new MLAnalayser(MLAnalysisMode.EXACT_LANGUAGE, schema, mode);
+            return new MLAnalayser(MLAnalysisMode.EXACT_LANGUAGE, resolver);
         }
         else if(fieldName.contains("lt@{"))
         {
-             return new MLAnalayser(MLAnalysisMode.EXACT_LANGUAGE, schema, mode);
+             return new MLAnalayser(MLAnalysisMode.EXACT_LANGUAGE, resolver);
         }
         else
         {
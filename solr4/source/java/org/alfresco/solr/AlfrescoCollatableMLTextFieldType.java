@@ -27,17 +27,24 @@ package org.alfresco.solr;
 
 import java.io.IOException;
 import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import org.alfresco.service.cmr.repository.MLText;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.FieldComparator;
 import org.apache.lucene.search.FieldComparatorSource;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.schema.StrField;
 import org.springframework.extensions.surf.util.I18NUtil;
@@ -48,7 +55,44 @@ import org.springframework.extensions.surf.util.I18NUtil;
  */
 public class AlfrescoCollatableMLTextFieldType extends StrField
 {
-    
+    /** Gets the value sorted on from the indexed value, see {@link #getSortValue(String, Locale)} */
+    static final CollationKeySortFieldComparator.SortValues SORT_VALUES = new CollationKeySortFieldComparator.SortValues()
+    {
+        @Override
+        public String getSortValue(String indexedValue, Locale locale)
+        {
+            return AlfrescoCollatableMLTextFieldType.getSortValue(indexedValue, locale);
+        }
+    };
+
+    /** The locales collation keys are indexed for, from the comma separated collationLocales argument */
+    private Set<Locale> collationLocales = Collections.emptySet();
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.schema.StrField#init(org.apache.solr.schema.IndexSchema, java.util.Map)
+     */
+    @Override
+    protected void init(IndexSchema schema, Map<String, String> args)
+    {
+        collationLocales = CollationKeySortFieldComparator.parseLocales(args.remove("collationLocales"));
+        super.init(schema, args);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.schema.StrField#createFields(org.apache.solr.schema.SchemaField, java.lang.Object, float)
+     */
+    @Override
+    public List<IndexableField> createFields(SchemaField field, Object value, float boost)
+    {
+        List<IndexableField> fields = super.createFields(field, value, boost);
+        if (collationLocales.isEmpty() || (value == null))
+        {
+            return fields;
+        }
+        fields = new ArrayList<IndexableField>(fields);
+        CollationKeySortFieldComparator.addCollationKeys(fields, field.getName(), value.toString(), collationLocales, SORT_VALUES);
+        return fields;
+    }
 
     /* (non-Javadoc)
      * @see org.apache.solr.schema.StrField#getSortField(org.apache.solr.schema.SchemaField, boolean)
@@ -56,7 +100,7 @@ public class AlfrescoCollatableMLTextFieldType extends StrField
     @Override
     public SortField getSortField(SchemaField field, boolean reverse)
     {
-        return new SortField(field.getName(), new MLTextSortFieldComparatorSource(), reverse);
+        return new SortField(field.getName(), new MLTextSortFieldComparatorSource(collationLocales), reverse);
     }
 
 
@@ -81,8 +125,74 @@ public class AlfrescoCollatableMLTextFieldType extends StrField
 
 
     
+    /**
+     * @param withLocale the indexed sort field value
+     * @param collatorLocale the sort locale
+     * @return the value sorted on, the closest to the sort locale
+     */
+    public static String getSortValue(String withLocale, Locale collatorLocale)
+    {
+        // split strin into MLText object
+        if (withLocale == null)
+        {
+            return withLocale;
+        }
+        else if (withLocale.startsWith("\u0000"))
+        {
+            MLText mlText = new MLText();
+            String[] parts = withLocale.split("\u0000");
+            for (int i = 0; (i + 2) <= parts.length; i += 3)
+            {
+                Locale locale = null;
+                String[] localeParts = parts[i + 1].split("_");
+                if (localeParts.length == 1)
+                {
+                    locale = new Locale(localeParts[0]);
+                }
+                else if (localeParts.length == 2)
+                {
+                    locale = new Locale(localeParts[0], localeParts[1]);
+                }
+                else if (localeParts.length == 3)
+                {
+                    locale = new Locale(localeParts[0], localeParts[1], localeParts[2]);
+                }
+                if (locale != null)
+                {
+                    if (i + 2 == parts.length)
+                    {
+                        mlText.addValue(locale, "");
+                    }
+                    else
+                    {
+                        mlText.addValue(locale, parts[i + 2]);
+                    }
+                }
+            }
+            return mlText.getClosestValue(collatorLocale);
+        }
+        else
+        {
+            return withLocale;
+        }
+    }
+
+    /**
+     * Compares collation keys for the locales they are indexed for, and values otherwise
+     */
     public static class MLTextSortFieldComparatorSource extends FieldComparatorSource
     {
+        private final Set<Locale> collationLocales;
+
+        public MLTextSortFieldComparatorSource()
+        {
+            this(Collections.<Locale>emptySet());
+        }
+
+        public MLTextSortFieldComparatorSource(Set<Locale> collationLocales)
+        {
+            this.collationLocales = collationLocales;
+        }
 
         /*
          * (non-Javadoc)
@@ -91,7 +201,10 @@ public class AlfrescoCollatableMLTextFieldType extends StrField
         @Override
         public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) throws IOException
         {
-            return new MLTextSortFieldComparator(numHits, fieldname, I18NUtil.getLocale());
+            Locale locale = I18NUtil.getLocale();
+            FieldComparator<String> comparator = CollationKeySortFieldComparator.newComparator(numHits, fieldname, locale,
+                        collationLocales, SORT_VALUES);
+            return (comparator != null) ? comparator : new MLTextSortFieldComparator(numHits, fieldname, locale);
         }
 
     }
@@ -162,51 +275,7 @@ public class AlfrescoCollatableMLTextFieldType extends StrField
                 return null;
             }
             
-            String withLocale = term.utf8ToString();
-            
-            // split strin into MLText object
-            if (withLocale == null)
-            {
-                return withLocale;
-            }
-            else if (withLocale.startsWith("\u0000"))
-            {
-                MLText mlText = new MLText();
-                String[] parts = withLocale.split("\u0000");
-                for (int i = 0; (i + 2) <= parts.length; i += 3)
-                {
-                    Locale locale = null;
-                    String[] localeParts = parts[i + 1].split("_");
-                    if (localeParts.length == 1)
-                    {
-                        locale = new Locale(localeParts[0]);
-                    }
-                    else if (localeParts.length == 2)
-                    {
-                        locale = new Locale(localeParts[0], localeParts[1]);
-                    }
-                    else if (localeParts.length == 3)
-                    {
-                        locale = new Locale(localeParts[0], localeParts[1], localeParts[2]);
-                    }
-                    if (locale != null)
-                    {
-                        if (i + 2 == parts.length)
-                        {
-                            mlText.addValue(locale, "");
-                        }
-                        else
-                        {
-                            mlText.addValue(locale, parts[i + 2]);
-                        }
-                    }
-                }
-                return mlText.getClosestValue(collatorLocale);
-            }
-            else
-            {
-                return withLocale;
-            }
+            return getSortValue(term.utf8ToString(), collatorLocale);
         }
 
         /* (non-Javadoc)
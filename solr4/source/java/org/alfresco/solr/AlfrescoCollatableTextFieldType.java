@@ -27,11 +27,17 @@ package org.alfresco.solr;
 
 import java.io.IOException;
 import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 import org.alfresco.service.cmr.repository.MLText;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.search.FieldCache;
 import org.apache.lucene.search.FieldComparator;
 import org.apache.lucene.search.FieldComparatorSource;
@@ -40,6 +46,7 @@ import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.CharsRef;
 import org.apache.lucene.util.UnicodeUtil;
+import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.schema.StrField;
 import org.springframework.extensions.surf.util.I18NUtil;
@@ -50,7 +57,44 @@ import org.springframework.extensions.surf.util.I18NUtil;
  */
 public class AlfrescoCollatableTextFieldType extends StrField
 {
-    
+    /** Gets the value sorted on from the indexed value, see {@link #getSortValue(String, Locale)} */
+    static final CollationKeySortFieldComparator.SortValues SORT_VALUES = new CollationKeySortFieldComparator.SortValues()
+    {
+        @Override
+        public String getSortValue(String indexedValue, Locale locale)
+        {
+            return AlfrescoCollatableTextFieldType.getSortValue(indexedValue, locale);
+        }
+    };
+
+    /** The locales collation keys are indexed for, from the comma separated collationLocales argument */
+    private Set<Locale> collationLocales = Collections.emptySet();
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.schema.StrField#init(org.apache.solr.schema.IndexSchema, java.util.Map)
+     */
+    @Override
+    protected void init(IndexSchema schema, Map<String, String> args)
+    {
+        collationLocales = CollationKeySortFieldComparator.parseLocales(args.remove("collationLocales"));
+        super.init(schema, args);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.schema.StrField#createFields(org.apache.solr.schema.SchemaField, java.lang.Object, float)
+     */
+    @Override
+    public List<IndexableField> createFields(SchemaField field, Object value, float boost)
+    {
+        List<IndexableField> fields = super.createFields(field, value, boost);
+        if (collationLocales.isEmpty() || (value == null))
+        {
+            return fields;
+        }
+        fields = new ArrayList<IndexableField>(fields);
+        CollationKeySortFieldComparator.addCollationKeys(fields, field.getName(), value.toString(), collationLocales, SORT_VALUES);
+        return fields;
+    }
 
     /* (non-Javadoc)
      * @see org.apache.solr.schema.StrField#getSortField(org.apache.solr.schema.SchemaField, boolean)
@@ -58,7 +102,7 @@ public class AlfrescoCollatableTextFieldType extends StrField
     @Override
     public SortField getSortField(SchemaField field, boolean reverse)
     {
-        return new SortField(field.getName(), new TextSortFieldComparatorSource(), reverse);
+        return new SortField(field.getName(), new TextSortFieldComparatorSource(collationLocales), reverse);
     }
 
     
@@ -86,8 +130,45 @@ public class AlfrescoCollatableTextFieldType extends StrField
 
 
 
+    /**
+     * @param withLocale the indexed sort field value
+     * @param locale the sort locale
+     * @return the value sorted on
+     */
+    public static String getSortValue(String withLocale, Locale locale)
+    {
+        // split strin into MLText object
+        if (withLocale == null)
+        {
+            return withLocale;
+        }
+        else if (withLocale.startsWith("\u0000"))
+        {
+            String[] parts = withLocale.split("\u0000");
+            return parts[1];
+        }
+        else
+        {
+            return withLocale;
+        }
+    }
+
+    /**
+     * Compares collation keys for the locales they are indexed for, and values otherwise
+     */
     public static class TextSortFieldComparatorSource extends FieldComparatorSource
     {
+        private final Set<Locale> collationLocales;
+
+        public TextSortFieldComparatorSource()
+        {
+            this(Collections.<Locale>emptySet());
+        }
+
+        public TextSortFieldComparatorSource(Set<Locale> collationLocales)
+        {
+            this.collationLocales = collationLocales;
+        }
 
         /*
          * (non-Javadoc)
@@ -96,7 +177,10 @@ public class AlfrescoCollatableTextFieldType extends StrField
         @Override
         public FieldComparator newComparator(String fieldname, int numHits, int sortPos, boolean reversed) throws IOException
         {
-            return new TextSortFieldComparator(numHits, fieldname, I18NUtil.getLocale());
+            Locale locale = I18NUtil.getLocale();
+            FieldComparator<String> comparator = CollationKeySortFieldComparator.newComparator(numHits, fieldname, locale,
+                        collationLocales, SORT_VALUES);
+            return (comparator != null) ? comparator : new TextSortFieldComparator(numHits, fieldname, locale);
         }
 
     }
@@ -168,22 +252,7 @@ public class AlfrescoCollatableTextFieldType extends StrField
                 return null;
             }
             
-            String withLocale = term.utf8ToString();
-            
-            // split strin into MLText object
-            if (withLocale == null)
-            {
-                return withLocale;
-            }
-            else if (withLocale.startsWith("\u0000"))
-            {
-                String[] parts = withLocale.split("\u0000");
-                return parts[1];
-            }
-            else
-            {
-                return withLocale;
-            }
+            return getSortValue(term.utf8ToString(), collatorLocale);
         }
 
         /* (non-Javadoc)
@@ -36,6 +36,7 @@ import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +64,7 @@ import org.alfresco.util.shard.ExplicitShardingPolicy;
 import org.apache.commons.codec.EncoderException;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.log4j.Level;
+import org.apache.lucene.util.OpenBitSet;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.CoreAdminParams;
 import org.apache.solr.common.params.SolrParams;
@@ -92,6 +94,11 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
     private static final String ARG_ACLID = "aclid";
     private static final String ARG_NODEID = "nodeid";
     private static final String ARG_QUERY = "query";
+    private static final String ARG_DELETE_ORPHANS = "deleteOrphans";
+    private static final String ARG_THREADS = "threads";
+    private static final String ARG_TENANT = "tenant";
+    private static final String ARG_MAX_FILES_PER_SECOND = "maxFilesPerSecond";
+    private static final String ARG_MIN_ORPHAN_AGE = "minOrphanAgeSeconds";
     
     
     private SolrTrackerScheduler scheduler = null;
@@ -321,6 +328,69 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
                     }
                 }
             }
+            else if (a.equalsIgnoreCase("CHECKCONTENTSTORE"))
+            {
+                // The nodes of all cores sharing a content store, read once for all the cores checked
+                Map<String, Map<String, OpenBitSet>> indexedByStore = new HashMap<String, Map<String, OpenBitSet>>();
+                if (cname != null)
+                {
+                    actionCHECKCONTENTSTORE(rsp, params, cname, indexedByStore);
+                }
+                else
+                {
+                    for (String coreName : getTrackerRegistry().getCoreNames())
+                    {
+                        actionCHECKCONTENTSTORE(rsp, params, coreName, indexedByStore);
+                    }
+                }
+            }
+            else if (a.equalsIgnoreCase("REINDEXFROMCACHE"))
+            {
+                if (cname != null)
+                {
+                    actionREINDEXFROMCACHE(rsp, params, cname);
+                }
+                else
+                {
+                    for (String coreName : getTrackerRegistry().getCoreNames())
+                    {
+                        actionREINDEXFROMCACHE(rsp, params, coreName);
+                    }
+                }
+            }
+            else if (a.equalsIgnoreCase("MIGRATECONTENTSTORE"))
+            {
+                // The content store is shared by all cores, so any core will do
+                Iterator<String> coreNames = getTrackerRegistry().getCoreNames().iterator();
+                String coreName = cname != null ? cname : (coreNames.hasNext() ? coreNames.next() : null);
+                if (coreName != null)
+                {
+                    actionMIGRATECONTENTSTORE(rsp, params, coreName);
+                }
+            }
+            else if (a.equalsIgnoreCase("PURGETENANT"))
+            {
+                String tenant = params.get(ARG_TENANT);
+                if (tenant == null || tenant.length() == 0)
+                {
+                    throw new AlfrescoRuntimeException("The tenant parameter is required");
+                }
+                if (cname != null)
+                {
+                    // The cached documents are shared, so they only go if no other core still holds the tenant
+                    actionPURGETENANT(tenant, cname, !isTenantOnOtherCores(tenant, cname));
+                }
+                else
+                {
+                    Set<String> coreNames = getTrackerRegistry().getCoreNames();
+                    int remaining = coreNames.size();
+                    for (String coreName : coreNames)
+                    {
+                        // Only drop the cached documents once the tenant has gone from every core
+                        actionPURGETENANT(tenant, coreName, --remaining == 0);
+                    }
+                }
+            }
             else if (a.equalsIgnoreCase("SUMMARY"))
             {
                 if (cname != null)
@@ -1360,6 +1430,131 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
         }
     }
 
+    /**
+     * Finds cached documents without a node in any core sharing the content store (optionally deleting them) and
+     * node documents without a cached document, which are queued for reindex.
+     */
+    private void actionCHECKCONTENTSTORE(SolrQueryResponse rsp, SolrParams params, String coreName,
+                Map<String, Map<String, OpenBitSet>> indexedByStore) throws IOException, InterruptedException
+    {
+        InformationServer srv = informationServers.get(coreName);
+        boolean deleteOrphans = params.getBool(ARG_DELETE_ORPHANS, false);
+        int threads = params.getInt(ARG_THREADS, 2);
+        int maxFilesPerSecond = params.getInt(ARG_MAX_FILES_PER_SECOND, 1000);
+        long minOrphanAgeMillis = params.getInt(ARG_MIN_ORPHAN_AGE, 3600) * 1000L;
+
+        String storeRoot = srv.getContentStoreRoot();
+        if (!indexedByStore.containsKey(storeRoot))
+        {
+            indexedByStore.put(storeRoot, getIndexedNodeDbIds(storeRoot));
+        }
+        Map<String, OpenBitSet> indexedOnNode = indexedByStore.get(storeRoot);
+        if (deleteOrphans && indexedOnNode == null)
+        {
+            log.warn("Not deleting orphans for core " + coreName + " as the nodes of every core sharing its content store could not be read");
+        }
+
+        ContentStoreReport report = srv.checkContentStore(indexedOnNode, deleteOrphans, threads, maxFilesPerSecond, minOrphanAgeMillis);
+
+        MetadataTracker tracker = trackerRegistry.getTrackerForCore(coreName, MetadataTracker.class);
+        IOpenBitSet missing = report.getMissingNodes();
+        long current = -1;
+        while ((current = missing.nextSetBit(current + 1)) != -1)
+        {
+            tracker.addNodeToReindex(current);
+        }
+
+        NamedList<Object> coreReport = new SimpleOrderedMap<Object>();
+        coreReport.add("Nodes in index", report.getNodesInIndex());
+        coreReport.add("Files scanned", report.getFilesScanned());
+        coreReport.add("Orphans checked against all cores", report.isOrphansCheckedOnNode());
+        coreReport.add("Orphan files", report.getOrphanFiles());
+        coreReport.add("Orphan files deleted", report.getOrphanFilesDeleted());
+        coreReport.add("Orphan file sample", report.getOrphanFileNames());
+        coreReport.add("Missing cached docs queued for reindex", missing.cardinality());
+        coreReport.add("Time (ms)", report.getElapsedMillis());
+        rsp.add(coreName, coreReport);
+    }
+
+    /**
+     * Read the nodes of every core caching its documents in the given content store.
+     * 
+     * @return the DB IDs by tenant, or <tt>null</tt> if the nodes of one of the cores could not be read
+     */
+    private Map<String, OpenBitSet> getIndexedNodeDbIds(String storeRoot) throws IOException
+    {
+        Map<String, OpenBitSet> indexedOnNode = new HashMap<String, OpenBitSet>();
+        for (InformationServer srv : informationServers.values())
+        {
+            if (!storeRoot.equals(srv.getContentStoreRoot()))
+            {
+                continue;
+            }
+            Map<String, OpenBitSet> indexed = srv.getIndexedNodeDbIds();
+            if (indexed == null)
+            {
+                return null;
+            }
+            ContentStoreChecker.addAll(indexedOnNode, indexed);
+        }
+        return indexedOnNode;
+    }
+
+    /**
+     * Rebuilds the index of a core from the cached documents of the nodes it tracks, even if the index is empty.
+     */
+    private void actionREINDEXFROMCACHE(SolrQueryResponse rsp, SolrParams params, String coreName)
+                throws IOException, InterruptedException
+    {
+        InformationServer srv = informationServers.get(coreName);
+        int threads = params.getInt(ARG_THREADS, Runtime.getRuntime().availableProcessors());
+
+        long start = System.currentTimeMillis();
+        long reindexed = srv.reindexFromContentStore(threads);
+
+        NamedList<Object> coreReport = new SimpleOrderedMap<Object>();
+        coreReport.add("Cached docs reindexed", reindexed);
+        coreReport.add("Time (ms)", System.currentTimeMillis() - start);
+        rsp.add(coreName, coreReport);
+    }
+
+    private void actionMIGRATECONTENTSTORE(SolrQueryResponse rsp, SolrParams params, String coreName)
+                throws IOException, InterruptedException
+    {
+        InformationServer srv = informationServers.get(coreName);
+        int threads = params.getInt(ARG_THREADS, 2);
+
+        long start = System.currentTimeMillis();
+        long moved = srv.migrateContentStore(threads);
+
+        NamedList<Object> report = new SimpleOrderedMap<Object>();
+        report.add("Files moved", moved);
+        report.add("Time (ms)", System.currentTimeMillis() - start);
+        rsp.add("contentstore", report);
+    }
+
+    private void actionPURGETENANT(String tenant, String coreName, boolean purgeContentStore) throws IOException
+    {
+        InformationServer srv = informationServers.get(coreName);
+        srv.deleteByTenant(tenant, purgeContentStore);
+    }
+
+    /**
+     * @return <tt>true</tt> if a registered core other than the given one still indexes nodes of the tenant
+     */
+    private boolean isTenantOnOtherCores(String tenant, String coreName) throws IOException
+    {
+        for (String otherCoreName : getTrackerRegistry().getCoreNames())
+        {
+            InformationServer srv = informationServers.get(otherCoreName);
+            if (!otherCoreName.equals(coreName) && srv != null && srv.hasTenantNodes(tenant))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void actionPURGE(SolrParams params, String coreName)
     {
         if (params.get(ARG_TXID) != null)
@@ -33,15 +33,17 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.model.ContentModel;
@@ -87,7 +89,10 @@ import org.alfresco.service.namespace.NamespaceException;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.solr.AlfrescoClientDataModelServicesFactory.DictionaryKey;
+import org.alfresco.solr.cache.CacheConstants;
 import org.alfresco.solr.client.AlfrescoModel;
+import org.alfresco.solr.query.CMISQueryCacheKey;
+import org.alfresco.solr.query.FTSQueryCacheKey;
 import org.alfresco.solr.query.Lucene4QueryBuilderContextSolrImpl;
 import org.alfresco.solr.query.Solr4QueryParser;
 import org.alfresco.solr.tracker.pool.DefaultTrackerPoolFactory;
@@ -115,6 +120,7 @@ import org.apache.lucene.util.Version;
 import org.apache.solr.core.CoreDescriptorDecorator;
 import org.apache.solr.core.SolrResourceLoader;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -163,9 +169,8 @@ public class AlfrescoSolrDataModel implements QueryConstants
     
     public static final String DEFAULT_TENANT = "_DEFAULT_";
     
-    private static ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-
-    private static AlfrescoSolrDataModel model;
+    /** Read on every document and query term, so it is published through a volatile rather than a lock */
+    private static volatile AlfrescoSolrDataModel model;
 
     private AlfrescoFieldType alfrescoFieldType;
     
@@ -179,16 +184,22 @@ public class AlfrescoSolrDataModel implements QueryConstants
 
     private  Map<DictionaryKey,CMISAbstractDictionaryService> cmisDictionaryServices;
     
-    private HashMap<String, Set<String>> modelErrors = new HashMap<String, Set<String>>();
+    private final ConcurrentHashMap<String, Set<String>> modelErrors = new ConcurrentHashMap<String, Set<String>>();
     
-    private HashSet<QName> suggestableProperties = new HashSet<QName>();
+    // Filled in by the constructor and only read afterwards
+    private final HashSet<QName> suggestableProperties = new HashSet<QName>();
     
-    private HashSet<QName> crossLocaleSearchDataTypes = new HashSet<QName>();
+    private final HashSet<QName> crossLocaleSearchDataTypes = new HashSet<QName>();
     
-    private HashSet<QName> crossLocaleSearchProperties = new HashSet<QName>();
+    private final HashSet<QName> crossLocaleSearchProperties = new HashSet<QName>();
     
-    private HashSet<QName> identifierProperties = new HashSet<QName>();
+    private final HashSet<QName> identifierProperties = new HashSet<QName>();
     private ThreadPoolExecutor threadPool;
+    
+    /** Changes whenever models are added or removed, so that anything derived from the models can be dropped */
+    private final AtomicLong modelGeneration = new AtomicLong();
+    
+    private volatile FieldMappings fieldMappings = new FieldMappings(0L);
 
     
     public void close() {
@@ -410,6 +421,18 @@ public class AlfrescoSolrDataModel implements QueryConstants
     
     
     public String getAlfrescoPropertyFromSchemaField(String schemaField)
+    {
+        FieldMappings mappings = getFieldMappings();
+        String alfrescoProperty = mappings.alfrescoProperties.get(schemaField);
+        if (alfrescoProperty == null)
+        {
+            alfrescoProperty = computeAlfrescoPropertyFromSchemaField(schemaField);
+            mappings.alfrescoProperties.put(schemaField, alfrescoProperty);
+        }
+        return alfrescoProperty;
+    }
+    
+    private String computeAlfrescoPropertyFromSchemaField(String schemaField)
     {
         int index = schemaField.lastIndexOf("@{");
         if(index == -1)
@@ -480,23 +503,15 @@ public class AlfrescoSolrDataModel implements QueryConstants
  
     public static AlfrescoSolrDataModel getInstance()
     {
-        readWriteLock.readLock().lock();
-        try
-        {
-            if (model != null)
-            {
-                return model;
-            }
-        }
-        finally
+        AlfrescoSolrDataModel instance = model;
+        if (instance != null)
         {
-            readWriteLock.readLock().unlock();
+            return instance;
         }
 
         // not found
 
-        readWriteLock.writeLock().lock();
-        try
+        synchronized (AlfrescoSolrDataModel.class)
         {
             if (model == null)
             {
@@ -504,11 +519,6 @@ public class AlfrescoSolrDataModel implements QueryConstants
             }
             return model;
         }
-        finally
-        {
-            readWriteLock.writeLock().unlock();
-        }
-
     }
     
     public NamespaceDAO getNamespaceDAO()
@@ -648,6 +658,11 @@ public class AlfrescoSolrDataModel implements QueryConstants
     }
     
     public IndexedField getIndexedFieldForContentPropertyMetadata(QName propertyQName, ContentFieldType type)
+    {
+        return getQueryableFields(propertyQName, type, null);
+    }
+    
+    private IndexedField computeIndexedFieldForContentPropertyMetadata(QName propertyQName, ContentFieldType type)
     {
         IndexedField indexedField = new IndexedField();
         PropertyDefinition propertyDefinition = getPropertyDefinition(propertyQName);
@@ -710,10 +725,24 @@ public class AlfrescoSolrDataModel implements QueryConstants
     
     
     public IndexedField getQueryableFields(QName propertyQName,  ContentFieldType type, FieldUse fieldUse)
+    {
+        FieldMappings mappings = getFieldMappings();
+        // The field use does not matter for content metadata
+        List<Object> key = Arrays.<Object>asList(propertyQName, type, type == null ? fieldUse : null);
+        IndexedField indexedField = mappings.queryableFields.get(key);
+        if (indexedField == null)
+        {
+            indexedField = computeQueryableFields(propertyQName, type, fieldUse).toImmutable();
+            mappings.queryableFields.put(key, indexedField);
+        }
+        return indexedField;
+    }
+    
+    private IndexedField computeQueryableFields(QName propertyQName,  ContentFieldType type, FieldUse fieldUse)
     {
         if(type != null)
         {
-            return getIndexedFieldForContentPropertyMetadata(propertyQName, type);
+            return computeIndexedFieldForContentPropertyMetadata(propertyQName, type);
         }
         
         IndexedField indexedField = new IndexedField();
@@ -1003,8 +1032,18 @@ public class AlfrescoSolrDataModel implements QueryConstants
      */
     public IndexedField getIndexedFieldNamesForProperty(QName propertyQName)
     {
-        // TODO: Cache and throw on model refresh
-        
+        FieldMappings mappings = getFieldMappings();
+        IndexedField indexedField = mappings.indexedFields.get(propertyQName);
+        if (indexedField == null)
+        {
+            indexedField = computeIndexedFieldNamesForProperty(propertyQName).toImmutable();
+            mappings.indexedFields.put(propertyQName, indexedField);
+        }
+        return indexedField;
+    }
+    
+    private IndexedField computeIndexedFieldNamesForProperty(QName propertyQName)
+    {
         IndexedField indexedField = new IndexedField();
         PropertyDefinition propertyDefinition = getPropertyDefinition(propertyQName);
         if((propertyDefinition == null))
@@ -1393,13 +1432,14 @@ public class AlfrescoSolrDataModel implements QueryConstants
      * @param model M2Model
      * @return boolean
      */
-    public boolean putModel(M2Model model)
+    public synchronized boolean putModel(M2Model model)
     {
         Set<String> errors = validateModel(model);
         if(errors.size() == 0)
         {
             modelErrors.remove(model.getName());
             dictionaryDAO.putModelIgnoringConstraints(model);
+            modelGeneration.incrementAndGet();
             return true;
         }
         else
@@ -1414,10 +1454,11 @@ public class AlfrescoSolrDataModel implements QueryConstants
        
     }
 
-    public boolean removeModel(QName modelQName)
+    public synchronized boolean removeModel(QName modelQName)
     {
     	modelErrors.remove(modelQName);
     	dictionaryDAO.removeModel(modelQName); 
+    	modelGeneration.incrementAndGet();
     	return true;
     }
 
@@ -1465,10 +1506,58 @@ public class AlfrescoSolrDataModel implements QueryConstants
         {
             cds.afterDictionaryInit();
         }
+        modelGeneration.incrementAndGet();
+    }
+    
+    /**
+     * @return a number that changes each time the models change
+     */
+    public long getModelGeneration()
+    {
+        return modelGeneration.get();
+    }
+    
+    /**
+     * @return the field mappings for the current models, replacing the snapshot if the models have changed
+     */
+    private FieldMappings getFieldMappings()
+    {
+        long generation = modelGeneration.get();
+        FieldMappings mappings = fieldMappings;
+        if (mappings.generation != generation)
+        {
+            mappings = new FieldMappings(generation);
+            fieldMappings = mappings;
+        }
+        return mappings;
     }
     
     public org.alfresco.repo.search.impl.querymodel.Query parseCMISQueryToAlfrescoAbstractQuery(CMISQueryMode mode, SearchParameters searchParameters,
             SolrQueryRequest req, String alternativeDictionary, CmisVersion cmisVersion) 
+    {
+        // Paging through a result set repeats the same statement, so the parsed model is shared between pages
+        CMISQueryCacheKey cacheKey = null;
+        SolrIndexSearcher searcher = req.getSearcher();
+        if (CMISQueryCacheKey.isCacheable(searchParameters))
+        {
+            cacheKey = new CMISQueryCacheKey(searchParameters, mode, cmisVersion, alternativeDictionary, getModelGeneration());
+            CMISQueryCacheEntry entry = (CMISQueryCacheEntry) searcher.cacheLookup(CacheConstants.ALFRESCO_CMIS_QUERY_CACHE, cacheKey);
+            if (entry != null)
+            {
+                return entry.queryModelQuery;
+            }
+        }
+        
+        org.alfresco.repo.search.impl.querymodel.Query queryModelQuery = parseCMISQuery(mode, searchParameters, alternativeDictionary, cmisVersion);
+        if (cacheKey != null)
+        {
+            searcher.cacheInsert(CacheConstants.ALFRESCO_CMIS_QUERY_CACHE, cacheKey, new CMISQueryCacheEntry(queryModelQuery));
+        }
+        return queryModelQuery;
+    }
+    
+    private org.alfresco.repo.search.impl.querymodel.Query parseCMISQuery(CMISQueryMode mode, SearchParameters searchParameters,
+            String alternativeDictionary, CmisVersion cmisVersion)
     {
         // convert search parameters to cmis query options
         // TODO: how to handle store ref
@@ -2152,6 +2241,23 @@ public class AlfrescoSolrDataModel implements QueryConstants
 //    }
 
    
+    /**
+     * Property to field mappings worked out from one generation of the models.  Each mapping is computed on first use
+     * and never changes; when the models change the whole snapshot is dropped.
+     */
+    private static final class FieldMappings
+    {
+        final long generation;
+        final ConcurrentHashMap<QName, IndexedField> indexedFields = new ConcurrentHashMap<QName, IndexedField>();
+        final ConcurrentHashMap<List<Object>, IndexedField> queryableFields = new ConcurrentHashMap<List<Object>, IndexedField>();
+        final ConcurrentHashMap<String, String> alfrescoProperties = new ConcurrentHashMap<String, String>();
+
+        FieldMappings(long generation)
+        {
+            this.generation = generation;
+        }
+    }
+   
     public static class IndexedField
     {
 
@@ -2162,6 +2268,19 @@ public class AlfrescoSolrDataModel implements QueryConstants
             super();
         }
         
+        private IndexedField(List<FieldInstance> fields)
+        {
+            this.fields = fields;
+        }
+        
+        /**
+         * @return a copy that can be shared between threads; adding fields to it fails
+         */
+        IndexedField toImmutable()
+        {
+            return new IndexedField(Collections.unmodifiableList(new ArrayList<FieldInstance>(fields)));
+        }
+        
         public IndexedField(String prefix, boolean localised, boolean sort)
         {
             this();
@@ -2229,20 +2348,56 @@ public class AlfrescoSolrDataModel implements QueryConstants
         SearchParameters searchParameters = searchParametersAndFilter.getFirst();
         Boolean isFilter = searchParametersAndFilter.getSecond();
         
-        BaseTypeId[] validScopes = (mode == CMISQueryMode.CMS_STRICT) ? CmisFunctionEvaluationContext.STRICT_SCOPES : CmisFunctionEvaluationContext.ALFRESCO_SCOPES;
-        CmisFunctionEvaluationContext functionContext = getCMISFunctionEvaluationContext(mode, cmisVersion, alternativeDictionary);
+        // Only reuse a built query if it was built from this model, which is the cached one on a cache hit
+        CMISQueryCacheEntry entry = null;
+        if (CMISQueryCacheKey.isCacheable(searchParameters))
+        {
+            CMISQueryCacheKey cacheKey = new CMISQueryCacheKey(searchParameters, mode, cmisVersion, alternativeDictionary, getModelGeneration());
+            entry = (CMISQueryCacheEntry) req.getSearcher().cacheLookup(CacheConstants.ALFRESCO_CMIS_QUERY_CACHE, cacheKey);
+            if ((entry != null) && (entry.queryModelQuery != queryModelQuery))
+            {
+                entry = null;
+            }
+        }
+        
+        org.apache.lucene.search.Query luceneQuery = (entry == null) ? null : entry.luceneQuery;
+        if (luceneQuery == null)
+        {
+            CmisFunctionEvaluationContext functionContext = getCMISFunctionEvaluationContext(mode, cmisVersion, alternativeDictionary);
 
-        Set<String> selectorGroup = queryModelQuery.getSource().getSelectorGroups(functionContext).get(0);
+            Set<String> selectorGroup = queryModelQuery.getSource().getSelectorGroups(functionContext).get(0);
 
-        LuceneQueryBuilderContext<Query, Sort, ParseException> luceneContext = getLuceneQueryBuilderContext(searchParameters, req, alternativeDictionary, FTSQueryParser.RerankPhase.SINGLE_PASS);
-        @SuppressWarnings("unchecked")
-        LuceneQueryBuilder<Query, Sort, ParseException> builder = (LuceneQueryBuilder<Query, Sort, ParseException>) queryModelQuery;
-        org.apache.lucene.search.Query luceneQuery = builder.buildQuery(selectorGroup, luceneContext, functionContext);
+            LuceneQueryBuilderContext<Query, Sort, ParseException> luceneContext = getLuceneQueryBuilderContext(searchParameters, req, alternativeDictionary, FTSQueryParser.RerankPhase.SINGLE_PASS);
+            @SuppressWarnings("unchecked")
+            LuceneQueryBuilder<Query, Sort, ParseException> builder = (LuceneQueryBuilder<Query, Sort, ParseException>) queryModelQuery;
+            luceneQuery = builder.buildQuery(selectorGroup, luceneContext, functionContext);
+            if (entry != null)
+            {
+                entry.luceneQuery = luceneQuery;
+            }
+        }
+        // Callers may change the boost, so never hand out the cached instance
+        luceneQuery = luceneQuery.clone();
 
         ContextAwareQuery contextAwareQuery = new ContextAwareQuery(luceneQuery, Boolean.TRUE.equals(isFilter) ? null : searchParameters);
         return contextAwareQuery;
     }
      
+    /**
+     * A parsed CMIS query model and, once the first request has built it, the Lucene query built from it.
+     */
+    private static final class CMISQueryCacheEntry
+    {
+        final org.alfresco.repo.search.impl.querymodel.Query queryModelQuery;
+
+        volatile org.apache.lucene.search.Query luceneQuery;
+
+        CMISQueryCacheEntry(org.alfresco.repo.search.impl.querymodel.Query queryModelQuery)
+        {
+            this.queryModelQuery = queryModelQuery;
+        }
+    }
+
      public LuceneQueryBuilderContext<Query, Sort, ParseException> getLuceneQueryBuilderContext(SearchParameters searchParameters, SolrQueryRequest req, String alternativeDictionary, FTSQueryParser.RerankPhase rerankPhase)
      {
          Lucene4QueryBuilderContextSolrImpl luceneContext = new Lucene4QueryBuilderContextSolrImpl(getDictionaryService(alternativeDictionary), namespaceDAO, tenantService, searchParameters,
@@ -2275,6 +2430,8 @@ public class AlfrescoSolrDataModel implements QueryConstants
          Properties props = new CoreDescriptorDecorator(req.getCore().getCoreDescriptor()).getCoreProperties();
          int topTermSpanRewriteLimit = Integer.parseInt(props.getProperty("alfresco.topTermSpanRewriteLimit", "1000"));
          parser.setTopTermSpanRewriteLimit(topTermSpanRewriteLimit);
+         int phraseWildcardExpansionLimit = Integer.parseInt(props.getProperty("alfresco.phraseWildcardExpansionLimit", "256"));
+         parser.setPhraseWildcardExpansionLimit(phraseWildcardExpansionLimit);
 
          return parser;
      }
@@ -2290,6 +2447,32 @@ public class AlfrescoSolrDataModel implements QueryConstants
          SearchParameters searchParameters = searchParametersAndFilter.getFirst();
          Boolean isFilter = searchParametersAndFilter.getSecond();
 
+         // The same query shapes are parsed over and over with different user filters, which are not part of the key
+         Query luceneQuery;
+         if (FTSQueryCacheKey.isCacheable(searchParameters))
+         {
+             FTSQueryCacheKey cacheKey = new FTSQueryCacheKey(searchParameters, rerankPhase, getModelGeneration());
+             SolrIndexSearcher searcher = req.getSearcher();
+             luceneQuery = (Query) searcher.cacheLookup(CacheConstants.ALFRESCO_FTS_QUERY_CACHE, cacheKey);
+             if (luceneQuery == null)
+             {
+                 luceneQuery = parseFTSQuery(searchParameters, req, rerankPhase);
+                 searcher.cacheInsert(CacheConstants.ALFRESCO_FTS_QUERY_CACHE, cacheKey, luceneQuery);
+             }
+             // Callers may change the boost, so never hand out the cached instance
+             luceneQuery = luceneQuery.clone();
+         }
+         else
+         {
+             luceneQuery = parseFTSQuery(searchParameters, req, rerankPhase);
+         }
+
+         ContextAwareQuery contextAwareQuery = new ContextAwareQuery(luceneQuery, Boolean.TRUE.equals(isFilter) ? null : searchParameters);
+         return contextAwareQuery;
+     }
+
+     private Query parseFTSQuery(SearchParameters searchParameters, SolrQueryRequest req, FTSQueryParser.RerankPhase rerankPhase) throws ParseException
+     {
          QueryModelFactory factory = new LuceneQueryModelFactory<Query, Sort, SyntaxError>();
          AlfrescoFunctionEvaluationContext functionContext = new AlfrescoSolr4FunctionEvaluationContext(namespaceDAO, getDictionaryService(CMISStrictDictionaryService.DEFAULT), NamespaceService.CONTENT_MODEL_1_0_URI, req.getSchema());
 
@@ -2331,11 +2514,7 @@ public class AlfrescoSolrDataModel implements QueryConstants
 
              selectorGroup = selectorGroups.get(0);
          }
-         Query luceneQuery = builder.buildQuery(selectorGroup, luceneContext, functionContext);
-         // query needs some search parameters fro correct caching ....
-
-         ContextAwareQuery contextAwareQuery = new ContextAwareQuery(luceneQuery, Boolean.TRUE.equals(isFilter) ? null : searchParameters);
-         return contextAwareQuery;
+         return builder.buildQuery(selectorGroup, luceneContext, functionContext);
      }
      
     /**
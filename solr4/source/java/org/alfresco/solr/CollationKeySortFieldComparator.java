@@ -0,0 +1,421 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import java.io.IOException;
+import java.text.Collator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfo.DocValuesType;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.LongValues;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.springframework.extensions.surf.util.I18NUtil;
+
+/**
+ * Sorts an Alfresco text sort field in a locale by the collation keys indexed for that locale, see the
+ * <tt>collationLocales</tt> argument of {@link AlfrescoCollatableTextFieldType} and
+ * {@link AlfrescoCollatableMLTextFieldType}.
+ * <p>
+ * Documents are compared by the global ordinal of their key, mapped from the segment ordinal with the ordinal map the
+ * searcher caches for its composite reader, so nothing is built or collated while collecting. The sort value itself
+ * is only worked out from the sort field when it is asked for, e.g. for the sort values of a shard response, and
+ * compares with the collator as the value comparators of the field types do.
+ */
+public final class CollationKeySortFieldComparator extends FieldComparator<String>
+{
+    /**
+     * Gets the value a document sorts on from its indexed sort field value.
+     */
+    public static interface SortValues
+    {
+        /**
+         * @param indexedValue the value of the sort field, which may carry its locale
+         * @param locale the sort locale
+         * @return the value to collate, or <tt>null</tt> if there is none
+         */
+        String getSortValue(String indexedValue, Locale locale);
+    }
+
+    /* Whether every document of a segment core with the sort field has its key, by sort field and locale */
+    private static final Map<Object, Map<String, Boolean>> KEYED_SEGMENTS = new WeakHashMap<Object, Map<String, Boolean>>();
+
+    /* Global ordinal of the key for each slot, -1 if missing */
+    private final int[] ords;
+
+    /* Leaf and segment doc for each slot, to get the sort value */
+    private final int[] slotLeaves;
+
+    private final int[] slotDocs;
+
+    private final String field;
+
+    private final String keyField;
+
+    private final Locale locale;
+
+    private final Collator collator;
+
+    private final SortValues sortValues;
+
+    private final SolrIndexSearcher searcher;
+
+    private List<AtomicReaderContext> leaves;
+
+    private MultiDocValues.OrdinalMap ordinalMap;
+
+    private SortedDocValues segmentValues;
+
+    private LongValues globalOrds;
+
+    private int leaf;
+
+    private int bottom;
+
+    private BytesRef top;
+
+    CollationKeySortFieldComparator(int numHits, String field, Locale locale, SortValues sortValues, SolrIndexSearcher searcher)
+    {
+        ords = new int[numHits];
+        slotLeaves = new int[numHits];
+        slotDocs = new int[numHits];
+        this.field = field;
+        this.keyField = getCollationKeyField(field, locale);
+        this.locale = locale;
+        this.collator = Collator.getInstance(locale);
+        this.sortValues = sortValues;
+        this.searcher = searcher;
+    }
+
+    /**
+     * Get a comparator over the collation keys of the sort locale.
+     * 
+     * @param numHits the number of slots
+     * @param field the sort field
+     * @param locale the sort locale
+     * @param collationLocales the locales the field type indexes collation keys for
+     * @param sortValues gets the sort value from the sort field
+     * @return the comparator, or <tt>null</tt> if the keys of the locale are not indexed, or not for every document
+     *         with the sort field in the searcher of the current request
+     */
+    public static FieldComparator<String> newComparator(int numHits, String field, Locale locale, Set<Locale> collationLocales,
+                SortValues sortValues)
+    {
+        if ((locale == null) || !collationLocales.contains(locale))
+        {
+            return null;
+        }
+        SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+        if (requestInfo == null)
+        {
+            return null;
+        }
+        SolrIndexSearcher searcher = requestInfo.getReq().getSearcher();
+        String keyField = getCollationKeyField(field, locale);
+        try
+        {
+            for (AtomicReaderContext context : searcher.getTopReaderContext().leaves())
+            {
+                if (!hasCollationKeys(context.reader(), field, keyField))
+                {
+                    return null;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Failed to check the collation keys of " + field, e);
+        }
+        return new CollationKeySortFieldComparator(numHits, field, locale, sortValues, searcher);
+    }
+
+    /*
+     * Segments written before the locale was configured have the field but no keys, and merging them with later
+     * segments gives segments where only some documents have keys. So the documents with the sort field and with its
+     * key are counted, once for each segment core.
+     */
+    private static boolean hasCollationKeys(AtomicReader reader, String field, String keyField) throws IOException
+    {
+        if (reader.getFieldInfos().fieldInfo(field) == null)
+        {
+            return true;
+        }
+        FieldInfo keyInfo = reader.getFieldInfos().fieldInfo(keyField);
+        if ((keyInfo == null) || (keyInfo.getDocValuesType() != DocValuesType.SORTED))
+        {
+            return false;
+        }
+        Object segment = reader.getCoreCacheKey();
+        synchronized (KEYED_SEGMENTS)
+        {
+            Map<String, Boolean> keyed = KEYED_SEGMENTS.get(segment);
+            Boolean hasKeys = (keyed == null) ? null : keyed.get(keyField);
+            if (hasKeys != null)
+            {
+                return hasKeys;
+            }
+        }
+        boolean hasKeys = countDocs(FieldCache.DEFAULT.getDocsWithField(reader, field), reader.maxDoc()) == countDocs(
+                    reader.getDocsWithField(keyField), reader.maxDoc());
+        synchronized (KEYED_SEGMENTS)
+        {
+            Map<String, Boolean> keyed = KEYED_SEGMENTS.get(segment);
+            if (keyed == null)
+            {
+                keyed = new HashMap<String, Boolean>();
+                KEYED_SEGMENTS.put(segment, keyed);
+            }
+            keyed.put(keyField, hasKeys);
+        }
+        return hasKeys;
+    }
+
+    private static int countDocs(Bits docsWithField, int maxDoc)
+    {
+        if (docsWithField == null)
+        {
+            return 0;
+        }
+        else if (docsWithField instanceof Bits.MatchAllBits)
+        {
+            return maxDoc;
+        }
+        int count = 0;
+        for (int doc = 0; doc < maxDoc; doc++)
+        {
+            if (docsWithField.get(doc))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param field the sort field
+     * @param locale the sort locale
+     * @return the doc values field holding the collation keys of the sort field for the locale
+     */
+    public static String getCollationKeyField(String field, Locale locale)
+    {
+        return "collation@" + locale + "@" + field;
+    }
+
+    /**
+     * @param collator the collator of the sort locale
+     * @param value the value to sort on
+     * @return the collation key, which orders as bytes in the same way as the collator orders the values
+     */
+    public static BytesRef getCollationKey(Collator collator, String value)
+    {
+        return new BytesRef(collator.getCollationKey(value).toByteArray());
+    }
+
+    /**
+     * Parse the comma separated <tt>collationLocales</tt> field type argument.
+     * 
+     * @param locales the argument, may be <tt>null</tt>
+     * @return the locales
+     */
+    public static Set<Locale> parseLocales(String locales)
+    {
+        if ((locales == null) || (locales.trim().length() == 0))
+        {
+            return Collections.emptySet();
+        }
+        Set<Locale> parsed = new LinkedHashSet<Locale>();
+        for (String locale : locales.split(","))
+        {
+            if (locale.trim().length() > 0)
+            {
+                parsed.add(I18NUtil.parseLocale(locale.trim()));
+            }
+        }
+        return Collections.unmodifiableSet(parsed);
+    }
+
+    /**
+     * Add the collation keys of a sort field value to the fields indexed for it, one for each locale.
+     * 
+     * @param fields the fields indexed for the value
+     * @param field the sort field
+     * @param value the indexed value
+     * @param collationLocales the locales to add keys for
+     * @param sortValues gets the sort value from the indexed value
+     */
+    public static void addCollationKeys(List<IndexableField> fields, String field, String value, Set<Locale> collationLocales,
+                SortValues sortValues)
+    {
+        for (Locale collationLocale : collationLocales)
+        {
+            // Every value gets a key, an empty one if there is nothing to sort on, so that documents missing keys
+            // can be told from the documents of segments indexed before the locale was configured
+            String sortValue = sortValues.getSortValue(value, collationLocale);
+            // getInstance hands out a copy, so this does not contend with other indexing threads
+            BytesRef key = (sortValue == null) ? new BytesRef() : getCollationKey(Collator.getInstance(collationLocale), sortValue);
+            fields.add(new SortedDocValuesField(getCollationKeyField(field, collationLocale), key));
+        }
+    }
+
+    private int getGlobalOrd(int doc)
+    {
+        if (segmentValues == null)
+        {
+            return -1;
+        }
+        int ord = segmentValues.getOrd(doc);
+        if ((ord < 0) || (globalOrds == null))
+        {
+            return ord;
+        }
+        return (int) globalOrds.get(ord);
+    }
+
+    @Override
+    public int compare(int slot1, int slot2)
+    {
+        return Integer.compare(ords[slot1], ords[slot2]);
+    }
+
+    @Override
+    public void setBottom(int slot)
+    {
+        bottom = ords[slot];
+    }
+
+    @Override
+    public int compareBottom(int doc) throws IOException
+    {
+        return Integer.compare(bottom, getGlobalOrd(doc));
+    }
+
+    @Override
+    public void copy(int slot, int doc) throws IOException
+    {
+        ords[slot] = getGlobalOrd(doc);
+        slotLeaves[slot] = leaf;
+        slotDocs[slot] = doc;
+    }
+
+    @Override
+    public void setTopValue(String value)
+    {
+        top = (value == null) ? null : getCollationKey(collator, value);
+    }
+
+    @Override
+    public int compareTop(int doc) throws IOException
+    {
+        int ord = (segmentValues == null) ? -1 : segmentValues.getOrd(doc);
+        if (ord < 0)
+        {
+            return (top == null) ? 0 : 1;
+        }
+        else if (top == null)
+        {
+            return -1;
+        }
+        return top.compareTo(segmentValues.lookupOrd(ord));
+    }
+
+    @Override
+    public FieldComparator<String> setNextReader(AtomicReaderContext context) throws IOException
+    {
+        if (leaves == null)
+        {
+            IndexReaderContext topContext = ReaderUtil.getTopLevelContext(context);
+            leaves = topContext.leaves();
+            // The searcher caches the ordinal map of its composite reader
+            SortedDocValues topValues = ((searcher != null) && (topContext.reader() == searcher.getIndexReader()))
+                        ? searcher.getAtomicReader().getSortedDocValues(keyField)
+                        : MultiDocValues.getSortedValues(topContext.reader(), keyField);
+            if (topValues instanceof MultiDocValues.MultiSortedDocValues)
+            {
+                ordinalMap = ((MultiDocValues.MultiSortedDocValues) topValues).mapping;
+            }
+        }
+        leaf = context.ord;
+        segmentValues = context.reader().getSortedDocValues(keyField);
+        globalOrds = ((ordinalMap != null) && (segmentValues != null)) ? ordinalMap.getGlobalOrds(context.ord) : null;
+        return this;
+    }
+
+    @Override
+    public String value(int slot)
+    {
+        if (ords[slot] < 0)
+        {
+            return null;
+        }
+        try
+        {
+            BytesRef term = FieldCache.DEFAULT.getTerms(leaves.get(slotLeaves[slot]).reader(), field, false).get(slotDocs[slot]);
+            return sortValues.getSortValue(term.utf8ToString(), locale);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Failed to read the sort value of " + field, e);
+        }
+    }
+
+    @Override
+    public int compareValues(String val1, String val2)
+    {
+        if (val1 == null)
+        {
+            if (val2 == null)
+            {
+                return 0;
+            }
+            return -1;
+        }
+        else if (val2 == null)
+        {
+            return 1;
+        }
+        return collator.compare(val1, val2);
+    }
+}
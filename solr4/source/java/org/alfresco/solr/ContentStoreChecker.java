@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.solr.content.SolrContentStore;
+import org.alfresco.solr.content.SolrContentStoreScanner;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ * Joins the documents in a {@link SolrContentStore} against the node documents in the index.
+ * <p/>
+ * Every core on a node caches its documents in the same store, so a file only belongs to no one when none of the
+ * cores sharing the store has its node. Orphans are therefore judged against the nodes of all those cores; when
+ * they are not known, orphans are still reported but never deleted.
+ */
+public class ContentStoreChecker
+{
+    /**
+     * Guards a node while its cached document is deleted.
+     */
+    public static interface NodeLock
+    {
+        boolean lock(long dbId);
+
+        void unlock(long dbId);
+    }
+
+    private final SolrContentStore store;
+    private final int threads;
+    private final int maxFilesPerSecond;
+
+    /**
+     * @param store                 the store to check
+     * @param threads               the number of threads walking the store
+     * @param maxFilesPerSecond     the maximum number of files checked per second, or 0 for no limit
+     */
+    public ContentStoreChecker(SolrContentStore store, int threads, int maxFilesPerSecond)
+    {
+        this.store = store;
+        this.threads = threads;
+        this.maxFilesPerSecond = maxFilesPerSecond;
+    }
+
+    /**
+     * Walk the store, reporting (and optionally deleting) orphan files.
+     * 
+     * @param indexed               the DB IDs of the node documents of the core being checked, by tenant
+     * @param indexedOnNode         the DB IDs of the node documents of every core sharing the store, by tenant,
+     *                              or <tt>null</tt> if they could not all be read
+     * @param deleteOrphans         delete orphan files, only honoured when <tt>indexedOnNode</tt> is known
+     * @param orphanLastModified    only files last modified before this time can be deleted
+     * @param nodeLock              held while a file is deleted
+     * @param report                the report to add the orphans and the number of files scanned to
+     * @return                      the DB IDs of the nodes in <tt>indexed</tt> that have a cached document, by tenant
+     */
+    public Map<String, OpenBitSet> check(final Map<String, OpenBitSet> indexed, final Map<String, OpenBitSet> indexedOnNode,
+                boolean deleteOrphans, final long orphanLastModified, final NodeLock nodeLock, final ContentStoreReport report)
+                throws InterruptedException
+    {
+        final boolean delete = deleteOrphans && (indexedOnNode != null);
+        final Map<String, OpenBitSet> orphanCheck = (indexedOnNode != null) ? indexedOnNode : indexed;
+        final ConcurrentHashMap<String, OpenBitSet> cachedByTenant = new ConcurrentHashMap<String, OpenBitSet>();
+        report.setOrphansCheckedOnNode(indexedOnNode != null);
+
+        SolrContentStoreScanner scanner = new SolrContentStoreScanner(store, threads, maxFilesPerSecond);
+        long scanned = scanner.scan(new SolrContentStoreScanner.Visitor()
+        {
+            @Override
+            public void visit(String tenant, long dbId, File file, boolean delta)
+            {
+                if (contains(indexed, tenant, dbId) && !delta)
+                {
+                    OpenBitSet cached = cachedByTenant.get(tenant);
+                    if (cached == null)
+                    {
+                        cachedByTenant.putIfAbsent(tenant, new OpenBitSet());
+                        cached = cachedByTenant.get(tenant);
+                    }
+                    synchronized (cached)
+                    {
+                        cached.set(dbId);
+                    }
+                }
+                if (contains(orphanCheck, tenant, dbId))
+                {
+                    return;
+                }
+
+                boolean deleted = false;
+                if (delete && file.lastModified() < orphanLastModified && nodeLock.lock(dbId))
+                {
+                    try
+                    {
+                        // A tracker may have written it while we waited for the lock
+                        deleted = (file.lastModified() < orphanLastModified) && file.delete();
+                    }
+                    finally
+                    {
+                        nodeLock.unlock(dbId);
+                    }
+                }
+                report.addOrphanFile(file.getPath(), deleted);
+            }
+        });
+        report.setFilesScanned(scanned);
+        return cachedByTenant;
+    }
+
+    /**
+     * Add the DB IDs of one core to those of the node.
+     */
+    public static void addAll(Map<String, OpenBitSet> indexedOnNode, Map<String, OpenBitSet> indexed)
+    {
+        for (Map.Entry<String, OpenBitSet> entry : indexed.entrySet())
+        {
+            OpenBitSet dbIds = indexedOnNode.get(entry.getKey());
+            if (dbIds == null)
+            {
+                indexedOnNode.put(entry.getKey(), entry.getValue().clone());
+            }
+            else
+            {
+                dbIds.union(entry.getValue());
+            }
+        }
+    }
+
+    private static boolean contains(Map<String, OpenBitSet> dbIdsByTenant, String tenant, long dbId)
+    {
+        OpenBitSet dbIds = dbIdsByTenant.get(tenant);
+        return (dbIds != null) && dbIds.get(dbId);
+    }
+}
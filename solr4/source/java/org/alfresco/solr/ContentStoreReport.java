@@ -0,0 +1,141 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.solr.adapters.IOpenBitSet;
+
+/**
+ * The result of checking the content store against the index.
+ * Orphans are files for nodes that are not in the index; missing nodes are indexed nodes without a cached document.
+ * Orphans are only checked against every core sharing the content store when all their nodes could be read,
+ * otherwise they are checked against the core's own nodes and are never deleted.
+ */
+public class ContentStoreReport
+{
+    /** The number of orphan files listed by name in the report */
+    public static final int MAX_LISTED_ORPHANS = 100;
+
+    private final AtomicLong filesScanned = new AtomicLong();
+    private final AtomicLong orphanFiles = new AtomicLong();
+    private final AtomicLong orphanFilesDeleted = new AtomicLong();
+    private final List<String> orphanFileNames = Collections.synchronizedList(new ArrayList<String>());
+    private IOpenBitSet missingNodes;
+    private long nodesInIndex;
+    private long elapsedMillis;
+    private boolean orphansCheckedOnNode;
+
+    public long getFilesScanned()
+    {
+        return filesScanned.get();
+    }
+
+    public void setFilesScanned(long filesScanned)
+    {
+        this.filesScanned.set(filesScanned);
+    }
+
+    public long getOrphanFiles()
+    {
+        return orphanFiles.get();
+    }
+
+    public long getOrphanFilesDeleted()
+    {
+        return orphanFilesDeleted.get();
+    }
+
+    /**
+     * @return the first {@link #MAX_LISTED_ORPHANS} orphan files found
+     */
+    public List<String> getOrphanFileNames()
+    {
+        synchronized (orphanFileNames)
+        {
+            return new ArrayList<String>(orphanFileNames);
+        }
+    }
+
+    public void addOrphanFile(String fileName, boolean deleted)
+    {
+        orphanFiles.incrementAndGet();
+        if (deleted)
+        {
+            orphanFilesDeleted.incrementAndGet();
+        }
+        synchronized (orphanFileNames)
+        {
+            if (orphanFileNames.size() < MAX_LISTED_ORPHANS)
+            {
+                orphanFileNames.add(fileName);
+            }
+        }
+    }
+
+    public IOpenBitSet getMissingNodes()
+    {
+        return missingNodes;
+    }
+
+    public void setMissingNodes(IOpenBitSet missingNodes)
+    {
+        this.missingNodes = missingNodes;
+    }
+
+    public long getNodesInIndex()
+    {
+        return nodesInIndex;
+    }
+
+    public void setNodesInIndex(long nodesInIndex)
+    {
+        this.nodesInIndex = nodesInIndex;
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis)
+    {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public boolean isOrphansCheckedOnNode()
+    {
+        return orphansCheckedOnNode;
+    }
+
+    public void setOrphansCheckedOnNode(boolean orphansCheckedOnNode)
+    {
+        this.orphansCheckedOnNode = orphansCheckedOnNode;
+    }
+}
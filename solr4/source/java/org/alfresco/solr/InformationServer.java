@@ -45,6 +45,7 @@ import org.alfresco.solr.client.Node;
 import org.alfresco.solr.client.Transaction;
 import org.alfresco.solr.tracker.IndexHealthReport;
 import org.alfresco.solr.tracker.TrackerStats;
+import org.apache.lucene.util.OpenBitSet;
 import org.apache.solr.common.util.NamedList;
 import org.json.JSONException;
 
@@ -75,6 +76,18 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     void deleteByNodeId(Long nodeId) throws IOException;
 
+    /**
+     * Delete all documents of a tenant from the index and, optionally, drop its documents from the content store.
+     * The content store is shared by the cores of a node, so it should only be purged when the tenant is removed
+     * from every core.
+     */
+    void deleteByTenant(String tenant, boolean purgeContentStore) throws IOException;
+
+    /**
+     * @return <tt>true</tt> if the current searcher holds node documents of the tenant
+     */
+    boolean hasTenantNodes(String tenant) throws IOException;
+
     void indexNode(Node node, boolean overwrite) throws IOException, AuthenticationException, JSONException;
     
     void indexNodes(List<Node> nodes, boolean overwrite) throws IOException, AuthenticationException, JSONException;
@@ -141,6 +154,46 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     void reindexNodeByQuery(String query) throws IOException, AuthenticationException, JSONException;
 
+    /**
+     * Walk the content store and compare it with the node documents in the index.
+     * 
+     * @param indexedOnNode         the DB IDs of the nodes of every core sharing the content store, by tenant, or
+     *                              <tt>null</tt> if they are not known; only files for none of them are orphans
+     * @param deleteOrphans         delete orphan files, ignored when <tt>indexedOnNode</tt> is not known
+     * @param threads               the number of threads walking the content store
+     * @param maxFilesPerSecond     the maximum number of files to check per second, 0 for no limit
+     * @param minOrphanAgeMillis    only files older than this can be deleted as orphans
+     */
+    ContentStoreReport checkContentStore(Map<String, OpenBitSet> indexedOnNode, boolean deleteOrphans, int threads,
+                int maxFilesPerSecond, long minOrphanAgeMillis) throws IOException, InterruptedException;
+
+    /**
+     * @return the DB IDs of the node documents in the current searcher by tenant, or <tt>null</tt> if they can not be read
+     */
+    Map<String, OpenBitSet> getIndexedNodeDbIds() throws IOException;
+
+    /**
+     * @return the root of the content store the documents of this core are cached in
+     */
+    String getContentStoreRoot();
+
+    /**
+     * Rebuild the index from the documents cached in the content store, without going back to the repository.
+     * The content store is shared by every core on the node, so only the nodes of the store and ACL shard this core
+     * tracks are added back. Property values are moved onto the fields the current model maps them to.
+     * 
+     * @param threads               the number of threads walking the content store
+     * @return                      the number of documents indexed
+     */
+    long reindexFromContentStore(int threads) throws IOException, InterruptedException;
+
+    /**
+     * Move the content store to the hashed directory layout, see {@link org.alfresco.solr.content.SolrContentStore.Layout}.
+     * 
+     * @return                      the number of files moved
+     */
+    long migrateContentStore(int threads) throws IOException, InterruptedException;
+
     int getPort();
     
     String getHostName();
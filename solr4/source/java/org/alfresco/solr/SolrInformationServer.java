@@ -87,6 +87,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -97,10 +98,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.management.*;
@@ -116,7 +118,6 @@ import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
 import org.alfresco.service.cmr.dictionary.AspectDefinition;
 import org.alfresco.service.cmr.dictionary.TypeDefinition;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
-import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.datatype.DefaultTypeConverter;
@@ -144,7 +145,10 @@ import org.alfresco.solr.client.SOLRAPIClient;
 import org.alfresco.solr.client.SOLRAPIClient.GetTextContentResponse;
 import org.alfresco.solr.client.StringPropertyValue;
 import org.alfresco.solr.client.Transaction;
+import org.alfresco.solr.content.SolrCachedDocDelta;
+import org.alfresco.solr.content.SolrCachedDocDelta.FieldGroup;
 import org.alfresco.solr.content.SolrContentStore;
+import org.alfresco.solr.content.SolrContentStoreScanner;
 import org.alfresco.solr.content.SolrContentUrlBuilder;
 import org.alfresco.solr.tracker.IndexHealthReport;
 import org.alfresco.solr.tracker.TrackerStats;
@@ -154,7 +158,13 @@ import org.apache.commons.io.input.BoundedInputStream;
 import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.OpenBitSet;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
@@ -165,6 +175,7 @@ import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.core.IndexDeletionPolicyWrapper;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrInfoMBean;
+import org.apache.solr.handler.component.AlfrescoSolrHighlighter;
 import org.apache.solr.request.LocalSolrQueryRequest;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.request.SolrRequestHandler;
@@ -172,6 +183,7 @@ import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
+import org.apache.solr.search.DocSet;
 import org.apache.solr.search.SolrIndexSearcher;
 import org.apache.solr.update.AddUpdateCommand;
 import org.apache.solr.update.CommitUpdateCommand;
@@ -251,6 +263,8 @@ public class SolrInformationServer implements InformationServer
     protected final static Logger log = LoggerFactory.getLogger(SolrInformationServer.class);
     protected enum FTSStatus {New, Dirty, Clean};
     
+    private static final Set<FieldGroup> CASCADE_FIELD_GROUPS = Collections.unmodifiableSet(EnumSet.of(FieldGroup.PATH, FieldGroup.CASCADE));
+
     private ConcurrentLRUCache<String, Boolean> isIdIndexCache = new ConcurrentLRUCache<String, Boolean>(60*60*100, 60*60*50);
     
     private ReentrantReadWriteLock activeTrackerThreadsLock = new ReentrantReadWriteLock();
@@ -823,6 +837,42 @@ public class SolrInformationServer implements InformationServer
         deleteById(FIELD_INTXID, transactionId);
     }
     
+    @Override
+    public void deleteByTenant(String tenant, boolean purgeContentStore) throws IOException
+    {
+        deleteByQuery(FIELD_TENANT + ":\"" + tenant + "\"");
+        if (purgeContentStore)
+        {
+            solrContentStore.deleteTenant(tenant);
+        }
+    }
+
+    @Override
+    public boolean hasTenantNodes(String tenant) throws IOException
+    {
+        RefCounted<SolrIndexSearcher> refCounted = null;
+        try
+        {
+            refCounted = core.getSearcher(false, true, null);
+            SolrIndexSearcher solrIndexSearcher = refCounted.get();
+
+            BooleanQuery docTypes = new BooleanQuery();
+            docTypes.add(new TermQuery(new Term(FIELD_DOC_TYPE, DOC_TYPE_NODE)), Occur.SHOULD);
+            docTypes.add(new TermQuery(new Term(FIELD_DOC_TYPE, DOC_TYPE_UNINDEXED_NODE)), Occur.SHOULD);
+            BooleanQuery query = new BooleanQuery();
+            query.add(new TermQuery(new Term(FIELD_TENANT, tenant)), Occur.MUST);
+            query.add(docTypes, Occur.MUST);
+            return solrIndexSearcher.getDocSet(query).size() > 0;
+        }
+        finally
+        {
+            if (refCounted != null)
+            {
+                refCounted.decref();
+            }
+        }
+    }
+    
     private void deleteByQuery(String query) throws IOException
     {
         SolrQueryRequest request = null;
@@ -919,6 +969,10 @@ public class SolrInformationServer implements InformationServer
                 {
                     coreSummary.add("/alfrescoPathCache", infoMBean.getStatistics());
                 }
+                if (key.equals(AlfrescoSolrHighlighter.INFO_NAME))
+                {
+                    coreSummary.add("/" + AlfrescoSolrHighlighter.INFO_NAME, infoMBean.getStatistics());
+                }
             }
 
             // Adds detailed stats for each registered searcher
@@ -1736,7 +1790,7 @@ public class SolrInformationServer implements InformationServer
                         addDocCmd.solrDoc = cachedDoc;
 
                         processor.processAdd(addDocCmd);
-                        storeDocOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), cachedDoc);
+                        storeDeltaOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), cachedDoc, EnumSet.of(FieldGroup.PATH));
                     } else {
                         if (log.isDebugEnabled()) {
                             log.debug("... no child doc found to update " + childId);
@@ -1831,12 +1885,14 @@ public class SolrInformationServer implements InformationServer
                             if (log.isDebugEnabled()) {
                                 log.debug("... cascade update child doc " + childId);
                             }
-                            // Gets the document that we have from the content store and updates it
                             String fixedTenantDomain = AlfrescoSolrDataModel.getTenantId(nodeMetaData.getTenantDomain());
+                            // Gets the document that we have from the content store and updates it
                             SolrInputDocument cachedDoc = retrieveDocFromSolrContentStore(fixedTenantDomain, nodeMetaData.getId());
+                            boolean recreated = false;
 
                             if (cachedDoc == null) {
                                 cachedDoc = recreateSolrDoc(nodeMetaData.getId(), fixedTenantDomain);
+                                recreated = true;
 
                                 // if we did not build it again it has been deleted
                                 // We do the delete here to avoid doing this again if it for some reason persists in teh index
@@ -1860,7 +1916,11 @@ public class SolrInformationServer implements InformationServer
                                 addDocCmd.solrDoc = cachedDoc;
 
                                 processor.processAdd(addDocCmd);
-                                storeDocOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), cachedDoc);
+                                if (recreated) {
+                                    storeDocOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), cachedDoc);
+                                } else {
+                                    storeDeltaOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), cachedDoc, CASCADE_FIELD_GROUPS);
+                                }
                             } else {
                                 if (log.isDebugEnabled()) {
                                     log.debug("... no child doc found to update " + childId);
@@ -2147,7 +2207,16 @@ public class SolrInformationServer implements InformationServer
         addPropertiesToDoc(properties, isContentIndexedForNode, newDoc, cachedDoc, transformContent);
         
         // Now that the new doc is fully updated and ready to go to the Solr index, cache it.
-        storeDocOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), newDoc);
+        // If only path, ACL or tracking fields changed (e.g. an ACL change) just record the delta.
+        EnumSet<FieldGroup> changedGroups = (cachedDoc == null) ? null : SolrCachedDocDelta.getChangedGroups(cachedDoc, newDoc);
+        if (changedGroups != null)
+        {
+            storeDeltaOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), newDoc, changedGroups);
+        }
+        else
+        {
+            storeDocOnSolrContentStore(fixedTenantDomain, nodeMetaData.getId(), newDoc);
+        }
         
     }
 
@@ -2434,6 +2503,176 @@ public class SolrInformationServer implements InformationServer
     }
 
 
+    /**
+     * Move the property values of a cached document onto the fields that the current model maps each property to.
+     * Documents cached before a model or schema change may use other field names. Localised fields hold
+     * "\u0000locale\u0000value" so the plain values can always be rebuilt from them; the reverse is not possible
+     * as the locale is unknown.
+     */
+    static void remapPropertyFields(SolrInputDocument doc)
+    {
+        Collection<Object> fieldNames = doc.getFieldValues(FIELD_FIELDS);
+        if (fieldNames == null)
+        {
+            return;
+        }
+        Map<QName, List<String>> oldFieldsByProperty = new HashMap<QName, List<String>>();
+        for (Object fieldName : fieldNames)
+        {
+            String field = fieldName.toString();
+            int index = field.lastIndexOf("@{");
+            if (index == -1)
+            {
+                continue;
+            }
+            QName propertyQName = QName.createQName(field.substring(index + 1));
+            List<String> oldFields = oldFieldsByProperty.get(propertyQName);
+            if (oldFields == null)
+            {
+                oldFields = new ArrayList<String>();
+                oldFieldsByProperty.put(propertyQName, oldFields);
+            }
+            oldFields.add(field);
+        }
+
+        for (Map.Entry<QName, List<String>> entry : oldFieldsByProperty.entrySet())
+        {
+            List<FieldInstance> newFields = AlfrescoSolrDataModel.getInstance().getIndexedFieldNamesForProperty(entry.getKey()).getFields();
+            HashSet<String> newFieldNames = new HashSet<String>();
+            for (FieldInstance field : newFields)
+            {
+                newFieldNames.add(field.getField());
+            }
+            if (newFieldNames.equals(new HashSet<String>(entry.getValue())))
+            {
+                continue;
+            }
+
+            List<Object> localisedValues = null;
+            List<Object> plainValues = null;
+            for (String oldField : entry.getValue())
+            {
+                Collection<Object> values = doc.getFieldValues(oldField);
+                if (values == null || isSortField(oldField))
+                {
+                    continue;
+                }
+                if (isLocalisedField(oldField))
+                {
+                    if (localisedValues == null)
+                    {
+                        localisedValues = new ArrayList<Object>(values);
+                    }
+                }
+                else if (plainValues == null && !oldField.startsWith("suggest_@"))
+                {
+                    plainValues = new ArrayList<Object>(values);
+                }
+            }
+            if (plainValues == null && localisedValues != null)
+            {
+                plainValues = new ArrayList<Object>(localisedValues.size());
+                for (Object value : localisedValues)
+                {
+                    plainValues.add(stripLocale(value.toString()));
+                }
+            }
+            if (plainValues == null || plainValues.isEmpty())
+            {
+                continue;
+            }
+
+            for (String oldField : entry.getValue())
+            {
+                doc.removeField(oldField);
+            }
+            ArrayList<Object> remainingFieldNames = new ArrayList<Object>(doc.getFieldValues(FIELD_FIELDS));
+            remainingFieldNames.removeAll(entry.getValue());
+            doc.removeField(FIELD_FIELDS);
+            for (Object fieldName : remainingFieldNames)
+            {
+                doc.addField(FIELD_FIELDS, fieldName);
+            }
+
+            for (FieldInstance field : newFields)
+            {
+                if (field.isLocalised())
+                {
+                    if (localisedValues == null)
+                    {
+                        continue;
+                    }
+                    if (field.isSort())
+                    {
+                        StringBuilder sort = new StringBuilder(128);
+                        for (Object value : localisedValues)
+                        {
+                            if (sort.length() > 0)
+                            {
+                                sort.append("\u0000");
+                            }
+                            sort.append(value);
+                        }
+                        doc.addField(field.getField(), sort.toString());
+                    }
+                    else
+                    {
+                        for (Object value : localisedValues)
+                        {
+                            doc.addField(field.getField(), value);
+                        }
+                    }
+                }
+                else if (field.isSort())
+                {
+                    doc.addField(field.getField(), plainValues.get(0));
+                }
+                else
+                {
+                    for (Object value : plainValues)
+                    {
+                        doc.addField(field.getField(), value);
+                    }
+                }
+                addFieldIfNotSet(doc, field);
+            }
+        }
+    }
+
+    /**
+     * @return the flags of a property field, e.g. "s__lt" for "text@s__lt@{uri}name"
+     */
+    private static String getFieldFlags(String field)
+    {
+        int start = field.indexOf('@');
+        int end = field.indexOf('@', start + 1);
+        return (start == -1 || end == -1) ? "" : field.substring(start + 1, end);
+    }
+
+    private static boolean isLocalisedField(String field)
+    {
+        String flags = getFieldFlags(field);
+        return flags.length() == 5 && flags.charAt(3) == 'l';
+    }
+
+    private static boolean isSortField(String field)
+    {
+        return getFieldFlags(field).endsWith("sort");
+    }
+
+    private static String stripLocale(String value)
+    {
+        if (value.length() > 0 && value.charAt(0) == '\u0000')
+        {
+            int end = value.indexOf('\u0000', 1);
+            if (end != -1)
+            {
+                return value.substring(end + 1);
+            }
+        }
+        return value;
+    }
+
     private void deleteErrorNode(UpdateRequestProcessor processor, SolrQueryRequest request, Node node) throws IOException
     {
         String errorDocId = PREFIX_ERROR + node.getId();
@@ -2839,6 +3078,7 @@ public class SolrInformationServer implements InformationServer
                     .getContentContext()
                     .getContentUrl();
         this.solrContentStore.delete(contentUrl);
+        this.solrContentStore.delete(SolrContentUrlBuilder.getDeltaContentUrl(contentUrl));
     }
 
     private void storeDocOnSolrContentStore(NodeMetaData nodeMetaData, SolrInputDocument doc) throws IOException
@@ -2855,6 +3095,37 @@ public class SolrInformationServer implements InformationServer
                     .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
                     .getContentContext();
         this.solrContentStore.delete(contentContext.getContentUrl());
+        // The full document supersedes any delta recorded against the previous version
+        this.solrContentStore.delete(SolrContentUrlBuilder.getDeltaContentUrl(contentContext.getContentUrl()));
+        writeDocToSolrContentStore(contentContext, doc);
+    }
+
+    /**
+     * Record a change to some field groups of a cached document without rewriting the full document.
+     * The values of the groups are taken from <code>doc</code>, which may be the full document or
+     * a document holding only the fields of those groups.
+     * If there is no full document in the store there is nothing to apply the delta to, so nothing is written.
+     */
+    private void storeDeltaOnSolrContentStore(String tenant, long dbId, SolrInputDocument doc, Set<FieldGroup> groups) throws IOException
+    {
+        String contentUrl = SolrContentUrlBuilder
+                    .start()
+                    .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
+                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                    .get();
+        if (groups.isEmpty() || !this.solrContentStore.exists(contentUrl))
+        {
+            return;
+        }
+        String deltaUrl = SolrContentUrlBuilder.getDeltaContentUrl(contentUrl);
+        SolrInputDocument delta = SolrCachedDocDelta.extract(doc, groups);
+        delta = SolrCachedDocDelta.merge(this.solrContentStore.readDoc(deltaUrl), delta);
+        this.solrContentStore.delete(deltaUrl);
+        writeDocToSolrContentStore(new ContentContext(null, deltaUrl), delta);
+    }
+
+    private void writeDocToSolrContentStore(ContentContext contentContext, SolrInputDocument doc)
+    {
         ContentWriter writer = this.solrContentStore.getWriter(contentContext);
         if (log.isDebugEnabled())
         {
@@ -2878,34 +3149,9 @@ public class SolrInformationServer implements InformationServer
 
     private SolrInputDocument retrieveDocFromSolrContentStore(String tenant, long dbId) throws IOException
     {
-        String contentUrl = SolrContentUrlBuilder
-                    .start()
-                    .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
-                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
-                    .get();
-        ContentReader reader = this.solrContentStore.getReader(contentUrl);
-        SolrInputDocument cachedDoc = null;
-        if (reader.exists())
-        {
-            // try-with-resources statement closes all these InputStreams
-            try (
-                    InputStream contentInputStream = reader.getContentInputStream();
-                    // Uncompresses the document
-                    GZIPInputStream gzip = new GZIPInputStream(contentInputStream);
-                )
-            {
-                cachedDoc = (SolrInputDocument) new JavaBinCodec(resolver).unmarshal(gzip);
-            }
-            catch (Exception e)
-            {
-                // Don't fail for this
-                log.warn("Failed to get doc from store using URL: " + contentUrl, e);
-                return null;
-            }
-        }
-        return cachedDoc;
+        return this.solrContentStore.retrieveDoc(tenant, dbId);
     }
-    
+
     private static void addMLTextPropertyToDoc(SolrInputDocument doc, FieldInstance field, MLTextPropertyValue mlTextPropertyValue) throws IOException
     {   
         if(field.isLocalised())
@@ -3280,6 +3526,238 @@ public class SolrInformationServer implements InformationServer
         }
     }
 
+    @Override
+    public ContentStoreReport checkContentStore(Map<String, OpenBitSet> indexedOnNode, boolean deleteOrphans, int threads,
+                int maxFilesPerSecond, long minOrphanAgeMillis) throws IOException, InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        ContentStoreReport report = new ContentStoreReport();
+        // Files written since the searcher was opened may belong to uncommitted nodes, so only older files can be orphans
+        long orphanLastModified = start - minOrphanAgeMillis;
+        Map<String, OpenBitSet> indexedByTenant = getIndexedNodeDbIds();
+        if (indexedByTenant == null)
+        {
+            indexedByTenant = new HashMap<String, OpenBitSet>();
+        }
+        long nodesInIndex = 0;
+        for (OpenBitSet indexed : indexedByTenant.values())
+        {
+            nodesInIndex += indexed.cardinality();
+        }
+        report.setNodesInIndex(nodesInIndex);
+
+        ContentStoreChecker checker = new ContentStoreChecker(solrContentStore, threads, maxFilesPerSecond);
+        Map<String, OpenBitSet> cachedByTenant = checker.check(indexedByTenant, indexedOnNode, deleteOrphans,
+                    orphanLastModified, new ContentStoreChecker.NodeLock()
+                    {
+                        @Override
+                        public boolean lock(long dbId)
+                        {
+                            return spinLock(dbId, 1000);
+                        }
+
+                        @Override
+                        public void unlock(long dbId)
+                        {
+                            SolrInformationServer.this.unlock(dbId);
+                        }
+                    }, report);
+
+        IOpenBitSet missing = getOpenBitSetInstance();
+        for (Map.Entry<String, OpenBitSet> entry : indexedByTenant.entrySet())
+        {
+            OpenBitSet cached = cachedByTenant.get(entry.getKey());
+            OpenBitSet indexed = entry.getValue();
+            for (long dbId = indexed.nextSetBit(0L); dbId >= 0; dbId = indexed.nextSetBit(dbId + 1))
+            {
+                if (cached == null || !cached.get(dbId))
+                {
+                    missing.set(dbId);
+                }
+            }
+        }
+        report.setMissingNodes(missing);
+        report.setElapsedMillis(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    @Override
+    public String getContentStoreRoot()
+    {
+        return solrContentStore.getRootLocation();
+    }
+
+    @Override
+    public long reindexFromContentStore(int threads) throws IOException, InterruptedException
+    {
+        // The content store is shared by every core on the node, and the index may have been wiped, so each
+        // cached document is matched against the store and ACL shard this core tracks
+        Properties p = core.getResourceLoader().getCoreProperties();
+        final String storeRef = p.getProperty("alfresco.stores", "workspace://SpacesStore");
+        final int shardCount = Integer.parseInt(p.getProperty("acl.shard.count", "1"));
+        final int shardInstance = Integer.parseInt(p.getProperty("acl.shard.instance", "0"));
+        final AtomicLong reindexed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        SolrContentStoreScanner scanner = new SolrContentStoreScanner(solrContentStore, threads, 0);
+        scanner.scan(new SolrContentStoreScanner.Visitor()
+        {
+            @Override
+            public void visit(String tenant, long dbId, File file, boolean delta)
+            {
+                if (delta)
+                {
+                    // Applied when the full document is read
+                    return;
+                }
+                try
+                {
+                    if (reindexCachedDoc(tenant, dbId, storeRef, shardCount, shardInstance))
+                    {
+                        reindexed.incrementAndGet();
+                    }
+                }
+                catch (Exception e)
+                {
+                    failed.incrementAndGet();
+                    log.warn("Failed to reindex cached doc " + file, e);
+                }
+            }
+        });
+
+        registerTrackerThread();
+        try
+        {
+            commit();
+        }
+        finally
+        {
+            unregisterTrackerThread();
+        }
+        log.info("Reindexed " + reindexed.get() + " cached docs for core " + core.getName() + " with " + failed.get() + " failures");
+        return reindexed.get();
+    }
+
+    @Override
+    public long migrateContentStore(int threads) throws IOException, InterruptedException
+    {
+        return solrContentStore.migrateToHashedLayout(threads);
+    }
+
+    private boolean reindexCachedDoc(String tenant, long dbId, String storeRef, int shardCount, int shardInstance)
+                throws Exception
+    {
+        if (!spinLock(dbId, 120000))
+        {
+            throw new Exception("Unable to acquire lock on nodeId:" + dbId);
+        }
+        // Held per document so tracker commits and rollbacks can run between documents
+        commitAndRollbackLock.readLock().lock();
+        SolrQueryRequest request = null;
+        UpdateRequestProcessor processor = null;
+        try
+        {
+            SolrInputDocument doc = retrieveDocFromSolrContentStore(tenant, dbId);
+            if (doc == null)
+            {
+                return false;
+            }
+            if (!isCachedDocOfCore(doc, storeRef, shardCount, shardInstance))
+            {
+                return false;
+            }
+            if (!recordUnindexedNodes && DOC_TYPE_UNINDEXED_NODE.equals(doc.getFieldValue(FIELD_DOC_TYPE)))
+            {
+                return false;
+            }
+            remapPropertyFields(doc);
+
+            request = getLocalSolrQueryRequest();
+            processor = this.core.getUpdateProcessingChain(null).createProcessor(request, new SolrQueryResponse());
+            AddUpdateCommand addDocCmd = new AddUpdateCommand(request);
+            addDocCmd.overwrite = true;
+            addDocCmd.solrDoc = doc;
+            processor.processAdd(addDocCmd);
+            return true;
+        }
+        finally
+        {
+            unlock(dbId);
+            if(processor != null) {processor.finish();}
+            if(request != null) {request.close();}
+            commitAndRollbackLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if a cached document is of a node in the given store whose ACL falls in the given ACL shard
+     */
+    static boolean isCachedDocOfCore(SolrInputDocument doc, String storeRef, int shardCount, int shardInstance)
+    {
+        Object nodeRef = doc.getFieldValue(FIELD_LID);
+        if (nodeRef == null || !nodeRef.toString().startsWith(storeRef + "/"))
+        {
+            return false;
+        }
+        if (shardCount > 1)
+        {
+            Object aclId = doc.getFieldValue(FIELD_ACLID);
+            return (aclId != null) && (Long.parseLong(aclId.toString()) % shardCount == shardInstance);
+        }
+        return true;
+    }
+
+    /**
+     * Read the DB IDs of all node documents in the current searcher from the DBID and TENANT doc values.
+     */
+    @Override
+    public Map<String, OpenBitSet> getIndexedNodeDbIds() throws IOException
+    {
+        Map<String, OpenBitSet> dbIdsByTenant = new HashMap<String, OpenBitSet>();
+        RefCounted<SolrIndexSearcher> refCounted = null;
+        try
+        {
+            refCounted = core.getSearcher(false, true, null);
+            SolrIndexSearcher solrIndexSearcher = refCounted.get();
+
+            BooleanQuery query = new BooleanQuery();
+            query.add(new TermQuery(new Term(FIELD_DOC_TYPE, DOC_TYPE_NODE)), Occur.SHOULD);
+            query.add(new TermQuery(new Term(FIELD_DOC_TYPE, DOC_TYPE_UNINDEXED_NODE)), Occur.SHOULD);
+            DocSet docSet = solrIndexSearcher.getDocSet(query);
+
+            NumericDocValues dbidDocValues = solrIndexSearcher.getAtomicReader().getNumericDocValues(FIELD_DBID);
+            SortedDocValues tenantDocValues = solrIndexSearcher.getAtomicReader().getSortedDocValues(FIELD_TENANT);
+            if (dbidDocValues == null || tenantDocValues == null)
+            {
+                // Nodes without doc values can not be told apart
+                return (docSet.size() == 0) ? dbIdsByTenant : null;
+            }
+            OpenBitSet[] dbIdsByOrdinal = new OpenBitSet[tenantDocValues.getValueCount()];
+            for (DocIterator it = docSet.iterator(); it.hasNext(); /**/)
+            {
+                int docID = it.nextDoc();
+                int ordinal = tenantDocValues.getOrd(docID);
+                if (ordinal < 0)
+                {
+                    continue;
+                }
+                if (dbIdsByOrdinal[ordinal] == null)
+                {
+                    dbIdsByOrdinal[ordinal] = new OpenBitSet();
+                    dbIdsByTenant.put(tenantDocValues.lookupOrd(ordinal).utf8ToString(), dbIdsByOrdinal[ordinal]);
+                }
+                dbIdsByOrdinal[ordinal].set(dbidDocValues.get(docID));
+            }
+            return dbIdsByTenant;
+        }
+        finally
+        {
+            if (refCounted != null)
+            {
+                refCounted.decref();
+            }
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.alfresco.solr.InformationServer#reindexNodeByQuery(java.lang.String)
      */
@@ -44,4 +44,10 @@ public class CacheConstants
     public static String ALFRESCO_READER_CACHE = "alfrescoReaderCache";
     public static String ALFRESCO_DENIED_CACHE = "alfrescoDeniedCache";
     public static String ALFRESCO_PATH_CACHE = "alfrescoPathCache";
+    public static String ALFRESCO_FTS_QUERY_CACHE = "alfrescoFTSQueryCache";
+    public static String ALFRESCO_WILDCARD_EXPANSION_CACHE = "alfrescoWildcardExpansionCache";
+    public static String ALFRESCO_CMIS_QUERY_CACHE = "alfrescoCMISQueryCache";
+    public static String ALFRESCO_TENANT_CACHE = "alfrescoTenantCache";
+    public static String ALFRESCO_RERANK_CACHE = "alfrescoReRankCache";
+    public static String ALFRESCO_FACET_CACHE = "alfrescoFacetCache";
 }
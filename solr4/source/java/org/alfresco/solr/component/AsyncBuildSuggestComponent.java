@@ -31,12 +31,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
@@ -49,7 +50,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import org.alfresco.util.cache.AbstractAsynchronouslyRefreshedCache;
 import org.alfresco.util.cache.DefaultAsynchronouslyRefreshedCacheRegistry;
-import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.Lookup.LookupResult;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.BytesRef;
@@ -111,6 +111,12 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
   private static final String ASYNC_CACHE_KEY = "suggester";
 
   private static final String MIN_SECS_BETWEEN_BUILDS = "solr.suggester.minSecsBetweenBuilds";
+
+  /** Core property to add the terms of new segments to the live suggester between full builds */
+  private static final String INCREMENTAL_BUILDS = "solr.suggester.incrementalBuilds";
+
+  /** Core property giving the share of the index that new segments may hold before the suggester waits for its next full build */
+  private static final String MAX_DELTA_RATIO = "solr.suggester.maxDeltaRatio";
   
   private static File offlineSorterTempDir;
   
@@ -171,7 +177,10 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
           boolean buildOnOptimize = Boolean.parseBoolean((String) suggesterParams.get(BUILD_ON_OPTIMIZE_LABEL));
           boolean enabled = Boolean.parseBoolean((String) suggesterParams.get(ENABLED_LABEL));
           long minSecsBetweenBuilds = Long.parseLong(core.getCoreDescriptor().getCoreProperty(MIN_SECS_BETWEEN_BUILDS, "-1")); 
-          SuggesterCache suggesterCache = new SuggesterCache(core, suggesterParams, enabled, buildOnCommit, buildOnOptimize);
+          boolean incrementalBuilds = Boolean.parseBoolean(core.getCoreDescriptor().getCoreProperty(INCREMENTAL_BUILDS, "false"));
+          float maxDeltaRatio = Float.parseFloat(core.getCoreDescriptor().getCoreProperty(MAX_DELTA_RATIO, "0.1"));
+          SuggesterCache suggesterCache = new SuggesterCache(core, suggesterParams, enabled, buildOnCommit, buildOnOptimize,
+                      minSecsBetweenBuilds, incrementalBuilds && buildOnCommit, maxDeltaRatio);
           
           String dictionary = suggester.init(suggesterParams, core);
           if (dictionary != null) {
@@ -338,7 +347,7 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
           Map<String, SimpleOrderedMap<NamedList<Object>>> namedList = 
               (Map<String, SimpleOrderedMap<NamedList<Object>>>) resp.get(SuggesterResultLabels.SUGGEST);
           LOG.debug(srsp.getShard() + " : " + namedList);
-          suggesterResults.add(toSuggesterResult(namedList));
+          suggesterResults.add(toSuggesterResult(namedList, count));
         }
       }
     }
@@ -358,7 +367,7 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
    * number of {@link LookupResult}, sorted by their associated 
    * weights
    * */
-  private static SuggesterResult merge(List<SuggesterResult> suggesterResults, int count) {
+  static SuggesterResult merge(List<SuggesterResult> suggesterResults, int count) {
     SuggesterResult result = new SuggesterResult();
     Set<String> allTokens = new HashSet<>();
     Set<String> suggesterNames = new HashSet<>();
@@ -374,24 +383,78 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
     // Get Top N for every token in every shard (using weights)
     for (String suggesterName : suggesterNames) {
       for (String token : allTokens) {
-        Lookup.LookupPriorityQueue resultQueue = new Lookup.LookupPriorityQueue(
-            count);
-        for (SuggesterResult shardResult : suggesterResults) {
-          List<LookupResult> suggests = shardResult.getLookupResult(suggesterName, token);
-          if (suggests == null) {
-            continue;
+        PriorityQueue<ShardSuggestions> heads = new PriorityQueue<>(Math.max(1, suggesterResults.size()));
+        for (int i = 0; i < suggesterResults.size(); i++) {
+          List<LookupResult> suggests = suggesterResults.get(i).getLookupResult(suggesterName, token);
+          if (suggests != null && !suggests.isEmpty()) {
+            heads.add(new ShardSuggestions(i, suggests));
           }
-          for (LookupResult res : suggests) {
-            resultQueue.insertWithOverflow(res);
+        }
+        // Every shard list is sorted by weight, so take the heaviest head until there are count suggestions
+        List<LookupResult> sortedSuggests = new ArrayList<>(count);
+        while (sortedSuggests.size() < count && !heads.isEmpty()) {
+          ShardSuggestions head = heads.poll();
+          sortedSuggests.add(head.current);
+          if (head.next()) {
+            heads.add(head);
           }
         }
-        List<LookupResult> sortedSuggests = new LinkedList<>();
-        Collections.addAll(sortedSuggests, resultQueue.getResults());
         result.add(suggesterName, token, sortedSuggests);
       }
     }
     return result;
   }
+
+  /** The suggestions of one shard for a token, in descending weight order, as a cursor for {@link #merge} */
+  private static class ShardSuggestions implements Comparable<ShardSuggestions> {
+    /** Descending weight, {@link LookupResult} itself compares by key */
+    private static final Comparator<LookupResult> BY_WEIGHT = new Comparator<LookupResult>() {
+      @Override
+      public int compare(LookupResult a, LookupResult b) {
+        return Long.compare(b.value, a.value);
+      }
+    };
+
+    private final int shard;
+    private final Iterator<LookupResult> iterator;
+    private LookupResult current;
+
+    ShardSuggestions(int shard, List<LookupResult> suggests) {
+      this.shard = shard;
+      if (!isSortedByWeight(suggests)) {
+        suggests = new ArrayList<>(suggests);
+        Collections.sort(suggests, BY_WEIGHT);
+      }
+      this.iterator = suggests.iterator();
+      this.current = iterator.next();
+    }
+
+    boolean next() {
+      if (iterator.hasNext()) {
+        current = iterator.next();
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public int compareTo(ShardSuggestions other) {
+      // heaviest first, ties in shard order
+      int cmp = Long.compare(other.current.value, current.value);
+      return cmp != 0 ? cmp : Integer.compare(shard, other.shard);
+    }
+
+    private static boolean isSortedByWeight(List<LookupResult> suggests) {
+      long previous = Long.MAX_VALUE;
+      for (LookupResult suggest : suggests) {
+        if (suggest.value > previous) {
+          return false;
+        }
+        previous = suggest.value;
+      }
+      return true;
+    }
+  }
   
   @Override
   public String getDescription() {
@@ -483,8 +546,11 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
     }
   }
   
-  /** Convert NamedList (suggester response) to {@link SuggesterResult} */
-  private SuggesterResult toSuggesterResult(Map<String, SimpleOrderedMap<NamedList<Object>>> suggestionsMap) {
+  /** 
+   * Convert NamedList (suggester response) to {@link SuggesterResult}, keeping at most 
+   * <code>count</code> suggestions per token as no more can make it into the merged result
+   * */
+  private SuggesterResult toSuggesterResult(Map<String, SimpleOrderedMap<NamedList<Object>>> suggestionsMap, int count) {
     SuggesterResult result = new SuggesterResult();
     if (suggestionsMap == null) {
       return result;
@@ -504,6 +570,9 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
             @SuppressWarnings("unchecked")
             List<NamedList<Object>> suggestionEntries = (List<NamedList<Object>>) suggestion.getVal(j);
             for(NamedList<Object> suggestionEntry : suggestionEntries) {
+              if (lookupResults.size() >= count) {
+                break;
+              }
               String term = (String) suggestionEntry.get(SuggesterResultLabels.SUGGESTION_TERM);
               Long weight = (Long) suggestionEntry.get(SuggesterResultLabels.SUGGESTION_WEIGHT);
               String payload = (String) suggestionEntry.get(SuggesterResultLabels.SUGGESTION_PAYLOAD);
@@ -550,7 +619,16 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
             long lastBuild = suggesterCache.getLastBuild();
             long elapsedTimeMillis = (lastBuild == 0) ? 0 : (now - lastBuild);
             long elapsedTimeSecs = (lastBuild == 0) ? 0 : (elapsedTimeMillis / 1000);
-            if (elapsedTimeSecs > minSecsBetweenBuilds)
+            if (suggesterCache.isIncremental())
+            {
+                // the cache decides between updating the live suggester, keeping it and a full build
+                if (LOG.isDebugEnabled())
+                {
+                    LOG.debug("Scheduling async suggester update, core: " + newSearcher.getCore().getName());
+                }
+                suggesterCache.refresh(ASYNC_CACHE_KEY);
+            }
+            else if (elapsedTimeSecs > minSecsBetweenBuilds)
             {
                 if (LOG.isDebugEnabled())
                 {
@@ -602,15 +680,22 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
     private final boolean buildOnOptimize;
     private final boolean enabled;
     private final AlfrescoSolrSuggester initialSuggester;
+    private final long minSecsBetweenBuilds;
+    private final boolean incremental;
+    private final float maxDeltaRatio;
     private long lastBuild = 0;
     
-    public SuggesterCache(SolrCore core, NamedList suggesterParams, boolean enabled, boolean buildOnCommit, boolean buildOnOptimize)
+    public SuggesterCache(SolrCore core, NamedList suggesterParams, boolean enabled, boolean buildOnCommit, boolean buildOnOptimize,
+                long minSecsBetweenBuilds, boolean incremental, float maxDeltaRatio)
     {
         this.core = core;
         this.suggesterParams = suggesterParams;
         this.enabled = enabled;
         this.buildOnCommit = buildOnCommit;
         this.buildOnOptimize = buildOnOptimize;
+        this.minSecsBetweenBuilds = minSecsBetweenBuilds;
+        this.incremental = incremental;
+        this.maxDeltaRatio = maxDeltaRatio;
         setRegistry(new DefaultAsynchronouslyRefreshedCacheRegistry());
         BlockingQueue<Runnable> threadPool = new LinkedBlockingQueue<Runnable>();
         setThreadPoolExecutor(new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, threadPool, getThreadFactory(core)));
@@ -686,6 +771,18 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
         {
             SolrIndexSearcher searcher = refCountedSearcher.get();
             
+            // Between full builds add the terms of the new segments to the live suggester, or keep it as it is
+            // when it cannot be updated
+            if (incremental && isNewSearcher.get() && !isFullBuildDue())
+            {
+                AlfrescoSolrSuggester current = get(key);
+                if (current != initialSuggester)
+                {
+                    AlfrescoSolrSuggester updated = updateSuggester(current, searcher);
+                    return (updated != null) ? updated : current;
+                }
+            }
+            
             // Create and configure the suggester
             AlfrescoSolrSuggester suggester = new AlfrescoSolrSuggester();
             suggester.init(suggesterParams, core);
@@ -734,6 +831,42 @@ public class AsyncBuildSuggestComponent extends SearchComponent implements SolrC
         return lastBuild;
     }
     
+    /**
+     * @return true if new searchers update the live suggester, with a full build only when one is due
+     */
+    public boolean isIncremental()
+    {
+        return incremental;
+    }
+    
+    private boolean isFullBuildDue()
+    {
+        if (lastBuild == 0 || minSecsBetweenBuilds < 0)
+        {
+            return true;
+        }
+        return (System.currentTimeMillis() - lastBuild) / 1000 > minSecsBetweenBuilds;
+    }
+    
+    private AlfrescoSolrSuggester updateSuggester(AlfrescoSolrSuggester suggester, SolrIndexSearcher newSearcher)
+    {
+        try
+        {
+            final long startMillis = System.currentTimeMillis();
+            AlfrescoSolrSuggester updated = suggester.update(core, newSearcher, maxDeltaRatio);
+            if (updated != null && LOG.isDebugEnabled())
+            {
+                LOG.debug("Updated suggester " + updated.getName() + ", took " + (System.currentTimeMillis() - startMillis) + " ms");
+            }
+            return updated;
+        }
+        catch (IOException e)
+        {
+            LOG.error("Exception in updating suggester index for: " + suggester.getName() + ", keeping it until the next build", e);
+            return null;
+        }
+    }
+    
     private void buildSuggesterIndex(AlfrescoSolrSuggester suggester, SolrIndexSearcher newSearcher) {
       try {
         LOG.info("Building suggester index for: " + suggester.getName());
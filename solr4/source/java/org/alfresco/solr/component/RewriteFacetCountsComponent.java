@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 
+import org.alfresco.solr.cache.CacheConstants;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
@@ -72,20 +73,31 @@ public class RewriteFacetCountsComponent extends SearchComponent
     @Override
     public void process(ResponseBuilder rb)
     {
-        // rewrite
+        NamedList<Object> cachedFacetCounts = (NamedList<Object>)rb.req.getContext().get(RewriteFacetParametersComponent.CACHED_FACET_COUNTS);
+        if(cachedFacetCounts != null)
+        {
+            // Rewritten before they were cached
+            rb.rsp.add("facet_counts", cachedFacetCounts);
+        }
+        else
+        {
+            // rewrite
 
-        rewrite(rb, "_field_mappings_", "facet_counts", "facet_fields");
-        rewrite(rb, "_date_mappings_", "facet_counts", "facet_dates");
-        rewrite(rb, "_range_mappings_", "facet_counts", "facet_ranges");
-        rewrite(rb, "_interval_mappings_", "facet_counts", "facet_intervals");
-        
-        rewrite(rb, "_pivot_mappings_", "facet_counts", "facet_pivot");
-        rewritePivotFields(rb, "facet_counts", "facet_pivot");
+            rewrite(rb, "_field_mappings_", "facet_counts", "facet_fields");
+            rewrite(rb, "_date_mappings_", "facet_counts", "facet_dates");
+            rewrite(rb, "_range_mappings_", "facet_counts", "facet_ranges");
+            rewrite(rb, "_interval_mappings_", "facet_counts", "facet_intervals");
+
+            rewrite(rb, "_pivot_mappings_", "facet_counts", "facet_pivot");
+            rewritePivotFields(rb, "facet_counts", "facet_pivot");
+
+            copyAnalytics(rb, "facet_counts", "facet_fields");
+            
+            cacheFacetCounts(rb);
+        }
         
         rewrite(rb, "_stats_field_mappings_", "stats", "stats_fields");
         
-        copyAnalytics(rb, "facet_counts", "facet_fields");
-        
         HashMap<String, String> mappings = (HashMap<String, String>)rb.rsp.getValues().get("_stats_field_mappings_");
         if(mappings != null)
         {
@@ -97,6 +109,28 @@ public class RewriteFacetCountsComponent extends SearchComponent
     }
     
     
+    /**
+     * Cache the rewritten facet counts under the key RewriteFacetParametersComponent left for them, unless the
+     * search timed out and the counts may be incomplete.
+     * 
+     * @param rb
+     */
+    private void cacheFacetCounts(ResponseBuilder rb)
+    {
+        Object key = rb.req.getContext().get(RewriteFacetParametersComponent.FACET_CACHE_KEY);
+        Object facetCounts = rb.rsp.getValues().get("facet_counts");
+        if((key == null) || (facetCounts == null))
+        {
+            return;
+        }
+        NamedList<Object> responseHeader = rb.rsp.getResponseHeader();
+        if((responseHeader != null) && Boolean.TRUE.equals(responseHeader.get("partialResults")))
+        {
+            return;
+        }
+        rb.req.getSearcher().cacheInsert(CacheConstants.ALFRESCO_FACET_CACHE, key, facetCounts);
+    }
+
     /**
      * @param rb
      */
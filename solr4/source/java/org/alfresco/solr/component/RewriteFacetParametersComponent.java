@@ -27,16 +27,25 @@ package org.alfresco.solr.component;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
+import org.alfresco.solr.cache.CacheConstants;
+import org.alfresco.solr.query.AlfrescoJsonRequest;
 import org.alfresco.solr.query.MimetypeGroupingQParserPlugin;
 import org.apache.commons.lang.StringUtils;
 import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.FacetParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.request.SolrQueryRequest;
@@ -48,6 +57,24 @@ import org.apache.solr.request.SolrQueryRequest;
  */
 public class RewriteFacetParametersComponent extends SearchComponent
 {
+    /** Request context key of the facet cache key, set when the rewritten facet counts should be cached */
+    public static final String FACET_CACHE_KEY = "_facet_cache_key_";
+
+    /** Request context key of the cached, already rewritten, facet counts used instead of faceting */
+    public static final String CACHED_FACET_COUNTS = "_cached_facet_counts_";
+
+    /* Parameters that do not change the facet counts, so paging and re-sorting share the cached counts */
+    private static final Set<String> NON_FACET_PARAMS = new HashSet<String>(Arrays.asList(CommonParams.START,
+                CommonParams.ROWS, CommonParams.SORT, CommonParams.FL, CommonParams.RQ, CommonParams.WT, "indent",
+                CommonParams.HEADER_ECHO_PARAMS, CommonParams.OMIT_HEADER, CommonParams.TIME_ALLOWED, "_"));
+
+    private static final String[] NON_FACET_PARAM_PREFIXES = { "hl", "spellcheck", "debug", "mlt", "stats", "suggest" };
+
+    /* Cached counts that depend on NOW are only reused within the same minute */
+    private static final long NOW_RESOLUTION_MS = 60000L;
+
+    /* Set on every shard request by the coordinator, so it is bucketed rather than keyed on */
+    private static final String NOW_PARAM = "NOW";
 
     /* (non-Javadoc)
      * @see org.apache.solr.handler.component.SearchComponent#prepare(org.apache.solr.handler.component.ResponseBuilder)
@@ -69,6 +96,55 @@ public class RewriteFacetParametersComponent extends SearchComponent
          }
          
          req.setParams(fixed);
+         
+         lookupFacetCounts(rb, fixed);
+    }
+
+    /**
+     * The rewritten facet counts only depend on the query, filters, facet parameters and the request JSON, which
+     * carries the authorities and tenants, so they are cached per searcher. Paging and re-sorting then reuse them
+     * rather than faceting the permission filtered doc set again. A hit switches faceting off for the request and
+     * leaves the cached counts in the request context; a miss leaves the key for RewriteFacetCountsComponent to
+     * cache the rewritten counts under.
+     * 
+     * @param rb ResponseBuilder
+     * @param fixed the rewritten parameters of the request
+     */
+    private void lookupFacetCounts(ResponseBuilder rb, ModifiableSolrParams fixed)
+    {
+        // The coordinator of a distributed search merges the shard counts, which are cached by the shards
+        if(rb.shards != null || !fixed.getBool(FacetParams.FACET, false))
+        {
+            return;
+        }
+        
+        FacetCacheKey key = new FacetCacheKey(fixed, AlfrescoJsonRequest.getJsonRequest(rb.req));
+        NamedList<Object> cached = (NamedList<Object>)rb.req.getSearcher().cacheLookup(CacheConstants.ALFRESCO_FACET_CACHE, key);
+        if(cached != null)
+        {
+            fixed.set(FacetParams.FACET, false);
+            rb.req.getContext().put(CACHED_FACET_COUNTS, cached);
+        }
+        else
+        {
+            rb.req.getContext().put(FACET_CACHE_KEY, key);
+        }
+    }
+
+    private static boolean affectsFacetCounts(String name)
+    {
+        if(NON_FACET_PARAMS.contains(name))
+        {
+            return false;
+        }
+        for(String prefix : NON_FACET_PARAM_PREFIXES)
+        {
+            if(name.startsWith(prefix))
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     
@@ -485,4 +561,89 @@ public class RewriteFacetParametersComponent extends SearchComponent
         return "";
     }
 
+    /**
+     * Key of the rewritten facet counts: the parameters that affect them, with the filter queries in a fixed order, and
+     * the canonical request JSON. Counts that depend on NOW are keyed on the minute of NOW as well, which is taken from
+     * the NOW parameter a coordinator sends to its shards, or else the current time.
+     */
+    private static final class FacetCacheKey
+    {
+        private final TreeMap<String, List<String>> params = new TreeMap<String, List<String>>();
+
+        private final String json;
+
+        private final long now;
+
+        private final int hashCode;
+
+        FacetCacheKey(SolrParams solrParams, AlfrescoJsonRequest jsonRequest)
+        {
+            boolean usesNow = false;
+            String nowParam = null;
+            for(Iterator<String> it = solrParams.getParameterNamesIterator(); it.hasNext(); /**/)
+            {
+                String name = it.next();
+                if(name.equals(NOW_PARAM))
+                {
+                    nowParam = solrParams.get(name);
+                    continue;
+                }
+                if(!affectsFacetCounts(name))
+                {
+                    continue;
+                }
+                String[] values = solrParams.getParams(name).clone();
+                if(name.equals(CommonParams.FQ))
+                {
+                    Arrays.sort(values);
+                }
+                for(String value : values)
+                {
+                    usesNow |= (value != null) && value.contains("NOW");
+                }
+                params.put(name, Arrays.asList(values));
+            }
+            json = (jsonRequest == null) ? "" : jsonRequest.toCanonicalJson();
+            usesNow |= json.contains("NOW");
+            now = usesNow ? getNow(nowParam) / NOW_RESOLUTION_MS : -1L;
+            hashCode = 31 * (31 * params.hashCode() + json.hashCode()) + (int)(now ^ (now >>> 32));
+        }
+
+        private static long getNow(String nowParam)
+        {
+            if(nowParam != null)
+            {
+                try
+                {
+                    return Long.parseLong(nowParam);
+                }
+                catch(NumberFormatException e)
+                {
+                    // Solr rejects the request when it parses NOW
+                }
+            }
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if(this == o)
+            {
+                return true;
+            }
+            if(!(o instanceof FacetCacheKey))
+            {
+                return false;
+            }
+            FacetCacheKey other = (FacetCacheKey)o;
+            return (hashCode == other.hashCode) && (now == other.now) && json.equals(other.json) && params.equals(other.params);
+        }
+    }
 }
@@ -30,10 +30,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.alfresco.solr.query.AbstractQParser;
+import org.alfresco.solr.query.AlfrescoJsonRequest;
 import org.apache.lucene.analysis.Token;
 import org.apache.lucene.index.IndexReader;
 import org.apache.solr.common.params.CommonParams;
@@ -47,6 +55,8 @@ import org.apache.solr.handler.component.QueryComponent;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequestBase;
+import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.response.SolrQueryResponse;
 import org.apache.solr.search.EarlyTerminatingCollectorException;
 import org.apache.solr.search.SolrIndexSearcher;
@@ -54,17 +64,17 @@ import org.apache.solr.spelling.PossibilityIterator;
 import org.apache.solr.spelling.QueryConverter;
 import org.apache.solr.spelling.SpellCheckCorrection;
 import org.apache.solr.spelling.SpellingResult;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.extensions.surf.util.I18NUtil;
 
 /**
  * <b>Disclaimer</b>: The code copied from
  * {@link org.apache.solr.spelling.SpellCheckCollator} but only modified the
  * {@link org.apache.solr.spelling.SpellCheckCollator#collate(SpellingResult, String, ResponseBuilder)}
  * method to pass the suggested term to the original alfresco JSON request rather
- * than via 'q' parameter.
+ * than via 'q' parameter. Collations are checked against their own requests, in parallel if an executor is set,
+ * and the checks still pending are dropped once <tt>maxCollations</tt> are confirmed.
  *
  * @author Jamal Kaabi-Mofrad
  * @since 5.0
@@ -78,6 +88,7 @@ public class AlfrescoSpellCheckCollator
     private int maxCollationEvaluations = 10000;
     private boolean suggestionsMayOverlap = false;
     private int docCollectionLimit = 0;
+    private ExecutorService executor;
 
     public List<AlfrescoSpellCheckCollation> collate(SpellingResult result, String originalQuery,
                 ResponseBuilder ultimateResponse)
@@ -120,153 +131,335 @@ public class AlfrescoSpellCheckCollator
             maxDocId = reader.maxDoc();
         }
 
-        int tryNo = 0;
-        int collNo = 0;
         PossibilityIterator possibilityIter = new PossibilityIterator(result.getSuggestions(), maxNumberToIterate,
                     maxCollationEvaluations, suggestionsMayOverlap);
-        while (tryNo < maxTries && collNo < maxCollations && possibilityIter.hasNext())
+        if (!verifyCandidateWithQuery)
+        {
+            while (collations.size() < maxCollations && possibilityIter.hasNext())
+            {
+                PossibilityIterator.RankedSpellPossibility possibility = possibilityIter.next();
+                String collationQueryStr = getCollation(originalQuery, possibility.corrections);
+                collations.add(toCollation(possibility, null, collationQueryStr, 0));
+                if (LOG.isDebugEnabled())
+                {
+                    LOG.debug("Collation: " + collationQueryStr);
+                }
+            }
+            return collations;
+        }
+
+        SolrIndexSearcher searcher = ultimateResponse.req.getSearcher();
+        SolrParams checkParams = getCheckParams(ultimateResponse.req.getParams());
+        AlfrescoJsonRequest alfrescoJSON = (AlfrescoJsonRequest) ultimateResponse.req.getContext().get(AbstractQParser.ALFRESCO_JSON);
+        if ((alfrescoJSON != null) && (alfrescoJSON.getQuery() == null))
+        {
+            alfrescoJSON = null;
+        }
+
+        // The candidates are probed in rank order, so the first maxCollations with hits are the ones
+        // a sequential check would have found.
+        Locale locale = I18NUtil.getLocaleOrNull();
+        List<CollationProbe> probes = new ArrayList<>();
+        while (probes.size() < maxTries && possibilityIter.hasNext())
         {
             PossibilityIterator.RankedSpellPossibility possibility = possibilityIter.next();
             String collationQueryStr = getCollation(originalQuery, possibility.corrections);
-            int hits = 0;
-            String aftsQuery = null;
+            String aftsQuery = collationQueryStr;
+            if (alfrescoJSON != null)
+            {
+                aftsQuery = alfrescoJSON.getQuery().replaceAll(Pattern.quote(originalQuery), Matcher.quoteReplacement(collationQueryStr));
+            }
+            probes.add(new CollationProbe(possibility, collationQueryStr, aftsQuery, alfrescoJSON, checkParams,
+                        ultimateResponse, searcher, queryComponent, maxDocId, locale));
+        }
+
+        List<Future<Integer>> futures = null;
+        if (executor != null && probes.size() > 1)
+        {
+            futures = new ArrayList<>(probes.size());
+            for (CollationProbe probe : probes)
+            {
+                futures.add(executor.submit(probe));
+            }
+        }
 
-            if (verifyCandidateWithQuery)
+        try
+        {
+            for (int i = 0; i < probes.size() && collations.size() < maxCollations; i++)
             {
-                tryNo++;
-                SolrQueryRequest req = ultimateResponse.req;
-                SolrParams origParams = req.getParams();
-                ModifiableSolrParams params = new ModifiableSolrParams(origParams);
-                Iterator<String> origParamIterator = origParams.getParameterNamesIterator();
-                int pl = SpellingParams.SPELLCHECK_COLLATE_PARAM_OVERRIDE.length();
-                while (origParamIterator.hasNext())
+                CollationProbe probe = probes.get(i);
+                int hits = (futures == null) ? probe.call() : getHits(futures.get(i));
+                if (hits > 0)
                 {
-                    String origParamName = origParamIterator.next();
-                    if (origParamName.startsWith(SpellingParams.SPELLCHECK_COLLATE_PARAM_OVERRIDE)
-                                && origParamName.length() > pl)
-                    {
-                        String[] val = origParams.getParams(origParamName);
-                        if (val.length == 1 && val[0].length() == 0)
-                        {
-                            params.set(origParamName.substring(pl), (String[]) null);
-                        }
-                        else
-                        {
-                            params.set(origParamName.substring(pl), val);
-                        }
-                    }
+                    collations.add(toCollation(probe.possibility, probe.aftsQuery, probe.collationQueryStr, hits));
                 }
-                // we don't set the 'q' param, as we'll pass the query via JSON.
-                // params.set(CommonParams.Q, collationQueryStr);
-                params.remove(CommonParams.START);
-                params.set(CommonParams.ROWS, "" + docCollectionLimit);
-                // we don't want any stored fields
-                params.set(CommonParams.FL, "id");
-                // we'll sort by doc id to ensure no scoring is done.
-                params.set(CommonParams.SORT, "_docid_ asc");
-                // If a dismax query, don't add unnecessary clauses for scoring
-                params.remove(DisMaxParams.TIE);
-                params.remove(DisMaxParams.PF);
-                params.remove(DisMaxParams.PF2);
-                params.remove(DisMaxParams.PF3);
-                params.remove(DisMaxParams.BQ);
-                params.remove(DisMaxParams.BF);
-                // Collate testing does not support Grouping (see SOLR-2577)
-                params.remove(GroupParams.GROUP);
-
-                boolean useQStr = true;
-                JSONObject alfrescoJSON = (JSONObject) req.getContext().get(AbstractQParser.ALFRESCO_JSON);
-                if (alfrescoJSON != null)
+                if (LOG.isDebugEnabled())
                 {
-                    try
-                    {
-                        aftsQuery = alfrescoJSON.getString("query");
-                        aftsQuery = aftsQuery.replaceAll(Pattern.quote(originalQuery), Matcher.quoteReplacement(collationQueryStr));
-                        alfrescoJSON.put("query", aftsQuery);
+                    LOG.debug("Collation: " + probe.aftsQuery + " will return " + hits + " hits.");
+                }
+            }
+        }
+        finally
+        {
+            if (futures != null)
+            {
+                awaitProbes(probes, futures);
+            }
+        }
+        return collations;
+    }
 
-                        req.getContext().put(AbstractQParser.ALFRESCO_JSON, alfrescoJSON);
-                        useQStr = false;
-                    }
-                    catch (JSONException e)
-                    {
-                        LOG.warn("Exception trying to get/set the query from/to ALFRESCO_JSON.]" + e);
-                    }
+    /**
+     * Drops the probes the pool has not started and waits for the running ones, so that none of them uses the
+     * searcher after the request releases it. Running searches are left to finish rather than interrupted, as an
+     * interrupt closes NIO file channels.
+     */
+    private void awaitProbes(List<CollationProbe> probes, List<Future<Integer>> futures)
+    {
+        boolean interrupted = false;
+        for (int i = 0; i < probes.size(); i++)
+        {
+            Future<Integer> future = futures.get(i);
+            if (probes.get(i).abandon())
+            {
+                future.cancel(false);
+                continue;
+            }
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
                 }
-                else
+                catch (InterruptedException e)
                 {
-                    aftsQuery = collationQueryStr;
+                    interrupted = true;
                 }
-                req.setParams(params);
-                // creating a request here... make sure to close it!
-                ResponseBuilder checkResponse = new ResponseBuilder(req, new SolrQueryResponse(),
-                            Arrays.<SearchComponent> asList(queryComponent));
-                checkResponse.setQparser(ultimateResponse.getQparser());
-                checkResponse.setFilters(ultimateResponse.getFilters());
-                checkResponse.components = Arrays.<SearchComponent> asList(queryComponent);
-                if (useQStr)
+                catch (ExecutionException | CancellationException e)
                 {
-                    checkResponse.setQueryString(collationQueryStr);
+                    break;
                 }
-                try
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private AlfrescoSpellCheckCollation toCollation(PossibilityIterator.RankedSpellPossibility possibility,
+                String aftsQuery, String collationQueryStr, int hits)
+    {
+        AlfrescoSpellCheckCollation collation = new AlfrescoSpellCheckCollation();
+        collation.setCollationQuery(aftsQuery);
+        collation.setCollationQueryString(collationQueryStr);
+        collation.setHits(hits);
+        collation.setInternalRank(suggestionsMayOverlap ? ((possibility.rank * 1000) + possibility.index)
+                    : possibility.rank);
+
+        NamedList<String> misspellingsAndCorrections = new NamedList<>();
+        for (SpellCheckCorrection corr : possibility.corrections)
+        {
+            misspellingsAndCorrections.add(corr.getOriginal().toString(), corr.getCorrection());
+        }
+        collation.setMisspellingsAndCorrections(misspellingsAndCorrections);
+        return collation;
+    }
+
+    /**
+     * The parameters shared by every collation check: the original parameters with the collate overrides applied,
+     * asking only for the hit count of the collation.
+     */
+    private SolrParams getCheckParams(SolrParams origParams)
+    {
+        ModifiableSolrParams params = new ModifiableSolrParams(origParams);
+        Iterator<String> origParamIterator = origParams.getParameterNamesIterator();
+        int pl = SpellingParams.SPELLCHECK_COLLATE_PARAM_OVERRIDE.length();
+        while (origParamIterator.hasNext())
+        {
+            String origParamName = origParamIterator.next();
+            if (origParamName.startsWith(SpellingParams.SPELLCHECK_COLLATE_PARAM_OVERRIDE)
+                        && origParamName.length() > pl)
+            {
+                String[] val = origParams.getParams(origParamName);
+                if (val.length == 1 && val[0].length() == 0)
                 {
-                    queryComponent.prepare(checkResponse);
-                    if (docCollectionLimit > 0)
-                    {
-                        int f = checkResponse.getFieldFlags();
-                        checkResponse.setFieldFlags(f |= SolrIndexSearcher.TERMINATE_EARLY);
-                    }
-                    queryComponent.process(checkResponse);
-                    hits = (Integer) checkResponse.rsp.getToLog().get("hits");
+                    params.set(origParamName.substring(pl), (String[]) null);
                 }
-                catch (EarlyTerminatingCollectorException etce)
+                else
                 {
-                    assert (docCollectionLimit > 0);
-                    assert 0 < etce.getNumberScanned();
-                    assert 0 < etce.getNumberCollected();
-
-                    if (etce.getNumberScanned() == maxDocId)
-                    {
-                        hits = etce.getNumberCollected();
-                    }
-                    else
-                    {
-                        hits = (int) (((float) (maxDocId * etce.getNumberCollected())) / (float) etce
-                                    .getNumberScanned());
-                    }
+                    params.set(origParamName.substring(pl), val);
                 }
-                catch (Exception e)
+            }
+        }
+        // we don't set the 'q' param, as we'll pass the query via JSON.
+        // params.set(CommonParams.Q, collationQueryStr);
+        params.remove(CommonParams.START);
+        // rows=0 unless the hit count is estimated from the first docCollectionLimit documents
+        params.set(CommonParams.ROWS, "" + docCollectionLimit);
+        // we don't want any stored fields
+        params.set(CommonParams.FL, "id");
+        // we'll sort by doc id to ensure no scoring is done.
+        params.set(CommonParams.SORT, "_docid_ asc");
+        // If a dismax query, don't add unnecessary clauses for scoring
+        params.remove(DisMaxParams.TIE);
+        params.remove(DisMaxParams.PF);
+        params.remove(DisMaxParams.PF2);
+        params.remove(DisMaxParams.PF3);
+        params.remove(DisMaxParams.BQ);
+        params.remove(DisMaxParams.BF);
+        // Collate testing does not support Grouping (see SOLR-2577)
+        params.remove(GroupParams.GROUP);
+        return params;
+    }
+
+    private int getHits(Future<Integer> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        catch (ExecutionException e)
+        {
+            LOG.warn("Exception trying to re-query to check if a spell check possibility would return any hits." + e.getCause());
+            return 0;
+        }
+    }
+
+    /**
+     * Counts the hits of one collation. Each check runs against its own request, sharing the searcher and the locale
+     * of the original request, so that checks can run at the same time without touching the original request or its
+     * JSON body. A probe runs at most once, and not at all once it has been abandoned.
+     */
+    class CollationProbe implements Callable<Integer>
+    {
+        private final PossibilityIterator.RankedSpellPossibility possibility;
+        private final String collationQueryStr;
+        private final String aftsQuery;
+        private final AlfrescoJsonRequest alfrescoJSON;
+        private final SolrParams checkParams;
+        private final ResponseBuilder ultimateResponse;
+        private final SolrIndexSearcher searcher;
+        private final QueryComponent queryComponent;
+        private final int maxDocId;
+        private final Locale locale;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        CollationProbe(PossibilityIterator.RankedSpellPossibility possibility, String collationQueryStr, String aftsQuery,
+                    AlfrescoJsonRequest alfrescoJSON, SolrParams checkParams, ResponseBuilder ultimateResponse,
+                    SolrIndexSearcher searcher, QueryComponent queryComponent, int maxDocId, Locale locale)
+        {
+            this.possibility = possibility;
+            this.collationQueryStr = collationQueryStr;
+            this.aftsQuery = aftsQuery;
+            this.alfrescoJSON = alfrescoJSON;
+            this.checkParams = checkParams;
+            this.ultimateResponse = ultimateResponse;
+            this.searcher = searcher;
+            this.queryComponent = queryComponent;
+            this.maxDocId = maxDocId;
+            this.locale = locale;
+        }
+
+        /**
+         * @return true if the probe had not started and now never will
+         */
+        boolean abandon()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public Integer call()
+        {
+            if (!claimed.compareAndSet(false, true))
+            {
+                return 0;
+            }
+            SolrQueryRequest origReq = ultimateResponse.req;
+            SolrQueryRequest req = new SolrQueryRequestBase(origReq.getCore(), new ModifiableSolrParams(checkParams))
+            {
+                @Override
+                public SolrIndexSearcher getSearcher()
                 {
-                    LOG.warn("Exception trying to re-query to check if a spell check possibility would return any hits." + e);
+                    return searcher;
                 }
-                finally
+            };
+            req.getContext().putAll(origReq.getContext());
+            if (alfrescoJSON != null)
+            {
+                req.getContext().put(AbstractQParser.ALFRESCO_JSON, alfrescoJSON.copyWithQuery(aftsQuery));
+            }
+            ResponseBuilder checkResponse = new ResponseBuilder(req, new SolrQueryResponse(),
+                        Arrays.<SearchComponent> asList(queryComponent));
+            checkResponse.setQparser(ultimateResponse.getQparser());
+            if (ultimateResponse.getFilters() != null)
+            {
+                checkResponse.setFilters(new ArrayList<>(ultimateResponse.getFilters()));
+            }
+            checkResponse.components = Arrays.<SearchComponent> asList(queryComponent);
+            if (alfrescoJSON == null)
+            {
+                checkResponse.setQueryString(collationQueryStr);
+            }
+
+            // Pooled threads have no request or locale of their own
+            boolean setRequestInfo = (SolrRequestInfo.getRequestInfo() == null);
+            if (setRequestInfo)
+            {
+                SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, checkResponse.rsp));
+            }
+            Locale previousLocale = I18NUtil.getLocaleOrNull();
+            I18NUtil.setLocale(locale);
+            int hits = 0;
+            try
+            {
+                queryComponent.prepare(checkResponse);
+                if (docCollectionLimit > 0)
                 {
-                    checkResponse.req.close();
+                    int f = checkResponse.getFieldFlags();
+                    checkResponse.setFieldFlags(f |= SolrIndexSearcher.TERMINATE_EARLY);
                 }
+                queryComponent.process(checkResponse);
+                hits = (Integer) checkResponse.rsp.getToLog().get("hits");
             }
-            if (hits > 0 || !verifyCandidateWithQuery)
+            catch (EarlyTerminatingCollectorException etce)
             {
-                collNo++;
-                AlfrescoSpellCheckCollation collation = new AlfrescoSpellCheckCollation();
-                collation.setCollationQuery(aftsQuery);
-                collation.setCollationQueryString(collationQueryStr);
-                collation.setHits(hits);
-                collation.setInternalRank(suggestionsMayOverlap ? ((possibility.rank * 1000) + possibility.index)
-                            : possibility.rank);
-
-                NamedList<String> misspellingsAndCorrections = new NamedList<>();
-                for (SpellCheckCorrection corr : possibility.corrections)
+                assert (docCollectionLimit > 0);
+                assert 0 < etce.getNumberScanned();
+                assert 0 < etce.getNumberCollected();
+
+                if (etce.getNumberScanned() == maxDocId)
                 {
-                    misspellingsAndCorrections.add(corr.getOriginal().toString(), corr.getCorrection());
+                    hits = etce.getNumberCollected();
                 }
-                collation.setMisspellingsAndCorrections(misspellingsAndCorrections);
-                collations.add(collation);
+                else
+                {
+                    hits = (int) (((float) (maxDocId * etce.getNumberCollected())) / (float) etce
+                                .getNumberScanned());
+                }
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Exception trying to re-query to check if a spell check possibility would return any hits." + e);
             }
-            if (LOG.isDebugEnabled())
+            finally
             {
-                LOG.debug("Collation: " + aftsQuery + (verifyCandidateWithQuery ? (" will return " + hits + " hits.") : ""));
+                if (setRequestInfo)
+                {
+                    SolrRequestInfo.clearRequestInfo();
+                }
+                I18NUtil.setLocale(previousLocale);
+                req.close();
             }
+            return hits;
         }
-        return collations;
     }
 
     @SuppressWarnings("deprecation")
@@ -364,4 +557,13 @@ public class AlfrescoSpellCheckCollator
         this.docCollectionLimit = docCollectionLimit;
         return this;
     }
+
+    /**
+     * @param executor checks the collations in parallel, or <tt>null</tt> to check them one after another
+     */
+    public AlfrescoSpellCheckCollator setExecutor(ExecutorService executor)
+    {
+        this.executor = executor;
+        return this;
+    }
 }
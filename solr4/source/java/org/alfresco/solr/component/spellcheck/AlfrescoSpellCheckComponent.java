@@ -28,14 +28,19 @@ package org.alfresco.solr.component.spellcheck;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.solr.common.params.ShardParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SpellCheckComponent;
 import org.apache.solr.spelling.SpellingResult;
+import org.apache.solr.util.DefaultSolrThreadFactory;
 
 /**
  * @author Jamal Kaabi-Mofrad
@@ -43,6 +48,32 @@ import org.apache.solr.spelling.SpellingResult;
  */
 public class AlfrescoSpellCheckComponent extends SpellCheckComponent
 {
+    /** Checks collations against the index in parallel, if parallelThreads is configured */
+    private ExecutorService executor;
+
+    @Override
+    public void inform(SolrCore core)
+    {
+        super.inform(core);
+        Object val = initParams.get("parallelThreads");
+        if (val != null && Integer.parseInt(val.toString()) > 0 && executor == null)
+        {
+            executor = Executors.newFixedThreadPool(Integer.parseInt(val.toString()), new DefaultSolrThreadFactory("collationCheck"));
+            core.addCloseHook(new CloseHook()
+            {
+                @Override
+                public void preClose(SolrCore core)
+                {
+                    executor.shutdownNow();
+                }
+
+                @Override
+                public void postClose(SolrCore core)
+                {
+                }
+            });
+        }
+    }
 
     /**
      * <b>Disclaimer</b>: The code copied from the super class (
@@ -71,6 +102,7 @@ public class AlfrescoSpellCheckComponent extends SpellCheckComponent
         collator.setMaxCollationEvaluations(maxCollationEvaluations);
         collator.setSuggestionsMayOverlap(suggestionsMayOverlap);
         collator.setDocCollectionLimit(maxCollationCollectDocs);
+        collator.setExecutor(executor);
 
         List<AlfrescoSpellCheckCollation> collations = collator.collate(spellingResult, q, rb);
         // by sorting here we guarantee a non-distributed request returns all
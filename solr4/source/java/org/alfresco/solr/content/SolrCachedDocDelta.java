@@ -0,0 +1,265 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ACLID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ANCESTOR;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_CASCADETX;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_INTXID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_NPATH;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_PATH;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_PNAME;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SITE;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_TAG;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_TAG_SUGGEST;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_VERSION;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+
+/**
+ * Describes the partial changes that can be applied to a cached {@link SolrInputDocument} without
+ * rewriting the whole record in the {@link SolrContentStore}.
+ * <p/>
+ * The fields of a cached document are split into {@link FieldGroup groups}.  A delta record holds
+ * the complete values of each changed group together with the names of those groups, so that
+ * applying it replaces the group wholesale (values removed from a group are removed from the document).
+ * Cascading path updates and ACL changes only touch these groups, so they can be written as a small
+ * delta record next to the (possibly very large) full document.
+ */
+public class SolrCachedDocDelta
+{
+    /**
+     * Internal field recording which groups a delta record holds. It is never sent to the index.
+     */
+    public static final String FIELD_DELTA_GROUPS = "_DELTA_GROUPS_";
+
+    /**
+     * The groups of fields that may be updated by a delta.
+     */
+    public static enum FieldGroup
+    {
+        /** The path, site, tag, name path and ancestor fields maintained by a cascade update */
+        PATH(FIELD_PATH, FIELD_SITE, FIELD_TAG, FIELD_TAG_SUGGEST, FIELD_NPATH, FIELD_PNAME, FIELD_ANCESTOR),
+        /** The transaction of the last cascade that touched the node */
+        CASCADE(FIELD_CASCADETX),
+        /** The ACL id, which is also encoded in the document id */
+        ACL(FIELD_ACLID, FIELD_SOLR4_ID),
+        /** Tracking fields that change with every update */
+        TX(FIELD_INTXID, FIELD_VERSION);
+
+        private final List<String> fields;
+
+        private FieldGroup(String... fields)
+        {
+            List<String> list = new ArrayList<String>(fields.length);
+            Collections.addAll(list, fields);
+            this.fields = Collections.unmodifiableList(list);
+        }
+
+        public List<String> getFields()
+        {
+            return fields;
+        }
+    }
+
+    private static final Map<String, FieldGroup> GROUP_BY_FIELD = new HashMap<String, FieldGroup>();
+    static
+    {
+        for (FieldGroup group : FieldGroup.values())
+        {
+            for (String field : group.getFields())
+            {
+                GROUP_BY_FIELD.put(field, group);
+            }
+        }
+    }
+
+    private SolrCachedDocDelta()
+    {
+    }
+
+    /**
+     * Find the field groups that differ between two versions of the same cached document.
+     * 
+     * @return the changed groups (possibly empty) or <tt>null</tt> if a field outside
+     *         the delta groups has changed and the whole document has to be rewritten
+     */
+    public static EnumSet<FieldGroup> getChangedGroups(SolrInputDocument before, SolrInputDocument after)
+    {
+        EnumSet<FieldGroup> changed = EnumSet.noneOf(FieldGroup.class);
+        Set<String> fieldNames = new HashSet<String>(before.getFieldNames());
+        fieldNames.addAll(after.getFieldNames());
+        fieldNames.remove(FIELD_DELTA_GROUPS);
+        for (String fieldName : fieldNames)
+        {
+            if (sameValues(before.getField(fieldName), after.getField(fieldName)))
+            {
+                continue;
+            }
+            FieldGroup group = GROUP_BY_FIELD.get(fieldName);
+            if (group == null)
+            {
+                return null;
+            }
+            changed.add(group);
+        }
+        return changed;
+    }
+
+    /**
+     * Build a delta record holding the values of the given groups taken from <code>doc</code>.
+     */
+    public static SolrInputDocument extract(SolrInputDocument doc, Set<FieldGroup> groups)
+    {
+        SolrInputDocument delta = new SolrInputDocument();
+        for (FieldGroup group : groups)
+        {
+            delta.addField(FIELD_DELTA_GROUPS, group.name());
+            for (String fieldName : group.getFields())
+            {
+                SolrInputField field = doc.getField(fieldName);
+                if (field != null && field.getValueCount() > 0)
+                {
+                    delta.put(fieldName, copy(field));
+                }
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Fold a newer delta into an existing delta record. Groups present in <code>newer</code> replace
+     * those in <code>existing</code>; other groups of <code>existing</code> are kept.
+     * 
+     * @return the merged delta record
+     */
+    public static SolrInputDocument merge(SolrInputDocument existing, SolrInputDocument newer)
+    {
+        if (existing == null)
+        {
+            return newer;
+        }
+        EnumSet<FieldGroup> groups = getGroups(existing);
+        groups.addAll(getGroups(newer));
+        SolrInputDocument merged = extract(existing, groups);
+        apply(merged, newer);
+        return merged;
+    }
+
+    /**
+     * Apply a delta record to a full cached document. Each group in the delta replaces the group in the document.
+     */
+    public static void apply(SolrInputDocument doc, SolrInputDocument delta)
+    {
+        for (FieldGroup group : getGroups(delta))
+        {
+            for (String fieldName : group.getFields())
+            {
+                doc.removeField(fieldName);
+                SolrInputField field = delta.getField(fieldName);
+                if (field != null)
+                {
+                    doc.put(fieldName, copy(field));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the groups recorded in a delta record
+     */
+    public static EnumSet<FieldGroup> getGroups(SolrInputDocument delta)
+    {
+        EnumSet<FieldGroup> groups = EnumSet.noneOf(FieldGroup.class);
+        Collection<Object> names = delta.getFieldValues(FIELD_DELTA_GROUPS);
+        if (names != null)
+        {
+            for (Object name : names)
+            {
+                groups.add(FieldGroup.valueOf(name.toString()));
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Values are compared by their string form as the cached document may have been through
+     * a serialisation round trip that changes the numeric types (Integer/Long).
+     */
+    private static boolean sameValues(SolrInputField before, SolrInputField after)
+    {
+        int beforeCount = (before == null) ? 0 : before.getValueCount();
+        int afterCount = (after == null) ? 0 : after.getValueCount();
+        if (beforeCount != afterCount)
+        {
+            return false;
+        }
+        if (beforeCount == 0)
+        {
+            return true;
+        }
+        Iterator<Object> beforeValues = before.getValues().iterator();
+        Iterator<Object> afterValues = after.getValues().iterator();
+        while (beforeValues.hasNext())
+        {
+            Object beforeValue = beforeValues.next();
+            Object afterValue = afterValues.next();
+            if (beforeValue == afterValue)
+            {
+                continue;
+            }
+            if (beforeValue == null || afterValue == null)
+            {
+                return false;
+            }
+            if (!beforeValue.equals(afterValue) && !beforeValue.toString().equals(afterValue.toString()))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static SolrInputField copy(SolrInputField field)
+    {
+        SolrInputField copy = new SolrInputField(field.getName());
+        copy.setValue(new ArrayList<Object>(field.getValues()), field.getBoost());
+        return copy;
+    }
+}
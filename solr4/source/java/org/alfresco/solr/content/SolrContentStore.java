@@ -26,12 +26,23 @@
 package org.alfresco.solr.content;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.repo.content.ContentContext;
 import org.alfresco.repo.content.ContentStore;
-import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.apache.commons.io.FileUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +55,9 @@ import org.slf4j.LoggerFactory;
  *   <li>Other metadata</li>
  * </ul>
  * The URL, if not known, can be reliably regenerated using the {@link SolrContentUrlBuilder}.
+ * <p/>
+ * Documents are always kept under a top level directory per tenant, so a tenant can be dropped with
+ * {@link #deleteTenant(String)}.  Below that, DB ID documents are laid out according to the store's {@link Layout}.
  * 
  * @author Derek Hulley
  * @since 5.0
@@ -52,9 +66,44 @@ public class SolrContentStore implements ContentStore
 {
     protected final static Logger log = LoggerFactory.getLogger(SolrContentStore.class);
     
+    /**
+     * How documents keyed by DB ID are placed below <tt>&lt;tenant&gt;/db</tt>
+     */
+    public static enum Layout
+    {
+        /** The content URL path: the DB ID split into 4 digit directories, e.g. <tt>4775/808.gz</tt> */
+        DIGITS,
+        /** Two levels of 256 directories picked by a hash of the DB ID, e.g. <tt>3f/a2/4775808.gz</tt> */
+        HASHED
+    }
+    
+    /** The system property giving the layout of a new store */
+    public static final String LAYOUT_PROPERTY = "solr.solr.content.layout";
+    /** The file whose presence in the root marks a store using the {@link Layout#HASHED hashed} layout */
+    static final String HASHED_LAYOUT_MARKER = ".hashed-layout";
+    private static final String DB_DIR = "db";
+    private static final String DB_PATH = "/" + DB_DIR + "/";
+    private static final int HASH_DIR_LENGTH = 2;
+    
+    /*
+     * Several stores are created over the same root (trackers, transformers, highlighter) so the layout and
+     * migration state are shared by root location.  Only the marker file outlives a restart.
+     */
+    private static final ConcurrentMap<String, Layout> layouts = new ConcurrentHashMap<String, Layout>();
+    private static final Set<String> migrating = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    
     private final String root;
     
     public SolrContentStore(String rootStr)
+    {
+        this(rootStr, Layout.valueOf(System.getProperty(LAYOUT_PROPERTY, Layout.DIGITS.name()).toUpperCase()));
+    }
+    
+    /**
+     * @param rootStr           the root directory of the store
+     * @param newStoreLayout    the layout to use if the store is new; an existing store keeps its layout
+     */
+    public SolrContentStore(String rootStr, Layout newStoreLayout)
     {
         File rootFile = new File(rootStr);
         try
@@ -66,6 +115,54 @@ public class SolrContentStore implements ContentStore
             throw new RuntimeException("Failed to create directory for content store: " + rootFile, e);
         }
         this.root = rootFile.getAbsolutePath();
+        
+        File marker = new File(rootFile, HASHED_LAYOUT_MARKER);
+        if (!marker.exists() && newStoreLayout == Layout.HASHED)
+        {
+            String[] entries = rootFile.list();
+            if (entries != null && entries.length == 0)
+            {
+                createMarker(marker);
+            }
+            else
+            {
+                log.warn("Content store " + root + " already holds documents in the " + Layout.DIGITS + " layout; "
+                            + "use the MIGRATECONTENTSTORE action to move to the " + Layout.HASHED + " layout.");
+            }
+        }
+        if (!migrating.contains(root))
+        {
+            // A store being migrated already writes to the hashed layout although it is not recorded yet
+            layouts.put(root, marker.exists() ? Layout.HASHED : Layout.DIGITS);
+        }
+    }
+    
+    private static void createMarker(File marker)
+    {
+        try
+        {
+            marker.createNewFile();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Failed to mark content store layout: " + marker, e);
+        }
+    }
+
+    /**
+     * @return                  the layout currently used for new documents
+     */
+    public Layout getLayout()
+    {
+        return layouts.get(root);
+    }
+
+    /**
+     * @return                  <tt>true</tt> if the name is that of a directory created by the {@link Layout#HASHED hashed} layout
+     */
+    static boolean isHashedDirectoryName(String name)
+    {
+        return name.length() == HASH_DIR_LENGTH;
     }
 
     @Override
@@ -108,28 +205,150 @@ public class SolrContentStore implements ContentStore
     }
 
     /**
-     * Convert a content URL into a File, whether it exists or not
+     * Convert a content URL into a File using the content URL path, whether it exists or not
      */
-    private File getFileFromUrl(String contentUrl)
+    private File getDigitsFileFromUrl(String contentUrl)
     {
         String path = contentUrl.replace(SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX, root + "/");
         return new File(path);
     }
     
+    /**
+     * Convert a content URL into a File in the current layout, whether it exists or not
+     */
+    private File getFileFromUrl(String contentUrl)
+    {
+        if (getLayout() == Layout.HASHED)
+        {
+            File file = getHashedFile(contentUrl);
+            if (file != null)
+            {
+                return file;
+            }
+        }
+        return getDigitsFileFromUrl(contentUrl);
+    }
+    
+    /**
+     * Convert a content URL into the File to read, falling back to the location in the other layout.  A migration
+     * that failed or was interrupted by a restart leaves documents in both layouts.
+     */
+    private File getExistingFileFromUrl(String contentUrl)
+    {
+        File file = getFileFromUrl(contentUrl);
+        if (!file.exists())
+        {
+            File other = (getLayout() == Layout.HASHED) ? getDigitsFileFromUrl(contentUrl) : getHashedFile(contentUrl);
+            if (other != null && other.exists())
+            {
+                return other;
+            }
+        }
+        return file;
+    }
+    
+    /**
+     * @return                  the hashed location of a DB ID URL or <tt>null</tt> for other URLs
+     */
+    private File getHashedFile(String contentUrl)
+    {
+        int dbIndex = contentUrl.indexOf('/', SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX.length());
+        if (dbIndex == -1 || !contentUrl.startsWith(DB_PATH, dbIndex))
+        {
+            return null;
+        }
+        String tenant = contentUrl.substring(SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX.length(), dbIndex);
+        String path = contentUrl.substring(dbIndex + DB_PATH.length());
+        boolean delta = path.endsWith(SolrContentUrlBuilder.DELTA_FILE_EXTENSION);
+        String extension = delta ? SolrContentUrlBuilder.DELTA_FILE_EXTENSION : SolrContentUrlBuilder.FILE_EXTENSION;
+        long dbId;
+        try
+        {
+            dbId = Long.parseLong(path.substring(0, path.length() - extension.length()).replace("/", ""));
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+        return getHashedFile(tenant, dbId, delta);
+    }
+    
+    File getHashedFile(String tenant, long dbId, boolean delta)
+    {
+        // Spread sequential IDs evenly over 65536 leaf directories
+        int hash = (int) ((dbId * 0x9E3779B97F4A7C15L) >>> 48);
+        String hex = String.format("%04x", hash);
+        return new File(root + "/" + tenant + DB_PATH + hex.substring(0, HASH_DIR_LENGTH) + "/" + hex.substring(HASH_DIR_LENGTH) + "/"
+                    + dbId + (delta ? SolrContentUrlBuilder.DELTA_FILE_EXTENSION : SolrContentUrlBuilder.FILE_EXTENSION));
+    }
+    
     @Override
     public boolean exists(String contentUrl)
     {
-        File file = getFileFromUrl(contentUrl);
+        File file = getExistingFileFromUrl(contentUrl);
         return file.exists();
     }
 
     @Override
-    public ContentReader getReader(String contentUrl)
+    public SolrFileContentReader getReader(String contentUrl)
     {
-        File file = getFileFromUrl(contentUrl);
+        File file = getExistingFileFromUrl(contentUrl);
         return new SolrFileContentReader(file, contentUrl);
     }
 
+    /**
+     * Get a cached document as it now stands: the full document with the delta record of any later
+     * path, ACL or cascade change applied to it.
+     * 
+     * @param tenant            the tenant as used in the content URLs
+     * @param dbId              the node DBID
+     * @return                  the cached document or <tt>null</tt> if there is none that can be read
+     */
+    public SolrInputDocument retrieveDoc(String tenant, long dbId)
+    {
+        String contentUrl = SolrContentUrlBuilder
+                    .start()
+                    .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
+                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                    .get();
+        SolrInputDocument cachedDoc = readDoc(contentUrl);
+        if (cachedDoc != null)
+        {
+            SolrInputDocument delta = readDoc(SolrContentUrlBuilder.getDeltaContentUrl(contentUrl));
+            if (delta != null)
+            {
+                SolrCachedDocDelta.apply(cachedDoc, delta);
+            }
+        }
+        return cachedDoc;
+    }
+
+    /**
+     * Read a single record, full document or delta, as it was written.
+     * 
+     * @param contentUrl        the URL of the record
+     * @return                  the record or <tt>null</tt> if there is none that can be read
+     */
+    public SolrInputDocument readDoc(String contentUrl)
+    {
+        SolrFileContentReader reader = getReader(contentUrl);
+        if (!reader.exists())
+        {
+            return null;
+        }
+        // Uncompresses the document straight from the file
+        try (InputStream gzip = reader.getInflatedContentInputStream())
+        {
+            return (SolrInputDocument) new JavaBinCodec().unmarshal(gzip);
+        }
+        catch (Exception e)
+        {
+            // Don't fail for this
+            log.warn("Failed to get doc from store using URL: " + contentUrl, e);
+            return null;
+        }
+    }
+
     @Override
     public ContentWriter getWriter(ContentContext context)
     {
@@ -148,7 +367,161 @@ public class SolrContentStore implements ContentStore
     @Override
     public boolean delete(String contentUrl)
     {
-        File file = getFileFromUrl(contentUrl);
-        return file.delete();
+        boolean deleted = getDigitsFileFromUrl(contentUrl).delete();
+        File hashed = getHashedFile(contentUrl);
+        if (hashed != null)
+        {
+            deleted = hashed.delete() || deleted;
+        }
+        return deleted;
+    }
+    
+    /**
+     * Drop all documents held for a tenant by deleting its top level directory.
+     * 
+     * @param tenant            the tenant as used in the content URLs
+     * @return                  <tt>true</tt> if there were documents for the tenant
+     */
+    public boolean deleteTenant(String tenant) throws IOException
+    {
+        File tenantDir = new File(root, tenant);
+        if (tenant.isEmpty() || tenant.contains("/") || tenant.contains("\\") || tenant.startsWith(".")
+                    || !tenantDir.getParentFile().equals(new File(root)))
+        {
+            throw new IllegalArgumentException("Invalid tenant: " + tenant);
+        }
+        if (!tenantDir.isDirectory())
+        {
+            return false;
+        }
+        FileUtils.deleteDirectory(tenantDir);
+        return true;
+    }
+    
+    /**
+     * Move all DB ID documents from the {@link Layout#DIGITS digits} layout to the {@link Layout#HASHED hashed} layout.
+     * New documents go to the hashed layout as soon as the migration starts and documents that have not been moved
+     * yet are still found, so the store can be used while it is migrated.  The layout is only recorded once every
+     * document has been moved; until then a restart goes back to the digits layout and the migration can be run again.
+     * 
+     * @param threads           the number of threads moving files
+     * @return                  the number of files moved
+     * @throws IOException      if some files could not be moved
+     */
+    public long migrateToHashedLayout(int threads) throws IOException, InterruptedException
+    {
+        if (!migrating.add(root))
+        {
+            throw new IllegalStateException("The content store is already being migrated: " + root);
+        }
+        boolean migrated = false;
+        try
+        {
+            layouts.put(root, Layout.HASHED);
+            
+            final AtomicLong moved = new AtomicLong();
+            final AtomicLong failed = new AtomicLong();
+            SolrContentStoreScanner scanner = new SolrContentStoreScanner(this, threads, 0);
+            scanner.scan(new SolrContentStoreScanner.Visitor()
+            {
+                @Override
+                public void visit(String tenant, long dbId, File file, boolean delta)
+                {
+                    File target = getHashedFile(tenant, dbId, delta);
+                    if (file.equals(target))
+                    {
+                        return;
+                    }
+                    try
+                    {
+                        FileUtils.forceMkdir(target.getParentFile());
+                        Files.move(file.toPath(), target.toPath());
+                        moved.incrementAndGet();
+                    }
+                    catch (FileAlreadyExistsException e)
+                    {
+                        // Written in both layouts by an earlier, unfinished migration: keep the newer one
+                        try
+                        {
+                            if (file.lastModified() > target.lastModified())
+                            {
+                                Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                                moved.incrementAndGet();
+                            }
+                            else
+                            {
+                                Files.delete(file.toPath());
+                            }
+                        }
+                        catch (IOException e2)
+                        {
+                            failed.incrementAndGet();
+                            log.warn("Failed to move " + file + " to " + target, e2);
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        failed.incrementAndGet();
+                        log.warn("Failed to move " + file + " to " + target, e);
+                    }
+                }
+            });
+            
+            // Remove the directories of the old layout
+            File[] tenantDirs = new File(root).listFiles();
+            if (tenantDirs != null)
+            {
+                for (File tenantDir : tenantDirs)
+                {
+                    File[] entries = new File(tenantDir, DB_DIR).listFiles();
+                    if (entries == null)
+                    {
+                        continue;
+                    }
+                    for (File entry : entries)
+                    {
+                        if (entry.isDirectory() && !isHashedDirectoryName(entry.getName()))
+                        {
+                            deleteEmptyDirectories(entry);
+                        }
+                    }
+                }
+            }
+            if (failed.get() > 0)
+            {
+                throw new IOException("Failed to move " + failed.get() + " files in content store " + root + " to the "
+                            + Layout.HASHED + " layout; the migration has to be run again");
+            }
+            createMarker(new File(root, HASHED_LAYOUT_MARKER));
+            migrated = true;
+            log.info("Moved " + moved.get() + " files in content store " + root + " to the " + Layout.HASHED + " layout");
+            return moved.get();
+        }
+        finally
+        {
+            if (!migrated)
+            {
+                // Documents written since the migration started are found through the fallback
+                layouts.put(root, Layout.DIGITS);
+            }
+            migrating.remove(root);
+        }
+    }
+    
+    private static void deleteEmptyDirectories(File dir)
+    {
+        File[] children = dir.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                if (child.isDirectory())
+                {
+                    deleteEmptyDirectories(child);
+                }
+            }
+        }
+        // Only succeeds once the directory is empty
+        dir.delete();
     }
 }
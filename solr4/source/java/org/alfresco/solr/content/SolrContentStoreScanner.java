@@ -0,0 +1,220 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the documents held in a {@link SolrContentStore} using a pool of threads.
+ * <p/>
+ * Each tenant's <tt>db</tt> directory is split by its top level entries, which are walked in parallel.
+ * The DB ID of each file is rebuilt from its path (see {@link SolrContentUrlBuilder}) or, in the
+ * {@link SolrContentStore.Layout#HASHED hashed} layout, taken from its name.
+ * The number of files visited per second can be limited so that a scan can run alongside the trackers on a live node.
+ */
+public class SolrContentStoreScanner
+{
+    protected final static Logger log = LoggerFactory.getLogger(SolrContentStoreScanner.class);
+
+    /**
+     * Callback for each document file found in the store. It is called concurrently from the scanning threads.
+     */
+    public static interface Visitor
+    {
+        /**
+         * @param tenant    the tenant directory the file was found in
+         * @param dbId      the DB ID of the node
+         * @param file      the file
+         * @param delta     <tt>true</tt> if this is a {@link SolrCachedDocDelta delta} record rather than a full document
+         */
+        void visit(String tenant, long dbId, File file, boolean delta);
+    }
+
+    private static final String DB_DIR = "db";
+
+    private final File root;
+    private final int threads;
+    private final long nanosPerFile;
+    private final AtomicLong nextPermit = new AtomicLong(System.nanoTime());
+
+    /**
+     * @param store                 the store to scan
+     * @param threads               the number of threads walking the store
+     * @param maxFilesPerSecond     the maximum number of files visited per second, or 0 for no limit
+     */
+    public SolrContentStoreScanner(SolrContentStore store, int threads, int maxFilesPerSecond)
+    {
+        this.root = new File(store.getRootLocation());
+        this.threads = Math.max(1, threads);
+        this.nanosPerFile = (maxFilesPerSecond > 0) ? TimeUnit.SECONDS.toNanos(1) / maxFilesPerSecond : 0;
+    }
+
+    /**
+     * Visit every document file in the store.
+     * 
+     * @return the number of files visited
+     */
+    public long scan(final Visitor visitor) throws InterruptedException
+    {
+        final AtomicLong count = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            File[] tenantDirs = root.listFiles();
+            if (tenantDirs != null)
+            {
+                for (File tenantDir : tenantDirs)
+                {
+                    final String tenant = tenantDir.getName();
+                    File dbDir = new File(tenantDir, DB_DIR);
+                    File[] entries = dbDir.listFiles();
+                    if (entries == null)
+                    {
+                        continue;
+                    }
+                    for (final File entry : entries)
+                    {
+                        final boolean hashed = entry.isDirectory() && SolrContentStore.isHashedDirectoryName(entry.getName());
+                        futures.add(executor.submit(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                try
+                                {
+                                    walk(tenant, entry, entry.getName(), hashed, visitor, count);
+                                }
+                                catch (InterruptedException e)
+                                {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        }));
+                    }
+                }
+            }
+            for (Future<?> future : futures)
+            {
+                try
+                {
+                    future.get();
+                }
+                catch (ExecutionException e)
+                {
+                    log.warn("Content store scan failed for part of " + root, e.getCause());
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return count.get();
+    }
+
+    private void walk(String tenant, File file, String digits, boolean hashed, Visitor visitor, AtomicLong count)
+                throws InterruptedException
+    {
+        if (Thread.currentThread().isInterrupted())
+        {
+            throw new InterruptedException();
+        }
+        if (file.isDirectory())
+        {
+            File[] children = file.listFiles();
+            if (children != null)
+            {
+                for (File child : children)
+                {
+                    walk(tenant, child, digits + child.getName(), hashed, visitor, count);
+                }
+            }
+            return;
+        }
+
+        if (hashed)
+        {
+            digits = file.getName();
+        }
+        boolean delta = digits.endsWith(SolrContentUrlBuilder.DELTA_FILE_EXTENSION);
+        String extension = delta ? SolrContentUrlBuilder.DELTA_FILE_EXTENSION : SolrContentUrlBuilder.FILE_EXTENSION;
+        if (!digits.endsWith(extension))
+        {
+            return;
+        }
+        long dbId;
+        try
+        {
+            dbId = Long.parseLong(digits.substring(0, digits.length() - extension.length()));
+        }
+        catch (NumberFormatException e)
+        {
+            log.debug("Skipping unexpected file in content store: " + file);
+            return;
+        }
+
+        acquire();
+        count.incrementAndGet();
+        visitor.visit(tenant, dbId, file, delta);
+    }
+
+    /**
+     * Wait for the next slot allowed by the rate limit. Slots are handed out in order across all threads.
+     */
+    private void acquire() throws InterruptedException
+    {
+        if (nanosPerFile == 0)
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        long permit;
+        long next;
+        do
+        {
+            permit = nextPermit.get();
+            next = Math.max(permit, now) + nanosPerFile;
+        }
+        while (!nextPermit.compareAndSet(permit, next));
+        long wait = (next - nanosPerFile) - now;
+        if (wait > 0)
+        {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
@@ -57,6 +57,8 @@ public class SolrContentUrlBuilder
     public static final String SOLR_PROTOCOL = "solr";
     public static final String SOLR_PROTOCOL_PREFIX = SOLR_PROTOCOL + ContentStore.PROTOCOL_DELIMITER;
     public static final String FILE_EXTENSION = ".gz";
+    /** The extension of the delta record kept next to a full record, see {@link SolrCachedDocDelta} */
+    public static final String DELTA_FILE_EXTENSION = ".delta" + FILE_EXTENSION;
 
     /** The key for the tenant name */
     public static final String KEY_TENANT = "tenant";
@@ -222,6 +224,21 @@ public class SolrContentUrlBuilder
         return url;
     }
     
+    /**
+     * Get the URL of the delta record that belongs to a full record URL.
+     * 
+     * @param contentUrl    a content URL built by {@link #get()}
+     * @return              the URL of the delta record for the same metadata
+     */
+    public static String getDeltaContentUrl(String contentUrl)
+    {
+        if (!contentUrl.endsWith(FILE_EXTENSION))
+        {
+            throw new IllegalArgumentException("Not a SOLR content URL: " + contentUrl);
+        }
+        return contentUrl.substring(0, contentUrl.length() - FILE_EXTENSION.length()) + DELTA_FILE_EXTENSION;
+    }
+
     /**
      * Helper method to retrieve a {@link ContentContext} constructed using the final {@link #get()} url.
      */
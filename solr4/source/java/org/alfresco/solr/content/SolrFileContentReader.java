@@ -34,6 +34,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Locale;
 
 import org.alfresco.service.cmr.repository.ContentData;
@@ -103,7 +104,18 @@ public class SolrFileContentReader implements ContentReader
     @Override
     public FileChannel getFileChannel() throws ContentIOException
     {
-        throw new UnsupportedOperationException();
+        if (!file.exists())
+        {
+            throw new IllegalStateException("The file does not exist: " + file);
+        }
+        try
+        {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        catch (Throwable e)
+        {
+            throw new ContentIOException("Failed to open channel onto file: " + file, e);
+        }
     }
 
     @Override
@@ -115,7 +127,7 @@ public class SolrFileContentReader implements ContentReader
     @Override
     public ReadableByteChannel getReadableChannel() throws ContentIOException
     {
-        throw new UnsupportedOperationException("Auto-created method not implemented.");
+        return getFileChannel();
     }
 
     @Override
@@ -137,6 +149,30 @@ public class SolrFileContentReader implements ContentReader
         }
     }
 
+    /**
+     * Get a stream onto the uncompressed content of a GZIP file, which is how documents are cached.  The file is
+     * read without intermediate stream buffers and the inflater is reused from a per-thread pool, so the stream
+     * must be closed.
+     * 
+     * @return              a stream of the inflated content
+     */
+    public InputStream getInflatedContentInputStream() throws ContentIOException
+    {
+        try
+        {
+            // The stream closes the channel
+            return new SolrInflatingInputStream(getFileChannel());
+        }
+        catch (ContentIOException e)
+        {
+            throw e;
+        }
+        catch (Throwable e)
+        {
+            throw new ContentIOException("Failed to open inflating stream onto file: " + file, e);
+        }
+    }
+
     @Override
     public synchronized void getContent(OutputStream os) throws ContentIOException
     {
@@ -0,0 +1,314 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads a single member GZIP file straight from a file channel.
+ * <p/>
+ * The file is read into a per-thread buffer a chunk at a time and inflated in place, so small files take a single
+ * channel read.  The {@link Inflater}, checksum and buffer come from a per-thread pool and go back to it on
+ * {@link #close()}, so reading a cached document does not allocate them.  A stream opened while the thread's pooled
+ * resources are still in use gets its own.
+ */
+final class SolrInflatingInputStream extends InputStream
+{
+    /** The size of the chunks the file is read in */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private static final ThreadLocal<Resources> POOL = new ThreadLocal<Resources>()
+    {
+        @Override
+        protected Resources initialValue()
+        {
+            return new Resources(true);
+        }
+    };
+
+    private final Resources resources;
+    private final FileChannel channel;
+    private final ByteBuffer source;
+    private final byte[] single = new byte[1];
+    private boolean eof;
+    private boolean closed;
+
+    /**
+     * @param channel       a channel positioned at the start of the file; it is closed with the stream
+     */
+    SolrInflatingInputStream(FileChannel channel) throws IOException
+    {
+        this.channel = channel;
+        Resources pooled = POOL.get();
+        if (pooled.inUse)
+        {
+            pooled = new Resources(false);
+        }
+        pooled.inUse = true;
+        this.resources = pooled;
+        this.source = ByteBuffer.wrap(resources.buffer);
+        try
+        {
+            source.order(ByteOrder.LITTLE_ENDIAN);
+            source.limit(0);
+            readChunk();
+            readHeader();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            release();
+            throw e;
+        }
+    }
+
+    /**
+     * Move the unread part of the buffer to its start and fill the rest from the channel.
+     * 
+     * @return              <tt>false</tt> if the end of the file had already been reached
+     */
+    private boolean readChunk() throws IOException
+    {
+        source.compact();
+        int read = 0;
+        try
+        {
+            while (source.hasRemaining())
+            {
+                int count = channel.read(source);
+                if (count < 0)
+                {
+                    break;
+                }
+                read += count;
+            }
+        }
+        finally
+        {
+            source.flip();
+        }
+        return read > 0;
+    }
+
+    private void readHeader() throws IOException
+    {
+        try
+        {
+            if ((source.get() & 0xff) != 0x1f || (source.get() & 0xff) != 0x8b)
+            {
+                throw new ZipException("Not in GZIP format");
+            }
+            if (source.get() != Deflater.DEFLATED)
+            {
+                throw new ZipException("Unsupported compression method");
+            }
+            int flags = source.get() & 0xff;
+            // Modification time, extra flags and OS
+            skip(source, 6);
+            if ((flags & FEXTRA) != 0)
+            {
+                skip(source, source.getShort() & 0xffff);
+            }
+            if ((flags & FNAME) != 0)
+            {
+                while (source.get() != 0);
+            }
+            if ((flags & FCOMMENT) != 0)
+            {
+                while (source.get() != 0);
+            }
+            if ((flags & FHCRC) != 0)
+            {
+                skip(source, 2);
+            }
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new EOFException("Unexpected end of GZIP header");
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int count)
+    {
+        if (buffer.remaining() < count)
+        {
+            throw new BufferUnderflowException();
+        }
+        buffer.position(buffer.position() + count);
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (closed)
+        {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0)
+        {
+            return 0;
+        }
+        Inflater inflater = resources.inflater;
+        try
+        {
+            while (!eof)
+            {
+                int count = inflater.inflate(b, off, len);
+                if (count > 0)
+                {
+                    resources.crc.update(b, off, count);
+                    return count;
+                }
+                if (inflater.finished())
+                {
+                    readTrailer();
+                    eof = true;
+                }
+                else if (inflater.needsDictionary())
+                {
+                    throw new ZipException("Deflated data requires a preset dictionary");
+                }
+                else if (inflater.needsInput())
+                {
+                    fill();
+                }
+            }
+            return -1;
+        }
+        catch (DataFormatException e)
+        {
+            String message = e.getMessage();
+            throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+        }
+    }
+
+    /**
+     * Hand the next chunk of the file to the inflater, which reads it straight from the pooled buffer.
+     */
+    private void fill() throws IOException
+    {
+        if (!source.hasRemaining() && !readChunk())
+        {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+        resources.inflater.setInput(resources.buffer, source.position(), source.remaining());
+        source.position(source.limit());
+    }
+
+    private void readTrailer() throws IOException
+    {
+        // Step back over the input the inflater did not need
+        source.position(source.position() - resources.inflater.getRemaining());
+        if (source.remaining() < 8)
+        {
+            // The trailer runs into the next chunk
+            readChunk();
+        }
+        if (source.remaining() < 8)
+        {
+            throw new EOFException("Unexpected end of GZIP trailer");
+        }
+        int crc = source.getInt();
+        int size = source.getInt();
+        if (crc != (int) resources.crc.getValue())
+        {
+            throw new ZipException("Corrupt GZIP trailer: CRC mismatch");
+        }
+        if (size != (int) resources.inflater.getBytesWritten())
+        {
+            throw new ZipException("Corrupt GZIP trailer: size mismatch");
+        }
+    }
+
+    @Override
+    public int available() throws IOException
+    {
+        return eof || closed ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            release();
+        }
+    }
+
+    private void release() throws IOException
+    {
+        channel.close();
+        if (resources.pooled)
+        {
+            resources.inflater.reset();
+            resources.crc.reset();
+            resources.inUse = false;
+        }
+        else
+        {
+            resources.inflater.end();
+        }
+    }
+
+    /**
+     * The inflater, checksum and buffer used by one stream at a time
+     */
+    private static final class Resources
+    {
+        final boolean pooled;
+        final Inflater inflater = new Inflater(true);
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        boolean inUse;
+
+        Resources(boolean pooled)
+        {
+            this.pooled = pooled;
+        }
+    }
+}
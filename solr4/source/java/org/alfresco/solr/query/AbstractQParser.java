@@ -26,10 +26,8 @@
 package org.alfresco.solr.query;
 
 import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -55,28 +53,31 @@ import org.alfresco.service.cmr.search.SearchParameters.Operator;
 import org.alfresco.service.cmr.security.AuthorityType;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.solr.AlfrescoSolrDataModel;
+import org.alfresco.solr.ContextAwareQuery;
 import org.alfresco.solr.AlfrescoSolrDataModel.ContentFieldType;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
 import org.alfresco.solr.AlfrescoSolrDataModel.IndexedField;
 import org.alfresco.util.Pair;
 import org.apache.commons.io.IOUtils;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.util.ArrayUtil;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.SolrParams;
-import org.apache.solr.common.util.ContentStream;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QueryParsing;
 import org.apache.solr.search.SortSpec;
 import org.apache.solr.search.SyntaxError;
 import org.apache.solr.update.processor.DetectedLanguage;
 import org.apache.solr.update.processor.LangDetectLanguageIdentifierUpdateProcessor;
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import org.apache.solr.util.ConcurrentLRUCache;
+import org.apache.solr.util.RTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.extensions.surf.util.I18NUtil;
@@ -129,6 +130,15 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
         }
     }
 
+    /** Longest piece of a search term used for language detection */
+    private static final int MAX_DETECTION_TEXT_LENGTH = 512;
+
+    /** ASCII search terms with fewer letters than this are not worth detecting */
+    private static final int MIN_ASCII_DETECTION_LETTERS = 4;
+
+    /** Detected languages keyed by normalised search term; the detector is deterministic as its seed is fixed */
+    private static final ConcurrentLRUCache<String, List<Language>> detectedLanguages = new ConcurrentLRUCache<String, List<Language>>(2048, 1536);
+
 	private boolean autoDetectQueryLocale = false;
 
 	private HashSet<String> autoDetectQueryLocales = new HashSet<String>();
@@ -197,285 +207,177 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
     }
 
     
-    protected Pair<SearchParameters, Boolean> getSearchParameters()
+    /**
+     * The authority and tenant filters sent in the JSON body are built straight into their queries, rather than
+     * written out as AFTS and parsed again for every request.
+     * 
+     * @return the filter, or null if this parser is not for one of the JSON filters
+     */
+    protected Query getJsonFilter()
     {
-        SearchParameters searchParameters = new SearchParameters();
-        
-        Boolean isFilter = Boolean.FALSE;
-
-        Iterable<ContentStream> streams = req.getContentStreams();
-
-        JSONObject json = (JSONObject) req.getContext().get(ALFRESCO_JSON);
-
-        if (json == null)
+        if (AUTHORITY_FILTER_FROM_JSON.equals(getString()) || TENANT_FILTER_FROM_JSON.equals(getString()))
         {
-            if (streams != null)
+            AlfrescoJsonRequest json = AlfrescoJsonRequest.getJsonRequest(req);
+            if (json != null)
             {
+                Query filter = AUTHORITY_FILTER_FROM_JSON.equals(getString()) ? getAuthorityFilter(json) : new SolrTenantQuery(json.getTenants());
+                return new ContextAwareQuery(filter, null);
+            }
+        }
+        return null;
+    }
 
-                try
-                {
-                    Reader reader = null;
-                    for (ContentStream stream : streams)
-                    {
-                        reader = new BufferedReader(new InputStreamReader(stream.getStream(), "UTF-8"));
-                    }
+    private Query getAuthorityFilter(AlfrescoJsonRequest json)
+    {
+        List<String> tenantList = json.getTenants();
+        List<String> authorityList = json.getAuthorities();
+        if (tenantList.isEmpty() || authorityList.isEmpty())
+        {
+            // No one to grant access to
+            return new BooleanQuery();
+        }
 
-                    // TODO - replace with streaming-based solution e.g. SimpleJSON ContentHandler
-                    if (reader != null)
-                    {
-                        json = new JSONObject(new JSONTokener(reader));
-                        req.getContext().put(ALFRESCO_JSON, json);
-                    }
-                }
-                catch (JSONException e)
+        Query authQuery;
+        Query denyQuery;
+        char separator = getSeparator(authorityList);
+        if (separator == 0)
+        {
+            BooleanQuery authorityQuery = new BooleanQuery();
+            BooleanQuery deniedQuery = new BooleanQuery();
+            for (String tenant : tenantList)
+            {
+                for (String authority : authorityList)
                 {
-                    // This is expected when there is no json element to the request
+                    String tenantAuthority = getTenantAuthority(authority, tenant);
+                    authorityQuery.add(new SolrAuthorityQuery(tenantAuthority), Occur.SHOULD);
+                    deniedQuery.add(new SolrDeniedQuery(tenantAuthority), Occur.SHOULD);
                 }
-                catch (IOException e)
+            }
+            authQuery = authorityQuery;
+            denyQuery = deniedQuery;
+        }
+        else
+        {
+            authset = true;
+            StringBuilder authorities = new StringBuilder();
+            for (String tenant : tenantList)
+            {
+                for (String authority : authorityList)
                 {
-                    throw new AlfrescoRuntimeException("IO Error parsing query parameters", e);
+                    authorities.append(separator).append(getTenantAuthority(authority, tenant));
                 }
             }
+            authQuery = new SolrAuthoritySetQuery(authorities.toString());
+            denyQuery = new SolrDenySetQuery(authorities.toString());
+        }
+
+        // Default to true for safety reasons.
+        if (json.isAnyDenyDenies())
+        {
+            BooleanQuery filter = new BooleanQuery();
+            filter.add(authQuery, Occur.MUST);
+            filter.add(denyQuery, Occur.MUST_NOT);
+            // Record that the clause has been added.
+            // We only ever set this to true for solr4+
+            req.getContext().put("processedDenies", Boolean.TRUE);
+            return filter;
+        }
+        return authQuery;
+    }
+
+    /**
+     * Groups and the built in authorities are qualified by tenant; the default tenant matches 4.0.
+     */
+    private String getTenantAuthority(String authority, String tenant)
+    {
+        switch (AuthorityType.getAuthorityType(authority))
+        {
+        case GROUP:
+        case EVERYONE:
+        case GUEST:
+            if (tenant.length() > 0)
+            {
+                return authority + "@" + tenant;
+            }
+            return authority;
+        default:
+            return authority;
         }
+    }
+
+    protected Pair<SearchParameters, Boolean> getSearchParameters()
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        
+        Boolean isFilter = Boolean.FALSE;
+
+        AlfrescoJsonRequest json = AlfrescoJsonRequest.getJsonRequest(req);
 
         if (json != null)
         {
-            try
+            if (getString() != null)
             {
-                if (getString() != null)
+                if (getString().equals(RERANK_QUERY_FROM_CONTEXT))
                 {
-                    if (getString().equals(AUTHORITY_FILTER_FROM_JSON))
-                    {
-                        isFilter =Boolean.TRUE;
-                        
-                        ArrayList<String> tenantList = new ArrayList<String>(1);
-                        JSONArray tenants = json.getJSONArray("tenants");
-                        for (int i = 0; i < tenants.length(); i++)
-                        {
-                            String tenantString = tenants.getString(i);
-                            tenantList.add(tenantString);
-                        }
-
-                        ArrayList<String> authorityList = new ArrayList<String>(1);
-                        JSONArray authorities = json.getJSONArray("authorities");
-                        for (int i = 0; i < authorities.length(); i++)
-                        {
-                            String authorityString = authorities.getString(i);
-                            authorityList.add(authorityString);
-                        }
-
-                        char separator = getSeparator(authorityList);
-
-                        StringBuilder authQuery = new StringBuilder();
-                        StringBuilder denyQuery = new StringBuilder();
-
-                        for (String tenant : tenantList)
-                        {
-                            for (String authority : authorityList)
-                            {
-                                if (separator == 0)
-                                {
-                                    if (authQuery.length() > 0)
-                                    {
-                                        authQuery.append(" ");
-                                        denyQuery.append(" ");                                        
-                                    }
-                                    switch (AuthorityType.getAuthorityType(authority))
-                                    {
-                                    case USER:
-                                        authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
-                                        denyQuery.append("|DENIED:\"").append(authority).append("\"");
-                                        break;
-                                    case GROUP:
-                                    case EVERYONE:
-                                    case GUEST:
-                                        if (tenant.length() == 0)
-                                        {
-                                            // Default tenant matches 4.0
-                                            authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
-                                            denyQuery.append("|DENIED:\"").append(authority).append("\"");
-                                        }
-                                        else
-                                        {
-                                            authQuery.append("|AUTHORITY:\"").append(authority).append("@").append(tenant).append("\"");
-                                            denyQuery.append("|DENIED:\"").append(authority).append("@").append(tenant).append("\"");
-                                        }
-                                        break;
-                                    default:
-                                        authQuery.append("|AUTHORITY:\"").append(authority).append("\"");
-                                        denyQuery.append("|DENIED:\"").append(authority).append("\"");
-                                        break;
-                                    }
-                                }
-                                else
-                                {
-                                    if(authQuery.length() == 0)
-                                    {
-                                        authset = true;
-                                        authQuery.append("|AUTHSET:\"");
-                                        denyQuery.append("|DENYSET:\"");
-                                    }
-
-                                    switch (AuthorityType.getAuthorityType(authority))
-                                    {
-                                    case USER:
-                                        authQuery.append(separator).append(authority);
-                                        denyQuery.append(separator).append(authority);
-                                        break;
-                                    case GROUP:
-                                    case EVERYONE:
-                                    case GUEST:
-                                        if (tenant.length() == 0)
-                                        {
-                                            // Default tenant matches 4.0
-                                            authQuery.append(separator).append(authority);
-                                            denyQuery.append(separator).append(authority);
-                                        }
-                                        else
-                                        {
-                                            authQuery.append(separator).append(authority).append("@").append(tenant);
-                                            denyQuery.append(separator).append(authority).append("@").append(tenant);
-                                        }
-                                        break;
-                                    default:
-                                        authQuery.append(separator).append(authority);
-                                        denyQuery.append(separator).append(authority);
-                                        break;
-                                    }
-                                }
-
-                            }
-                        }
-                        if(separator != 0)
-                        {
-                            authQuery.append("\"");
-                            denyQuery.append("\"");
-                        }
-
-                        if (authQuery.length() > 0)
-                        {
-                            // Default to true for safety reasons.
-                            final boolean anyDenyDenies = json.optBoolean("anyDenyDenies", true);
-                            
-                            if (anyDenyDenies)
-                            {
-                                authQuery.insert(0, "(").
-                                    append(") AND NOT (").
-                                    append(denyQuery).
-                                    append(")");
-                                // Record that the clause has been added.
-                                // We only ever set this to true for solr4+
-                                req.getContext().put("processedDenies", Boolean.TRUE);
-                            }
-                            searchParameters.setQuery(authQuery.toString());
-                        }
-                    }
-                    else if (getString().equals(TENANT_FILTER_FROM_JSON))
-                    {
-                        isFilter =Boolean.TRUE;
-                        
-                        ArrayList<String> tenantList = new ArrayList<String>(1);
-                        JSONArray tenants = json.getJSONArray("tenants");
-                        for (int i = 0; i < tenants.length(); i++)
-                        {
-                            String tenantString = tenants.getString(i);
-                            tenantList.add(tenantString);
-                        }
-
-                        StringBuilder tenantQuery = new StringBuilder();
-                        for (String tenant : tenantList)
-                        {
-                            if (tenantQuery.length() > 0)
-                            {
-                                tenantQuery.append(" ");
-                            }
-
-                            if (tenant.length() > 0)
-
-                            {
-                                tenantQuery.append("|TENANT:\"").append(tenant).append("\"");
-                            }
-                            else
-                            {
-                                // TODO: Need to check for the default tenant or no tenant (4.0) or we force a reindex
-                                // requirement later ...
-                                // Better to add default tenant to the 4.0 index
-                                tenantQuery.append("|TENANT:\"").append("_DEFAULT_").append("\"");
-                                // tenantQuery.append(" |(+ISNODE:T -TENANT:*)");
-                            }
-
-                        }
-                        searchParameters.setQuery(tenantQuery.toString());
-                    }
-                    else if (getString().equals(RERANK_QUERY_FROM_CONTEXT))
-                    {
-                    	String searchTerm = getParam("spellcheck.q");
-                    	searchParameters.setQuery(searchTerm);
-                    }
+                	String searchTerm = getParam("spellcheck.q");
+                	searchParameters.setQuery(searchTerm);
                 }
-                else
-                {
-                    String query = json.getString("query");
-                    if (query != null)
-                    {
-                        searchParameters.setQuery(query);
-                    }
-                }
-
-                JSONArray locales = json.getJSONArray("locales");
-                for (int i = 0; i < locales.length(); i++)
+            }
+            else
+            {
+                String query = json.getQuery();
+                if (query != null)
                 {
-                    String localeString = locales.getString(i);
-                    Locale locale = DefaultTypeConverter.INSTANCE.convert(Locale.class, localeString);
-                    searchParameters.addLocale(locale);
+                    searchParameters.setQuery(query);
                 }
+            }
 
-                JSONArray templates = json.getJSONArray("templates");
-                for (int i = 0; i < templates.length(); i++)
-                {
-                    JSONObject template = templates.getJSONObject(i);
-                    String name = template.getString("name");
-                    String queryTemplate = template.getString("template");
-                    searchParameters.addQueryTemplate(name, queryTemplate);
-                }
+            for (String localeString : json.getLocales())
+            {
+                Locale locale = DefaultTypeConverter.INSTANCE.convert(Locale.class, localeString);
+                searchParameters.addLocale(locale);
+            }
 
-                JSONArray allAttributes = json.getJSONArray("allAttributes");
-                for (int i = 0; i < allAttributes.length(); i++)
-                {
-                    String allAttribute = allAttributes.getString(i);
-                    searchParameters.addAllAttribute(allAttribute);
-                }
+            for (Pair<String, String> template : json.getTemplates())
+            {
+                searchParameters.addQueryTemplate(template.getFirst(), template.getSecond());
+            }
 
-                searchParameters.setDefaultFTSOperator(Operator.valueOf(json.getString("defaultFTSOperator")));
-                searchParameters.setDefaultFTSFieldConnective(Operator.valueOf(json.getString("defaultFTSFieldOperator")));
-                if (json.has("mlAnalaysisMode"))
-                {
-                    searchParameters.setMlAnalaysisMode(MLAnalysisMode.valueOf(json.getString("mlAnalaysisMode")));
-                }
-                searchParameters.setNamespace(json.getString("defaultNamespace"));
+            for (String allAttribute : json.getAllAttributes())
+            {
+                searchParameters.addAllAttribute(allAttribute);
+            }
 
-                JSONArray textAttributes = json.getJSONArray("textAttributes");
-                for (int i = 0; i < textAttributes.length(); i++)
-                {
-                    String textAttribute = textAttributes.getString(i);
-                    searchParameters.addTextAttribute(textAttribute);
-                }
-                
-                
-                searchParameters.setQueryConsistency(QueryConsistency.valueOf(json.getString("queryConsistency")));
+            if (json.getDefaultFTSOperator() != null)
+            {
+                searchParameters.setDefaultFTSOperator(Operator.valueOf(json.getDefaultFTSOperator()));
+            }
+            if (json.getDefaultFTSFieldOperator() != null)
+            {
+                searchParameters.setDefaultFTSFieldConnective(Operator.valueOf(json.getDefaultFTSFieldOperator()));
+            }
+            if (json.getMlAnalaysisMode() != null)
+            {
+                searchParameters.setMlAnalaysisMode(MLAnalysisMode.valueOf(json.getMlAnalaysisMode()));
+            }
+            if (json.getDefaultNamespace() != null)
+            {
+                searchParameters.setNamespace(json.getDefaultNamespace());
+            }
 
+            for (String textAttribute : json.getTextAttributes())
+            {
+                searchParameters.addTextAttribute(textAttribute);
             }
-            catch (JSONException e)
+
+            if (json.getQueryConsistency() != null)
             {
-                // This is expected when there is no json element to the request
+                searchParameters.setQueryConsistency(QueryConsistency.valueOf(json.getQueryConsistency()));
             }
-        }
 
-        if (json != null)
-        {
             if (log.isDebugEnabled())
             {
-                log.debug(json.toString());
+                log.debug(json.toJson());
             }
         }
 
@@ -547,26 +449,36 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
 
 
     /**
-     * @param authorityList ArrayList<String>
-     * @return char
+     * @param authorityList List<String>
+     * @return the first separator that does not occur in any authority, or 0 if they all do
      */
-    private char getSeparator(ArrayList<String> authorityList)
+    private char getSeparator(List<String> authorityList)
     {
-        StringBuilder builder = new StringBuilder();
-        for(String auth : authorityList)
+        boolean[] used = new boolean[SEPARATORS.length];
+        int remaining = SEPARATORS.length;
+        for (String auth : authorityList)
         {
-            builder.append(auth);
+            for (int i = 0; i < SEPARATORS.length; i++)
+            {
+                if (!used[i] && (auth.indexOf(SEPARATORS[i]) != -1))
+                {
+                    used[i] = true;
+                    if (--remaining == 0)
+                    {
+                        return 0;
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < SEPARATORS.length; i++)
+        {
+            if (!used[i])
+            {
+                return SEPARATORS[i];
+            }
         }
-       String test = builder.toString();
-       
-       for(int i = 0; i < SEPARATORS.length; i++)
-       {
-           if(test.indexOf(SEPARATORS[i]) == -1)
-           {
-               return SEPARATORS[i];
-           }
-       }
-       return 0;
+        return 0;
     }
 
     /* (non-Javadoc)
@@ -672,28 +584,100 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
  
     
     private List<DetectedLanguage> detectLanguage(String content) {
-    	if (content.trim().length() == 0) { // to be consistent with the tika impl?
+    	String text = normaliseForDetection(content);
+    	if (text.length() == 0) { // to be consistent with the tika impl?
     		log.debug("No input text to detect language from, returning empty list");
     		return Collections.emptyList();
     	}
+    	if (!isWorthDetecting(text)) {
+    		log.debug("Input text is too short or has no letters to detect language from, returning empty list");
+    		return Collections.emptyList();
+    	}
 
-    	try {
-    		Detector detector = DetectorFactory.create();
-    		detector.append(content);
-    		ArrayList<Language> langlist = detector.getProbabilities();
-    		ArrayList<DetectedLanguage> solrLangList = new ArrayList<>();
-    		for (Language l: langlist) 
-    		{
-    			if((autoDetectQueryLocales.size() == 0) || (autoDetectQueryLocales.contains(l.lang)))
-    			{
-    			    solrLangList.add(new DetectedLanguage(l.lang, l.prob));
+    	List<Language> langlist = detectedLanguages.get(text);
+    	if (langlist == null) {
+    		SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+    		ResponseBuilder rb = requestInfo == null ? null : requestInfo.getResponseBuilder();
+    		RTimer timer = (rb != null && rb.isDebugTimings() && rb.getTimer() != null) ? rb.getTimer().sub("languageDetection") : null;
+    		try {
+    			Detector detector = DetectorFactory.create();
+    			detector.setMaxTextLength(MAX_DETECTION_TEXT_LENGTH);
+    			detector.append(text);
+    			langlist = Collections.unmodifiableList(detector.getProbabilities());
+    		} catch (LangDetectException e) {
+    			log.debug("Could not determine language, returning empty list: ", e);
+    			langlist = Collections.emptyList();
+    		} finally {
+    			if (timer != null) {
+    				timer.stop();
     			}
     		}
-    		return solrLangList;
-    	} catch (LangDetectException e) {
-    		log.debug("Could not determine language, returning empty list: ", e);
-    		return Collections.emptyList();
+    		detectedLanguages.put(text, langlist);
+    	}
+
+    	ArrayList<DetectedLanguage> solrLangList = new ArrayList<>();
+    	for (Language l: langlist) 
+    	{
+    		if((autoDetectQueryLocales.size() == 0) || (autoDetectQueryLocales.contains(l.lang)))
+    		{
+    		    solrLangList.add(new DetectedLanguage(l.lang, l.prob));
+    		}
     	}
+    	return solrLangList;
+    }
+
+    /**
+     * Trim and collapse white space so the same search typed slightly differently shares a cache entry.
+     */
+    static String normaliseForDetection(String content)
+    {
+        StringBuilder builder = new StringBuilder(Math.min(content.length(), MAX_DETECTION_TEXT_LENGTH));
+        boolean pendingSpace = false;
+        for (int i = 0; i < content.length() && builder.length() < MAX_DETECTION_TEXT_LENGTH; i++)
+        {
+            char c = content.charAt(i);
+            if (Character.isWhitespace(c))
+            {
+                pendingSpace = builder.length() > 0;
+            }
+            else
+            {
+                if (pendingSpace)
+                {
+                    builder.append(' ');
+                    pendingSpace = false;
+                }
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Numbers and very short ASCII words do not carry enough n-grams to tell one language from another, so detection
+     * is skipped for them.  Short text in other scripts is still detected as the script alone is a strong hint.
+     */
+    static boolean isWorthDetecting(String text)
+    {
+        int letters = 0;
+        boolean ascii = true;
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (Character.isLetter(c))
+            {
+                letters++;
+            }
+            if (c > 127)
+            {
+                ascii = false;
+            }
+        }
+        if (letters == 0)
+        {
+            return false;
+        }
+        return !ascii || (letters >= MIN_ASCII_DETECTION_LETTERS);
     }
 
     public class DetectedLanguage {
@@ -34,10 +34,13 @@ import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.search.Query;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.RTimer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -97,11 +100,36 @@ public class AlfrescoFTSQParserPlugin extends QParserPlugin
         @Override
         public Query parse() throws SyntaxError
         {
+            Query jsonFilter = getJsonFilter();
+            if (jsonFilter != null)
+            {
+                if(authset && postfilter)
+                {
+                    return new PostFilterQuery(200, jsonFilter);
+                }
+                return jsonFilter;
+            }
+
             try
             {
                 Pair<SearchParameters, Boolean> searchParametersAndFilter = getSearchParameters();
 
-                Query query = AlfrescoSolrDataModel.getInstance().getFTSQuery(searchParametersAndFilter, req, rerankPhase);
+                // Report parsing separately from the rest of the component in debug timing
+                SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+                ResponseBuilder rb = requestInfo == null ? null : requestInfo.getResponseBuilder();
+                RTimer timer = (rb != null && rb.isDebugTimings() && rb.getTimer() != null) ? rb.getTimer().sub("aftsParse") : null;
+                Query query;
+                try
+                {
+                    query = AlfrescoSolrDataModel.getInstance().getFTSQuery(searchParametersAndFilter, req, rerankPhase);
+                }
+                finally
+                {
+                    if (timer != null)
+                    {
+                        timer.stop();
+                    }
+                }
                 if(log.isDebugEnabled())
                 {
                     log.debug("AFTS QP query as lucene:\t    "+query);
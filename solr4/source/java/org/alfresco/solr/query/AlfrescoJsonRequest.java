@@ -0,0 +1,510 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.util.Pair;
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.request.SolrQueryRequest;
+import org.json.JSONObject;
+import org.noggit.JSONParser;
+
+/**
+ * The JSON body that the repository posts along with a search request.
+ * <p/>
+ * The body is read with a streaming parser straight into typed fields, so large authority and tenant lists never
+ * become an intermediate object tree.  It is parsed at most once per request and kept in the request context under
+ * {@link AbstractQParser#ALFRESCO_JSON}, where the search handler, every query parser and the spell check collator
+ * pick it up.  Keys that are not understood are skipped.
+ * 
+ * @since 5.2
+ */
+public class AlfrescoJsonRequest
+{
+    private String query;
+
+    private final List<String> locales = new ArrayList<String>();
+
+    private final List<Pair<String, String>> templates = new ArrayList<Pair<String, String>>();
+
+    private final List<String> allAttributes = new ArrayList<String>();
+
+    private final List<String> textAttributes = new ArrayList<String>();
+
+    private final List<String> authorities = new ArrayList<String>();
+
+    private final List<String> tenants = new ArrayList<String>();
+
+    private String defaultFTSOperator;
+
+    private String defaultFTSFieldOperator;
+
+    private String mlAnalaysisMode;
+
+    private String defaultNamespace;
+
+    private String queryConsistency;
+
+    private boolean anyDenyDenies = true;
+
+    /**
+     * Get the JSON body of a request, parsing the last content stream the first time it is asked for.
+     * 
+     * @param req SolrQueryRequest
+     * @return the parsed body or <tt>null</tt> if the request does not carry a JSON object
+     */
+    public static AlfrescoJsonRequest getJsonRequest(SolrQueryRequest req)
+    {
+        Object cached = req.getContext().get(AbstractQParser.ALFRESCO_JSON);
+        if (cached instanceof AlfrescoJsonRequest)
+        {
+            return (AlfrescoJsonRequest) cached;
+        }
+
+        Iterable<ContentStream> streams = req.getContentStreams();
+        if (streams == null)
+        {
+            return null;
+        }
+
+        ContentStream last = null;
+        for (ContentStream stream : streams)
+        {
+            last = stream;
+        }
+        if (last == null)
+        {
+            return null;
+        }
+
+        try (Reader reader = new BufferedReader(new InputStreamReader(last.getStream(), StandardCharsets.UTF_8)))
+        {
+            AlfrescoJsonRequest json = parse(reader);
+            if (json != null)
+            {
+                req.getContext().put(AbstractQParser.ALFRESCO_JSON, json);
+            }
+            return json;
+        }
+        catch (IOException e)
+        {
+            throw new AlfrescoRuntimeException("IO Error parsing query parameters", e);
+        }
+    }
+
+    /**
+     * Parse a JSON object from the reader.
+     * 
+     * @param reader Reader
+     * @return the parsed body or <tt>null</tt> if the content is not a JSON object
+     * @throws IOException
+     */
+    public static AlfrescoJsonRequest parse(Reader reader) throws IOException
+    {
+        JSONParser parser = new JSONParser(reader);
+        try
+        {
+            if (parser.nextEvent() != JSONParser.OBJECT_START)
+            {
+                // This is expected when there is no json element to the request
+                return null;
+            }
+
+            AlfrescoJsonRequest json = new AlfrescoJsonRequest();
+            for (int event = parser.nextEvent(); event != JSONParser.OBJECT_END; event = parser.nextEvent())
+            {
+                if (event != JSONParser.STRING)
+                {
+                    throw new JSONParser.ParseException("Expected a key but found event " + event);
+                }
+                String key = parser.getString();
+                switch (key)
+                {
+                case "query":
+                    json.query = readString(parser, parser.nextEvent());
+                    break;
+                case "locales":
+                    readStrings(parser, json.locales);
+                    break;
+                case "templates":
+                    readTemplates(parser, json.templates);
+                    break;
+                case "allAttributes":
+                    readStrings(parser, json.allAttributes);
+                    break;
+                case "textAttributes":
+                    readStrings(parser, json.textAttributes);
+                    break;
+                case "authorities":
+                    readStrings(parser, json.authorities);
+                    break;
+                case "tenants":
+                    readStrings(parser, json.tenants);
+                    break;
+                case "defaultFTSOperator":
+                    json.defaultFTSOperator = readString(parser, parser.nextEvent());
+                    break;
+                case "defaultFTSFieldOperator":
+                    json.defaultFTSFieldOperator = readString(parser, parser.nextEvent());
+                    break;
+                case "mlAnalaysisMode":
+                    json.mlAnalaysisMode = readString(parser, parser.nextEvent());
+                    break;
+                case "defaultNamespace":
+                    json.defaultNamespace = readString(parser, parser.nextEvent());
+                    break;
+                case "queryConsistency":
+                    json.queryConsistency = readString(parser, parser.nextEvent());
+                    break;
+                case "anyDenyDenies":
+                    String anyDenyDenies = readString(parser, parser.nextEvent());
+                    json.anyDenyDenies = (anyDenyDenies == null) || Boolean.parseBoolean(anyDenyDenies);
+                    break;
+                default:
+                    skipValue(parser, parser.nextEvent());
+                    break;
+                }
+            }
+            return json;
+        }
+        catch (JSONParser.ParseException e)
+        {
+            // This is expected when there is no json element to the request
+            return null;
+        }
+    }
+
+    private static String readString(JSONParser parser, int event) throws IOException
+    {
+        switch (event)
+        {
+        case JSONParser.STRING:
+            return parser.getString();
+        case JSONParser.LONG:
+        case JSONParser.NUMBER:
+        case JSONParser.BIGNUMBER:
+            return parser.getNumberChars().toString();
+        case JSONParser.BOOLEAN:
+            return Boolean.toString(parser.getBoolean());
+        case JSONParser.NULL:
+            parser.getNull();
+            return null;
+        default:
+            throw new JSONParser.ParseException("Expected a simple value but found event " + event);
+        }
+    }
+
+    private static void readStrings(JSONParser parser, List<String> values) throws IOException
+    {
+        int event = parser.nextEvent();
+        if (event != JSONParser.ARRAY_START)
+        {
+            skipValue(parser, event);
+            return;
+        }
+        for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent())
+        {
+            String value = readString(parser, event);
+            if (value != null)
+            {
+                values.add(value);
+            }
+        }
+    }
+
+    private static void readTemplates(JSONParser parser, List<Pair<String, String>> templates) throws IOException
+    {
+        int event = parser.nextEvent();
+        if (event != JSONParser.ARRAY_START)
+        {
+            skipValue(parser, event);
+            return;
+        }
+        for (event = parser.nextEvent(); event != JSONParser.ARRAY_END; event = parser.nextEvent())
+        {
+            if (event != JSONParser.OBJECT_START)
+            {
+                skipValue(parser, event);
+                continue;
+            }
+            String name = null;
+            String template = null;
+            for (event = parser.nextEvent(); event != JSONParser.OBJECT_END; event = parser.nextEvent())
+            {
+                String key = parser.getString();
+                if (key.equals("name"))
+                {
+                    name = readString(parser, parser.nextEvent());
+                }
+                else if (key.equals("template"))
+                {
+                    template = readString(parser, parser.nextEvent());
+                }
+                else
+                {
+                    skipValue(parser, parser.nextEvent());
+                }
+            }
+            if ((name != null) && (template != null))
+            {
+                templates.add(new Pair<String, String>(name, template));
+            }
+        }
+    }
+
+    private static void skipValue(JSONParser parser, int event) throws IOException
+    {
+        int depth = 0;
+        do
+        {
+            switch (event)
+            {
+            case JSONParser.OBJECT_START:
+            case JSONParser.ARRAY_START:
+                depth++;
+                break;
+            case JSONParser.OBJECT_END:
+            case JSONParser.ARRAY_END:
+                depth--;
+                break;
+            case JSONParser.EOF:
+                throw new JSONParser.ParseException("Unexpected end of JSON");
+            default:
+                break;
+            }
+            if (depth > 0)
+            {
+                event = parser.nextEvent();
+            }
+        }
+        while (depth > 0);
+    }
+
+    public String getQuery()
+    {
+        return query;
+    }
+
+    /**
+     * Used when the query is rewritten for this request, e.g. when testing spell check collations.
+     * 
+     * @param query String
+     */
+    public void setQuery(String query)
+    {
+        this.query = query;
+    }
+
+    /**
+     * Copy the request with a different query, leaving this request untouched, e.g. when several spell check
+     * collations are tested at the same time.
+     *
+     * @param query String
+     * @return the copy
+     */
+    public AlfrescoJsonRequest copyWithQuery(String query)
+    {
+        AlfrescoJsonRequest copy = new AlfrescoJsonRequest();
+        copy.query = query;
+        copy.locales.addAll(locales);
+        copy.templates.addAll(templates);
+        copy.allAttributes.addAll(allAttributes);
+        copy.textAttributes.addAll(textAttributes);
+        copy.authorities.addAll(authorities);
+        copy.tenants.addAll(tenants);
+        copy.defaultFTSOperator = defaultFTSOperator;
+        copy.defaultFTSFieldOperator = defaultFTSFieldOperator;
+        copy.mlAnalaysisMode = mlAnalaysisMode;
+        copy.defaultNamespace = defaultNamespace;
+        copy.queryConsistency = queryConsistency;
+        copy.anyDenyDenies = anyDenyDenies;
+        return copy;
+    }
+
+    public List<String> getLocales()
+    {
+        return Collections.unmodifiableList(locales);
+    }
+
+    /**
+     * @return pairs of template name and template
+     */
+    public List<Pair<String, String>> getTemplates()
+    {
+        return Collections.unmodifiableList(templates);
+    }
+
+    public List<String> getAllAttributes()
+    {
+        return Collections.unmodifiableList(allAttributes);
+    }
+
+    public List<String> getTextAttributes()
+    {
+        return Collections.unmodifiableList(textAttributes);
+    }
+
+    public List<String> getAuthorities()
+    {
+        return Collections.unmodifiableList(authorities);
+    }
+
+    public List<String> getTenants()
+    {
+        return Collections.unmodifiableList(tenants);
+    }
+
+    public String getDefaultFTSOperator()
+    {
+        return defaultFTSOperator;
+    }
+
+    public String getDefaultFTSFieldOperator()
+    {
+        return defaultFTSFieldOperator;
+    }
+
+    public String getMlAnalaysisMode()
+    {
+        return mlAnalaysisMode;
+    }
+
+    public String getDefaultNamespace()
+    {
+        return defaultNamespace;
+    }
+
+    public String getQueryConsistency()
+    {
+        return queryConsistency;
+    }
+
+    /**
+     * @return <tt>true</tt> (the default) if any deny should deny access
+     */
+    public boolean isAnyDenyDenies()
+    {
+        return anyDenyDenies;
+    }
+
+    /**
+     * Write the request back out as JSON, as forwarded to the shards of a distributed search.
+     * 
+     * @return the JSON text
+     */
+    public String toJson()
+    {
+        StringBuilder builder = new StringBuilder(256);
+        builder.append('{');
+        appendString(builder, "query", query);
+        appendStrings(builder, "locales", locales);
+        builder.append(",\"templates\":[");
+        for (int i = 0; i < templates.size(); i++)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            builder.append("{\"name\":").append(JSONObject.quote(templates.get(i).getFirst()));
+            builder.append(",\"template\":").append(JSONObject.quote(templates.get(i).getSecond())).append('}');
+        }
+        builder.append(']');
+        appendStrings(builder, "allAttributes", allAttributes);
+        appendStrings(builder, "textAttributes", textAttributes);
+        appendStrings(builder, "authorities", authorities);
+        appendStrings(builder, "tenants", tenants);
+        appendString(builder, "defaultFTSOperator", defaultFTSOperator);
+        appendString(builder, "defaultFTSFieldOperator", defaultFTSFieldOperator);
+        appendString(builder, "mlAnalaysisMode", mlAnalaysisMode);
+        appendString(builder, "defaultNamespace", defaultNamespace);
+        appendString(builder, "queryConsistency", queryConsistency);
+        builder.append(",\"anyDenyDenies\":").append(anyDenyDenies);
+        builder.append('}');
+        return builder.toString();
+    }
+
+    /**
+     * Write the request out as JSON with the authorities and tenants sorted and without duplicates, so requests that
+     * only differ in the order the repository sent them in give the same text, e.g. for cache keys.
+     * 
+     * @return the JSON text
+     */
+    public String toCanonicalJson()
+    {
+        AlfrescoJsonRequest canonical = copyWithQuery(query);
+        canonical.authorities.clear();
+        canonical.authorities.addAll(new TreeSet<String>(authorities));
+        canonical.tenants.clear();
+        canonical.tenants.addAll(new TreeSet<String>(tenants));
+        return canonical.toJson();
+    }
+
+    private static void appendString(StringBuilder builder, String key, String value)
+    {
+        if (value != null)
+        {
+            if (builder.length() > 1)
+            {
+                builder.append(',');
+            }
+            builder.append(JSONObject.quote(key)).append(':').append(JSONObject.quote(value));
+        }
+    }
+
+    private static void appendStrings(StringBuilder builder, String key, List<String> values)
+    {
+        if (builder.length() > 1)
+        {
+            builder.append(',');
+        }
+        builder.append(JSONObject.quote(key)).append(":[");
+        for (int i = 0; i < values.size(); i++)
+        {
+            if (i > 0)
+            {
+                builder.append(',');
+            }
+            builder.append(JSONObject.quote(values.get(i)));
+        }
+        builder.append(']');
+    }
+
+    @Override
+    public String toString()
+    {
+        return toJson();
+    }
+}
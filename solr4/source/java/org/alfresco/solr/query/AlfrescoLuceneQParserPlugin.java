@@ -86,6 +86,12 @@ public class AlfrescoLuceneQParserPlugin extends QParserPlugin
         @Override
         public Query parse() throws SyntaxError
         {
+            Query jsonFilter = getJsonFilter();
+            if (jsonFilter != null)
+            {
+                return jsonFilter;
+            }
+
             Pair<SearchParameters, Boolean> searchParametersAndFilter = getSearchParameters();
             SearchParameters searchParameters = searchParametersAndFilter.getFirst();
             Boolean isFilter = searchParametersAndFilter.getSecond();
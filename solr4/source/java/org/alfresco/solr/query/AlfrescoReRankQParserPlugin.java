@@ -28,7 +28,9 @@
 package org.alfresco.solr.query;
 
 import com.carrotsearch.hppc.IntIntOpenHashMap;
+import org.alfresco.solr.cache.CacheConstants;
 import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.util.BytesRef;
@@ -40,6 +42,8 @@ import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.search.*;
 import org.apache.solr.handler.component.MergeStrategy;
 import org.apache.solr.handler.component.QueryElevationComponent;
@@ -54,13 +58,20 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.FieldDoc;
 import com.carrotsearch.hppc.IntFloatOpenHashMap;
 
 import org.apache.lucene.util.Bits;
 import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.util.DefaultSolrThreadFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /*
 *
@@ -73,10 +84,47 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
     public static final String NAME = "rerank";
     private static Query defaultQuery = new MatchAllDocsQuery();
 
+    /* Rescores the segments of large rerank windows in parallel, if parallelThreads is configured */
+    private ExecutorService executor;
+    private int parallelThreads;
+    private int parallelReRankDocs = 1000;
+
     public void init(NamedList args) {
+        if(args != null) {
+            Object val = args.get("parallelReRankDocs");
+            if(val != null) {
+                parallelReRankDocs = Integer.parseInt(val.toString());
+            }
+            val = args.get("parallelThreads");
+            if(val != null) {
+                parallelThreads = Integer.parseInt(val.toString());
+            }
+        }
+    }
+
+    /*
+    *  Query parser plugins are not SolrCoreAware, so the pool is started by the first request and shut down with its core.
+    */
+    private synchronized ExecutorService getExecutor(SolrCore core) {
+        if(executor == null && parallelThreads > 0) {
+            final ExecutorService pool = Executors.newFixedThreadPool(parallelThreads, new DefaultSolrThreadFactory("reRank"));
+            core.addCloseHook(new CloseHook() {
+                @Override
+                public void preClose(SolrCore core) {
+                    pool.shutdownNow();
+                }
+
+                @Override
+                public void postClose(SolrCore core) {
+                }
+            });
+            executor = pool;
+        }
+        return executor;
     }
 
     public QParser createParser(String query, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+        getExecutor(req.getCore());
         return new ReRankQParser(query, localParams, params, req);
     }
 
@@ -159,7 +207,23 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
                 }
             }
 
-            return new ReRankCollector(reRankDocs, length, reRankQuery, reRankWeight, cmd, searcher, boostedPriority, scale);
+            /*
+            *  The reranked top docs do not depend on the page, so they are kept per searcher and later pages of
+            *  the same query are sliced from them. Elevation depends on the request so it is never cached.
+            *  On a hit the main query still visits every match, as Solr may be collecting the DocSet through this
+            *  collector, but the matches are neither scored nor queued and the rerank pass is skipped.
+            */
+            ReRankCacheKey cacheKey = null;
+            ReRankResult cached = null;
+            if(boostedPriority == null && cmd.getFilter() == null && searcher instanceof SolrIndexSearcher) {
+                cacheKey = new ReRankCacheKey(mainQuery, reRankQuery, reRankDocs, reRankWeight, getBoost(), scale, cmd.getSort(), cmd.getFilterList());
+                cached = (ReRankResult)((SolrIndexSearcher)searcher).cacheLookup(CacheConstants.ALFRESCO_RERANK_CACHE, cacheKey);
+                if(cached != null && !cached.covers(length, reRankDocs)) {
+                    cached = null;
+                }
+            }
+
+            return new ReRankCollector(reRankDocs, length, reRankQuery, reRankWeight, cmd, searcher, boostedPriority, scale, cacheKey, cached);
         }
 
         public String toString(String s) {
@@ -229,16 +293,7 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
 
         public Explanation explain(AtomicReaderContext context, int doc) throws IOException {
             Explanation mainExplain = mainWeight.explain(context, doc);
-            return new QueryRescorer(reRankQuery) {
-                @Override
-                protected float combine(float firstPassScore, boolean secondPassMatches, float secondPassScore) {
-                    float score = firstPassScore;
-                    if (secondPassMatches) {
-                        score += reRankWeight * secondPassScore;
-                    }
-                    return score;
-                }
-            }.explain(searcher, mainExplain, context.docBase+doc);
+            return new ReRankRescorer(reRankQuery, reRankWeight).explain(searcher, mainExplain, context.docBase+doc);
         }
     }
 
@@ -255,6 +310,8 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
         private float maxScore = -Float.MAX_VALUE;
         private Scorer localScorer;
         private boolean scale;
+        private ReRankCacheKey cacheKey;
+        private ReRankResult cached;
 
         public ReRankCollector(int reRankDocs,
                                int length,
@@ -263,13 +320,17 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
                                SolrIndexSearcher.QueryCommand cmd,
                                IndexSearcher searcher,
                                Map<BytesRef, Integer> boostedPriority,
-                               boolean scale) throws IOException {
+                               boolean scale,
+                               ReRankCacheKey cacheKey,
+                               ReRankResult cached) throws IOException {
             super(null);
             this.reRankQuery = reRankQuery;
             this.reRankDocs = reRankDocs;
             this.length = length;
             this.boostedPriority = boostedPriority;
             this.scale = scale;
+            this.cacheKey = cacheKey;
+            this.cached = cached;
             Sort sort = cmd.getSort();
             if(sort == null) {
                 this.mainCollector = TopScoreDocCollector.create(Math.max(this.reRankDocs, length),true);
@@ -282,29 +343,43 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
         }
 
         public boolean acceptsDocsOutOfOrder() {
-            return false;
+            return cached != null;
         }
 
         public void collect(int doc) throws IOException {
-            mainCollector.collect(doc);
+            if(cached == null) {
+                mainCollector.collect(doc);
+            }
         }
 
         public void setScorer(Scorer scorer) throws IOException {
-            mainCollector.setScorer(scorer);
+            if(cached == null) {
+                mainCollector.setScorer(scorer);
+            }
         }
 
         public void setNextReader(AtomicReaderContext context) throws IOException{
-            mainCollector.setNextReader(context);
+            if(cached == null) {
+                mainCollector.setNextReader(context);
+            }
         }
 
         public int getTotalHits() {
-            return mainCollector.getTotalHits();
+            return cached == null ? mainCollector.getTotalHits() : cached.totalHits;
         }
 
         public TopDocs topDocs(int start, int howMany) {
 
             try {
 
+                if(cached != null) {
+                    TopDocs rescoredDocs = cached.getTopDocs(howMany);
+                    if(scale) {
+                        scaleScores(rescoredDocs, cached.scoreMap);
+                    }
+                    return rescoredDocs;
+                }
+
                 TopDocs mainDocs = mainCollector.topDocs(0,  Math.max(reRankDocs, length));
 
                 if(mainDocs.totalHits == 0 || mainDocs.scoreDocs.length == 0) {
@@ -333,16 +408,7 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
 
                     Map<Integer, Float> scoreMap = getScoreMap(mainDocs.scoreDocs, mainDocs.scoreDocs.length);
 
-                    TopDocs rescoredDocs = new QueryRescorer(reRankQuery) {
-                        @Override
-                        protected float combine(float firstPassScore, boolean secondPassMatches, float secondPassScore) {
-                            float score = firstPassScore;
-                            if (secondPassMatches) {
-                                score += reRankWeight * secondPassScore;
-                            }
-                            return score;
-                        }
-                    }.rescore(searcher, mainDocs, mainDocs.scoreDocs.length);
+                    TopDocs rescoredDocs = new ReRankRescorer(reRankQuery, reRankWeight).rescore(searcher, mainDocs, mainDocs.scoreDocs.length);
 
                     Arrays.sort(rescoredDocs.scoreDocs, new BoostedComp(boostedDocs, mainDocs.scoreDocs, rescoredDocs.getMaxScore()));
 
@@ -393,16 +459,12 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
 
                     Map<Integer, Float> scoreMap = getScoreMap(mainDocs.scoreDocs, mainDocs.scoreDocs.length);
 
-                    TopDocs rescoredDocs = new QueryRescorer(reRankQuery) {
-                        @Override
-                        protected float combine(float firstPassScore, boolean secondPassMatches, float secondPassScore) {
-                            float score = firstPassScore;
-                            if (secondPassMatches) {
-                                score += reRankWeight * secondPassScore;
-                            }
-                            return score;
-                        }
-                    }.rescore(searcher, mainDocs, mainDocs.scoreDocs.length);
+                    TopDocs rescoredDocs = new ReRankRescorer(reRankQuery, reRankWeight).rescore(searcher, mainDocs, mainDocs.scoreDocs.length);
+
+                    if(cacheKey != null) {
+                        ((SolrIndexSearcher)searcher).cacheInsert(CacheConstants.ALFRESCO_RERANK_CACHE, cacheKey,
+                                new ReRankResult(mainCollector.getTotalHits(), mainCollector.getTotalHits() <= reRankDocs, rescoredDocs, scoreMap));
+                    }
 
                     //Lower howMany to return if we've collected fewer documents.
                     howMany = Math.min(howMany, mainScoreDocs.length);
@@ -443,6 +505,220 @@ public class AlfrescoReRankQParserPlugin extends QParserPlugin {
         }
     }
 
+    /*
+    *  Adds the weighted rerank score to the first pass score. Large windows are rescored one segment per task.
+    */
+    private class ReRankRescorer extends QueryRescorer {
+        private Query reRankQuery;
+        private double reRankWeight;
+
+        public ReRankRescorer(Query reRankQuery, double reRankWeight) {
+            super(reRankQuery);
+            this.reRankQuery = reRankQuery;
+            this.reRankWeight = reRankWeight;
+        }
+
+        @Override
+        protected float combine(float firstPassScore, boolean secondPassMatches, float secondPassScore) {
+            float score = firstPassScore;
+            if (secondPassMatches) {
+                score += reRankWeight * secondPassScore;
+            }
+            return score;
+        }
+
+        @Override
+        public TopDocs rescore(IndexSearcher searcher, TopDocs firstPassTopDocs, int topN) throws IOException {
+            List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+            if(executor == null || leaves.size() < 2 || firstPassTopDocs.scoreDocs.length < parallelReRankDocs) {
+                return super.rescore(searcher, firstPassTopDocs, topN);
+            }
+
+            final ScoreDoc[] hits = firstPassTopDocs.scoreDocs.clone();
+            Arrays.sort(hits, new Comparator<ScoreDoc>() {
+                @Override
+                public int compare(ScoreDoc a, ScoreDoc b) {
+                    return a.doc - b.doc;
+                }
+            });
+
+            final Weight weight = searcher.createNormalizedWeight(reRankQuery);
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            int from = 0;
+            while(from < hits.length) {
+                final AtomicReaderContext leaf = leaves.get(ReaderUtil.subIndex(hits[from].doc, leaves));
+                int end = leaf.docBase + leaf.reader().maxDoc();
+                int to = from;
+                while(to < hits.length && hits[to].doc < end) {
+                    to++;
+                }
+                final int first = from;
+                final int last = to;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        rescoreLeaf(weight, leaf, hits, first, last);
+                        return null;
+                    }
+                }));
+                from = to;
+            }
+            try {
+                for(Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if(e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw new IOException(e.getCause());
+            }
+
+            // Same order as QueryRescorer, by score and then by doc id
+            Arrays.sort(hits, new Comparator<ScoreDoc>() {
+                @Override
+                public int compare(ScoreDoc a, ScoreDoc b) {
+                    if (a.score > b.score) {
+                        return -1;
+                    } else if (a.score < b.score) {
+                        return 1;
+                    } else {
+                        return a.doc - b.doc;
+                    }
+                }
+            });
+
+            ScoreDoc[] topHits = hits;
+            if(topN < hits.length) {
+                topHits = new ScoreDoc[topN];
+                System.arraycopy(hits, 0, topHits, 0, topN);
+            }
+            return new TopDocs(firstPassTopDocs.totalHits, topHits, topHits.length == 0 ? Float.NaN : topHits[0].score);
+        }
+
+        private void rescoreLeaf(Weight weight, AtomicReaderContext leaf, ScoreDoc[] hits, int from, int to) throws IOException {
+            Scorer scorer = weight.scorer(leaf, null);
+            for(int i = from; i < to; i++) {
+                ScoreDoc hit = hits[i];
+                int targetDoc = hit.doc - leaf.docBase;
+                int actualDoc = -1;
+                if(scorer != null) {
+                    actualDoc = scorer.docID();
+                    if(actualDoc < targetDoc) {
+                        actualDoc = scorer.advance(targetDoc);
+                    }
+                }
+                if(actualDoc == targetDoc) {
+                    hit.score = combine(hit.score, true, scorer.score());
+                } else {
+                    hit.score = combine(hit.score, false, 0.0f);
+                }
+            }
+        }
+    }
+
+    /*
+    *  Identifies the reranked results of a query within a searcher, whatever page is asked for.
+    */
+    private static class ReRankCacheKey {
+        private final Query mainQuery;
+        private final Query reRankQuery;
+        private final int reRankDocs;
+        private final double reRankWeight;
+        private final float boost;
+        private final boolean scale;
+        private final Sort sort;
+        private final List<Query> filters;
+
+        public ReRankCacheKey(Query mainQuery, Query reRankQuery, int reRankDocs, double reRankWeight, float boost, boolean scale, Sort sort, List<Query> filters) {
+            this.mainQuery = mainQuery;
+            this.reRankQuery = reRankQuery;
+            this.reRankDocs = reRankDocs;
+            this.reRankWeight = reRankWeight;
+            this.boost = boost;
+            this.scale = scale;
+            this.sort = sort;
+            this.filters = (filters == null) ? null : new ArrayList<Query>(filters);
+        }
+
+        public int hashCode() {
+            int hash = mainQuery.hashCode();
+            hash = hash*31 + reRankQuery.hashCode();
+            hash = hash*31 + reRankDocs;
+            long bits = Double.doubleToLongBits(reRankWeight);
+            hash = hash*31 + (int)(bits ^ (bits >>> 32));
+            hash = hash*31 + Float.floatToIntBits(boost);
+            hash = hash*31 + (scale ? 1 : 0);
+            hash = hash*31 + (sort == null ? 0 : sort.hashCode());
+            hash = hash*31 + (filters == null ? 0 : filters.hashCode());
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof ReRankCacheKey)) {
+                return false;
+            }
+            ReRankCacheKey other = (ReRankCacheKey)o;
+            return mainQuery.equals(other.mainQuery) &&
+                    reRankQuery.equals(other.reRankQuery) &&
+                    reRankDocs == other.reRankDocs &&
+                    reRankWeight == other.reRankWeight &&
+                    boost == other.boost &&
+                    scale == other.scale &&
+                    (sort == null ? other.sort == null : sort.equals(other.sort)) &&
+                    (filters == null ? other.filters == null : filters.equals(other.filters));
+        }
+    }
+
+    /*
+    *  The reranked docs of a query before any scaling, shared between requests so only copies are handed out.
+    */
+    private static class ReRankResult {
+        private final int totalHits;
+        private final boolean allHits;
+        private final ScoreDoc[] scoreDocs;
+        private final float maxScore;
+        private final Map<Integer, Float> scoreMap;
+
+        public ReRankResult(int totalHits, boolean allHits, TopDocs rescoredDocs, Map<Integer, Float> scoreMap) {
+            this.totalHits = totalHits;
+            this.allHits = allHits;
+            this.scoreDocs = copy(rescoredDocs.scoreDocs, rescoredDocs.scoreDocs.length);
+            this.maxScore = rescoredDocs.getMaxScore();
+            this.scoreMap = scoreMap;
+        }
+
+        /*
+        *  Pages that end inside the rerank window, or queries whose hits all fit in it, need no first pass docs.
+        */
+        public boolean covers(int length, int reRankDocs) {
+            return length <= reRankDocs || allHits;
+        }
+
+        public TopDocs getTopDocs(int howMany) {
+            return new TopDocs(totalHits, copy(scoreDocs, Math.min(howMany, scoreDocs.length)), maxScore);
+        }
+
+        private static ScoreDoc[] copy(ScoreDoc[] scoreDocs, int length) {
+            ScoreDoc[] copies = new ScoreDoc[length];
+            for(int i=0; i<length; i++) {
+                ScoreDoc scoreDoc = scoreDocs[i];
+                if(scoreDoc instanceof FieldDoc) {
+                    copies[i] = new FieldDoc(scoreDoc.doc, scoreDoc.score, ((FieldDoc)scoreDoc).fields, scoreDoc.shardIndex);
+                } else {
+                    copies[i] = new ScoreDoc(scoreDoc.doc, scoreDoc.score, scoreDoc.shardIndex);
+                }
+            }
+            return copies;
+        }
+    }
+
     private void scaleScores(TopDocs topDocs, Map<Integer, Float> scoreMap) {
 
         float maxScore = topDocs.getMaxScore();
@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import org.alfresco.opencmis.search.CMISQueryOptions.CMISQueryMode;
+import org.alfresco.repo.search.impl.parsers.FTSQueryParser.RerankPhase;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.apache.chemistry.opencmis.commons.enums.CmisVersion;
+
+/**
+ * Key for the alfrescoCMISQueryCache of parsed CMIS queries.
+ * <p/>
+ * A CMIS statement is parsed with the same search parameters as an AFTS query, so those are held as an
+ * {@link FTSQueryCacheKey}, together with the query mode, CMIS version and dictionary the statement is parsed against.
+ * Paging parameters are not part of the statement, so every page of the same query shares an entry.
+ */
+public class CMISQueryCacheKey
+{
+    private final FTSQueryCacheKey searchParametersKey;
+    private final CMISQueryMode mode;
+    private final CmisVersion cmisVersion;
+    private final String alternativeDictionary;
+    private final int hashCode;
+
+    public CMISQueryCacheKey(SearchParameters searchParameters, CMISQueryMode mode, CmisVersion cmisVersion,
+                String alternativeDictionary, long modelGeneration)
+    {
+        this.searchParametersKey = new FTSQueryCacheKey(searchParameters, RerankPhase.SINGLE_PASS, modelGeneration);
+        this.mode = mode;
+        this.cmisVersion = cmisVersion;
+        this.alternativeDictionary = alternativeDictionary;
+        this.hashCode = computeHashCode();
+    }
+
+    /**
+     * Parameterised statements are bound at parse time, so only statements without parameter definitions are cached.
+     * The cached entry also holds the built Lucene query, so statements with date math, e.g. in CONTAINS(), are not
+     * cached either, see {@link FTSQueryCacheKey#isCacheable(SearchParameters)}.
+     */
+    public static boolean isCacheable(SearchParameters searchParameters)
+    {
+        return searchParameters.getQuery() != null
+                    && (searchParameters.getQueryParameterDefinitions() == null || searchParameters.getQueryParameterDefinitions().isEmpty())
+                    && FTSQueryCacheKey.isCacheable(searchParameters);
+    }
+
+    public long getModelGeneration()
+    {
+        return searchParametersKey.getModelGeneration();
+    }
+
+    private int computeHashCode()
+    {
+        final int prime = 31;
+        int result = searchParametersKey.hashCode();
+        result = prime * result + ((mode == null) ? 0 : mode.hashCode());
+        result = prime * result + ((cmisVersion == null) ? 0 : cmisVersion.hashCode());
+        result = prime * result + ((alternativeDictionary == null) ? 0 : alternativeDictionary.hashCode());
+        return result;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        CMISQueryCacheKey other = (CMISQueryCacheKey) obj;
+        return hashCode == other.hashCode
+                    && mode == other.mode
+                    && cmisVersion == other.cmisVersion
+                    && ((alternativeDictionary == null) ? other.alternativeDictionary == null : alternativeDictionary.equals(other.alternativeDictionary))
+                    && searchParametersKey.equals(other.searchParametersKey);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CMISQueryCacheKey [mode=" + mode + ", cmisVersion=" + cmisVersion + ", alternativeDictionary="
+                    + alternativeDictionary + ", " + searchParametersKey + "]";
+    }
+}
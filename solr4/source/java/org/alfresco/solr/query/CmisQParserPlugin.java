@@ -26,6 +26,7 @@
 package org.alfresco.solr.query;
 
 import org.alfresco.opencmis.search.CMISQueryOptions.CMISQueryMode;
+import org.alfresco.opencmis.search.CmisFunctionEvaluationContext;
 import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
 import org.alfresco.repo.search.impl.QueryParserUtils;
 import org.alfresco.repo.search.impl.querymodel.Order;
@@ -116,6 +117,7 @@ public class CmisQParserPlugin extends QParserPlugin
                 if ((queryModelQuery.getOrderings() != null) && (queryModelQuery.getOrderings().size() > 0))
                 {
                     StringBuilder sortParameter = new StringBuilder();
+                    CmisFunctionEvaluationContext functionContext = AlfrescoSolrDataModel.getInstance().getCMISFunctionEvaluationContext(CMISQueryMode.CMS_WITH_ALFRESCO_EXTENSIONS, cmisVersion, altDic);
 
                     for (Ordering ordering : queryModelQuery.getOrderings())
                     {
@@ -130,7 +132,7 @@ public class CmisQParserPlugin extends QParserPlugin
 
                             String propertyName = property.getPropertyName();
 
-                            String luceneField =  AlfrescoSolrDataModel.getInstance().getCMISFunctionEvaluationContext(CMISQueryMode.CMS_WITH_ALFRESCO_EXTENSIONS,cmisVersion,altDic).getLuceneFieldName(propertyName);
+                            String luceneField =  functionContext.getLuceneFieldName(propertyName);
 
 //                            Pair<String, String> fieldNameAndEnding = QueryParserUtils.extractFieldNameAndEnding(luceneField);
 //                            PropertyDefinition propertyDef = QueryParserUtils.matchPropertyDefinition(searchParameters.getNamespace(), AlfrescoSolrDataModel.getInstance().getNamespaceDAO(), AlfrescoSolrDataModel.getInstance().getDictionaryService(altDic), fieldNameAndEnding.getFirst());
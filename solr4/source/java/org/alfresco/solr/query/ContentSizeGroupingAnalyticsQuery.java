@@ -25,9 +25,14 @@
  */
 package org.alfresco.solr.query;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 
+import org.alfresco.solr.ContextAwareQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.search.AnalyticsQuery;
 import org.apache.solr.search.DelegatingCollector;
@@ -40,16 +45,17 @@ public class ContentSizeGroupingAnalyticsQuery extends AnalyticsQuery
 {
     private int buckets;
     private int scale;
+    private ExecutorService executor;
 
     /**
      * @param buckets 
-     * @param mappings
+     * @param executor  used to count the whole index in parallel when every document matches, may be null
      */
-    public ContentSizeGroupingAnalyticsQuery(int scale, int buckets)
+    public ContentSizeGroupingAnalyticsQuery(int scale, int buckets, ExecutorService executor)
     {
         this.scale = scale;
         this.buckets = buckets;
-        
+        this.executor = executor;
     }
 
     /* (non-Javadoc)
@@ -58,7 +64,46 @@ public class ContentSizeGroupingAnalyticsQuery extends AnalyticsQuery
     @Override
     public DelegatingCollector getAnalyticsCollector(ResponseBuilder rb, IndexSearcher searcher)
     {
-        return new ContentSizeGroupingCollector(rb, scale, buckets);
+        try
+        {
+            return new ContentSizeGroupingCollector(rb, scale, buckets, searcher, isMatchAll(rb) ? executor : null);
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Every document is a hit if the query matches all documents and the only filters are analytics.
+     */
+    private boolean isMatchAll(ResponseBuilder rb)
+    {
+        if (executor == null)
+        {
+            return false;
+        }
+        Query query = rb.getQuery();
+        if (query instanceof ContextAwareQuery)
+        {
+            query = ((ContextAwareQuery) query).getLuceneQuery();
+        }
+        if (!(query instanceof MatchAllDocsQuery))
+        {
+            return false;
+        }
+        List<Query> filters = rb.getFilters();
+        if (filters != null)
+        {
+            for (Query filter : filters)
+            {
+                if (!(filter instanceof AnalyticsQuery))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
 }
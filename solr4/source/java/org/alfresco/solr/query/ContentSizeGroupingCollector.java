@@ -26,51 +26,143 @@
 package org.alfresco.solr.query;
 
 import java.io.IOException;
-import java.math.BigDecimal;
-import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
-import org.alfresco.solr.tracker.TrackerStats.Bucket;
-import org.alfresco.solr.tracker.TrackerStats.IncrementalStats;
-import org.alfresco.solr.tracker.TrackerStats.SimpleStats;
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.NumericDocValues;
-import org.apache.lucene.index.SortedDocValues;
-import org.apache.lucene.util.Counter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.Bits;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DelegatingCollector;
 
 /**
+ * Histogram of content sizes in equal width buckets.
+ * <p>
+ * The bucket boundaries are fixed before collection from the smallest and largest size in the index, so counting a
+ * hit is a single array increment. The width of a bucket is never less than the scale.
+ * 
  * @author Andy
  *
  */
 public class ContentSizeGroupingCollector extends DelegatingCollector
 {
+    /** Smallest and largest value of a field in a segment, keyed by segment core and then field */
+    private static final Map<Object, Map<String, long[]>> segmentRanges = Collections.synchronizedMap(new WeakHashMap<Object, Map<String, long[]>>());
+
     ResponseBuilder rb;
     private int buckets;
     private int scale;
-    IncrementalStats stats;
     String schemaFieldName;
     SchemaField schemaField;
     NumericDocValues numericDocValues;    
+    private IndexSearcher searcher;
+    private ExecutorService executor;
+    private long min;
+    private long width;
+    private long[] counts;
     /**
      * @param rb
      * @param buckets 
+     * @param searcher
+     * @param executor  if not null, the histogram is built from the whole index on this executor and not from the hits
      */
-    public ContentSizeGroupingCollector(ResponseBuilder rb, int scale, int buckets)
+    public ContentSizeGroupingCollector(ResponseBuilder rb, int scale, int buckets, IndexSearcher searcher, ExecutorService executor) throws IOException
     {
         this.rb = rb;
         this.buckets = buckets;
-        stats = new IncrementalStats(scale, buckets, null);
+        this.scale = scale;
+        this.searcher = searcher;
+        this.executor = executor;
         schemaFieldName = AlfrescoSolrDataModel.getInstance().mapProperty("content.size", FieldUse.FACET, rb.req);
         schemaField = rb.req.getSchema().getFieldOrNull(schemaFieldName);
+        if((schemaField != null) && (schemaField.getType().getNumericType() != null))
+        {
+            initBuckets();
+        }
+        else
+        {
+            counts = new long[0];
+        }
     }
     
-    
+    private void initBuckets() throws IOException
+    {
+        long max = Long.MIN_VALUE;
+        min = Long.MAX_VALUE;
+        for(AtomicReaderContext context : searcher.getTopReaderContext().leaves())
+        {
+            long[] range = getRange(context.reader(), schemaFieldName);
+            if(range != null)
+            {
+                min = Math.min(min, range[0]);
+                max = Math.max(max, range[1]);
+            }
+        }
+        if(min > max)
+        {
+            counts = new long[0];
+            return;
+        }
+        long span = max - min + 1;
+        width = Math.max(Math.max(1, scale), (span + buckets - 1) / Math.max(1, buckets));
+        counts = new long[(int)((max - min) / width) + 1];
+    }
+
+    /**
+     * Doc values do not change for the life of a segment, so the range is only found once per segment.
+     */
+    private static long[] getRange(AtomicReader reader, String field) throws IOException
+    {
+        Object key = reader.getCoreCacheKey();
+        Map<String, long[]> ranges = segmentRanges.get(key);
+        long[] range = (ranges == null) ? null : ranges.get(field);
+        if(range == null)
+        {
+            NumericDocValues values = reader.getNumericDocValues(field);
+            if(values == null)
+            {
+                return null;
+            }
+            long segmentMin = Long.MAX_VALUE;
+            long segmentMax = Long.MIN_VALUE;
+            for(int doc = 0, maxDoc = reader.maxDoc(); doc < maxDoc; doc++)
+            {
+                long value = values.get(doc);
+                segmentMin = Math.min(segmentMin, value);
+                segmentMax = Math.max(segmentMax, value);
+            }
+            if(segmentMin > segmentMax)
+            {
+                return null;
+            }
+            range = new long[] { segmentMin, segmentMax };
+            synchronized(segmentRanges)
+            {
+                ranges = segmentRanges.get(key);
+                if(ranges == null)
+                {
+                    ranges = new HashMap<String, long[]>();
+                    segmentRanges.put(key, ranges);
+                }
+                ranges.put(field, range);
+            }
+        }
+        return range;
+    }
     
     /* (non-Javadoc)
      * @see org.apache.solr.search.DelegatingCollector#setNextReader(org.apache.lucene.index.AtomicReaderContext)
@@ -79,20 +171,10 @@ public class ContentSizeGroupingCollector extends DelegatingCollector
     public void setNextReader(AtomicReaderContext context) throws IOException
     {
         super.setNextReader(context);
-        if(schemaField != null)
+        numericDocValues = null;
+        if((counts.length > 0) && (executor == null))
         {
-            if(schemaField.getType().getNumericType() != null)
-            {
-                try
-                {
-                    numericDocValues = context.reader().getNumericDocValues(schemaFieldName);
-                }
-                catch (IOException e)
-                {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-            }
+            numericDocValues = context.reader().getNumericDocValues(schemaFieldName);
         }
     }
 
@@ -103,22 +185,84 @@ public class ContentSizeGroupingCollector extends DelegatingCollector
 
         if(numericDocValues != null)
         {
-            long value = numericDocValues.get(doc);
-            stats.add(value);
+            counts[(int)((numericDocValues.get(doc) - min) / width)]++;
         }
         delegate.collect(doc);
     }
 
+    /**
+     * Count every live document, one task per segment.
+     */
+    private void countAll() throws IOException
+    {
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        for(final AtomicReaderContext context : searcher.getTopReaderContext().leaves())
+        {
+            futures.add(executor.submit(new Callable<long[]>()
+            {
+                @Override
+                public long[] call() throws IOException
+                {
+                    return countSegment(context.reader());
+                }
+            }));
+        }
+        try
+        {
+            for(Future<long[]> future : futures)
+            {
+                long[] segmentCounts = future.get();
+                for(int i = 0; i < counts.length; i++)
+                {
+                    counts[i] += segmentCounts[i];
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private long[] countSegment(AtomicReader reader) throws IOException
+    {
+        long[] segmentCounts = new long[counts.length];
+        NumericDocValues values = reader.getNumericDocValues(schemaFieldName);
+        if(values != null)
+        {
+            Bits liveDocs = reader.getLiveDocs();
+            for(int doc = 0, maxDoc = reader.maxDoc(); doc < maxDoc; doc++)
+            {
+                if((liveDocs == null) || liveDocs.get(doc))
+                {
+                    segmentCounts[(int)((values.get(doc) - min) / width)]++;
+                }
+            }
+        }
+        return segmentCounts;
+    }
+
     public void finish() throws IOException 
     {
+        if((counts.length > 0) && (executor != null))
+        {
+            countAll();
+        }
+
         NamedList<Object> analytics = new NamedList<>();
         rb.rsp.add("analytics", analytics);
         NamedList<Object> fieldCounts = new NamedList<>(); 
         analytics.add("contentSize()", fieldCounts);
 
-        for(Bucket bucket :stats.getHistogram())
+        for(int i = 0; i < counts.length; i++)
         {
-            fieldCounts.add("["+(long)Math.ceil(bucket.leftBoundary)+ " TO "+(long)Math.ceil(bucket.rightBoundary)+">", (long)roundEven(bucket.countLeft + bucket.countRight));
+            long leftBoundary = min + (i * width);
+            fieldCounts.add("["+leftBoundary+ " TO "+(leftBoundary + width)+">", counts[i]);
         }
 
 
@@ -126,12 +270,4 @@ public class ContentSizeGroupingCollector extends DelegatingCollector
             ((DelegatingCollector)this.delegate).finish();
         }
     }
-    
-  
-    private long roundEven(double value)
-    {
-        BigDecimal bd = new BigDecimal(value);
-        bd = bd.round(MathContext.DECIMAL64);
-        return bd.longValue();
-    }
 }
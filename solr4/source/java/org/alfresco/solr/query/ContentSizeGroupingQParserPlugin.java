@@ -30,6 +30,8 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.lucene.search.Query;
@@ -37,6 +39,8 @@ import org.apache.solr.common.SolrException;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.StrUtils;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrResourceLoader;
 import org.apache.solr.internal.csv.CSVParser;
 import org.apache.solr.internal.csv.CSVStrategy;
@@ -44,6 +48,7 @@ import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
 import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.DefaultSolrThreadFactory;
 
 /**
  * @author Andy
@@ -54,6 +59,11 @@ public class ContentSizeGroupingQParserPlugin extends QParserPlugin
     
     private int buckets = 10;
 
+    private int parallelThreads;
+
+    /** Counts match-all histograms from the index segments in parallel, if parallelThreads is configured */
+    private ExecutorService executor;
+
 	private NamedList args;
 
     /*
@@ -77,10 +87,43 @@ public class ContentSizeGroupingQParserPlugin extends QParserPlugin
             {
                 scale = Integer.parseInt(val.toString());
             }
+
+            val = args.get("parallelThreads");
+            if (val != null)
+            {
+                parallelThreads = Integer.parseInt(val.toString());
+            }
         }
 
     }
 
+    /**
+     * Query parsers are not told about their core, so the pool is started by the first request and shut down
+     * with the core that request came from.
+     */
+    private synchronized ExecutorService getExecutor(SolrCore core)
+    {
+        if (executor == null && parallelThreads > 0)
+        {
+            final ExecutorService pool = Executors.newFixedThreadPool(parallelThreads, new DefaultSolrThreadFactory("contentSizeGrouping"));
+            core.addCloseHook(new CloseHook()
+            {
+                @Override
+                public void preClose(SolrCore core)
+                {
+                    pool.shutdownNow();
+                }
+
+                @Override
+                public void postClose(SolrCore core)
+                {
+                }
+            });
+            executor = pool;
+        }
+        return executor;
+    }
+
     /*
      * (non-Javadoc)
      * @see org.apache.solr.search.QParserPlugin#createParser(java.lang.String,
@@ -90,7 +133,7 @@ public class ContentSizeGroupingQParserPlugin extends QParserPlugin
     @Override
     public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req)
     {
-        return new ContentSizeGroupingQParser(qstr, localParams, params, req, args, scale, buckets);
+        return new ContentSizeGroupingQParser(qstr, localParams, params, req, args, scale, buckets, getExecutor(req.getCore()));
     }
 
     public static class ContentSizeGroupingQParser extends AbstractQParser
@@ -100,11 +143,14 @@ public class ContentSizeGroupingQParserPlugin extends QParserPlugin
         
         private int scale;
 
-        public ContentSizeGroupingQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req, NamedList args, int scale, int buckets)
+        private ExecutorService executor;
+
+        public ContentSizeGroupingQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req, NamedList args, int scale, int buckets, ExecutorService executor)
         {
             super(qstr, localParams, params, req, args);
             this.scale = scale;
             this.buckets = buckets;
+            this.executor = executor;
         }
 
         /*
@@ -114,7 +160,7 @@ public class ContentSizeGroupingQParserPlugin extends QParserPlugin
         @Override
         public Query parse() throws SyntaxError
         {
-            return new ContentSizeGroupingAnalyticsQuery(scale, buckets);
+            return new ContentSizeGroupingAnalyticsQuery(scale, buckets, executor);
         }
     }
 
@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.alfresco.repo.search.MLAnalysisMode;
+import org.alfresco.repo.search.impl.parsers.FTSQueryParser.RerankPhase;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchParameters.Operator;
+
+/**
+ * Key for the alfrescoFTSQueryCache of parsed AFTS queries.
+ * <p/>
+ * It holds everything in the {@link SearchParameters} that the FTS parser and {@link Solr4QueryParser} read, plus the
+ * generation of the data model so that entries parsed against an older model are never returned.
+ * User specific filters (authorities, tenants) are applied outside the parsed query and are not part of the key.
+ */
+public class FTSQueryCacheKey
+{
+    /** Date math the query parser resolves against the current time, e.g. NOW/DAY-7DAYS or TODAY */
+    private static final Pattern DATE_MATH = Pattern.compile("\\b(NOW|TODAY)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final String query;
+    private final String defaultFieldName;
+    private final List<Locale> locales;
+    private final List<String> textAttributes;
+    private final List<String> allAttributes;
+    private final String namespace;
+    private final Operator defaultFTSOperator;
+    private final Operator defaultFTSFieldOperator;
+    private final Map<String, String> queryTemplates;
+    private final MLAnalysisMode mlAnalysisMode;
+    private final RerankPhase rerankPhase;
+    private final long modelGeneration;
+    private final int hashCode;
+
+    public FTSQueryCacheKey(SearchParameters searchParameters, RerankPhase rerankPhase, long modelGeneration)
+    {
+        this.query = searchParameters.getQuery() == null ? null : searchParameters.getQuery().trim();
+        this.defaultFieldName = searchParameters.getDefaultFieldName();
+        this.locales = new ArrayList<Locale>(searchParameters.getLocales());
+        this.textAttributes = new ArrayList<String>(searchParameters.getTextAttributes());
+        this.allAttributes = new ArrayList<String>(searchParameters.getAllAttributes());
+        this.namespace = searchParameters.getNamespace();
+        this.defaultFTSOperator = searchParameters.getDefaultFTSOperator();
+        this.defaultFTSFieldOperator = searchParameters.getDefaultFTSFieldOperator();
+        this.queryTemplates = new HashMap<String, String>(searchParameters.getQueryTemplates());
+        this.mlAnalysisMode = searchParameters.getMlAnalaysisMode();
+        this.rerankPhase = rerankPhase;
+        this.modelGeneration = modelGeneration;
+        this.hashCode = computeHashCode();
+    }
+
+    /**
+     * Dates are resolved when the query is parsed, so a cached query using date math would keep the time it was
+     * first parsed at.  Queries that may use it are parsed every time; a plain "now" in text is treated the same way.
+     */
+    public static boolean isCacheable(SearchParameters searchParameters)
+    {
+        if (mayUseDateMath(searchParameters.getQuery()))
+        {
+            return false;
+        }
+        for (String template : searchParameters.getQueryTemplates().values())
+        {
+            if (mayUseDateMath(template))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean mayUseDateMath(String text)
+    {
+        return (text != null) && DATE_MATH.matcher(text).find();
+    }
+
+    public long getModelGeneration()
+    {
+        return modelGeneration;
+    }
+
+    private int computeHashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + ((query == null) ? 0 : query.hashCode());
+        result = prime * result + ((defaultFieldName == null) ? 0 : defaultFieldName.hashCode());
+        result = prime * result + locales.hashCode();
+        result = prime * result + textAttributes.hashCode();
+        result = prime * result + allAttributes.hashCode();
+        result = prime * result + ((namespace == null) ? 0 : namespace.hashCode());
+        result = prime * result + ((defaultFTSOperator == null) ? 0 : defaultFTSOperator.hashCode());
+        result = prime * result + ((defaultFTSFieldOperator == null) ? 0 : defaultFTSFieldOperator.hashCode());
+        result = prime * result + queryTemplates.hashCode();
+        result = prime * result + ((mlAnalysisMode == null) ? 0 : mlAnalysisMode.hashCode());
+        result = prime * result + ((rerankPhase == null) ? 0 : rerankPhase.hashCode());
+        result = prime * result + (int) (modelGeneration ^ (modelGeneration >>> 32));
+        return result;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        FTSQueryCacheKey other = (FTSQueryCacheKey) obj;
+        return hashCode == other.hashCode
+                    && modelGeneration == other.modelGeneration
+                    && equal(query, other.query)
+                    && equal(defaultFieldName, other.defaultFieldName)
+                    && locales.equals(other.locales)
+                    && textAttributes.equals(other.textAttributes)
+                    && allAttributes.equals(other.allAttributes)
+                    && equal(namespace, other.namespace)
+                    && defaultFTSOperator == other.defaultFTSOperator
+                    && defaultFTSFieldOperator == other.defaultFTSFieldOperator
+                    && queryTemplates.equals(other.queryTemplates)
+                    && mlAnalysisMode == other.mlAnalysisMode
+                    && rerankPhase == other.rerankPhase;
+    }
+
+    private static boolean equal(Object a, Object b)
+    {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FTSQueryCacheKey [query=" + query + ", defaultFieldName=" + defaultFieldName + ", locales=" + locales
+                    + ", textAttributes=" + textAttributes + ", defaultFTSOperator=" + defaultFTSOperator
+                    + ", modelGeneration=" + modelGeneration + "]";
+    }
+}
@@ -85,6 +85,8 @@ public class Lucene4QueryBuilderContextSolrImpl implements LuceneQueryBuilderCon
           Properties props = new CoreDescriptorDecorator(req.getCore().getCoreDescriptor()).getCoreProperties();
           int topTermSpanRewriteLimit = Integer.parseInt(props.getProperty("alfresco.topTermSpanRewriteLimit", "1000"));
           lqp.setTopTermSpanRewriteLimit(topTermSpanRewriteLimit);
+          int phraseWildcardExpansionLimit = Integer.parseInt(props.getProperty("alfresco.phraseWildcardExpansionLimit", "256"));
+          lqp.setPhraseWildcardExpansionLimit(phraseWildcardExpansionLimit);
           
           lqpa = new Lucene4QueryParserAdaptor(lqp);
     }
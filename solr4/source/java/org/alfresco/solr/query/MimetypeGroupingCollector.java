@@ -26,12 +26,14 @@
 package org.alfresco.solr.query;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.Counter;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.handler.component.ResponseBuilder;
@@ -39,6 +41,9 @@ import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DelegatingCollector;
 
 /**
+ * Hits are counted per segment ordinal; ordinals are only resolved to mimetypes and mapped to groups once per
+ * distinct value when the segment is done, and the counts are merged across segments by group.
+ * 
  * @author Andy
  *
  */
@@ -51,6 +56,8 @@ public class MimetypeGroupingCollector extends DelegatingCollector
     String schemaFieldName;
     SchemaField schemaField;
     SortedDocValues sortedDocValues;
+    /** Hit counts for the current segment, indexed by ordinal */
+    private int[] ordinalCounts = new int[0];
     /**
      * @param rb
      * @param mappings 
@@ -70,6 +77,7 @@ public class MimetypeGroupingCollector extends DelegatingCollector
     public void setNextReader(AtomicReaderContext context) throws IOException
     {
         super.setNextReader(context);
+        countSegment();
         if(schemaField != null)
         {
             try
@@ -80,6 +88,14 @@ public class MimetypeGroupingCollector extends DelegatingCollector
             {
                
             }
+            if(sortedDocValues != null)
+            {
+                int valueCount = sortedDocValues.getValueCount();
+                if(ordinalCounts.length < valueCount)
+                {
+                    ordinalCounts = new int[ArrayUtil.oversize(valueCount, 4)];
+                }
+            }
         }
     }
 
@@ -91,20 +107,7 @@ public class MimetypeGroupingCollector extends DelegatingCollector
             int ordinal = sortedDocValues.getOrd(doc);
             if(ordinal > -1)
             {
-                String value = (String)schemaField.getType().toObject(schemaField, sortedDocValues.lookupOrd(ordinal));
-                String group = doGroup ? mappings.get(value) : value;
-                if(group == null)
-                {
-                    group = value;
-                }
-
-                Counter counter = counters.get(group);
-                if(counter == null)
-                {
-                    counter = Counter.newCounter();
-                    counters.put(group, counter);
-                }
-                counter.addAndGet(1);
+                ordinalCounts[ordinal]++;
             }
         }
 
@@ -112,8 +115,45 @@ public class MimetypeGroupingCollector extends DelegatingCollector
         delegate.collect(doc);
     }
 
+    /**
+     * Add the ordinal counts of the current segment to the group counts and clear them for the next segment.
+     */
+    private void countSegment()
+    {
+        if(sortedDocValues == null)
+        {
+            return;
+        }
+        int valueCount = sortedDocValues.getValueCount();
+        for(int ordinal = 0; ordinal < valueCount; ordinal++)
+        {
+            int count = ordinalCounts[ordinal];
+            if(count == 0)
+            {
+                continue;
+            }
+            String value = (String)schemaField.getType().toObject(schemaField, sortedDocValues.lookupOrd(ordinal));
+            String group = doGroup ? mappings.get(value) : value;
+            if(group == null)
+            {
+                group = value;
+            }
+
+            Counter counter = counters.get(group);
+            if(counter == null)
+            {
+                counter = Counter.newCounter();
+                counters.put(group, counter);
+            }
+            counter.addAndGet(count);
+        }
+        Arrays.fill(ordinalCounts, 0, valueCount, 0);
+        sortedDocValues = null;
+    }
+
     public void finish() throws IOException 
     {
+        countSegment();
         NamedList<Object> analytics = new NamedList<>();
         rb.rsp.add("analytics", analytics);
         NamedList<Object> fieldCounts = new NamedList<>(); 
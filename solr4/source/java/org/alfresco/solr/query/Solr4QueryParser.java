@@ -114,7 +114,6 @@ import org.apache.lucene.search.spans.SpanNearQuery;
 import org.apache.lucene.search.spans.SpanOrQuery;
 import org.apache.lucene.search.spans.SpanQuery;
 import org.apache.lucene.search.spans.SpanTermQuery;
-import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper.TopTermsSpanBooleanQueryRewrite;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
 import org.apache.solr.analysis.TokenizerChain;
@@ -169,6 +168,8 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 
 	int topTermSpanRewriteLimit =  1000;
 
+	int phraseWildcardExpansionLimit = 256;
+
 
 	/**
 	 * @param topTermSpanRewriteLimit the topTermSpanRewriteLimit to set
@@ -178,6 +179,15 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 		this.topTermSpanRewriteLimit = topTermSpanRewriteLimit;
 	}
 
+	/**
+	 * @param phraseWildcardExpansionLimit the maximum number of terms a wildcard in a phrase is expanded to before
+	 *        falling back to the top terms span rewrite
+	 */
+	public void setPhraseWildcardExpansionLimit(int phraseWildcardExpansionLimit)
+	{
+		this.phraseWildcardExpansionLimit = phraseWildcardExpansionLimit;
+	}
+
 	/**
      * @param searchParameters
 	 */
@@ -2223,18 +2233,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 						Term term = new Term(field, termText);
 						if (getEnablePositionIncrements())
 						{
-							SpanQuery nextSpanQuery;
-							if ((termText != null) && (termText.contains("*") || termText.contains("?")))
-							{
-								org.apache.lucene.search.WildcardQuery wildQuery = new org.apache.lucene.search.WildcardQuery(term);
-								SpanMultiTermQueryWrapper wrapper = new SpanMultiTermQueryWrapper<>(wildQuery);
-								wrapper.setRewriteMethod(new TopTermsSpanBooleanQueryRewrite(topTermSpanRewriteLimit));
-								nextSpanQuery = wrapper;
-							}
-							else
-							{
-								nextSpanQuery = new SpanTermQuery(term);
-							}
+							SpanQuery nextSpanQuery = wrapWildcardTerms(term);
 							if(gap == 0)
 							{
 								atSamePosition.addClause(nextSpanQuery);
@@ -2284,18 +2283,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 						}
 						else
 						{
-							SpanQuery nextSpanQuery;
-							if ((termText != null) && (termText.contains("*") || termText.contains("?")))
-							{
-								org.apache.lucene.search.WildcardQuery wildQuery = new org.apache.lucene.search.WildcardQuery(term);
-								SpanMultiTermQueryWrapper wrapper = new SpanMultiTermQueryWrapper<>(wildQuery);
-								wrapper.setRewriteMethod(new TopTermsSpanBooleanQueryRewrite(topTermSpanRewriteLimit));
-								nextSpanQuery = wrapper;
-							}
-							else
-							{
-								nextSpanQuery = new SpanTermQuery(term);
-							}
+							SpanQuery nextSpanQuery = wrapWildcardTerms(term);
 							if(spanQuery == null)
 							{
 								spanQuery = new SpanOrQuery();
@@ -2460,18 +2448,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
                     }
                     else
                     {
-                        SpanQuery nextSpanQuery;
-                        if ((termText != null) && (termText.contains("*") || termText.contains("?")))
-                        {
-                            org.apache.lucene.search.WildcardQuery wildQuery = new org.apache.lucene.search.WildcardQuery(term);
-                            SpanMultiTermQueryWrapper wrapper = new SpanMultiTermQueryWrapper<>(wildQuery);
-                            wrapper.setRewriteMethod(new TopTermsSpanBooleanQueryRewrite(topTermSpanRewriteLimit));
-                            nextSpanQuery = wrapper;
-                        }
-                        else
-                        {
-                            nextSpanQuery = new SpanTermQuery(term);
-                        }
+                        SpanQuery nextSpanQuery = wrapWildcardTerms(term);
                         if(spanQuery == null)
                         {
                             spanQuery = new SpanOrQuery();
@@ -2527,7 +2504,8 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
         {
             org.apache.lucene.search.WildcardQuery wildQuery = new org.apache.lucene.search.WildcardQuery(term);
             SpanMultiTermQueryWrapper wrapper = new SpanMultiTermQueryWrapper<>(wildQuery);
-            wrapper.setRewriteMethod(new TopTermsSpanBooleanQueryRewrite(topTermSpanRewriteLimit));
+            // Expand to the matching terms where there are few enough of them
+            wrapper.setRewriteMethod(new SpanWildcardExpansionRewrite(phraseWildcardExpansionLimit, topTermSpanRewriteLimit));
             nextSpanQuery = wrapper;
         }
         else
@@ -2655,63 +2633,6 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 	}
 
 
-	private Term[] getMatchingTerms(String field, Term term) throws ParseException
-	{
-		ArrayList<Term> terms = new ArrayList<Term>();
-		addWildcardTerms(terms, term);
-		if (terms.size() == 0)
-		{
-			return new Term[] { new Term(field, "\u0000") };
-		}
-		else
-		{
-			return terms.toArray(new Term[0]);
-		}
-
-	}
-
-
-	// TODO - resort to span if we have to ...
-	private void addWildcardTerms(ArrayList<Term> terms, Term term) throws ParseException
-	{
-		//        try
-		//        {
-		//            Term searchTerm = term;
-		//            if (getLowercaseExpandedTerms())
-		//            {
-		//                searchTerm = new Term(term.field(), term.text().toLowerCase());
-		//            }
-		//            WildcardTermEnum wcte = new WildcardTermEnum(indexReader, searchTerm);
-		//
-		//            do
-		//            {
-		//                Term current = wcte.term();
-		//                if(current != null)
-		//                {
-		//                    if ((current.text() != null) && (current.text().length() > 0) && (current.text().charAt(0) == '{'))
-		//                    {
-		//                        if ((searchTerm != null) && (searchTerm.text().length() > 0) && (searchTerm.text().charAt(0) == '{'))
-		//                        {
-		//                            terms.add(current);
-		//                        }
-		//                        // If not, we cod not add so wildcards do not match the locale prefix
-		//                    }
-		//                    else
-		//                    {
-		//                        terms.add(current);
-		//                    }
-		//                }
-		//            }
-		//            while(wcte.next());
-		//
-		//        }
-		//        catch (IOException e)
-		//        {
-		//            throw new ParseException("IO error generating phares wildcards " + e.getMessage());
-		//        }
-		throw new UnsupportedOperationException();
-	}
-
 	/**
 	 * @exception ParseException
 	 *                throw in overridden method to disallow
@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.alfresco.solr.AlfrescoSolrDataModel;
+import org.alfresco.solr.cache.CacheConstants;
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Match the documents that belong to any of a set of tenants.
+ * <p/>
+ * There are only ever a handful of tenants and the same set is sent with every request, so the matching documents
+ * are held in the alfrescoTenantCache of each searcher, keyed by the query itself.
+ */
+public class SolrTenantQuery extends Query
+{
+    private final List<String> tenants;
+
+    /**
+     * @param tenants   the tenant ids, where an empty id is the default tenant
+     */
+    public SolrTenantQuery(Collection<String> tenants)
+    {
+        TreeSet<String> sorted = new TreeSet<String>();
+        for (String tenant : tenants)
+        {
+            sorted.add(tenant.length() == 0 ? AlfrescoSolrDataModel.DEFAULT_TENANT : tenant);
+        }
+        this.tenants = new ArrayList<String>(sorted);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher) throws IOException
+    {
+        if (!(searcher instanceof SolrIndexSearcher))
+        {
+            throw new IllegalStateException("Must have a SolrIndexSearcher");
+        }
+        DocSet docSet = getDocSet((SolrIndexSearcher) searcher);
+        return new ConstantScoreQuery(docSet.getTopFilter()).createWeight(searcher);
+    }
+
+    /**
+     * Get the documents for the tenants, from the cache of the searcher if they have been found before.
+     */
+    public DocSet getDocSet(SolrIndexSearcher searcher) throws IOException
+    {
+        DocSet docSet = (DocSet) searcher.cacheLookup(CacheConstants.ALFRESCO_TENANT_CACHE, this);
+        if (docSet == null)
+        {
+            List<BytesRef> terms = new ArrayList<BytesRef>(tenants.size());
+            for (String tenant : tenants)
+            {
+                terms.add(new BytesRef(tenant));
+            }
+            docSet = searcher.getDocSet(new ConstantScoreQuery(new TermsFilter(QueryConstants.FIELD_TENANT, terms)));
+            searcher.cacheInsert(CacheConstants.ALFRESCO_TENANT_CACHE, this, docSet);
+        }
+        return docSet;
+    }
+
+    @Override
+    public String toString(String field)
+    {
+        return toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append(QueryConstants.FIELD_TENANT).append(':').append(tenants);
+        return stringBuilder.toString();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + tenants.hashCode();
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        SolrTenantQuery other = (SolrTenantQuery) obj;
+        return tenants.equals(other.tenants);
+    }
+}
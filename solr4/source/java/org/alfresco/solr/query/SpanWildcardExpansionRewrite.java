@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.TreeSet;
+
+import org.alfresco.solr.cache.CacheConstants;
+import org.alfresco.util.Pair;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper.SpanRewriteMethod;
+import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper.TopTermsSpanBooleanQueryRewrite;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * Rewrites a wildcard inside a phrase or span to the exact terms it matches.
+ * <p/>
+ * Each segment's term dictionary is intersected with the wildcard automaton and the distinct matches are kept, up to
+ * the expansion limit.  Terms with a locale prefix (starting with '{') only match wildcards that start with a locale
+ * prefix too.  Wildcards that match more terms than the limit fall back to the top terms rewrite.  The expansions
+ * of the searcher in use by the current request are cached in the alfrescoWildcardExpansionCache.
+ * 
+ * @since 5.2
+ */
+public class SpanWildcardExpansionRewrite extends SpanRewriteMethod
+{
+    /**
+     * Marks a wildcard that matches more terms than the expansion limit
+     */
+    public static final Term[] TOO_MANY_TERMS = new Term[0];
+
+    private final int expansionLimit;
+
+    private final TopTermsSpanBooleanQueryRewrite fallback;
+
+    /**
+     * @param expansionLimit the maximum number of terms a wildcard is expanded to
+     * @param topTermsLimit the number of terms used by the top terms rewrite when the expansion limit is exceeded
+     */
+    public SpanWildcardExpansionRewrite(int expansionLimit, int topTermsLimit)
+    {
+        this.expansionLimit = expansionLimit;
+        this.fallback = new TopTermsSpanBooleanQueryRewrite(topTermsLimit);
+    }
+
+    @Override
+    public SpanQuery rewrite(IndexReader reader, MultiTermQuery query) throws IOException
+    {
+        if (!(query instanceof WildcardQuery))
+        {
+            return fallback.rewrite(reader, query);
+        }
+
+        Term[] expansion = getExpansion(reader, ((WildcardQuery) query).getTerm());
+        if (expansion == TOO_MANY_TERMS)
+        {
+            return fallback.rewrite(reader, query);
+        }
+
+        SpanQuery spanQuery;
+        if (expansion.length == 1)
+        {
+            spanQuery = new SpanTermQuery(expansion[0]);
+        }
+        else
+        {
+            SpanOrQuery spanOrQuery = new SpanOrQuery();
+            for (Term term : expansion)
+            {
+                spanOrQuery.addClause(new SpanTermQuery(term));
+            }
+            spanQuery = spanOrQuery;
+        }
+        spanQuery.setBoost(query.getBoost());
+        return spanQuery;
+    }
+
+    private Term[] getExpansion(IndexReader reader, Term wildcard) throws IOException
+    {
+        SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+        SolrQueryRequest req = (requestInfo == null) ? null : requestInfo.getReq();
+        SolrIndexSearcher searcher = (req == null) ? null : req.getSearcher();
+        if ((searcher == null) || (searcher.getIndexReader() != reader))
+        {
+            // e.g. the highlighter rewriting against a single document
+            return expand(reader, wildcard, expansionLimit);
+        }
+
+        Pair<Term, Integer> key = new Pair<Term, Integer>(wildcard, expansionLimit);
+        Term[] expansion = (Term[]) searcher.cacheLookup(CacheConstants.ALFRESCO_WILDCARD_EXPANSION_CACHE, key);
+        if (expansion == null)
+        {
+            expansion = expand(reader, wildcard, expansionLimit);
+            searcher.cacheInsert(CacheConstants.ALFRESCO_WILDCARD_EXPANSION_CACHE, key, expansion);
+        }
+        return expansion;
+    }
+
+    /**
+     * Find the distinct terms in the index that match a wildcard.
+     * 
+     * @param reader IndexReader
+     * @param wildcard the wildcard term
+     * @param expansionLimit the maximum number of terms to return
+     * @return the matching terms in term order or {@link #TOO_MANY_TERMS} if there are more than the limit
+     * @throws IOException
+     */
+    public static Term[] expand(IndexReader reader, Term wildcard, int expansionLimit) throws IOException
+    {
+        CompiledAutomaton automaton = new CompiledAutomaton(WildcardQuery.toAutomaton(wildcard));
+        String text = wildcard.text();
+        boolean matchLocalePrefix = (text.length() > 0) && (text.charAt(0) == '{');
+
+        TreeSet<BytesRef> matches = new TreeSet<BytesRef>();
+        for (AtomicReaderContext context : reader.leaves())
+        {
+            Terms terms = context.reader().terms(wildcard.field());
+            if (terms == null)
+            {
+                continue;
+            }
+            TermsEnum termsEnum = automaton.getTermsEnum(terms);
+            BytesRef term;
+            while ((term = termsEnum.next()) != null)
+            {
+                if (!matchLocalePrefix && (term.length > 0) && (term.bytes[term.offset] == '{'))
+                {
+                    // Wildcards do not match the locale prefix
+                    continue;
+                }
+                if (!matches.contains(term))
+                {
+                    if (matches.size() == expansionLimit)
+                    {
+                        return TOO_MANY_TERMS;
+                    }
+                    matches.add(BytesRef.deepCopyOf(term));
+                }
+            }
+        }
+
+        Term[] expansion = new Term[matches.size()];
+        int i = 0;
+        for (BytesRef match : matches)
+        {
+            expansion[i++] = new Term(wildcard.field(), match);
+        }
+        return expansion;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * expansionLimit + fallback.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass())
+        {
+            return false;
+        }
+        SpanWildcardExpansionRewrite other = (SpanWildcardExpansionRewrite) obj;
+        return expansionLimit == other.expansionLimit && fallback.equals(other.fallback);
+    }
+}
@@ -28,17 +28,14 @@ package org.alfresco.solr.transformer;
 import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.zip.GZIPInputStream;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.naming.NoInitialContextException;
 
-import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.namespace.NamespaceException;
 import org.alfresco.service.namespace.NamespacePrefixResolver;
 import org.alfresco.service.namespace.NamespaceService;
@@ -46,12 +43,9 @@ import org.alfresco.service.namespace.QName;
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.TenantAclIdDbId;
 import org.alfresco.solr.content.SolrContentStore;
-import org.alfresco.solr.content.SolrContentUrlBuilder;
 import org.apache.lucene.index.IndexableField;
-import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
-import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.core.SolrResourceLoader;
 import org.apache.solr.response.transform.DocTransformer;
 import org.apache.solr.response.transform.TransformContext;
@@ -68,22 +62,6 @@ public class CachedDocTransformer extends DocTransformer
 {
     protected final static Logger log = LoggerFactory.getLogger(CachedDocTransformer.class);
 
-    // write a BytesRef as a byte array
-    JavaBinCodec.ObjectResolver resolver = new JavaBinCodec.ObjectResolver()
-    {
-        @Override
-        public Object resolve(Object o, JavaBinCodec codec) throws IOException
-        {
-            if (o instanceof BytesRef)
-            {
-                BytesRef br = (BytesRef) o;
-                codec.writeByteArray(br.bytes, br.offset, br.length);
-                return null;
-            }
-            return o;
-        }
-    };
-
     private TransformContext context;
 
     static SolrContentStore solrContentStore;
@@ -230,32 +208,7 @@ public class CachedDocTransformer extends DocTransformer
 
     private SolrInputDocument retrieveDocFromSolrContentStore(String tenant, long dbId) throws IOException
     {
-        String contentUrl = SolrContentUrlBuilder
-                    .start()
-                    .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
-                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
-                    .get();
-        ContentReader reader = CachedDocTransformer.solrContentStore.getReader(contentUrl);
-        SolrInputDocument cachedDoc = null;
-        if (reader.exists())
-        {
-            // try-with-resources statement closes all these InputStreams
-            try (
-                    InputStream contentInputStream = reader.getContentInputStream();
-                    // Uncompresses the document
-                    GZIPInputStream gzip = new GZIPInputStream(contentInputStream);
-                )
-            {
-                cachedDoc = (SolrInputDocument) new JavaBinCodec(resolver).unmarshal(gzip);
-            }
-            catch (Exception e)
-            {
-                // Don't fail for this
-                log.warn("Failed to get doc from store using URL: " + contentUrl, e);
-                return null;
-            }
-        }
-        return cachedDoc;
+        return CachedDocTransformer.solrContentStore.retrieveDoc(tenant, dbId);
     }
     
     private static SolrContentStore getSolrContentStore(String solrHome) throws JobExecutionException
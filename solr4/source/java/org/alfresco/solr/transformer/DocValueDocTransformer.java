@@ -27,23 +27,38 @@ package org.alfresco.solr.transformer;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.alfresco.solr.AlfrescoSolrDataModel;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfo.DocValuesType;
+import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.SortedDocValues;
 import org.apache.lucene.index.SortedNumericDocValues;
 import org.apache.lucene.index.SortedSetDocValues;
-import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.NumericUtils;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.response.transform.DocTransformer;
 import org.apache.solr.response.transform.TransformContext;
+import org.apache.solr.schema.IndexSchema;
 import org.apache.solr.schema.SchemaField;
+import org.apache.solr.search.ReturnFields;
+import org.apache.solr.search.SolrReturnFields;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * Replaces stored values with the values held in doc values, keyed by the Alfresco property name.
+ * <p>
+ * The doc values fields, their types and their Alfresco property names are worked out once per request and the
+ * values are read through the leaf reader that holds each document, so the cost of a row depends only on the
+ * number of doc values fields asked for in fl.
+ * 
  * @author Andy
  *
  */
@@ -53,7 +68,13 @@ public class DocValueDocTransformer extends DocTransformer
     
     TransformContext context;
 
-   
+    /* Built on the first document of the request */
+    private List<DocValueField> fields;
+
+    private List<AtomicReaderContext> leaves;
+
+    /* The doc values per leaf and field, fetched the first time a leaf is used */
+    private Object[][] leafDocValues;
     
     /* (non-Javadoc)
      * @see org.apache.solr.response.transform.DocTransformer#getName()
@@ -68,6 +89,9 @@ public class DocValueDocTransformer extends DocTransformer
     public void setContext( TransformContext context ) 
     {
         this.context = context;
+        this.fields = null;
+        this.leaves = null;
+        this.leafDocValues = null;
     }
     
     
@@ -77,117 +101,197 @@ public class DocValueDocTransformer extends DocTransformer
     @Override
     public void transform(SolrDocument doc, int docid) throws IOException
     {
+        if(fields == null)
+        {
+            init();
+        }
+        if(fields.isEmpty())
+        {
+            return;
+        }
+        
+        int leafIndex = ReaderUtil.subIndex(docid, leaves);
+        AtomicReaderContext leaf = leaves.get(leafIndex);
+        Object[] docValues = leafDocValues[leafIndex];
+        if(docValues == null)
+        {
+            docValues = getDocValues(leaf.reader());
+            leafDocValues[leafIndex] = docValues;
+        }
+        int segmentDocId = docid - leaf.docBase;
+        
+        for(int i = 0; i < fields.size(); i++)
+        {
+            if(docValues[i] != null)
+            {
+                fields.get(i).addValue(doc, docValues[i], segmentDocId);
+            }
+        }
+    }
+
+    /**
+     * Find the requested schema fields that have doc values in the index.
+     */
+    private void init()
+    {
+        fields = new ArrayList<DocValueField>();
+        leaves = context.searcher.getTopReaderContext().leaves();
+        leafDocValues = new Object[leaves.size()][];
+        
+        ReturnFields returnFields = (context.req == null) ? null : new SolrReturnFields(context.req);
+        boolean allFields = (returnFields == null) || returnFields.wantsAllFields();
+        IndexSchema schema = context.searcher.getSchema();
+        FieldInfos fieldInfos = context.searcher.getAtomicReader().getFieldInfos();
         for(String fieldName :context.searcher.getFieldNames())
         {
-            SchemaField schemaField = context.searcher.getSchema().getFieldOrNull(fieldName);
-            if(schemaField != null)
+            String alfrescoFieldName = null;
+            if(!allFields && !returnFields.wantsField(fieldName))
             {
-                if(schemaField.hasDocValues())
+                // Values are returned under the Alfresco property name, which may be the one asked for
+                alfrescoFieldName = AlfrescoSolrDataModel.getInstance().getAlfrescoPropertyFromSchemaField(fieldName);
+                if(!returnFields.wantsField(alfrescoFieldName))
                 {
-                    SortedDocValues sortedDocValues = context.searcher.getAtomicReader().getSortedDocValues(fieldName);
-                    if(sortedDocValues != null)
-                    {
-                        int ordinal = sortedDocValues.getOrd(docid);
-                        if(ordinal > -1)
-                        {
-                            doc.removeFields(fieldName);
-                            String alfrescoFieldName = AlfrescoSolrDataModel.getInstance().getAlfrescoPropertyFromSchemaField(fieldName);
-                            doc.removeFields(alfrescoFieldName);
-                            doc.addField(alfrescoFieldName, schemaField.getType().toObject(schemaField, sortedDocValues.lookupOrd(ordinal)));
-                        }
-                    }
-                    
-                    SortedSetDocValues sortedSetDocValues = context.searcher.getAtomicReader().getSortedSetDocValues(fieldName);
-                    if(sortedSetDocValues != null)
-                    {
-                        ArrayList<Object> newValues = new ArrayList<Object>();
-                        sortedSetDocValues.setDocument(docid);
-                        long ordinal;
-                        while ( (ordinal = sortedSetDocValues.nextOrd()) !=  SortedSetDocValues.NO_MORE_ORDS)
-                        {
-                            newValues.add(schemaField.getType().toObject(schemaField, sortedSetDocValues.lookupOrd(ordinal)));       
-                        }
-                        doc.removeFields(fieldName);
-                        String alfrescoFieldName = AlfrescoSolrDataModel.getInstance().getAlfrescoPropertyFromSchemaField(fieldName);
-                        doc.removeFields(alfrescoFieldName);
-                        doc.addField(alfrescoFieldName, newValues);
-                    }
-                    
-                    
-                    BinaryDocValues binaryDocValues = context.searcher.getAtomicReader().getBinaryDocValues(fieldName);
-                    if(binaryDocValues != null)
-                    {
-                        doc.removeFields(fieldName);
-                        String alfrescoFieldName = AlfrescoSolrDataModel.getInstance().getAlfrescoPropertyFromSchemaField(fieldName);
-                        doc.removeFields(alfrescoFieldName);
-                        doc.addField(alfrescoFieldName, schemaField.getType().toObject(schemaField, binaryDocValues.get(docid)));
-                    }
-                    
-                    if(schemaField.getType().getNumericType() != null)
-                    {
-                        NumericDocValues numericDocValues = context.searcher.getAtomicReader().getNumericDocValues(fieldName);
-                        if(numericDocValues != null)
-                        {
-                            doc.removeFields(fieldName);
-                            String alfrescoFieldName = AlfrescoSolrDataModel.getInstance().getAlfrescoPropertyFromSchemaField(fieldName);
-                            doc.removeFields(alfrescoFieldName);
-                            switch(schemaField.getType().getNumericType())
-                            {
-                            case DOUBLE:
-                                doc.addField(alfrescoFieldName,  Double.longBitsToDouble(numericDocValues.get(docid)));
-                                break;
-                            case FLOAT:
-                                doc.addField(alfrescoFieldName,  Float.intBitsToFloat((int) numericDocValues.get(docid)));
-                                break;
-                            case INT:
-                                doc.addField(alfrescoFieldName, (int) numericDocValues.get(docid));
-                                break;
-                            case LONG:
-                                doc.addField(alfrescoFieldName, numericDocValues.get(docid));
-                                break;
-                            }
-                        }
-                        
-                        SortedNumericDocValues sortedNumericDocValues = context.searcher.getAtomicReader().getSortedNumericDocValues(fieldName);
-                        if(sortedNumericDocValues != null)
-                        {
-                            sortedNumericDocValues.setDocument(docid);
-                            doc.removeFields(fieldName);
-                            String alfrescoFieldName = AlfrescoSolrDataModel.getInstance().getAlfrescoPropertyFromSchemaField(fieldName);
-                            doc.removeFields(alfrescoFieldName);
-                            ArrayList<Object> newValues = new ArrayList<Object>(sortedNumericDocValues.count()); 
-                            if(sortedNumericDocValues.count() > 0)
-                            {
-                               
-                                for(int i = 0; i < sortedNumericDocValues.count(); i++)
-                                {
-                                    switch(schemaField.getType().getNumericType())
-                                    {
-                                        case DOUBLE:
-                                            newValues.add(NumericUtils.sortableLongToDouble(sortedNumericDocValues.valueAt(i)));
-                                            break;
-                                        case FLOAT:
-                                            newValues.add(NumericUtils.sortableIntToFloat((int)sortedNumericDocValues.valueAt(i)));
-                                            break;
-                                        case INT:
-                                            newValues.add((int)sortedNumericDocValues.valueAt(i));
-                                            break;
-                                        case LONG:
-                                            newValues.add(sortedNumericDocValues.valueAt(i));
-                                            break;
-                                          
-                                    }
-                                }
-                            }
-                            doc.addField(alfrescoFieldName, newValues);
-                            
-                        }
-                    }
+                    continue;
                 }
             }
+            SchemaField schemaField = schema.getFieldOrNull(fieldName);
+            if((schemaField == null) || !schemaField.hasDocValues())
+            {
+                continue;
+            }
+            FieldInfo fieldInfo = fieldInfos.fieldInfo(fieldName);
+            if((fieldInfo == null) || !fieldInfo.hasDocValues())
+            {
+                continue;
+            }
+            DocValuesType docValuesType = fieldInfo.getDocValuesType();
+            if(((docValuesType == DocValuesType.NUMERIC) || (docValuesType == DocValuesType.SORTED_NUMERIC))
+                    && (schemaField.getType().getNumericType() == null))
+            {
+                continue;
+            }
+            if(alfrescoFieldName == null)
+            {
+                alfrescoFieldName = AlfrescoSolrDataModel.getInstance().getAlfrescoPropertyFromSchemaField(fieldName);
+            }
+            fields.add(new DocValueField(fieldName, alfrescoFieldName, schemaField, docValuesType));
         }
-        
     }
 
-    
+    private Object[] getDocValues(AtomicReader reader) throws IOException
+    {
+        Object[] docValues = new Object[fields.size()];
+        for(int i = 0; i < fields.size(); i++)
+        {
+            DocValueField field = fields.get(i);
+            switch(field.docValuesType)
+            {
+            case SORTED:
+                docValues[i] = reader.getSortedDocValues(field.fieldName);
+                break;
+            case SORTED_SET:
+                docValues[i] = reader.getSortedSetDocValues(field.fieldName);
+                break;
+            case BINARY:
+                docValues[i] = reader.getBinaryDocValues(field.fieldName);
+                break;
+            case NUMERIC:
+                docValues[i] = reader.getNumericDocValues(field.fieldName);
+                break;
+            case SORTED_NUMERIC:
+                docValues[i] = reader.getSortedNumericDocValues(field.fieldName);
+                break;
+            }
+        }
+        return docValues;
+    }
+
+    /**
+     * A doc values field with its type and the Alfresco property it is returned as.
+     */
+    private static class DocValueField
+    {
+        final String fieldName;
+
+        final String alfrescoFieldName;
+
+        final SchemaField schemaField;
+
+        final DocValuesType docValuesType;
+
+        DocValueField(String fieldName, String alfrescoFieldName, SchemaField schemaField, DocValuesType docValuesType)
+        {
+            this.fieldName = fieldName;
+            this.alfrescoFieldName = alfrescoFieldName;
+            this.schemaField = schemaField;
+            this.docValuesType = docValuesType;
+        }
+
+        void addValue(SolrDocument doc, Object docValues, int docid)
+        {
+            switch(docValuesType)
+            {
+            case SORTED:
+                SortedDocValues sortedDocValues = (SortedDocValues)docValues;
+                int ordinal = sortedDocValues.getOrd(docid);
+                if(ordinal > -1)
+                {
+                    replace(doc, schemaField.getType().toObject(schemaField, sortedDocValues.lookupOrd(ordinal)));
+                }
+                break;
+            case SORTED_SET:
+                SortedSetDocValues sortedSetDocValues = (SortedSetDocValues)docValues;
+                ArrayList<Object> newValues = new ArrayList<Object>();
+                sortedSetDocValues.setDocument(docid);
+                long ord;
+                while ( (ord = sortedSetDocValues.nextOrd()) !=  SortedSetDocValues.NO_MORE_ORDS)
+                {
+                    newValues.add(schemaField.getType().toObject(schemaField, sortedSetDocValues.lookupOrd(ord)));       
+                }
+                replace(doc, newValues);
+                break;
+            case BINARY:
+                BinaryDocValues binaryDocValues = (BinaryDocValues)docValues;
+                replace(doc, schemaField.getType().toObject(schemaField, binaryDocValues.get(docid)));
+                break;
+            case NUMERIC:
+                NumericDocValues numericDocValues = (NumericDocValues)docValues;
+                replace(doc, toNumber(numericDocValues.get(docid), false));
+                break;
+            case SORTED_NUMERIC:
+                SortedNumericDocValues sortedNumericDocValues = (SortedNumericDocValues)docValues;
+                sortedNumericDocValues.setDocument(docid);
+                ArrayList<Object> numbers = new ArrayList<Object>(sortedNumericDocValues.count()); 
+                for(int i = 0; i < sortedNumericDocValues.count(); i++)
+                {
+                    numbers.add(toNumber(sortedNumericDocValues.valueAt(i), true));
+                }
+                replace(doc, numbers);
+                break;
+            }
+        }
+
+        private Object toNumber(long value, boolean sortable)
+        {
+            switch(schemaField.getType().getNumericType())
+            {
+            case DOUBLE:
+                return sortable ? NumericUtils.sortableLongToDouble(value) : Double.longBitsToDouble(value);
+            case FLOAT:
+                return sortable ? NumericUtils.sortableIntToFloat((int)value) : Float.intBitsToFloat((int)value);
+            case INT:
+                return (int)value;
+            case LONG:
+            default:
+                return value;
+            }
+        }
+
+        private void replace(SolrDocument doc, Object value)
+        {
+            doc.removeFields(fieldName);
+            doc.removeFields(alfrescoFieldName);
+            doc.addField(alfrescoFieldName, value);
+        }
+    }
 }
@@ -25,11 +25,7 @@
  */
 package org.apache.solr.handler.component;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.io.Reader;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -37,10 +33,10 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
-import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.client.SOLRAPIClientFactory;
 import org.alfresco.solr.query.AbstractQParser;
+import org.alfresco.solr.query.AlfrescoJsonRequest;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexableField;
@@ -52,7 +48,6 @@ import org.apache.solr.common.SolrException.ErrorCode;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.params.ShardParams;
-import org.apache.solr.common.util.ContentStream;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
 import org.apache.solr.core.CloseHook;
@@ -72,9 +67,6 @@ import org.apache.solr.util.RTimer;
 import org.apache.solr.util.SolrPluginUtils;
 import org.apache.solr.util.plugin.PluginInfoInitialized;
 import org.apache.solr.util.plugin.SolrCoreAware;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -219,39 +211,7 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements SolrCor
 
     private void readJsonIntoContent(SolrQueryRequest req)
     {
-        Iterable<ContentStream> streams = req.getContentStreams();
-
-        JSONObject json = (JSONObject) req.getContext().get(AbstractQParser.ALFRESCO_JSON);
-
-        if (json == null)
-        {
-            if (streams != null)
-            {
-                try
-                {
-                    Reader reader = null;
-                    for (ContentStream stream : streams)
-                    {
-                        reader = new BufferedReader(new InputStreamReader(stream.getStream(), "UTF-8"));
-                    }
-
-                    // TODO - replace with streaming-based solution e.g. SimpleJSON ContentHandler
-                    if (reader != null)
-                    {
-                        json = new JSONObject(new JSONTokener(reader));
-                        req.getContext().put(AbstractQParser.ALFRESCO_JSON, json);
-                    }
-                }
-                catch (JSONException e)
-                {
-                    // This is expected when there is no json element to the request
-                }
-                catch (IOException e)
-                {
-                    throw new AlfrescoRuntimeException("IO Error parsing query parameters", e);
-                }
-            }
-        }
+        AlfrescoJsonRequest.getJsonRequest(req);
     }
     
     @Override
@@ -402,7 +362,7 @@ public class AlfrescoSearchHandler extends RequestHandlerBase implements SolrCor
                             params.set(ShardParams.SHARD_URL, shard); // so the shard knows what was asked
                             if(req.getContext().get(AbstractQParser.ALFRESCO_JSON) != null)
                             {
-                                params.set(AbstractQParser.ALFRESCO_JSON, ((JSONObject)req.getContext().get(AbstractQParser.ALFRESCO_JSON)).toString());
+                                params.set(AbstractQParser.ALFRESCO_JSON, ((AlfrescoJsonRequest)req.getContext().get(AbstractQParser.ALFRESCO_JSON)).toJson());
                             }
                             if (rb.requestInfo != null)
                             {
@@ -28,29 +28,23 @@ package org.apache.solr.handler.component;
 import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
-import java.util.zip.GZIPInputStream;
 
-import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.TenantAclIdDbId;
-import org.alfresco.solr.content.SolrContentUrlBuilder;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexableField;
-import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.apache.solr.common.SolrInputDocument;
 import org.apache.solr.common.params.CommonParams;
 import org.apache.solr.common.params.SolrParams;
-import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrResourceLoader;
@@ -81,21 +75,6 @@ import com.google.common.collect.Maps;
  */
 public class AlfrescoSolrClusteringComponent extends SearchComponent implements SolrCoreAware {
         private transient static Logger log = LoggerFactory.getLogger(ClusteringComponent.class);
-
-        JavaBinCodec.ObjectResolver resolver = new JavaBinCodec.ObjectResolver()
-        {
-            @Override
-            public Object resolve(Object o, JavaBinCodec codec) throws IOException
-            {
-                if (o instanceof BytesRef)
-                {
-                    BytesRef br = (BytesRef) o;
-                    codec.writeByteArray(br.bytes, br.offset, br.length);
-                    return null;
-                }
-                return o;
-            }
-        };
         
         /**
          * Base name for all component parameters. This name is also used to
@@ -266,32 +245,7 @@ public class AlfrescoSolrClusteringComponent extends SearchComponent implements
         
         private SolrInputDocument retrieveDocFromSolrContentStore(String tenant, long dbId) throws IOException
         {
-            String contentUrl = SolrContentUrlBuilder
-                        .start()
-                        .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
-                        .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
-                        .get();
-            ContentReader reader = AlfrescoSolrHighlighter.solrContentStore.getReader(contentUrl);
-            SolrInputDocument cachedDoc = null;
-            if (reader.exists())
-            {
-                // try-with-resources statement closes all these InputStreams
-                try (
-                        InputStream contentInputStream = reader.getContentInputStream();
-                        // Uncompresses the document
-                        GZIPInputStream gzip = new GZIPInputStream(contentInputStream);
-                    )
-                {
-                    cachedDoc = (SolrInputDocument) new JavaBinCodec(resolver).unmarshal(gzip);
-                }
-                catch (Exception e)
-                {
-                    // Don't fail for this
-                    log.warn("Failed to get doc from store using URL: " + contentUrl, e);
-                    return null;
-                }
-            }
-            return cachedDoc;
+            return AlfrescoSolrHighlighter.solrContentStore.retrieveDoc(tenant, dbId);
         }
         
         private SolrInputDocument getSolrInputDocument(Document doc, SolrQueryRequest req) throws IOException
@@ -28,7 +28,7 @@ package org.apache.solr.handler.component;
 import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -37,21 +37,29 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.naming.NoInitialContextException;
 
-import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
 import org.alfresco.solr.AlfrescoSolrDataModel.TenantAclIdDbId;
 import org.alfresco.solr.content.SolrContentStore;
-import org.alfresco.solr.content.SolrContentUrlBuilder;
 import org.apache.lucene.analysis.CachingTokenFilter;
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
@@ -76,17 +84,18 @@ import org.apache.lucene.search.vectorhighlight.FieldQuery;
 import org.apache.lucene.search.vectorhighlight.FragListBuilder;
 import org.apache.lucene.search.vectorhighlight.FragmentsBuilder;
 import org.apache.lucene.util.AttributeSource.State;
-import org.apache.lucene.util.BytesRef;
 import org.apache.solr.common.SolrException;
 import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
 import org.apache.solr.common.params.HighlightParams;
 import org.apache.solr.common.params.SolrParams;
-import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.PluginInfo;
 import org.apache.solr.core.SolrConfig;
 import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrInfoMBean;
 import org.apache.solr.core.SolrResourceLoader;
 import org.apache.solr.highlight.DefaultEncoder;
 import org.apache.solr.highlight.GapFragmenter;
@@ -107,14 +116,15 @@ import org.apache.solr.schema.SchemaField;
 import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.SolrIndexSearcher;
-import org.apache.solr.update.DocumentBuilder;
+import org.apache.solr.util.DefaultSolrThreadFactory;
 import org.apache.solr.util.plugin.PluginInfoInitialized;
 import org.quartz.JobExecutionException;
+import org.springframework.extensions.surf.util.I18NUtil;
 
 /**
  * @author Andy
  */
-public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginInfoInitialized
+public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginInfoInitialized, SolrInfoMBean
 {
     static SolrContentStore solrContentStore;
     
@@ -188,20 +198,19 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
    
     private SolrCore solrCore;
     
-    JavaBinCodec.ObjectResolver resolver = new JavaBinCodec.ObjectResolver()
-    {
-        @Override
-        public Object resolve(Object o, JavaBinCodec codec) throws IOException
-        {
-            if (o instanceof BytesRef)
-            {
-                BytesRef br = (BytesRef) o;
-                codec.writeByteArray(br.bytes, br.offset, br.length);
-                return null;
-            }
-            return o;
-        }
-    };
+    /** The request parameter overriding the configured highlighting time budget, in milliseconds */
+    public static final String TIME_ALLOWED = HighlightParams.HIGHLIGHT + ".timeAllowed";
+
+    /** Highlights the documents of a page in parallel, if parallelThreads is configured */
+    private ExecutorService executor;
+
+    /** The default time budget for highlighting a page in milliseconds, 0 for no limit */
+    private long timeAllowed = 0;
+
+    /** The name the highlighter statistics are registered under with the core */
+    public static final String INFO_NAME = "alfrescoHighlighter";
+
+    private final AtomicLong truncatedHighlights = new AtomicLong();
 
     public AlfrescoSolrHighlighter()
     {
@@ -275,9 +284,91 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
         if(boundaryScanner == null) boundaryScanner = new SimpleBoundaryScanner();
         boundaryScanners.put("", boundaryScanner);
         boundaryScanners.put(null, boundaryScanner);
+
+        if (info.initArgs != null)
+        {
+            Object val = info.initArgs.get("timeAllowed");
+            if (val != null)
+            {
+                timeAllowed = Long.parseLong(val.toString());
+            }
+            val = info.initArgs.get("parallelThreads");
+            if (val != null && Integer.parseInt(val.toString()) > 0 && executor == null)
+            {
+                executor = Executors.newFixedThreadPool(Integer.parseInt(val.toString()), new DefaultSolrThreadFactory("highlighting"));
+                solrCore.addCloseHook(new CloseHook()
+                {
+                    @Override
+                    public void preClose(SolrCore core)
+                    {
+                        executor.shutdownNow();
+                    }
+
+                    @Override
+                    public void postClose(SolrCore core)
+                    {
+                    }
+                });
+            }
+        }
+        solrCore.getInfoRegistry().put(INFO_NAME, this);
         initialized = true;
     }
 
+    /**
+     * @return the number of documents whose highlighting was cut short by the time budget since the core started
+     */
+    public long getTruncatedHighlights()
+    {
+        return truncatedHighlights.get();
+    }
+
+    @Override
+    public String getName()
+    {
+        return AlfrescoSolrHighlighter.class.getName();
+    }
+
+    @Override
+    public String getVersion()
+    {
+        return "1.0";
+    }
+
+    @Override
+    public String getDescription()
+    {
+        return "Highlights from the cached documents within a time budget";
+    }
+
+    @Override
+    public Category getCategory()
+    {
+        return Category.HIGHLIGHTING;
+    }
+
+    @Override
+    public String getSource()
+    {
+        return "";
+    }
+
+    @Override
+    public URL[] getDocs()
+    {
+        return null;
+    }
+
+    @Override
+    public NamedList getStatistics()
+    {
+        NamedList<Object> stats = new SimpleOrderedMap<>();
+        stats.add("timeAllowed", timeAllowed);
+        stats.add("parallel", executor != null);
+        stats.add("truncatedHighlights", truncatedHighlights.get());
+        return stats;
+    }
+
     // just for back-compat with the deprecated method
     private boolean initialized = false;
 
@@ -560,64 +651,270 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
      */
     @Override
     @SuppressWarnings("unchecked")
-    public NamedList<Object> doHighlighting(DocList docs, Query query, SolrQueryRequest req, String[] defaultFields) throws IOException
+    public NamedList<Object> doHighlighting(DocList docs, final Query query, final SolrQueryRequest req, String[] defaultFields) throws IOException
     {
-        SolrParams params = req.getParams();
+        final SolrParams params = req.getParams();
         if (!isHighlightingEnabled(params))
             return null;
 
         SolrIndexSearcher searcher = req.getSearcher();
-        IndexSchema schema = searcher.getSchema();
+        final IndexSchema schema = searcher.getSchema();
         NamedList fragments = new SimpleOrderedMap();
-        String[] fieldNames = getHighlightFields(query, req, defaultFields);
-        Set<String> fset = new HashSet<>();
+        final String[] fieldNames = getHighlightFields(query, req, defaultFields);
 
+        // Map the requested fields to schema fields once for all the documents
+        final Map<String, String[]> schemaFieldNames = new HashMap<>();
+        final Set<String> documentFields = new HashSet<>();
+        for (String fieldName : fieldNames)
         {
-            // pre-fetch documents using the Searcher's doc cache
-            for (String f : fieldNames)
+            fieldName = fieldName.trim();
+            String[] mapped = new String[] {
+                    AlfrescoSolrDataModel.getInstance().mapProperty(fieldName, FieldUse.HIGHLIGHT, req, 0),
+                    AlfrescoSolrDataModel.getInstance().mapProperty(fieldName, FieldUse.HIGHLIGHT, req, 1) };
+            schemaFieldNames.put(fieldName, mapped);
+            documentFields.add(fieldName);
+            documentFields.add(mapped[0]);
+            documentFields.add(mapped[1]);
+            String requestAlternateField = params.getFieldParam(fieldName, HighlightParams.ALTERNATE_FIELD);
+            if (requestAlternateField != null && requestAlternateField.length() > 0)
             {
-                fset.add(f);
+                documentFields.add(AlfrescoSolrDataModel.getInstance().mapProperty(requestAlternateField, FieldUse.HIGHLIGHT, req));
             }
-            // fetch unique key if one exists.
-            SchemaField keyField = schema.getUniqueKeyField();
-            if (null != keyField)
-                fset.add(keyField.getName());
+        }
+        documentFields.add(FIELD_SOLR4_ID);
+        documentFields.add("DBID");
+        if (schema.getUniqueKeyField() != null)
+        {
+            documentFields.add(schema.getUniqueKeyField().getName());
         }
 
         // get FastVectorHighlighter instance out of the processing loop
-        FastVectorHighlighter fvh = new FastVectorHighlighter(
+        final FastVectorHighlighter fvh = new FastVectorHighlighter(
         // FVH cannot process hl.usePhraseHighlighter parameter per-field basis
                 params.getBool(HighlightParams.USE_PHRASE_HIGHLIGHTER, true),
                 // FVH cannot process hl.requireFieldMatch parameter per-field basis
                 params.getBool(HighlightParams.FIELD_MATCH, false));
         fvh.setPhraseLimit(params.getInt(HighlightParams.PHRASE_LIMIT, SolrHighlighter.DEFAULT_PHRASE_LIMIT));
-        FieldQuery fieldQuery = fvh.getFieldQuery(query, searcher.getIndexReader());
+        final FieldQuery fieldQuery = fvh.getFieldQuery(query, searcher.getIndexReader());
+
+        long budget = getTimeAllowed(params);
+        final long deadline = (budget > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget) : 0L;
 
-        // Highlight each document
+        // Fetch the stored fields on this thread and queue the highlighting of each document
+        int size = docs.size();
+        Document[] storedDocs = new Document[size];
+        List<Callable<NamedList>> tasks = new ArrayList<>(size);
         DocIterator iterator = docs.iterator();
-        for (int i = 0; i < docs.size(); i++)
+        for (int i = 0; i < size; i++)
         {
-            int docId = iterator.nextDoc();
-            Document doc = getDocument(searcher.doc(docId, fset), req);
-            NamedList docSummaries = new SimpleOrderedMap();
-            for (String fieldName : fieldNames)
+            final int docId = iterator.nextDoc();
+            final Document storedDoc = searcher.doc(docId, documentFields);
+            storedDocs[i] = storedDoc;
+            tasks.add(new Callable<NamedList>()
             {
-                fieldName = fieldName.trim();
-                if (useFastVectorHighlighter(params, schema, fieldName))
-                    doHighlightingByFastVectorHighlighter(fvh, fieldQuery, req, docSummaries, docId, doc, fieldName);
-                else
-                    doHighlightingByHighlighter(query, req, docSummaries, docId, doc, fieldName, 0);
+                @Override
+                public NamedList call() throws Exception
+                {
+                    checkDeadline(deadline);
+                    Document doc = getDocument(storedDoc, req, documentFields);
+                    NamedList docSummaries = new SimpleOrderedMap();
+                    for (String fieldName : fieldNames)
+                    {
+                        fieldName = fieldName.trim();
+                        checkDeadline(deadline);
+                        if (useFastVectorHighlighter(params, schema, fieldName))
+                            doHighlightingByFastVectorHighlighter(fvh, fieldQuery, req, docSummaries, docId, doc, fieldName);
+                        else
+                            doHighlightingByHighlighter(query, req, docSummaries, docId, doc, fieldName, schemaFieldNames.get(fieldName), 0, deadline);
+                    }
+                    return docSummaries;
+                }
+            });
+        }
+
+        List<HighlightTask> pooledTasks = null;
+        List<Future<NamedList>> futures = null;
+        if (executor != null && size > 1)
+        {
+            Locale locale = I18NUtil.getLocaleOrNull();
+            pooledTasks = new ArrayList<>(size);
+            futures = new ArrayList<>(size);
+            for (Callable<NamedList> task : tasks)
+            {
+                HighlightTask pooledTask = new HighlightTask(task, locale);
+                pooledTasks.add(pooledTask);
+                futures.add(executor.submit(pooledTask));
+            }
+        }
+
+        // Collect the summaries in page order, documents not highlighted in time only get their DBID
+        int truncated = 0;
+        try
+        {
+            for (int i = 0; i < size; i++)
+            {
+                NamedList docSummaries = (futures == null) ? runTask(tasks.get(i), deadline) : getResult(futures.get(i), deadline);
+                if (docSummaries == null)
+                {
+                    truncated++;
+                    docSummaries = new SimpleOrderedMap();
+                }
+                Document storedDoc = storedDocs[i];
+                String printId = schema.printableUniqueKey(storedDoc);
+                if(storedDoc.get("DBID") != null)
+                {
+                    docSummaries.add("DBID", storedDoc.get("DBID"));
+                }
+                fragments.add(printId == null ? null : printId, docSummaries);
+            }
+        }
+        finally
+        {
+            if (futures != null)
+            {
+                awaitTasks(pooledTasks, futures);
             }
-            String printId = schema.printableUniqueKey(doc);
-            if(doc.get("DBID") != null)
-			{
-            	docSummaries.add("DBID", doc.get("DBID"));
-			}
-            fragments.add(printId == null ? null : printId, docSummaries);
+        }
+        if (truncated > 0)
+        {
+            truncatedHighlights.addAndGet(truncated);
+            log.warn("Highlighting of " + truncated + " of " + size + " documents exceeded the time allowed of " + budget + "ms");
         }
         return fragments;
     }
 
+    /*
+     * The time budget of the request, rejecting a budget that is not a number as a bad request
+     */
+    private long getTimeAllowed(SolrParams params)
+    {
+        String budget = params.get(TIME_ALLOWED);
+        if (budget == null)
+        {
+            return timeAllowed;
+        }
+        try
+        {
+            return Long.parseLong(budget);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, TIME_ALLOWED + " is not a number: " + budget, e);
+        }
+    }
+
+    /*
+     * Highlight a document on the request thread, returning null if the time budget is spent.
+     */
+    private NamedList runTask(Callable<NamedList> task, long deadline) throws IOException
+    {
+        try
+        {
+            checkDeadline(deadline);
+            return task.call();
+        }
+        catch (HighlightTimeExceededException e)
+        {
+            return null;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, e);
+        }
+    }
+
+    /*
+     * Wait for a document highlighted by the pool, returning null if the time budget is spent.
+     */
+    private NamedList getResult(Future<NamedList> future, long deadline) throws IOException
+    {
+        try
+        {
+            if (deadline == 0L)
+            {
+                return future.get();
+            }
+            return future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e)
+        {
+            return null;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof HighlightTimeExceededException)
+            {
+                return null;
+            }
+            else if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            else if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, cause);
+        }
+    }
+
+    /*
+     * Cancel the tasks the pool has not started and wait for the running ones, which stop at the deadline, so no task
+     * uses the searcher after the request releases it. Tasks are never interrupted as an interrupt closes the
+     * FileChannel of an NIOFSDirectory.
+     */
+    static void awaitTasks(List<HighlightTask> tasks, List<Future<NamedList>> futures)
+    {
+        boolean interrupted = false;
+        for (int i = 0; i < tasks.size(); i++)
+        {
+            Future<NamedList> future = futures.get(i);
+            if (tasks.get(i).abandon())
+            {
+                future.cancel(false);
+                continue;
+            }
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException | CancellationException e)
+                {
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void checkDeadline(long deadline)
+    {
+        if ((deadline != 0L) && (System.nanoTime() - deadline > 0))
+        {
+            throw new HighlightTimeExceededException();
+        }
+    }
+
     /*
      * If fieldName is undefined, this method returns false, then doHighlightingByHighlighter() will do nothing for the
      * field.
@@ -638,9 +935,9 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
         return termPosOff;
     }
 
-    private void doHighlightingByHighlighter(Query query, SolrQueryRequest req, NamedList docSummaries, int docId, Document doc, String requestFieldname, int position) throws IOException
+    private void doHighlightingByHighlighter(Query query, SolrQueryRequest req, NamedList docSummaries, int docId, Document doc, String requestFieldname, String[] schemaFieldNames, int position, long deadline) throws IOException
     {
-        String schemaFieldName = AlfrescoSolrDataModel.getInstance().mapProperty(requestFieldname, FieldUse.HIGHLIGHT, req, position);
+        String schemaFieldName = schemaFieldNames[position];
         
         final SolrIndexSearcher searcher = req.getSearcher();
         final IndexSchema schema = searcher.getSchema();
@@ -701,6 +998,10 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
                 // fall back to analyzer
                 tstream = createAnalyzerTStream(schema, schemaFieldName, thisText);
             }
+            if (deadline != 0L)
+            {
+                tstream = new DeadlineTokenFilter(tstream, deadline);
+            }
 
             int maxCharsToAnalyze = params.getFieldInt(requestFieldname, HighlightParams.MAX_CHARS, Highlighter.DEFAULT_MAX_CHARS_TO_ANALYZE);
 
@@ -809,7 +1110,7 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
         }
         if ((summaries == null || summaries.length == 0) && position == 0)
         {
-        	 doHighlightingByHighlighter(query, req, docSummaries, docId, doc, requestFieldname, 1);
+        	 doHighlightingByHighlighter(query, req, docSummaries, docId, doc, requestFieldname, schemaFieldNames, 1, deadline);
         }
         // no summeries made, copy text from alternate field
         if (summaries == null || summaries.length == 0)
@@ -925,35 +1226,17 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
     
     private SolrInputDocument retrieveDocFromSolrContentStore(String tenant, long dbId) throws IOException
     {
-        String contentUrl = SolrContentUrlBuilder
-                    .start()
-                    .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
-                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
-                    .get();
-        ContentReader reader = AlfrescoSolrHighlighter.solrContentStore.getReader(contentUrl);
-        SolrInputDocument cachedDoc = null;
-        if (reader.exists())
-        {
-            // try-with-resources statement closes all these InputStreams
-            try (
-                    InputStream contentInputStream = reader.getContentInputStream();
-                    // Uncompresses the document
-                    GZIPInputStream gzip = new GZIPInputStream(contentInputStream);
-                )
-            {
-                cachedDoc = (SolrInputDocument) new JavaBinCodec(resolver).unmarshal(gzip);
-            }
-            catch (Exception e)
-            {
-                // Don't fail for this
-                log.warn("Failed to get doc from store using URL: " + contentUrl, e);
-                return null;
-            }
-        }
-        return cachedDoc;
+        return AlfrescoSolrHighlighter.solrContentStore.retrieveDoc(tenant, dbId);
     }
     
-    private Document getDocument(Document doc, SolrQueryRequest req) throws IOException
+    /**
+     * Get the cached document for a hit, holding only the given fields.
+     * 
+     * @param doc       the stored fields of the hit, including the id
+     * @param req       the current request
+     * @param fields    the schema fields that the highlighting may read
+     */
+    private Document getDocument(Document doc, SolrQueryRequest req, Set<String> fields) throws IOException
     {
         try
         {
@@ -964,20 +1247,137 @@ public class AlfrescoSolrHighlighter extends SolrHighlighter implements PluginIn
             {
                 sid = new SolrInputDocument();
             	sid.addField(FIELD_SOLR4_ID, id);
-            	sid.addField("_version_", 0);
-            	return DocumentBuilder.toDocument(sid, req.getSchema());
-            }
-            else
-            {
-                return DocumentBuilder.toDocument(sid, req.getSchema());
             }
+            return toDocument(sid, req.getSchema(), fields);
         }
         catch(StringIndexOutOfBoundsException e)
         {
             throw new IOException(e);
         }
     }
+
+    /*
+     * Builds the fields the same way as DocumentBuilder.toDocument but only for the given fields, so the other
+     * properties and the content of the cached document are never turned into Lucene fields.
+     */
+    private Document toDocument(SolrInputDocument sid, IndexSchema schema, Set<String> fields)
+    {
+        Document document = new Document();
+        for (String fieldName : fields)
+        {
+            SolrInputField inputField = sid.getField(fieldName);
+            if (inputField == null)
+            {
+                continue;
+            }
+            SchemaField schemaField = schema.getFieldOrNull(fieldName);
+            if (schemaField == null)
+            {
+                continue;
+            }
+            for (Object value : inputField.getValues())
+            {
+                if (value == null)
+                {
+                    continue;
+                }
+                for (IndexableField field : schemaField.getType().createFields(schemaField, value, 1.0f))
+                {
+                    if (field != null)
+                    {
+                        document.add(field);
+                    }
+                }
+            }
+        }
+        return document;
+    }
     
+    /*
+     * Thrown when the time budget for highlighting a page is spent.
+     */
+    static class HighlightTimeExceededException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        HighlightTimeExceededException()
+        {
+            super("Highlighting time exceeded", null, false, false);
+        }
+    }
+
+    /*
+     * Highlights a document on a pool thread in the locale of the request thread. A task is run at most once, either
+     * by the pool or not at all if the request abandons it first.
+     */
+    static final class HighlightTask implements Callable<NamedList>
+    {
+        private final Callable<NamedList> task;
+
+        private final Locale locale;
+
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        HighlightTask(Callable<NamedList> task, Locale locale)
+        {
+            this.task = task;
+            this.locale = locale;
+        }
+
+        @Override
+        public NamedList call() throws Exception
+        {
+            if (!claimed.compareAndSet(false, true))
+            {
+                return null;
+            }
+            Locale previous = I18NUtil.getLocaleOrNull();
+            I18NUtil.setLocale(locale);
+            try
+            {
+                return task.call();
+            }
+            finally
+            {
+                I18NUtil.setLocale(previous);
+            }
+        }
+
+        /*
+         * Returns true if the task had not started and now never will.
+         */
+        boolean abandon()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+
+    /*
+     * Stops the analysis of a document part way through once the time budget is spent.
+     */
+    static final class DeadlineTokenFilter extends TokenFilter
+    {
+        private final long deadline;
+
+        private int count = 0;
+
+        DeadlineTokenFilter(TokenStream input, long deadline)
+        {
+            super(input);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException
+        {
+            if ((++count & 0xFF) == 0)
+            {
+                checkDeadline(deadline);
+            }
+            return input.incrementToken();
+        }
+    }
+
     private String getFieldValueString(Document doc, String fieldName)
     {
         IndexableField field = (IndexableField)doc.getField(fieldName);
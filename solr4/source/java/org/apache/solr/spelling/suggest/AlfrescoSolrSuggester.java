@@ -46,9 +46,21 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.search.spell.Dictionary;
+import org.apache.lucene.search.spell.HighFrequencyDictionary;
 import org.apache.lucene.search.suggest.Lookup;
 import org.apache.lucene.search.suggest.Lookup.LookupResult;
 import org.apache.lucene.util.Accountable;
@@ -57,7 +69,9 @@ import org.apache.solr.common.util.NamedList;
 import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.spelling.SolrSpellChecker;
 import org.apache.solr.spelling.suggest.DictionaryFactory;
+import org.apache.solr.spelling.suggest.HighFrequencyDictionaryFactory;
 import org.apache.solr.spelling.suggest.LookupFactory;
 import org.apache.solr.spelling.suggest.SuggesterOptions;
 import org.apache.solr.spelling.suggest.SuggesterResult;
@@ -109,6 +123,47 @@ public class AlfrescoSolrSuggester implements Accountable {
 
   private LookupFactory factory;
   private DictionaryFactory dictionaryFactory;
+  private NamedList<?> config;
+  
+  /** The segments, by core cache key, that the lookup was built from, or null if they are not known */
+  private Set<Object> builtSegments;
+  
+  /** The terms of the segments added since the lookup was built, one lookup for each update that found new segments */
+  private List<DeltaLookup> deltaLookups = Collections.emptyList();
+  
+  /** The most delta lookups a suggester keeps, beyond this they are built again as one */
+  static final int MAX_DELTA_LOOKUPS = 8;
+  
+  /** A lookup of the terms of some new segments */
+  private static final class DeltaLookup {
+    final Set<Object> segments;
+    final long docs;
+    final Lookup lookup;
+    
+    DeltaLookup(Set<Object> segments, long docs, Lookup lookup) {
+      this.segments = segments;
+      this.docs = docs;
+      this.lookup = lookup;
+    }
+  }
+  
+  public AlfrescoSolrSuggester() {
+  }
+  
+  /** A suggester sharing the configuration and the built lookup of another one */
+  private AlfrescoSolrSuggester(AlfrescoSolrSuggester suggester) {
+    this.sourceLocation = suggester.sourceLocation;
+    this.storeDir = suggester.storeDir;
+    this.dictionary = suggester.dictionary;
+    this.lookup = suggester.lookup;
+    this.lookupImpl = suggester.lookupImpl;
+    this.dictionaryImpl = suggester.dictionaryImpl;
+    this.name = suggester.name;
+    this.factory = suggester.factory;
+    this.dictionaryFactory = suggester.dictionaryFactory;
+    this.config = suggester.config;
+    this.builtSegments = suggester.builtSegments;
+  }
   
   /** 
    * Uses the <code>config</code> and the <code>core</code> to initialize the underlying 
@@ -116,6 +171,7 @@ public class AlfrescoSolrSuggester implements Accountable {
    * */
   public String init(NamedList<?> config, SolrCore core) {
     LOG.info("init: " + config);
+    this.config = config;
     
     // read the config
     name = config.get(NAME) != null ? (String) config.get(NAME)
@@ -188,6 +244,7 @@ public class AlfrescoSolrSuggester implements Accountable {
 
     dictionary = dictionaryFactory.create(core, searcher);
     lookup.build(dictionary);
+    builtSegments = getSegments(searcher);
     if (storeDir != null) {
       File target = new File(storeDir, factory.storeFileName());
       if(!lookup.store(new FileOutputStream(target))) {
@@ -217,6 +274,92 @@ public class AlfrescoSolrSuggester implements Accountable {
     build(core, searcher);
   }
 
+  /**
+   * Creates a suggester that shares the built lookup and the delta lookups of this one and adds the terms of the
+   * segments that are new since the last update to a small lookup of its own. A delta lookup whose segments have been
+   * merged away is dropped and the merged segment counts as new. Once there are {@link #MAX_DELTA_LOOKUPS} the delta
+   * lookups are built again as one. A full build is needed instead, and null is returned, when the segments the lookup
+   * was built from are not known or have been merged away, when the segments added since hold more than
+   * <code>maxDeltaRatio</code> of the documents, or when the dictionary or lookup cannot be built in parts.
+   */
+  public AlfrescoSolrSuggester update(SolrCore core, SolrIndexSearcher searcher, float maxDeltaRatio) throws IOException {
+    if (builtSegments == null || !(dictionaryFactory instanceof HighFrequencyDictionaryFactory) || lookup instanceof Closeable) {
+      return null;
+    }
+    
+    Map<Object, AtomicReader> segments = new LinkedHashMap<>();
+    for (AtomicReaderContext leaf : searcher.getIndexReader().leaves()) {
+      segments.put(leaf.reader().getCoreCacheKey(), leaf.reader());
+    }
+    if (!segments.keySet().containsAll(builtSegments)) {
+      return null;
+    }
+    
+    // Keep the delta lookups whose segments are all still there
+    List<DeltaLookup> keptLookups = new ArrayList<>();
+    Set<Object> covered = new HashSet<>(builtSegments);
+    long deltaDocs = 0;
+    for (DeltaLookup deltaLookup : deltaLookups) {
+      if (segments.keySet().containsAll(deltaLookup.segments)) {
+        keptLookups.add(deltaLookup);
+        covered.addAll(deltaLookup.segments);
+        deltaDocs += deltaLookup.docs;
+      }
+    }
+    
+    Map<Object, AtomicReader> newSegments = new LinkedHashMap<>();
+    long newDocs = 0;
+    for (Map.Entry<Object, AtomicReader> segment : segments.entrySet()) {
+      if (!covered.contains(segment.getKey())) {
+        newSegments.put(segment.getKey(), segment.getValue());
+        newDocs += segment.getValue().maxDoc();
+      }
+    }
+    if (deltaDocs + newDocs > maxDeltaRatio * searcher.maxDoc()) {
+      return null;
+    }
+    if (!newSegments.isEmpty() && keptLookups.size() >= MAX_DELTA_LOOKUPS) {
+      for (DeltaLookup deltaLookup : keptLookups) {
+        for (Object segment : deltaLookup.segments) {
+          newSegments.put(segment, segments.get(segment));
+        }
+        newDocs += deltaLookup.docs;
+      }
+      keptLookups.clear();
+    }
+    
+    AlfrescoSolrSuggester updated = new AlfrescoSolrSuggester(this);
+    if (!newSegments.isEmpty()) {
+      String field = (String) config.get(SolrSpellChecker.FIELD);
+      float threshold = config.get(HighFrequencyDictionaryFactory.THRESHOLD_TOKEN_FREQUENCY) == null ? 0.0f
+          : (Float) config.get(HighFrequencyDictionaryFactory.THRESHOLD_TOKEN_FREQUENCY);
+      MultiReader reader = new MultiReader(newSegments.values().toArray(new IndexReader[newSegments.size()]), false);
+      try {
+        Lookup deltaLookup = factory.create(config, core);
+        deltaLookup.build(new HighFrequencyDictionary(reader, field, threshold));
+        keptLookups.add(new DeltaLookup(new HashSet<>(newSegments.keySet()), newDocs, deltaLookup));
+      } finally {
+        reader.close();
+      }
+    }
+    updated.deltaLookups = keptLookups;
+    LOG.info("Updated suggester " + name + " with " + newSegments.size() + " new segments holding " + newDocs + " documents");
+    return updated;
+  }
+  
+  /** The number of delta lookups added by updates since the last full build */
+  int getDeltaLookupCount() {
+    return deltaLookups.size();
+  }
+  
+  private static Set<Object> getSegments(SolrIndexSearcher searcher) {
+    Set<Object> segments = new HashSet<>();
+    for (AtomicReaderContext leaf : searcher.getIndexReader().leaves()) {
+      segments.add(leaf.reader().getCoreCacheKey());
+    }
+    return segments;
+  }
+  
   /** Returns suggestions based on the {@link SuggesterOptions} passed */
   public SuggesterResult getSuggestions(SuggesterOptions options) throws IOException {
     LOG.debug("getSuggestions: " + options.token);
@@ -227,9 +370,42 @@ public class AlfrescoSolrSuggester implements Accountable {
     
     SuggesterResult res = new SuggesterResult();
     List<LookupResult> suggestions = lookup.lookup(options.token, false, options.count);
+    if (!deltaLookups.isEmpty()) {
+      List<List<LookupResult>> allSuggestions = new ArrayList<>(deltaLookups.size() + 1);
+      allSuggestions.add(suggestions);
+      for (DeltaLookup deltaLookup : deltaLookups) {
+        allSuggestions.add(deltaLookup.lookup.lookup(options.token, false, options.count));
+      }
+      suggestions = merge(allSuggestions, options.count);
+    }
     res.add(getName(), options.token.toString(), suggestions);
     return res;
   }
+  
+  /** Adds up the weights of suggestions found in more than one lookup and keeps the <code>count</code> heaviest */
+  static List<LookupResult> merge(List<List<LookupResult>> allSuggestions, int count) {
+    Map<String, LookupResult> merged = new TreeMap<>();
+    for (List<LookupResult> suggestions : allSuggestions) {
+      for (LookupResult result : suggestions) {
+        String key = result.key.toString();
+        LookupResult existing = merged.get(key);
+        if (existing == null) {
+          merged.put(key, result);
+        } else {
+          merged.put(key, new LookupResult(existing.key, existing.value + result.value, existing.payload));
+        }
+      }
+    }
+    Lookup.LookupPriorityQueue queue = new Lookup.LookupPriorityQueue(count);
+    for (LookupResult result : merged.values()) {
+      queue.insertWithOverflow(result);
+    }
+    List<LookupResult> results = new ArrayList<>(count);
+    for (LookupResult result : queue.getResults()) {
+      results.add(result);
+    }
+    return results;
+  }
 
   /** Returns the unique name of the suggester */
   public String getName() {
@@ -238,7 +414,11 @@ public class AlfrescoSolrSuggester implements Accountable {
 
   @Override
   public long ramBytesUsed() {
-    return lookup.ramBytesUsed();
+    long size = lookup.ramBytesUsed();
+    for (DeltaLookup deltaLookup : deltaLookups) {
+      size += deltaLookup.lookup.ramBytesUsed();
+    }
+    return size;
   }
   
   @Override
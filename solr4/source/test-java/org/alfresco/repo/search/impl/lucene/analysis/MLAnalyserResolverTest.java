@@ -0,0 +1,103 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.lucene.analysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Locale;
+
+import org.alfresco.repo.search.impl.lucene.analysis.MLAnalyserResolver.FieldKind;
+import org.alfresco.solr.AlfrescoAnalyzerWrapper.Mode;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MLAnalyserResolverTest
+{
+    private @Mock IndexSchema schema;
+    private @Mock FieldType identifierType;
+    private @Mock FieldType englishType;
+    private @Mock FieldType frenchType;
+    private @Mock Analyzer identifierAnalyser;
+    private @Mock Analyzer englishAnalyser;
+    private @Mock Analyzer frenchAnalyser;
+
+    private MLAnalyserResolver resolver;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        when(schema.getFieldTypeByName("identifier")).thenReturn(identifierType);
+        when(schema.getFieldTypeByName("text_en")).thenReturn(englishType);
+        when(schema.getFieldTypeByName("text_fr")).thenReturn(frenchType);
+        when(identifierType.getIndexAnalyzer()).thenReturn(identifierAnalyser);
+        when(englishType.getIndexAnalyzer()).thenReturn(englishAnalyser);
+        when(frenchType.getIndexAnalyzer()).thenReturn(frenchAnalyser);
+        resolver = new MLAnalyserResolver(schema, Mode.INDEX);
+    }
+
+    @Test
+    public void fieldKind()
+    {
+        assertEquals(FieldKind.IDENTIFIER, FieldKind.of("mltext@m__l_@{http://www.alfresco.org/model/content/1.0}name"));
+        assertEquals(FieldKind.IDENTIFIER, FieldKind.of("text@s__l_@{http://www.alfresco.org/model/content/1.0}name"));
+        assertEquals(FieldKind.TEXT, FieldKind.of("mltext@m__lt@{http://www.alfresco.org/model/content/1.0}title"));
+        assertEquals(FieldKind.NONE, FieldKind.of("text@s____@{http://www.alfresco.org/model/content/1.0}name"));
+    }
+
+    @Test
+    public void analysersAreResolvedOncePerLanguage()
+    {
+        for (int i = 0; i < 3; i++)
+        {
+            assertSame(frenchAnalyser, resolver.getAnalyser(FieldKind.TEXT, Locale.FRANCE));
+            assertSame(frenchAnalyser, resolver.getAnalyser(FieldKind.TEXT, Locale.CANADA_FRENCH));
+            assertSame(englishAnalyser, resolver.getAnalyser(FieldKind.TEXT, Locale.GERMAN));
+            assertSame(identifierAnalyser, resolver.getAnalyser(FieldKind.IDENTIFIER, Locale.GERMAN));
+            assertNull(resolver.getAnalyser(FieldKind.NONE, Locale.GERMAN));
+        }
+        verify(schema, times(1)).getFieldTypeByName("text_fr");
+        verify(schema, times(1)).getFieldTypeByName("text_de");
+        verify(schema, times(1)).getFieldTypeByName("identifier");
+    }
+
+    @Test
+    public void noSchema()
+    {
+        assertNull(new MLAnalyserResolver(null, Mode.QUERY).getAnalyser(FieldKind.TEXT, Locale.FRANCE));
+    }
+}
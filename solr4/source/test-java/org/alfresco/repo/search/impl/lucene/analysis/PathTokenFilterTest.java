@@ -160,6 +160,50 @@ public class PathTokenFilterTest extends TestCase
         assertEquals(path.length(), offsetAtt.endOffset());
     }
     
+    public void testMultiplePaths() throws IOException
+    {
+        final String paths = "/{uri1}one/uri2:two;/three;";
+        StringReader reader = new StringReader(paths);
+        PathTokenFilter ts = new PathTokenFilter(reader, PathTokenFilter.PATH_SEPARATOR,
+                PathTokenFilter.SEPARATOR_TOKEN_TEXT, PathTokenFilter.NO_NS_TOKEN_TEXT,
+                PathTokenFilter.NAMESPACE_START_DELIMITER, PathTokenFilter.NAMESPACE_END_DELIMITER, true);
+
+        CharTermAttribute termAtt = ts.addAttribute(CharTermAttribute.class);
+        TypeAttribute typeAtt = ts.addAttribute(TypeAttribute.class);
+        OffsetAttribute offsetAtt = ts.addAttribute(OffsetAttribute.class);
+
+        String[] expectedText = new String[] { "0000000002", "uri1", "one", "uri2", "two", ";",
+                "0000000001", PathTokenFilter.NO_NS_TOKEN_TEXT, "three", ";",
+                "0000000000", ";" };
+        String[] expectedType = new String[] { PathTokenFilter.TOKEN_TYPE_PATH_SEP,
+                PathTokenFilter.TOKEN_TYPE_PATH_ELEMENT_NAMESPACE, PathTokenFilter.TOKEN_TYPE_PATH_ELEMENT_NAME,
+                PathTokenFilter.TOKEN_TYPE_PATH_ELEMENT_NAMESPACE_PREFIX, PathTokenFilter.TOKEN_TYPE_PATH_ELEMENT_NAME,
+                PathTokenFilter.TOKEN_TYPE_PATH_SEP, PathTokenFilter.TOKEN_TYPE_PATH_SEP,
+                PathTokenFilter.TOKEN_TYPE_PATH_ELEMENT_NAMESPACE, PathTokenFilter.TOKEN_TYPE_PATH_ELEMENT_NAME,
+                PathTokenFilter.TOKEN_TYPE_PATH_SEP, PathTokenFilter.TOKEN_TYPE_PATH_SEP,
+                PathTokenFilter.TOKEN_TYPE_PATH_SEP };
+        int[] expectedStart = new int[] { 11, 1, 7, 11, 16, 11, 21, 21, 21, 21, 0, 0 };
+
+        try
+        {
+            ts.reset();
+            int i = 0;
+            while (ts.incrementToken())
+            {
+                assertEquals(expectedText[i], termAtt.toString());
+                assertEquals(expectedType[i], typeAtt.type());
+                assertEquals(expectedStart[i], offsetAtt.startOffset());
+                i++;
+            }
+            assertEquals(expectedText.length, i);
+            ts.end();
+        }
+        finally
+        {
+            ts.close();
+        }
+    }
+    
     private void tokenise(String path, String[] tokens) throws IOException
     {
         StringReader reader = new StringReader(path);
@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.text.Collator;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests {@link CollationKeySortFieldComparator#newComparator} against the searcher of a request.
+ */
+@LuceneTestCase.SuppressCodecs({"Appending","Lucene3x","Lucene40","Lucene41","Lucene42","Lucene43", "Lucene44", "Lucene45","Lucene46","Lucene47","Lucene48","Lucene49"})
+public class CollationKeySortFieldComparatorSearcherTest extends AlfrescoSolrTestCaseJ4
+{
+    private static final String FIELD = "text@s__sort@{http://www.alfresco.org/model/content/1.0}name";
+
+    private static final Locale LOCALE = Locale.FRENCH;
+
+    private static final CollationKeySortFieldComparator.SortValues SORT_VALUES = new CollationKeySortFieldComparator.SortValues()
+    {
+        @Override
+        public String getSortValue(String indexedValue, Locale locale)
+        {
+            return indexedValue;
+        }
+    };
+
+    @BeforeClass
+    public static void beforeClass() throws Exception
+    {
+        // Segments are only merged when the tests optimize
+        System.setProperty("solr.tests.mergePolicy", "org.apache.lucene.index.LogDocMergePolicy");
+        initCore("solrconfig-basic.xml", "schema-rerank.xml", HOME().getAbsolutePath());
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        System.clearProperty("solr.tests.mergePolicy");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        clearIndex();
+        assertU(commit());
+    }
+
+    @Test
+    public void sortsWithTheOrdinalMapOfTheSearcher() throws Exception
+    {
+        addDocs(true, "zoo", "\u00e9t\u00e9", "Apple");
+        addDocs(true, "apple", "ete", "Zebra");
+
+        assertArrayEquals(new String[] { "apple", "Apple", "ete", "\u00e9t\u00e9", "Zebra", "zoo" }, sort());
+
+        // One segment, without an ordinal map
+        assertU(optimize());
+        assertArrayEquals(new String[] { "apple", "Apple", "ete", "\u00e9t\u00e9", "Zebra", "zoo" }, sort());
+    }
+
+    @Test
+    public void needsKeysForEveryDocument() throws Exception
+    {
+        addDocs(true, "zoo", "\u00e9t\u00e9");
+        assertNotNull(newComparator(Collections.singleton(LOCALE)));
+        // Keys are not indexed for the locale
+        assertNull(newComparator(Collections.singleton(Locale.GERMAN)));
+
+        // A segment indexed before the locale was configured
+        addDocs(false, "apple", "ete");
+        assertNull(newComparator(Collections.singleton(LOCALE)));
+
+        // Merged with a segment with keys, only some of its documents have keys
+        assertU(optimize());
+        assertNull(newComparator(Collections.singleton(LOCALE)));
+    }
+
+    /*
+     * Adds the documents to a segment of their own, as the field types do but without the schema
+     */
+    private void addDocs(boolean withKeys, String... values) throws IOException
+    {
+        Collator collator = Collator.getInstance(LOCALE);
+        RefCounted<IndexWriter> writer = h.getCore().getSolrCoreState().getIndexWriter(h.getCore());
+        try
+        {
+            for (String value : values)
+            {
+                Document doc = new Document();
+                doc.add(new StringField(FIELD, value, Store.NO));
+                if (withKeys)
+                {
+                    doc.add(new SortedDocValuesField(CollationKeySortFieldComparator.getCollationKeyField(FIELD, LOCALE),
+                                CollationKeySortFieldComparator.getCollationKey(collator, value)));
+                }
+                writer.get().addDocument(doc);
+            }
+        }
+        finally
+        {
+            writer.decref();
+        }
+        assertU(commit());
+    }
+
+    private FieldComparator<String> newComparator(Set<Locale> collationLocales)
+    {
+        SolrQueryRequest req = req();
+        SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, new SolrQueryResponse()));
+        try
+        {
+            return CollationKeySortFieldComparator.newComparator(10, FIELD, LOCALE, collationLocales, SORT_VALUES);
+        }
+        finally
+        {
+            SolrRequestInfo.clearRequestInfo();
+            req.close();
+        }
+    }
+
+    private String[] sort() throws IOException
+    {
+        SolrQueryRequest req = req();
+        SolrRequestInfo.setRequestInfo(new SolrRequestInfo(req, new SolrQueryResponse()));
+        try
+        {
+            SolrIndexSearcher searcher = req.getSearcher();
+            Sort sort = new Sort(new SortField(FIELD, new FieldComparatorSource()
+            {
+                @Override
+                public FieldComparator<?> newComparator(String fieldname, int numHits, int sortPos, boolean reversed)
+                {
+                    FieldComparator<String> comparator = CollationKeySortFieldComparator.newComparator(numHits, fieldname, LOCALE,
+                                Collections.singleton(LOCALE), SORT_VALUES);
+                    assertNotNull(comparator);
+                    return comparator;
+                }
+            }));
+            TopDocs topDocs = searcher.search(new MatchAllDocsQuery(), 10, sort);
+            String[] values = new String[topDocs.scoreDocs.length];
+            for (int i = 0; i < values.length; i++)
+            {
+                values[i] = (String) ((FieldDoc) topDocs.scoreDocs[i]).fields[0];
+            }
+            return values;
+        }
+        finally
+        {
+            SolrRequestInfo.clearRequestInfo();
+            req.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.FieldComparatorSource;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CollationKeySortFieldComparatorTest
+{
+    private static final String FIELD = "text@s__sort@{http://www.alfresco.org/model/content/1.0}name";
+
+    private static final Locale LOCALE = Locale.FRENCH;
+
+    private static final CollationKeySortFieldComparator.SortValues SORT_VALUES = new CollationKeySortFieldComparator.SortValues()
+    {
+        @Override
+        public String getSortValue(String indexedValue, Locale locale)
+        {
+            return indexedValue;
+        }
+    };
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+        // Two segments, with byte order differing from the collation order
+        addDocs(writer, "zoo", "\u00e9t\u00e9", "Apple", null);
+        writer.commit();
+        addDocs(writer, "apple", "ete", "Zebra");
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        assertTrue(reader.leaves().size() > 1);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        reader.close();
+        directory.close();
+    }
+
+    private void addDocs(IndexWriter writer, String... values) throws Exception
+    {
+        Collator collator = Collator.getInstance(LOCALE);
+        for (String value : values)
+        {
+            Document doc = new Document();
+            if (value != null)
+            {
+                doc.add(new StringField(FIELD, value, Store.NO));
+                doc.add(new SortedDocValuesField(CollationKeySortFieldComparator.getCollationKeyField(FIELD, LOCALE),
+                            CollationKeySortFieldComparator.getCollationKey(collator, value)));
+            }
+            writer.addDocument(doc);
+        }
+    }
+
+    private Sort getSort(boolean reverse)
+    {
+        return getSort(reverse, SORT_VALUES);
+    }
+
+    private Sort getSort(boolean reverse, final CollationKeySortFieldComparator.SortValues sortValues)
+    {
+        return new Sort(new SortField(FIELD, new FieldComparatorSource()
+        {
+            @Override
+            public FieldComparator<?> newComparator(String fieldname, int numHits, int sortPos, boolean reversed) throws IOException
+            {
+                return new CollationKeySortFieldComparator(numHits, fieldname, LOCALE, sortValues, null);
+            }
+        }, reverse));
+    }
+
+    private String[] getValues(TopDocs topDocs)
+    {
+        String[] values = new String[topDocs.scoreDocs.length];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = (String) ((FieldDoc) topDocs.scoreDocs[i]).fields[0];
+        }
+        return values;
+    }
+
+    @Test
+    public void sortsInCollationOrder() throws Exception
+    {
+        IndexSearcher searcher = new IndexSearcher(reader);
+
+        TopDocs topDocs = searcher.search(new MatchAllDocsQuery(), 10, getSort(false));
+
+        assertArrayEquals(new String[] { null, "apple", "Apple", "ete", "\u00e9t\u00e9", "Zebra", "zoo" }, getValues(topDocs));
+
+        topDocs = searcher.search(new MatchAllDocsQuery(), 3, getSort(true));
+
+        assertArrayEquals(new String[] { "zoo", "Zebra", "\u00e9t\u00e9" }, getValues(topDocs));
+    }
+
+    @Test
+    public void pagesAfterTop() throws Exception
+    {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        TopDocs firstPage = searcher.search(new MatchAllDocsQuery(), 3, getSort(false));
+
+        TopDocs secondPage = searcher.searchAfter(firstPage.scoreDocs[2], new MatchAllDocsQuery(), 3, getSort(false));
+
+        assertArrayEquals(new String[] { "ete", "\u00e9t\u00e9", "Zebra" }, getValues(secondPage));
+        assertEquals(7, secondPage.totalHits);
+    }
+
+    @Test
+    public void sortsMultilingualValuesInTheSortLocale() throws Exception
+    {
+        RAMDirectory mlDirectory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(mlDirectory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+        // The French values collate differently from the English ones and from their bytes
+        addMLDoc(writer, "\u00e9t\u00e9", "summer");
+        addMLDoc(writer, "hiver", "winter");
+        writer.commit();
+        addMLDoc(writer, "automne", "autumn");
+        addMLDoc(writer, "printemps", "spring");
+        writer.close();
+        DirectoryReader mlReader = DirectoryReader.open(mlDirectory);
+        try
+        {
+            IndexSearcher searcher = new IndexSearcher(mlReader);
+
+            TopDocs topDocs = searcher.search(new MatchAllDocsQuery(), 10, getSort(false, AlfrescoCollatableMLTextFieldType.SORT_VALUES));
+
+            assertArrayEquals(new String[] { "automne", "\u00e9t\u00e9", "hiver", "printemps" }, getValues(topDocs));
+        }
+        finally
+        {
+            mlReader.close();
+            mlDirectory.close();
+        }
+    }
+
+    private void addMLDoc(IndexWriter writer, String french, String english) throws Exception
+    {
+        String value = "\u0000fr\u0000" + french + "\u0000\u0000en\u0000" + english;
+        List<IndexableField> fields = new ArrayList<IndexableField>();
+        fields.add(new StringField(FIELD, value, Store.NO));
+        CollationKeySortFieldComparator.addCollationKeys(fields, FIELD, value, Collections.singleton(LOCALE),
+                    AlfrescoCollatableMLTextFieldType.SORT_VALUES);
+        writer.addDocument(fields);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.solr.content.SolrContentStore;
+import org.alfresco.solr.content.SolrContentUrlBuilder;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.util.OpenBitSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ContentStoreChecker} with two cores caching their documents in the same store.
+ */
+public class ContentStoreCheckerTest
+{
+    private static final String TENANT = "_DEFAULT_";
+
+    private static final ContentStoreChecker.NodeLock NO_LOCK = new ContentStoreChecker.NodeLock()
+    {
+        @Override
+        public boolean lock(long dbId)
+        {
+            return true;
+        }
+
+        @Override
+        public void unlock(long dbId)
+        {
+        }
+    };
+
+    private String rootStr;
+    private SolrContentStore store;
+
+    /* The nodes of the two cores, e.g. workspace and archive */
+    private Map<String, OpenBitSet> workspace;
+    private Map<String, OpenBitSet> archive;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File tempFile = File.createTempFile("ContentStoreCheckerTest-", ".bin");
+        File tempFolder = tempFile.getParentFile();
+        rootStr = new File(tempFolder.getAbsolutePath() + "/" + System.currentTimeMillis()).getAbsolutePath();
+        store = new SolrContentStore(rootStr);
+
+        workspace = dbIds(1L, 2L, 3L);
+        archive = dbIds(10L, 11L);
+        for (long dbId : new long[] { 1L, 2L, 10L, 11L, 99L })
+        {
+            write(dbId);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(new File(rootStr));
+    }
+
+    private static Map<String, OpenBitSet> dbIds(long... dbIds)
+    {
+        OpenBitSet bits = new OpenBitSet();
+        for (long dbId : dbIds)
+        {
+            bits.set(dbId);
+        }
+        Map<String, OpenBitSet> byTenant = new HashMap<String, OpenBitSet>();
+        byTenant.put(TENANT, bits);
+        return byTenant;
+    }
+
+    private String getUrl(long dbId)
+    {
+        return SolrContentUrlBuilder
+                .start()
+                .add(SolrContentUrlBuilder.KEY_TENANT, TENANT)
+                .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                .get();
+    }
+
+    private void write(long dbId)
+    {
+        ContentWriter writer = store.getWriter(new ContentContext(null, getUrl(dbId)));
+        writer.putContent("x");
+    }
+
+    private Map<String, OpenBitSet> onNode()
+    {
+        Map<String, OpenBitSet> indexedOnNode = new HashMap<String, OpenBitSet>();
+        ContentStoreChecker.addAll(indexedOnNode, workspace);
+        ContentStoreChecker.addAll(indexedOnNode, archive);
+        return indexedOnNode;
+    }
+
+    @Test
+    public void onlyDeletesFilesNoCoreHolds() throws Exception
+    {
+        ContentStoreReport report = new ContentStoreReport();
+        ContentStoreChecker checker = new ContentStoreChecker(store, 2, 0);
+        Map<String, OpenBitSet> cached = checker.check(workspace, onNode(), true, Long.MAX_VALUE, NO_LOCK, report);
+
+        Assert.assertEquals(5, report.getFilesScanned());
+        Assert.assertTrue(report.isOrphansCheckedOnNode());
+        Assert.assertEquals(1, report.getOrphanFiles());
+        Assert.assertEquals(1, report.getOrphanFilesDeleted());
+        Assert.assertFalse(store.exists(getUrl(99L)));
+        // The other core's documents are left alone
+        Assert.assertTrue(store.exists(getUrl(10L)));
+        Assert.assertTrue(store.exists(getUrl(11L)));
+
+        // Node 3 has no cached document
+        OpenBitSet workspaceCached = cached.get(TENANT);
+        Assert.assertTrue(workspaceCached.get(1L));
+        Assert.assertTrue(workspaceCached.get(2L));
+        Assert.assertFalse(workspaceCached.get(3L));
+        Assert.assertFalse(workspaceCached.get(10L));
+    }
+
+    @Test
+    public void neverDeletesWhenOtherCoresAreUnknown() throws Exception
+    {
+        ContentStoreReport report = new ContentStoreReport();
+        ContentStoreChecker checker = new ContentStoreChecker(store, 2, 0);
+        checker.check(workspace, null, true, Long.MAX_VALUE, NO_LOCK, report);
+
+        Assert.assertFalse(report.isOrphansCheckedOnNode());
+        // Reported against this core only, but nothing is deleted
+        Assert.assertEquals(3, report.getOrphanFiles());
+        Assert.assertEquals(0, report.getOrphanFilesDeleted());
+        for (long dbId : new long[] { 1L, 2L, 10L, 11L, 99L })
+        {
+            Assert.assertTrue(store.exists(getUrl(dbId)));
+        }
+    }
+
+    @Test
+    public void keepsRecentOrphans() throws Exception
+    {
+        ContentStoreReport report = new ContentStoreReport();
+        ContentStoreChecker checker = new ContentStoreChecker(store, 1, 0);
+        checker.check(archive, onNode(), true, 0L, NO_LOCK, report);
+
+        Assert.assertEquals(1, report.getOrphanFiles());
+        Assert.assertEquals(0, report.getOrphanFilesDeleted());
+        Assert.assertTrue(store.exists(getUrl(99L)));
+    }
+}
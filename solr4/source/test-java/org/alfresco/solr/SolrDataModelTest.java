@@ -27,6 +27,7 @@ package org.alfresco.solr;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 
 import java.io.InputStream;
 
@@ -154,4 +155,21 @@ public class SolrDataModelTest
         
         
     }
+    
+    @Test
+    public void fieldMappingsFollowModelChanges()
+    {
+        AlfrescoSolrDataModel dataModel = new AlfrescoSolrDataModel();
+        ClassLoader cl = SolrDataModelTest.class.getClassLoader();
+        dataModel.putModel(M2Model.createModel(cl.getResourceAsStream("alfresco/model/dictionaryModel.xml")));
+        
+        // Unknown until the CMIS model is loaded
+        assertEquals(0, dataModel.getIndexedFieldNamesForProperty(NAME).getFields().size());
+        assertSame(dataModel.getIndexedFieldNamesForProperty(NAME), dataModel.getIndexedFieldNamesForProperty(NAME));
+        
+        dataModel.putModel(M2Model.createModel(cl.getResourceAsStream("alfresco/model/cmisModel.xml")));
+        assertEquals(5, dataModel.getIndexedFieldNamesForProperty(NAME).getFields().size());
+        assertEquals(2, dataModel.getQueryableFields(NAME, null, FieldUse.FTS).getFields().size());
+        assertSame(dataModel.getQueryableFields(NAME, null, FieldUse.FTS), dataModel.getQueryableFields(NAME, null, FieldUse.FTS));
+    }
 }
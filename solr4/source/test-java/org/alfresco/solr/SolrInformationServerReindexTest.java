@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ACLID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DBID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DOC_TYPE;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ISNODE;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_LID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SOLR4_ID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_TENANT;
+
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.solr.content.SolrContentStore;
+import org.alfresco.solr.content.SolrContentUrlBuilder;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests rebuilding the index of a core from the documents cached in the content store
+ */
+@LuceneTestCase.SuppressCodecs({"Appending","Lucene3x","Lucene40","Lucene41","Lucene42","Lucene43", "Lucene44", "Lucene45","Lucene46","Lucene47","Lucene48","Lucene49"})
+public class SolrInformationServerReindexTest extends AlfrescoSolrTestCaseJ4
+{
+    private SolrContentStore store;
+
+    private SolrInformationServer infoServer;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception
+    {
+        initAlfrescoCore("solrconfig-afts.xml", "schema-afts.xml");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        clearIndex();
+        assertU(commit());
+        store = new SolrContentStore(createTempDir().getAbsolutePath());
+        infoServer = new SolrInformationServer(null, h.getCore(), null, store);
+    }
+
+    @Test
+    public void rebuildsAWipedIndexFromTheStore() throws Exception
+    {
+        storeDoc(cachedDoc(1L, 10L, "workspace://SpacesStore"));
+        storeDoc(cachedDoc(2L, 11L, "workspace://SpacesStore"));
+        storeDoc(cachedDoc(3L, 12L, "workspace://SpacesStore"));
+        // Cached by a core tracking another store on the same node
+        storeDoc(cachedDoc(4L, 13L, "archive://SpacesStore"));
+
+        assertQ(req("q", "*:*"), "*[count(//doc)=0]");
+
+        assertEquals(3L, infoServer.reindexFromContentStore(2));
+
+        assertQ(req("q", FIELD_DOC_TYPE + ":" + SolrInformationServer.DOC_TYPE_NODE, "sort", "id asc"),
+                    "*[count(//doc)=3]",
+                    "//result/doc[1]/str[@name='id'][.='" + nodeDocumentId(10L, 1L) + "']",
+                    "//result/doc[2]/str[@name='id'][.='" + nodeDocumentId(11L, 2L) + "']",
+                    "//result/doc[3]/str[@name='id'][.='" + nodeDocumentId(12L, 3L) + "']");
+
+        // Reindexing again replaces the documents rather than adding them twice
+        assertEquals(3L, infoServer.reindexFromContentStore(1));
+        assertQ(req("q", "*:*"), "*[count(//doc)=3]");
+    }
+
+    @Test
+    public void seesTheTenantsWithIndexedNodes() throws Exception
+    {
+        storeDoc(cachedDoc(1L, 10L, "workspace://SpacesStore"));
+        assertFalse(infoServer.hasTenantNodes(AlfrescoSolrDataModel.DEFAULT_TENANT));
+
+        infoServer.reindexFromContentStore(1);
+        assertTrue(infoServer.hasTenantNodes(AlfrescoSolrDataModel.DEFAULT_TENANT));
+        assertFalse(infoServer.hasTenantNodes("other.example.com"));
+
+        infoServer.deleteByTenant(AlfrescoSolrDataModel.DEFAULT_TENANT, false);
+        assertU(commit());
+        assertFalse(infoServer.hasTenantNodes(AlfrescoSolrDataModel.DEFAULT_TENANT));
+    }
+
+    @Test
+    public void selectsTheCachedDocsOfTheCore()
+    {
+        SolrInputDocument doc = cachedDoc(1L, 10L, "workspace://SpacesStore");
+        assertTrue(SolrInformationServer.isCachedDocOfCore(doc, "workspace://SpacesStore", 1, 0));
+        assertFalse(SolrInformationServer.isCachedDocOfCore(doc, "archive://SpacesStore", 1, 0));
+        assertFalse(SolrInformationServer.isCachedDocOfCore(doc, "workspace://Spaces", 1, 0));
+
+        // ACL 10 falls in the first of two ACL shards
+        assertTrue(SolrInformationServer.isCachedDocOfCore(doc, "workspace://SpacesStore", 2, 0));
+        assertFalse(SolrInformationServer.isCachedDocOfCore(doc, "workspace://SpacesStore", 2, 1));
+    }
+
+    private static String nodeDocumentId(long aclId, long dbId)
+    {
+        return AlfrescoSolrDataModel.getNodeDocumentId(AlfrescoSolrDataModel.DEFAULT_TENANT, aclId, dbId);
+    }
+
+    private static SolrInputDocument cachedDoc(long dbId, long aclId, String storeRef)
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(FIELD_SOLR4_ID, nodeDocumentId(aclId, dbId));
+        doc.addField(FIELD_DBID, dbId);
+        doc.addField(FIELD_ACLID, aclId);
+        doc.addField(FIELD_LID, storeRef + "/node-" + dbId);
+        doc.addField(FIELD_DOC_TYPE, SolrInformationServer.DOC_TYPE_NODE);
+        doc.addField(FIELD_ISNODE, "T");
+        doc.addField(FIELD_TENANT, AlfrescoSolrDataModel.DEFAULT_TENANT);
+        return doc;
+    }
+
+    private void storeDoc(SolrInputDocument doc) throws Exception
+    {
+        String contentUrl = SolrContentUrlBuilder.start()
+                    .add(SolrContentUrlBuilder.KEY_TENANT, AlfrescoSolrDataModel.DEFAULT_TENANT)
+                    .add(SolrContentUrlBuilder.KEY_DB_ID, doc.getFieldValue(FIELD_DBID).toString())
+                    .get();
+        ContentContext context = new ContentContext(null, contentUrl);
+        try (OutputStream out = new GZIPOutputStream(store.getWriter(context).getContentOutputStream()))
+        {
+            new JavaBinCodec().marshal(doc, out);
+        }
+        assertTrue(store.exists(contentUrl));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.component;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.solr.spelling.suggest.SuggesterResult;
+import org.junit.Test;
+
+/**
+ * Tests the merge of shard suggestions by {@link AsyncBuildSuggestComponent}
+ */
+public class AsyncBuildSuggestComponentTest
+{
+    @Test
+    public void mergeTakesHeaviestAcrossShards()
+    {
+        List<SuggesterResult> shards = new ArrayList<>();
+        shards.add(shard("t", result("alpha", 10), result("beta", 5), result("gamma", 1)));
+        shards.add(shard("t", result("delta", 8), result("epsilon", 5)));
+        shards.add(shard("t", result("zeta", 5), result("eta", 2)));
+
+        List<LookupResult> merged = AsyncBuildSuggestComponent.merge(shards, 4).getLookupResult("suggester", "t");
+
+        assertKeys(merged, "alpha", "delta", "beta", "epsilon");
+    }
+
+    @Test
+    public void mergeBreaksTiesInShardOrder()
+    {
+        List<SuggesterResult> shards = new ArrayList<>();
+        shards.add(shard("t", result("alpha", 5)));
+        shards.add(shard("t", result("beta", 5)));
+        shards.add(shard("t", result("gamma", 5)));
+
+        assertKeys(AsyncBuildSuggestComponent.merge(shards, 3).getLookupResult("suggester", "t"), "alpha", "beta", "gamma");
+
+        // The same key from two shards is kept once per shard
+        shards.add(shard("t", result("alpha", 5)));
+        assertKeys(AsyncBuildSuggestComponent.merge(shards, 2).getLookupResult("suggester", "t"), "alpha", "beta");
+        assertKeys(AsyncBuildSuggestComponent.merge(shards, 5).getLookupResult("suggester", "t"), "alpha", "beta", "gamma", "alpha");
+    }
+
+    @Test
+    public void mergeSortsUnsortedShards()
+    {
+        List<SuggesterResult> shards = new ArrayList<>();
+        shards.add(shard("t", result("alpha", 1), result("beta", 9), result("gamma", 4)));
+        shards.add(shard("t", result("delta", 6)));
+
+        assertKeys(AsyncBuildSuggestComponent.merge(shards, 10).getLookupResult("suggester", "t"), "beta", "delta", "gamma", "alpha");
+    }
+
+    @Test
+    public void mergeKeepsTokensOfEveryShard()
+    {
+        List<SuggesterResult> shards = new ArrayList<>();
+        shards.add(shard("a", result("alpha", 1)));
+        shards.add(shard("b", result("beta", 2)));
+        shards.add(shard("b"));
+
+        SuggesterResult merged = AsyncBuildSuggestComponent.merge(shards, 10);
+
+        assertKeys(merged.getLookupResult("suggester", "a"), "alpha");
+        assertKeys(merged.getLookupResult("suggester", "b"), "beta");
+        assertNull(merged.getLookupResult("suggester", "c"));
+    }
+
+    private static SuggesterResult shard(String token, LookupResult... results)
+    {
+        SuggesterResult shard = new SuggesterResult();
+        shard.add("suggester", token, Arrays.asList(results));
+        return shard;
+    }
+
+    private static LookupResult result(String key, long weight)
+    {
+        return new LookupResult(key, weight);
+    }
+
+    private static void assertKeys(List<LookupResult> results, String... keys)
+    {
+        assertEquals(keys.length, results.size());
+        for (int i = 0; i < keys.length; i++)
+        {
+            assertEquals(keys[i], results.get(i).key.toString());
+        }
+    }
+}
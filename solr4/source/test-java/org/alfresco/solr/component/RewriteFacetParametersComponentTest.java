@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.component;
+
+import org.alfresco.solr.AlfrescoSolrTestCaseJ4;
+import org.alfresco.solr.cache.CacheConstants;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.util.RefCounted;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the caching of the rewritten facet counts by {@link RewriteFacetParametersComponent} and
+ * {@link RewriteFacetCountsComponent}
+ */
+@LuceneTestCase.SuppressCodecs({"Appending","Lucene3x","Lucene40","Lucene41","Lucene42","Lucene43", "Lucene44", "Lucene45","Lucene46","Lucene47","Lucene48","Lucene49"})
+public class RewriteFacetParametersComponentTest extends AlfrescoSolrTestCaseJ4
+{
+    private static final String USER_R1 = "{\"locales\":[\"en\"], \"templates\": [{\"name\":\"t1\", \"template\":\"%cm:content\"}], \"authorities\": [ \"GROUP_R1\" ], \"tenants\": [ \"\" ]}";
+
+    private static final String USER_R3 = "{\"locales\":[\"en\"], \"templates\": [{\"name\":\"t1\", \"template\":\"%cm:content\"}], \"authorities\": [ \"GROUP_R3\" ], \"tenants\": [ \"\" ]}";
+
+    @BeforeClass
+    public static void beforeClass() throws Exception
+    {
+        initAlfrescoCore("solrconfig-afts.xml", "schema-afts.xml");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception
+    {
+        super.setUp();
+        clearIndex();
+        assertU(commit());
+
+        assertU(adoc("id", "100", "READER", "GROUP_R1", "ACLID", "5000"));
+        assertU(adoc("id", "101", "READER", "GROUP_R3", "ACLID", "6000"));
+        assertU(adoc("id", "102", "READER", "GROUP_R3", "READER", "GROUP_R1", "ACLID", "7000"));
+
+        assertU(adoc("id", "1", "content@s___t@{http://www.alfresco.org/model/content/1.0}content", "YYYY", "ACLID", "5000", "OWNER", "jim"));
+        assertU(adoc("id", "2", "content@s___t@{http://www.alfresco.org/model/content/1.0}content", "YYYY", "ACLID", "6000", "OWNER", "dave"));
+        assertU(adoc("id", "3", "content@s___t@{http://www.alfresco.org/model/content/1.0}content", "YYYY", "ACLID", "6000", "OWNER", "mary"));
+        assertU(adoc("id", "4", "content@s___t@{http://www.alfresco.org/model/content/1.0}content", "YYYY", "ACLID", "7000", "OWNER", "jim"));
+        assertU(commit());
+    }
+
+    @Test
+    public void pagingReusesTheCachedCounts() throws Exception
+    {
+        long hits = facetCacheHits();
+        assertQ(areq(params("t1:YYYY", "0", null), USER_R1),
+                "*[count(//result/doc)=2]",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='2']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='dave'][.='0']");
+        assertEquals(hits, facetCacheHits());
+
+        // The next page, evaluated at another NOW by a coordinator, is only keyed on what affects the counts
+        assertQ(areq(params("t1:YYYY", "1", Long.toString(System.currentTimeMillis())), USER_R1),
+                "*[count(//result/doc)=1]",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='2']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='dave'][.='0']");
+        assertEquals(hits + 1, facetCacheHits());
+    }
+
+    @Test
+    public void anotherQueryMisses() throws Exception
+    {
+        assertQ(areq(params("t1:YYYY", "0", null), USER_R1),
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='2']");
+
+        long hits = facetCacheHits();
+        assertQ(areq(params("t1:ZZZZ", "0", null), USER_R1),
+                "*[count(//result/doc)=0]",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='0']");
+        assertEquals(hits, facetCacheHits());
+    }
+
+    @Test
+    public void anotherUserGetsTheirOwnCounts() throws Exception
+    {
+        assertQ(areq(params("t1:YYYY", "0", null), USER_R1),
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='2']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='dave'][.='0']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='mary'][.='0']");
+
+        long hits = facetCacheHits();
+        assertQ(areq(params("t1:YYYY", "0", null), USER_R3),
+                "*[count(//result/doc)=2]",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='1']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='dave'][.='1']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='mary'][.='1']");
+        assertEquals(hits, facetCacheHits());
+
+        // Each user then hits their own counts
+        assertQ(areq(params("t1:YYYY", "1", null), USER_R1),
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='2']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='dave'][.='0']");
+        assertQ(areq(params("t1:YYYY", "1", null), USER_R3),
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='jim'][.='1']",
+                "//lst[@name='facet_fields']/lst[@name='OWNER']/int[@name='dave'][.='1']");
+        assertEquals(hits + 2, facetCacheHits());
+    }
+
+    private ModifiableSolrParams params(String q, String start, String now)
+    {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.add("q", q);
+        params.add("qt", "/aftsfacets");
+        params.add("start", start);
+        params.add("rows", "2");
+        params.add("sort", "id asc");
+        params.add("fq", "{!afts}AUTHORITY_FILTER_FROM_JSON");
+        params.add("facet", "true");
+        params.add("facet.field", "OWNER");
+        if(now != null)
+        {
+            params.add("NOW", now);
+        }
+        return params;
+    }
+
+    private long facetCacheHits()
+    {
+        RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+        try
+        {
+            return ((Number)searcher.get().getCache(CacheConstants.ALFRESCO_FACET_CACHE).getStatistics().get("hits")).longValue();
+        }
+        finally
+        {
+            searcher.decref();
+        }
+    }
+}
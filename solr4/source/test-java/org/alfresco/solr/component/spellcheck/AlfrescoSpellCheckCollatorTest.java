@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.component.spellcheck;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.alfresco.solr.component.spellcheck.AlfrescoSpellCheckCollator.CollationProbe;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.handler.component.QueryComponent;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.request.SolrQueryRequestBase;
+import org.apache.solr.response.SolrQueryResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.extensions.surf.util.I18NUtil;
+
+/**
+ * Tests the collation probes {@link AlfrescoSpellCheckCollator} runs in its pool
+ */
+public class AlfrescoSpellCheckCollatorTest
+{
+    private ExecutorService executor;
+
+    private final AtomicReference<Locale> queryLocale = new AtomicReference<>();
+
+    /* Records the locale the collation is parsed in and finds three hits */
+    private final QueryComponent queryComponent = new QueryComponent()
+    {
+        @Override
+        public void prepare(ResponseBuilder rb)
+        {
+            queryLocale.set(I18NUtil.getLocale());
+        }
+
+        @Override
+        public void process(ResponseBuilder rb)
+        {
+            rb.rsp.getToLog().add("hits", 3);
+        }
+    };
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        I18NUtil.setLocale(null);
+    }
+
+    @Test
+    public void probeRunsInRequestLocale() throws Exception
+    {
+        I18NUtil.setLocale(Locale.FRENCH);
+        CollationProbe probe = newProbe(I18NUtil.getLocaleOrNull());
+        I18NUtil.setLocale(Locale.GERMAN);
+
+        Assert.assertEquals(Integer.valueOf(3), executor.submit(probe).get());
+        Assert.assertEquals(Locale.FRENCH, queryLocale.get());
+
+        // The pool thread is left in its own locale
+        Locale poolLocale = executor.submit(new Callable<Locale>()
+        {
+            @Override
+            public Locale call()
+            {
+                return I18NUtil.getLocaleOrNull();
+            }
+        }).get();
+        Assert.assertNull(poolLocale);
+    }
+
+    @Test
+    public void abandonedProbeDoesNotRun() throws Exception
+    {
+        CollationProbe probe = newProbe(Locale.FRENCH);
+        Assert.assertTrue(probe.abandon());
+        Assert.assertEquals(Integer.valueOf(0), probe.call());
+        Assert.assertNull(queryLocale.get());
+
+        // A probe that has run cannot be abandoned
+        probe = newProbe(Locale.FRENCH);
+        Assert.assertEquals(Integer.valueOf(3), probe.call());
+        Assert.assertFalse(probe.abandon());
+    }
+
+    private CollationProbe newProbe(Locale locale)
+    {
+        SolrQueryRequestBase req = new SolrQueryRequestBase(null, new ModifiableSolrParams())
+        {
+        };
+        ResponseBuilder rb = new ResponseBuilder(req, new SolrQueryResponse(), Collections.<SearchComponent> singletonList(queryComponent));
+        return new AlfrescoSpellCheckCollator().new CollationProbe(null, "alfresco", "alfresco", null, new ModifiableSolrParams(),
+                    rb, null, queryComponent, -1, locale);
+    }
+}
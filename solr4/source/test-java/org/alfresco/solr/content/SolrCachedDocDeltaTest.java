@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_ACLID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_CASCADETX;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_DBID;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_PATH;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_SITE;
+import static org.alfresco.repo.search.adaptor.lucene.QueryConstants.FIELD_TAG;
+
+import java.util.EnumSet;
+
+import org.alfresco.solr.content.SolrCachedDocDelta.FieldGroup;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests {@link SolrCachedDocDelta}
+ */
+public class SolrCachedDocDeltaTest
+{
+    private static final String CONTENT_FIELD = "content@s___t@{http://www.alfresco.org/model/content/1.0}content";
+
+    private SolrInputDocument createDoc()
+    {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField(FIELD_DBID, 10L);
+        doc.addField(FIELD_ACLID, 5L);
+        doc.addField(FIELD_PATH, "/a/b");
+        doc.addField(FIELD_SITE, "site");
+        doc.addField(FIELD_TAG, "tag");
+        doc.addField(CONTENT_FIELD, "Some large text");
+        return doc;
+    }
+
+    @Test
+    public void unchangedDocHasNoChangedGroups()
+    {
+        EnumSet<FieldGroup> groups = SolrCachedDocDelta.getChangedGroups(createDoc(), createDoc());
+        Assert.assertNotNull(groups);
+        Assert.assertTrue(groups.isEmpty());
+    }
+
+    @Test
+    public void numericTypesAreComparedByValue()
+    {
+        SolrInputDocument after = createDoc();
+        after.setField(FIELD_ACLID, 5);
+        Assert.assertTrue(SolrCachedDocDelta.getChangedGroups(createDoc(), after).isEmpty());
+    }
+
+    @Test
+    public void pathAndAclChangesAreDeltas()
+    {
+        SolrInputDocument after = createDoc();
+        after.setField(FIELD_PATH, "/c/b");
+        after.setField(FIELD_ACLID, 6L);
+        Assert.assertEquals(EnumSet.of(FieldGroup.PATH, FieldGroup.ACL), SolrCachedDocDelta.getChangedGroups(createDoc(), after));
+    }
+
+    @Test
+    public void otherChangesNeedFullDoc()
+    {
+        SolrInputDocument after = createDoc();
+        after.setField(CONTENT_FIELD, "Some other text");
+        Assert.assertNull(SolrCachedDocDelta.getChangedGroups(createDoc(), after));
+    }
+
+    @Test
+    public void applyReplacesWholeGroup()
+    {
+        SolrInputDocument after = createDoc();
+        after.setField(FIELD_PATH, "/c/b");
+        after.removeField(FIELD_TAG);
+        SolrInputDocument delta = SolrCachedDocDelta.extract(after, EnumSet.of(FieldGroup.PATH));
+
+        SolrInputDocument doc = createDoc();
+        SolrCachedDocDelta.apply(doc, delta);
+        Assert.assertEquals("/c/b", doc.getFieldValue(FIELD_PATH));
+        Assert.assertEquals("site", doc.getFieldValue(FIELD_SITE));
+        Assert.assertNull(doc.getField(FIELD_TAG));
+        Assert.assertEquals(5L, doc.getFieldValue(FIELD_ACLID));
+        Assert.assertEquals("Some large text", doc.getFieldValue(CONTENT_FIELD));
+        Assert.assertNull(doc.getField(SolrCachedDocDelta.FIELD_DELTA_GROUPS));
+    }
+
+    @Test
+    public void mergeKeepsEarlierGroups()
+    {
+        SolrInputDocument first = new SolrInputDocument();
+        first.addField(FIELD_ACLID, 6L);
+        SolrInputDocument second = new SolrInputDocument();
+        second.addField(FIELD_PATH, "/c/b");
+        second.addField(FIELD_CASCADETX, 99L);
+
+        SolrInputDocument merged = SolrCachedDocDelta.merge(
+                SolrCachedDocDelta.extract(first, EnumSet.of(FieldGroup.ACL)),
+                SolrCachedDocDelta.extract(second, EnumSet.of(FieldGroup.PATH, FieldGroup.CASCADE)));
+        Assert.assertEquals(EnumSet.of(FieldGroup.PATH, FieldGroup.CASCADE, FieldGroup.ACL), SolrCachedDocDelta.getGroups(merged));
+
+        SolrInputDocument doc = createDoc();
+        SolrCachedDocDelta.apply(doc, merged);
+        Assert.assertEquals(6L, doc.getFieldValue(FIELD_ACLID));
+        Assert.assertEquals("/c/b", doc.getFieldValue(FIELD_PATH));
+        Assert.assertNull(doc.getField(FIELD_SITE));
+        Assert.assertEquals(99L, doc.getFieldValue(FIELD_CASCADETX));
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link SolrContentStoreScanner}
+ */
+public class SolrContentStoreScannerTest
+{
+    private String rootStr;
+    private SolrContentStore store;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        File tempFile = File.createTempFile("SolrContentStoreScannerTest-", ".bin");
+        File tempFolder = tempFile.getParentFile();
+        rootStr = new File(tempFolder.getAbsolutePath() + "/" + System.currentTimeMillis()).getAbsolutePath();
+        store = new SolrContentStore(rootStr);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        FileUtils.deleteDirectory(new File(rootStr));
+    }
+
+    private void write(String tenant, long dbId, boolean delta)
+    {
+        String url = SolrContentUrlBuilder
+                .start()
+                .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
+                .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                .get();
+        if (delta)
+        {
+            url = SolrContentUrlBuilder.getDeltaContentUrl(url);
+        }
+        ContentWriter writer = store.getWriter(new ContentContext(null, url));
+        writer.putContent("x");
+    }
+
+    @Test
+    public void visitsAllDocuments() throws Exception
+    {
+        write("default", 12345L, false);
+        write("default", 12345L, true);
+        write("default", 7L, false);
+        write("bob", 123456789L, false);
+
+        final Map<String, Boolean> visited = new ConcurrentHashMap<String, Boolean>();
+        SolrContentStoreScanner scanner = new SolrContentStoreScanner(store, 3, 0);
+        long count = scanner.scan(new SolrContentStoreScanner.Visitor()
+        {
+            @Override
+            public void visit(String tenant, long dbId, File file, boolean delta)
+            {
+                visited.put(tenant + "/" + dbId + (delta ? "/delta" : ""), Boolean.TRUE);
+            }
+        });
+
+        Assert.assertEquals(4, count);
+        Assert.assertTrue(visited.containsKey("default/12345"));
+        Assert.assertTrue(visited.containsKey("default/12345/delta"));
+        Assert.assertTrue(visited.containsKey("default/7"));
+        Assert.assertTrue(visited.containsKey("bob/123456789"));
+    }
+
+    @Test
+    public void rateLimited() throws Exception
+    {
+        for (long dbId = 1; dbId <= 10; dbId++)
+        {
+            write("default", dbId, false);
+        }
+        SolrContentStoreScanner scanner = new SolrContentStoreScanner(store, 4, 50);
+        long start = System.nanoTime();
+        scanner.scan(new SolrContentStoreScanner.Visitor()
+        {
+            @Override
+            public void visit(String tenant, long dbId, File file, boolean delta)
+            {
+            }
+        });
+        long elapsedMillis = (System.nanoTime() - start) / 1000000L;
+        // 10 files at 50 per second takes at least 9 intervals of 20ms
+        Assert.assertTrue("Scan was not rate limited: " + elapsedMillis + "ms", elapsedMillis >= 150);
+    }
+}
@@ -29,11 +29,22 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 
 import org.alfresco.repo.content.ContentContext;
+import org.alfresco.service.cmr.repository.ContentIOException;
 import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentWriter;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -182,6 +193,106 @@ public class SolrContentStoreTest
         Assert.assertEquals(bytes[2], bos.toByteArray()[2]);
     }
     
+    private void checkInflatedContent(int size) throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr);
+        
+        byte[] bytes = new byte[size];
+        Random random = new Random(size);
+        for (int i = 0; i < size; i++)
+        {
+            bytes[i] = (byte) random.nextInt(16);
+        }
+        ContentContext ctx = createContentContext("inflate" + size);
+        ContentWriter writer = store.getWriter(ctx);
+        try (OutputStream os = new GZIPOutputStream(writer.getContentOutputStream()))
+        {
+            os.write(bytes);
+        }
+        
+        SolrFileContentReader reader = store.getReader(ctx.getContentUrl());
+        // Read twice to use the pooled inflater again
+        for (int i = 0; i < 2; i++)
+        {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(size);
+            try (InputStream is = reader.getInflatedContentInputStream())
+            {
+                IOUtils.copy(is, bos);
+            }
+            Assert.assertArrayEquals(bytes, bos.toByteArray());
+        }
+    }
+    
+    @Test
+    public void inflatedContent() throws Exception
+    {
+        checkInflatedContent(0);
+        checkInflatedContent(1000);
+    }
+    
+    @Test
+    public void inflatedContentInChunks() throws Exception
+    {
+        checkInflatedContent(SolrInflatingInputStream.BUFFER_SIZE * 20);
+    }
+    
+    @Test
+    public void inflatedContentTrailerAcrossChunks() throws Exception
+    {
+        File file = new File(rootStr, "trailer.gz");
+        file.getParentFile().mkdirs();
+        Random random = new Random(42);
+        // Random bytes are stored rather than compressed, so the file grows with the content
+        for (int offset = 1; offset < 8; offset++)
+        {
+            int size = SolrInflatingInputStream.BUFFER_SIZE;
+            byte[] bytes;
+            byte[] gzipped;
+            do
+            {
+                bytes = new byte[size];
+                random.nextBytes(bytes);
+                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                try (OutputStream os = new GZIPOutputStream(bos))
+                {
+                    os.write(bytes);
+                }
+                gzipped = bos.toByteArray();
+                size += SolrInflatingInputStream.BUFFER_SIZE + offset - gzipped.length;
+            }
+            while (gzipped.length != SolrInflatingInputStream.BUFFER_SIZE + offset);
+            FileUtils.writeByteArrayToFile(file, gzipped);
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(bytes.length);
+            try (InputStream is = new SolrInflatingInputStream(FileChannel.open(file.toPath())))
+            {
+                IOUtils.copy(is, bos);
+            }
+            Assert.assertArrayEquals(bytes, bos.toByteArray());
+        }
+    }
+    
+    @Test
+    public void inflatedContentCorrupt() throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr);
+        
+        ContentContext ctx = createContentContext("corrupt");
+        ContentWriter writer = store.getWriter(ctx);
+        writer.putContent("Not compressed at all");
+        
+        SolrFileContentReader reader = store.getReader(ctx.getContentUrl());
+        try
+        {
+            reader.getInflatedContentInputStream();
+            Assert.fail("Plain content was inflated.");
+        }
+        catch (ContentIOException e)
+        {
+            // Expected
+        }
+    }
+    
     @Test
     public void delete() throws Exception
     {
@@ -234,6 +345,144 @@ public class SolrContentStoreTest
 //        assertEquals("Text2", reader.getContentString());
 //    }
     
+    private String writeDbIdDoc(SolrContentStore store, String tenant, long dbId)
+    {
+        String url = SolrContentUrlBuilder
+                .start()
+                .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
+                .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                .get();
+        store.getWriter(new ContentContext(null, url)).putContent("doc " + dbId);
+        return url;
+    }
+    
+    @Test
+    public void hashedLayout() throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr, SolrContentStore.Layout.HASHED);
+        Assert.assertEquals(SolrContentStore.Layout.HASHED, store.getLayout());
+        
+        String url = writeDbIdDoc(store, "bob", 123456789L);
+        // The content URL does not change, only where it is kept
+        Assert.assertEquals("solr://bob/db/1234/5678/9.gz", url);
+        Assert.assertFalse(new File(rootStr + "/bob/db/1234").exists());
+        Assert.assertEquals("doc 123456789", store.getReader(url).getContentString());
+        
+        // Sequential IDs are spread over directories
+        Set<String> dirs = new HashSet<String>();
+        for (long dbId = 1000; dbId < 1100; dbId++)
+        {
+            writeDbIdDoc(store, "bob", dbId);
+        }
+        File[] topDirs = new File(rootStr + "/bob/db").listFiles();
+        for (File topDir : topDirs)
+        {
+            dirs.add(topDir.getName());
+        }
+        Assert.assertTrue("Too few directories used: " + dirs, dirs.size() > 50);
+        
+        // Another store over the same root keeps the layout
+        SolrContentStore other = new SolrContentStore(rootStr, SolrContentStore.Layout.DIGITS);
+        Assert.assertEquals(SolrContentStore.Layout.HASHED, other.getLayout());
+        Assert.assertTrue(other.exists(url));
+    }
+    
+    @Test
+    public void migrateToHashedLayout() throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr);
+        Assert.assertEquals(SolrContentStore.Layout.DIGITS, store.getLayout());
+        List<String> urls = new ArrayList<String>();
+        for (long dbId = 9990; dbId < 10010; dbId++)
+        {
+            urls.add(writeDbIdDoc(store, "default", dbId));
+        }
+        
+        Assert.assertEquals(urls.size(), store.migrateToHashedLayout(2));
+        Assert.assertEquals(SolrContentStore.Layout.HASHED, store.getLayout());
+        Assert.assertFalse("Old layout directory was not removed", new File(rootStr + "/default/db/1000").exists());
+        for (int i = 0; i < urls.size(); i++)
+        {
+            Assert.assertEquals("doc " + (9990 + i), store.getReader(urls.get(i)).getContentString());
+        }
+        // Nothing left to move
+        Assert.assertEquals(0, store.migrateToHashedLayout(2));
+    }
+    
+    @Test
+    public void failedMigrationKeepsOldLayout() throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr);
+        List<String> urls = new ArrayList<String>();
+        for (long dbId = 1; dbId <= 5; dbId++)
+        {
+            urls.add(writeDbIdDoc(store, "default", dbId));
+        }
+        // A file in place of its directory stops doc 3 from being moved
+        File blocker = store.getHashedFile("default", 3L, false).getParentFile();
+        blocker.getParentFile().mkdirs();
+        Assert.assertTrue(blocker.createNewFile());
+        try
+        {
+            store.migrateToHashedLayout(2);
+            Assert.fail("Migration succeeded although a file could not be moved.");
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+        Assert.assertFalse(new File(rootStr, SolrContentStore.HASHED_LAYOUT_MARKER).exists());
+        Assert.assertEquals(SolrContentStore.Layout.DIGITS, store.getLayout());
+        
+        // After a restart the documents are found in either layout
+        store = new SolrContentStore(rootStr);
+        Assert.assertEquals(SolrContentStore.Layout.DIGITS, store.getLayout());
+        for (int i = 0; i < urls.size(); i++)
+        {
+            Assert.assertEquals("doc " + (i + 1), store.getReader(urls.get(i)).getContentString());
+        }
+        
+        // Doc 1 was moved, then written again in the old layout
+        File moved = store.getHashedFile("default", 1L, false);
+        Assert.assertTrue(moved.exists());
+        Assert.assertTrue(moved.setLastModified(System.currentTimeMillis() - 60000L));
+        store.getWriter(new ContentContext(null, urls.get(0))).putContent("doc 1 again");
+        Assert.assertEquals("doc 1 again", store.getReader(urls.get(0)).getContentString());
+        
+        Assert.assertTrue(blocker.delete());
+        store.migrateToHashedLayout(2);
+        Assert.assertTrue(new File(rootStr, SolrContentStore.HASHED_LAYOUT_MARKER).exists());
+        Assert.assertEquals(SolrContentStore.Layout.HASHED, store.getLayout());
+        Assert.assertEquals("doc 1 again", store.getReader(urls.get(0)).getContentString());
+        for (int i = 1; i < urls.size(); i++)
+        {
+            Assert.assertEquals("doc " + (i + 1), store.getReader(urls.get(i)).getContentString());
+        }
+    }
+    
+    @Test
+    public void deleteTenant() throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr, SolrContentStore.Layout.HASHED);
+        String bobUrl = writeDbIdDoc(store, "bob", 42L);
+        String jakeUrl = writeDbIdDoc(store, "jake", 42L);
+        
+        Assert.assertTrue(store.deleteTenant("bob"));
+        Assert.assertFalse(store.exists(bobUrl));
+        Assert.assertTrue(store.exists(jakeUrl));
+        Assert.assertFalse(store.deleteTenant("bob"));
+        
+        try
+        {
+            store.deleteTenant("../bob");
+            Assert.fail("Deleted outside of the store.");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Expected
+        }
+    }
+    
     /**
      * A demonstration of how the store might be used.
      */
@@ -0,0 +1,52 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AbstractQParserTest
+{
+    @Test
+    public void normaliseForDetection()
+    {
+        assertEquals("", AbstractQParser.normaliseForDetection(" \t\n"));
+        assertEquals("quick brown fox", AbstractQParser.normaliseForDetection("  quick \t brown\n\nfox "));
+    }
+
+    @Test
+    public void isWorthDetecting()
+    {
+        assertFalse(AbstractQParser.isWorthDetecting("2016"));
+        assertFalse(AbstractQParser.isWorthDetecting("12-34 / 56"));
+        assertFalse(AbstractQParser.isWorthDetecting("doc"));
+        assertTrue(AbstractQParser.isWorthDetecting("document"));
+        assertTrue(AbstractQParser.isWorthDetecting("文書"));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class AlfrescoJsonRequestTest
+{
+    private static final String JSON = "{\"query\":\"cm:name:\\\"a b\\\"\", \"locales\":[\"en\", \"fr\"],"
+                + " \"templates\": [{\"name\":\"t1\", \"template\":\"%cm:content\", \"extra\":1}],"
+                + " \"unknown\": {\"nested\": [1, 2, {\"deeper\": null}]},"
+                + " \"allAttributes\":[], \"textAttributes\":[\"cm:content\"],"
+                + " \"authorities\": [ \"GROUP_EVERYONE\", \"andy\" ], \"tenants\": [ \"\" ],"
+                + " \"defaultFTSOperator\":\"AND\", \"defaultFTSFieldOperator\":\"OR\","
+                + " \"defaultNamespace\":\"http://www.alfresco.org/model/content/1.0\","
+                + " \"queryConsistency\":\"DEFAULT\", \"anyDenyDenies\":false}";
+
+    @Test
+    public void parse() throws Exception
+    {
+        AlfrescoJsonRequest json = AlfrescoJsonRequest.parse(new StringReader(JSON));
+
+        assertEquals("cm:name:\"a b\"", json.getQuery());
+        assertEquals(Arrays.asList("en", "fr"), json.getLocales());
+        assertEquals(1, json.getTemplates().size());
+        assertEquals("t1", json.getTemplates().get(0).getFirst());
+        assertEquals("%cm:content", json.getTemplates().get(0).getSecond());
+        assertEquals(Collections.emptyList(), json.getAllAttributes());
+        assertEquals(Arrays.asList("cm:content"), json.getTextAttributes());
+        assertEquals(Arrays.asList("GROUP_EVERYONE", "andy"), json.getAuthorities());
+        assertEquals(Arrays.asList(""), json.getTenants());
+        assertEquals("AND", json.getDefaultFTSOperator());
+        assertEquals("OR", json.getDefaultFTSFieldOperator());
+        assertNull(json.getMlAnalaysisMode());
+        assertEquals("http://www.alfresco.org/model/content/1.0", json.getDefaultNamespace());
+        assertEquals("DEFAULT", json.getQueryConsistency());
+        assertFalse(json.isAnyDenyDenies());
+    }
+
+    @Test
+    public void defaults() throws Exception
+    {
+        AlfrescoJsonRequest json = AlfrescoJsonRequest.parse(new StringReader("{\"authorities\": [\"andy\"]}"));
+
+        assertNull(json.getQuery());
+        assertTrue(json.getLocales().isEmpty());
+        assertTrue(json.getTenants().isEmpty());
+        assertTrue(json.isAnyDenyDenies());
+    }
+
+    @Test
+    public void notJson() throws Exception
+    {
+        assertNull(AlfrescoJsonRequest.parse(new StringReader("")));
+        assertNull(AlfrescoJsonRequest.parse(new StringReader("q=cm:name:a&rows=10")));
+        assertNull(AlfrescoJsonRequest.parse(new StringReader("[\"a\"]")));
+    }
+
+    @Test
+    public void roundTrip() throws Exception
+    {
+        AlfrescoJsonRequest json = AlfrescoJsonRequest.parse(new StringReader(JSON));
+        json.setQuery("cm:name:\"c d\"");
+
+        AlfrescoJsonRequest copy = AlfrescoJsonRequest.parse(new StringReader(json.toJson()));
+
+        assertEquals("cm:name:\"c d\"", copy.getQuery());
+        assertEquals(json.getLocales(), copy.getLocales());
+        assertEquals(json.getTemplates(), copy.getTemplates());
+        assertEquals(json.getTextAttributes(), copy.getTextAttributes());
+        assertEquals(json.getAuthorities(), copy.getAuthorities());
+        assertEquals(json.getTenants(), copy.getTenants());
+        assertEquals(json.getDefaultFTSOperator(), copy.getDefaultFTSOperator());
+        assertEquals(json.getQueryConsistency(), copy.getQueryConsistency());
+        assertEquals(json.isAnyDenyDenies(), copy.isAnyDenyDenies());
+    }
+
+    @Test
+    public void copyWithQuery() throws Exception
+    {
+        AlfrescoJsonRequest json = AlfrescoJsonRequest.parse(new StringReader(JSON));
+
+        AlfrescoJsonRequest copy = json.copyWithQuery("cm:name:\"c d\"");
+
+        assertEquals("cm:name:\"a b\"", json.getQuery());
+        assertEquals("cm:name:\"c d\"", copy.getQuery());
+        assertEquals(json.getLocales(), copy.getLocales());
+        assertEquals(json.getTemplates(), copy.getTemplates());
+        assertEquals(json.getTextAttributes(), copy.getTextAttributes());
+        assertEquals(json.getAuthorities(), copy.getAuthorities());
+        assertEquals(json.getTenants(), copy.getTenants());
+        assertEquals(json.getDefaultNamespace(), copy.getDefaultNamespace());
+        assertEquals(json.isAnyDenyDenies(), copy.isAnyDenyDenies());
+    }
+
+    @Test
+    public void canonicalJson() throws Exception
+    {
+        AlfrescoJsonRequest json = AlfrescoJsonRequest.parse(new StringReader(JSON));
+        AlfrescoJsonRequest reordered = AlfrescoJsonRequest.parse(new StringReader(
+                    JSON.replace("[ \"GROUP_EVERYONE\", \"andy\" ]", "[ \"andy\", \"GROUP_EVERYONE\", \"andy\" ]")));
+
+        assertEquals(Arrays.asList("andy", "GROUP_EVERYONE", "andy"), reordered.getAuthorities());
+        assertEquals(json.toCanonicalJson(), reordered.toCanonicalJson());
+        assertEquals(Arrays.asList("GROUP_EVERYONE", "andy"),
+                    AlfrescoJsonRequest.parse(new StringReader(reordered.toCanonicalJson())).getAuthorities());
+    }
+}
@@ -27,6 +27,7 @@
 package org.alfresco.solr.query;
 
 import org.alfresco.solr.AlfrescoSolrTestCaseJ4;
+import org.alfresco.solr.cache.CacheConstants;
 import org.apache.lucene.util.LuceneTestCase;
 import org.apache.solr.search.*;
 import org.apache.solr.common.params.ModifiableSolrParams;
@@ -34,6 +35,7 @@ import org.apache.solr.common.util.NamedList;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.response.ResultContext;
 import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.util.RefCounted;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -550,6 +552,66 @@ public class AlfrescoReRankQParserPluginTest extends AlfrescoSolrTestCaseJ4 {
 
     }
 
+    @Test
+    public void testReRankPaging() throws Exception {
+
+        assertU(delQ("*:*"));
+        assertU(commit());
+
+        //Pages after the first are sliced from the reranked docs kept for the searcher.
+        //cache=false keeps the queryResultCache from answering them instead.
+
+        boolean scale = random().nextBoolean();
+
+        String[] doc = {"id","1", "term_s", "YYYY", "group_s", "group1", "test_ti", "5", "test_tl", "10", "test_tf", "2000"};
+        assertU(adoc(doc));
+        String[] doc1 = {"id","2", "term_s","YYYY", "group_s", "group1", "test_ti", "50", "test_tl", "100", "test_tf", "200"};
+        assertU(adoc(doc1));
+        assertU(commit());
+
+        String[] doc2 = {"id","3", "term_s", "YYYY", "test_ti", "5000", "test_tl", "100", "test_tf", "200"};
+        assertU(adoc(doc2));
+        String[] doc3 = {"id","4", "term_s", "YYYY", "test_ti", "500", "test_tl", "1000", "test_tf", "2000"};
+        assertU(adoc(doc3));
+        assertU(commit());
+
+        String[] doc4 = {"id","5", "term_s", "YYYY", "group_s", "group2", "test_ti", "4", "test_tl", "10", "test_tf", "2000"};
+        assertU(adoc(doc4));
+        String[] doc5 = {"id","6", "term_s","YYYY", "group_s", "group2", "test_ti", "10", "test_tl", "100", "test_tf", "200"};
+        assertU(adoc(doc5));
+        assertU(commit());
+
+        long hits = reRankCacheHits();
+        String[][] pages = {{"2.0", "6.0"}, {"5.0", "4.0"}, {"3.0", "1.0"}};
+        for(int page = 0; page < pages.length; page++) {
+            ModifiableSolrParams params = new ModifiableSolrParams();
+            params.add("rq", "{!alfrescoReRank reRankQuery=$rqq reRankDocs=6 cache=false scale="+scale+"}");
+            params.add("q", "{!edismax bq=$bqq1}*:*");
+            params.add("bqq1", "id:1^10 id:2^20 id:3^30 id:4^40 id:5^50 id:6^60");
+            params.add("rqq", "{!edismax bq=$bqq2}*:*");
+            params.add("bqq2", "test_ti:50^1000");
+            params.add("fl", "id,score");
+            params.add("start", Integer.toString(page*2));
+            params.add("rows", "2");
+
+            assertQ(req(params), "*[count(//doc)=2]",
+                    "//result[@numFound='6']",
+                    "//result/doc[1]/float[@name='id'][.='"+pages[page][0]+"']",
+                    "//result/doc[2]/float[@name='id'][.='"+pages[page][1]+"']"
+            );
+        }
+        assertEquals(hits + pages.length - 1, reRankCacheHits());
+    }
+
+    private long reRankCacheHits() {
+        RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+        try {
+            return ((Number)searcher.get().getCache(CacheConstants.ALFRESCO_RERANK_CACHE).getStatistics().get("hits")).longValue();
+        } finally {
+            searcher.decref();
+        }
+    }
+
     @Test
     public void testScale() throws Exception {
 
@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.alfresco.opencmis.search.CMISQueryOptions.CMISQueryMode;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.apache.chemistry.opencmis.commons.enums.CmisVersion;
+import org.junit.Test;
+
+public class CMISQueryCacheKeyTest
+{
+    private static final String STATEMENT = "SELECT * FROM cmis:document WHERE cmis:name LIKE 'doc%'";
+
+    private SearchParameters searchParameters(String statement)
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setQuery(statement);
+        return searchParameters;
+    }
+
+    private CMISQueryCacheKey key(String statement, CmisVersion cmisVersion, String alternativeDictionary, long modelGeneration)
+    {
+        return new CMISQueryCacheKey(searchParameters(statement), CMISQueryMode.CMS_WITH_ALFRESCO_EXTENSIONS,
+                    cmisVersion, alternativeDictionary, modelGeneration);
+    }
+
+    @Test
+    public void sameStatementSharesAnEntry()
+    {
+        CMISQueryCacheKey first = key(STATEMENT, CmisVersion.CMIS_1_1, null, 1);
+        CMISQueryCacheKey second = key(STATEMENT, CmisVersion.CMIS_1_1, null, 1);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    public void differentParsingContextsDoNotShareAnEntry()
+    {
+        CMISQueryCacheKey key = key(STATEMENT, CmisVersion.CMIS_1_1, null, 1);
+        assertNotEquals(key, key(STATEMENT + " ORDER BY cmis:name", CmisVersion.CMIS_1_1, null, 1));
+        assertNotEquals(key, key(STATEMENT, CmisVersion.CMIS_1_0, null, 1));
+        assertNotEquals(key, key(STATEMENT, CmisVersion.CMIS_1_1, "DEFAULT", 1));
+        assertNotEquals(key, key(STATEMENT, CmisVersion.CMIS_1_1, null, 2));
+        assertNotEquals(key, new CMISQueryCacheKey(searchParameters(STATEMENT), CMISQueryMode.CMS_STRICT,
+                    CmisVersion.CMIS_1_1, null, 1));
+    }
+
+    @Test
+    public void onlyPlainStatementsAreCacheable()
+    {
+        assertTrue(CMISQueryCacheKey.isCacheable(searchParameters(STATEMENT)));
+        assertFalse(CMISQueryCacheKey.isCacheable(searchParameters(null)));
+    }
+
+    @Test
+    public void dateMathIsNotCacheable()
+    {
+        assertTrue(CMISQueryCacheKey.isCacheable(searchParameters(
+                    "SELECT * FROM cmis:document WHERE cmis:creationDate > TIMESTAMP '2016-01-01T00:00:00.000Z'")));
+        assertFalse(CMISQueryCacheKey.isCacheable(searchParameters(
+                    "SELECT * FROM cmis:document WHERE CONTAINS('cm:created:[NOW/DAY-7DAYS TO NOW]')")));
+        assertFalse(CMISQueryCacheKey.isCacheable(searchParameters(
+                    "SELECT * FROM cmis:document WHERE CONTAINS('cm:modified:TODAY')")));
+    }
+}
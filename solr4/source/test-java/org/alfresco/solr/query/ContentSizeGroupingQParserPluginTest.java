@@ -0,0 +1,90 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import org.alfresco.solr.AlfrescoSolrTestCaseJ4;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+@LuceneTestCase.SuppressCodecs({"Appending","Lucene3x","Lucene40","Lucene41","Lucene42","Lucene43", "Lucene44", "Lucene45","Lucene46","Lucene47","Lucene48","Lucene49"})
+public class ContentSizeGroupingQParserPluginTest extends AlfrescoSolrTestCaseJ4 {
+
+    private static final String SIZE_FIELD = "content@s__size@{http://www.alfresco.org/model/content/1.0}content";
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        initAlfrescoCore("solrconfig-afts.xml", "schema-afts.xml");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        clearIndex();
+        assertU(commit());
+    }
+
+    @Test
+    public void testContentSizeGrouping() throws Exception {
+
+        assertU(adoc("id", "1", SIZE_FIELD, "0"));
+        assertU(adoc("id", "2", SIZE_FIELD, "10"));
+        assertU(adoc("id", "3", SIZE_FIELD, "25"));
+        assertU(commit());
+        assertU(adoc("id", "4", SIZE_FIELD, "50"));
+        assertU(adoc("id", "5", SIZE_FIELD, "99"));
+        assertU(commit());
+
+        // Counted from the hits, and from the index segments on the pool for a match-all query
+        for (String parser : new String[] {"contentSize", "contentSizeParallel"}) {
+            ModifiableSolrParams params = new ModifiableSolrParams();
+            params.add("q", "*:*");
+            params.add("fq", "{!" + parser + "}");
+            params.add("rows", "0");
+            assertQ(req(params), "*[count(//lst[@name='contentSize()']/long)=10]",
+                    "//lst[@name='contentSize()']/long[@name='[0 TO 10>'][.='1']",
+                    "//lst[@name='contentSize()']/long[@name='[10 TO 20>'][.='1']",
+                    "//lst[@name='contentSize()']/long[@name='[20 TO 30>'][.='1']",
+                    "//lst[@name='contentSize()']/long[@name='[30 TO 40>'][.='0']",
+                    "//lst[@name='contentSize()']/long[@name='[50 TO 60>'][.='1']",
+                    "//lst[@name='contentSize()']/long[@name='[90 TO 100>'][.='1']");
+
+            // The buckets span the index, but only hits are counted
+            params = new ModifiableSolrParams();
+            params.add("q", "id:1 OR id:5");
+            params.add("fq", "{!" + parser + "}");
+            params.add("rows", "0");
+            assertQ(req(params), "*[count(//lst[@name='contentSize()']/long)=10]",
+                    "//lst[@name='contentSize()']/long[@name='[0 TO 10>'][.='1']",
+                    "//lst[@name='contentSize()']/long[@name='[10 TO 20>'][.='0']",
+                    "//lst[@name='contentSize()']/long[@name='[90 TO 100>'][.='1']");
+        }
+    }
+}
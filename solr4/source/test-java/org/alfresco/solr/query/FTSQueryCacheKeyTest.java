@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.alfresco.repo.search.impl.parsers.FTSQueryParser.RerankPhase;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.junit.Test;
+
+public class FTSQueryCacheKeyTest
+{
+    private SearchParameters searchParameters(String query)
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setQuery(query);
+        return searchParameters;
+    }
+
+    @Test
+    public void sameQuerySharesAnEntry()
+    {
+        FTSQueryCacheKey first = new FTSQueryCacheKey(searchParameters("cm:name:doc*"), RerankPhase.SINGLE_PASS, 1);
+        FTSQueryCacheKey second = new FTSQueryCacheKey(searchParameters(" cm:name:doc* "), RerankPhase.SINGLE_PASS, 1);
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+        assertNotEquals(first, new FTSQueryCacheKey(searchParameters("cm:name:doc*"), RerankPhase.SINGLE_PASS, 2));
+    }
+
+    @Test
+    public void dateMathIsNotCacheable()
+    {
+        assertTrue(FTSQueryCacheKey.isCacheable(searchParameters("cm:created:[2016-01-01 TO 2016-12-31]")));
+        assertTrue(FTSQueryCacheKey.isCacheable(searchParameters("cm:name:knowledge")));
+        assertFalse(FTSQueryCacheKey.isCacheable(searchParameters("cm:created:[NOW/DAY-7DAYS TO NOW]")));
+        assertFalse(FTSQueryCacheKey.isCacheable(searchParameters("cm:modified:TODAY")));
+        assertFalse(FTSQueryCacheKey.isCacheable(searchParameters("@cm:created:[now-1month to *]")));
+
+        SearchParameters templated = searchParameters("RECENT:yes");
+        templated.addQueryTemplate("RECENT", "cm:modified:[NOW-1DAY TO MAX]");
+        assertFalse(FTSQueryCacheKey.isCacheable(templated));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import org.alfresco.solr.AlfrescoSolrTestCaseJ4;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+@LuceneTestCase.SuppressCodecs({"Appending","Lucene3x","Lucene40","Lucene41","Lucene42","Lucene43", "Lucene44", "Lucene45","Lucene46","Lucene47","Lucene48","Lucene49"})
+public class MimetypeGroupingQParserPluginTest extends AlfrescoSolrTestCaseJ4 {
+
+    private static final String MIMETYPE_FIELD = "content@s__mimetype@{http://www.alfresco.org/model/content/1.0}content";
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        // The mimetype mapping is read relative to the solr home
+        System.setProperty("solr.solr.home", HOME().getAbsolutePath());
+        initAlfrescoCore("solrconfig-afts.xml", "schema-afts.xml");
+    }
+
+    @AfterClass
+    public static void afterClass() throws Exception {
+        System.clearProperty("solr.solr.home");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        clearIndex();
+        assertU(commit());
+    }
+
+    @Test
+    public void testMimetypeGrouping() throws Exception {
+
+        // Spread over segments so that counts are merged across segment ordinals
+        assertU(adoc("id", "1", MIMETYPE_FIELD, "text/plain"));
+        assertU(adoc("id", "2", MIMETYPE_FIELD, "text/plain"));
+        assertU(adoc("id", "3", MIMETYPE_FIELD, "application/pdf"));
+        assertU(commit());
+        assertU(adoc("id", "4", MIMETYPE_FIELD, "image/png"));
+        assertU(adoc("id", "5", MIMETYPE_FIELD, "image/jpeg"));
+        assertU(adoc("id", "6"));
+        assertU(commit());
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.add("q", "*:*");
+        params.add("fq", "{!mimetype}");
+        params.add("rows", "0");
+        assertQ(req(params), "*[count(//lst[@name='mimetype()']/long)=2]",
+                "//lst[@name='mimetype()']/long[@name='document'][.='3']",
+                "//lst[@name='mimetype()']/long[@name='image'][.='2']");
+
+        params = new ModifiableSolrParams();
+        params.add("q", "*:*");
+        params.add("fq", "{!mimetype group=false}");
+        params.add("rows", "0");
+        assertQ(req(params), "*[count(//lst[@name='mimetype()']/long)=4]",
+                "//lst[@name='mimetype()']/long[@name='text/plain'][.='2']",
+                "//lst[@name='mimetype()']/long[@name='application/pdf'][.='1']",
+                "//lst[@name='mimetype()']/long[@name='image/png'][.='1']",
+                "//lst[@name='mimetype()']/long[@name='image/jpeg'][.='1']");
+
+        // Only hits are counted
+        params = new ModifiableSolrParams();
+        params.add("q", "id:1 OR id:4 OR id:6");
+        params.add("fq", "{!mimetype}");
+        params.add("rows", "0");
+        assertQ(req(params), "*[count(//lst[@name='mimetype()']/long)=2]",
+                "//lst[@name='mimetype()']/long[@name='document'][.='1']",
+                "//lst[@name='mimetype()']/long[@name='image'][.='1']");
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SolrTenantQueryTest
+{
+    @Test
+    public void tenantOrderDoesNotMatter()
+    {
+        SolrTenantQuery first = new SolrTenantQuery(Arrays.asList("acme.com", "", "example.org"));
+        SolrTenantQuery second = new SolrTenantQuery(Arrays.asList("example.org", "acme.com", ""));
+        assertEquals(first, second);
+        assertEquals(first.hashCode(), second.hashCode());
+    }
+
+    @Test
+    public void emptyTenantIsTheDefaultTenant()
+    {
+        assertEquals(new SolrTenantQuery(Arrays.asList("")), new SolrTenantQuery(Arrays.asList("_DEFAULT_")));
+        assertEquals("TENANT:[_DEFAULT_]", new SolrTenantQuery(Arrays.asList("")).toString());
+    }
+
+    @Test
+    public void differentTenantsAreDifferentQueries()
+    {
+        assertNotEquals(new SolrTenantQuery(Arrays.asList("acme.com")), new SolrTenantQuery(Arrays.asList("example.org")));
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.search.spans.SpanMultiTermQueryWrapper;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpanWildcardExpansionRewriteTest
+{
+    private static final String FIELD = "text";
+
+    private RAMDirectory directory;
+
+    private DirectoryReader reader;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_48, new KeywordAnalyzer()));
+        // Two segments with an overlapping term
+        addDocs(writer, "foo", "food", "{en}fool");
+        writer.commit();
+        addDocs(writer, "food", "fool", "bar");
+        writer.close();
+        reader = DirectoryReader.open(directory);
+        assertTrue(reader.leaves().size() > 1);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        reader.close();
+        directory.close();
+    }
+
+    private void addDocs(IndexWriter writer, String... values) throws Exception
+    {
+        for (String value : values)
+        {
+            Document doc = new Document();
+            doc.add(new StringField(FIELD, value, Store.NO));
+            writer.addDocument(doc);
+        }
+    }
+
+    @Test
+    public void expand() throws Exception
+    {
+        assertArrayEquals(new Term[] { new Term(FIELD, "foo"), new Term(FIELD, "food"), new Term(FIELD, "fool") },
+                    SpanWildcardExpansionRewrite.expand(reader, new Term(FIELD, "fo*"), 10));
+        assertArrayEquals(new Term[] { new Term(FIELD, "fool") },
+                    SpanWildcardExpansionRewrite.expand(reader, new Term(FIELD, "*ool"), 10));
+        assertArrayEquals(new Term[] { new Term(FIELD, "{en}fool") },
+                    SpanWildcardExpansionRewrite.expand(reader, new Term(FIELD, "{en}fo?l"), 10));
+        assertEquals(0, SpanWildcardExpansionRewrite.expand(reader, new Term(FIELD, "x*"), 10).length);
+        assertSame(SpanWildcardExpansionRewrite.TOO_MANY_TERMS,
+                    SpanWildcardExpansionRewrite.expand(reader, new Term(FIELD, "fo*"), 2));
+    }
+
+    @Test
+    public void rewrite() throws Exception
+    {
+        SpanMultiTermQueryWrapper<WildcardQuery> wrapper = new SpanMultiTermQueryWrapper<WildcardQuery>(new WildcardQuery(new Term(FIELD, "foo?")));
+        wrapper.setRewriteMethod(new SpanWildcardExpansionRewrite(10, 100));
+
+        SpanQuery rewritten = (SpanQuery) wrapper.rewrite(reader);
+
+        assertTrue(rewritten instanceof SpanOrQuery);
+        assertEquals(2, ((SpanOrQuery) rewritten).getClauses().length);
+    }
+}
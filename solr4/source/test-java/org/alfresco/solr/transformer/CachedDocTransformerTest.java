@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.transformer;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.solr.AlfrescoSolrTestCaseJ4;
+import org.alfresco.solr.AlfrescoSolrDataModel;
+import org.alfresco.solr.AlfrescoSolrDataModel.TenantAclIdDbId;
+import org.alfresco.solr.content.SolrCachedDocDelta;
+import org.alfresco.solr.content.SolrCachedDocDelta.FieldGroup;
+import org.alfresco.solr.content.SolrContentStore;
+import org.alfresco.solr.content.SolrContentUrlBuilder;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.transform.TransformContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests that {@link CachedDocTransformer} returns cached documents with their delta records applied
+ */
+@LuceneTestCase.SuppressCodecs({"Appending","Lucene3x","Lucene40","Lucene41","Lucene42","Lucene43", "Lucene44", "Lucene45","Lucene46","Lucene47","Lucene48","Lucene49"})
+public class CachedDocTransformerTest extends AlfrescoSolrTestCaseJ4 {
+
+    private static final long DBID = 100L;
+
+    private SolrContentStore previousStore;
+
+    private String contentUrl;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        initAlfrescoCore("solrconfig-afts.xml", "schema-afts.xml");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        previousStore = CachedDocTransformer.solrContentStore;
+        CachedDocTransformer.solrContentStore = new SolrContentStore(createTempDir().getAbsolutePath());
+        TenantAclIdDbId ids = AlfrescoSolrDataModel.decodeNodeDocumentId(nodeDocumentId(5L));
+        contentUrl = SolrContentUrlBuilder.start()
+                .add(SolrContentUrlBuilder.KEY_TENANT, ids.tenant)
+                .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(DBID))
+                .get();
+    }
+
+    @Override
+    @After
+    public void tearDown() throws Exception {
+        CachedDocTransformer.solrContentStore = previousStore;
+        super.tearDown();
+    }
+
+    @Test
+    public void testCachedDocWithoutDelta() throws Exception {
+        write(contentUrl, cachedDoc(5L, "/old"));
+
+        SolrDocument doc = transform(nodeDocumentId(5L));
+        assertEquals(Arrays.<Object>asList("/old"), doc.getFieldValues("PATH"));
+        assertEquals(5L, ((Number)doc.getFieldValue("ACLID")).longValue());
+    }
+
+    @Test
+    public void testCachedDocWithDelta() throws Exception {
+        write(contentUrl, cachedDoc(5L, "/old"));
+        // A cascade moved the node and an ACL change moved it to another ACL
+        write(SolrContentUrlBuilder.getDeltaContentUrl(contentUrl),
+                SolrCachedDocDelta.extract(cachedDoc(7L, "/new"), EnumSet.of(FieldGroup.PATH, FieldGroup.ACL)));
+
+        SolrDocument doc = transform(nodeDocumentId(7L));
+        assertEquals(Arrays.<Object>asList("/new"), doc.getFieldValues("PATH"));
+        assertEquals(7L, ((Number)doc.getFieldValue("ACLID")).longValue());
+        assertEquals(nodeDocumentId(7L), doc.getFieldValue("id"));
+    }
+
+    private static String nodeDocumentId(long aclId) {
+        return AlfrescoSolrDataModel.getNodeDocumentId(AlfrescoSolrDataModel.DEFAULT_TENANT, aclId, DBID);
+    }
+
+    private static SolrInputDocument cachedDoc(long aclId, String path) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("id", nodeDocumentId(aclId));
+        doc.addField("DBID", DBID);
+        doc.addField("ACLID", aclId);
+        doc.addField("PATH", path);
+        return doc;
+    }
+
+    private static void write(String url, SolrInputDocument doc) throws Exception {
+        ContentContext context = new ContentContext(null, url);
+        try (OutputStream out = new GZIPOutputStream(CachedDocTransformer.solrContentStore.getWriter(context).getContentOutputStream())) {
+            new JavaBinCodec().marshal(doc, out);
+        }
+    }
+
+    private SolrDocument transform(String id) throws Exception {
+        SolrQueryRequest req = req("q", "*:*", "fl", "[cached]");
+        try {
+            TransformContext context = new TransformContext();
+            context.req = req;
+            context.searcher = req.getSearcher();
+            CachedDocTransformer transformer = new CachedDocTransformer();
+            transformer.setContext(context);
+            SolrDocument doc = new SolrDocument();
+            doc.addField("id", id);
+            transformer.transform(doc, 0);
+            return doc;
+        } finally {
+            req.close();
+        }
+    }
+}
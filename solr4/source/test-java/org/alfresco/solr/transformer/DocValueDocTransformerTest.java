@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.transformer;
+
+import org.alfresco.solr.AlfrescoSolrTestCaseJ4;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.util.LuceneTestCase;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.transform.TransformContext;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+@LuceneTestCase.SuppressCodecs({"Appending","Lucene3x","Lucene40","Lucene41","Lucene42","Lucene43", "Lucene44", "Lucene45","Lucene46","Lucene47","Lucene48","Lucene49"})
+public class DocValueDocTransformerTest extends AlfrescoSolrTestCaseJ4 {
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        initAlfrescoCore("solrconfig-afts.xml", "schema-afts.xml");
+    }
+
+    @Override
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        clearIndex();
+        assertU(commit());
+    }
+
+    /**
+     * The response writer drops fields that were not asked for, so the transformed document is checked directly.
+     */
+    private SolrDocument transform(String fl) throws Exception {
+        SolrQueryRequest req = req("q", "*:*", "fl", fl);
+        try {
+            TransformContext context = new TransformContext();
+            context.req = req;
+            context.searcher = req.getSearcher();
+            DocValueDocTransformer transformer = new DocValueDocTransformer();
+            transformer.setContext(context);
+            SolrDocument doc = new SolrDocument();
+            transformer.transform(doc, req.getSearcher().getFirstMatch(new Term("id", "1")));
+            return doc;
+        } finally {
+            req.close();
+        }
+    }
+
+    @Test
+    public void testOnlyRequestedFields() throws Exception {
+        assertU(adoc("id", "1", "DBID", "1", "TXID", "10", "ACLID", "20", "TYPE", "{http://www.alfresco.org/model/content/1.0}content"));
+        assertU(commit());
+
+        SolrDocument doc = transform("id,TXID,[dv]");
+        assertEquals(10L, doc.getFieldValue("TXID"));
+        assertNull(doc.getFieldValue("ACLID"));
+        assertNull(doc.getFieldValue("TYPE"));
+
+        doc = transform("*,[dv]");
+        assertEquals(10L, doc.getFieldValue("TXID"));
+        assertEquals(20L, doc.getFieldValue("ACLID"));
+        assertEquals("{http://www.alfresco.org/model/content/1.0}content", doc.getFieldValue("TYPE"));
+    }
+}
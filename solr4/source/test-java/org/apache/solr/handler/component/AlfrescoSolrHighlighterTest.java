@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.apache.solr.handler.component;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.component.AlfrescoSolrHighlighter.DeadlineTokenFilter;
+import org.apache.solr.handler.component.AlfrescoSolrHighlighter.HighlightTask;
+import org.apache.solr.handler.component.AlfrescoSolrHighlighter.HighlightTimeExceededException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.extensions.surf.util.I18NUtil;
+
+/**
+ * Tests the time budget and thread pool support of {@link AlfrescoSolrHighlighter}
+ */
+public class AlfrescoSolrHighlighterTest
+{
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        I18NUtil.setLocale(null);
+    }
+
+    @Test
+    public void deadlineStopsAnalysis() throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            text.append("word ");
+        }
+        TokenStream stream = new DeadlineTokenFilter(new WhitespaceTokenizer(new StringReader(text.toString())), System.nanoTime() - 1L);
+        stream.reset();
+        int count = 0;
+        try
+        {
+            while (stream.incrementToken())
+            {
+                count++;
+            }
+            Assert.fail("Analysis should stop at the deadline");
+        }
+        catch (HighlightTimeExceededException e)
+        {
+            Assert.assertEquals(255, count);
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void noDeadlineAnalysesEverything() throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            text.append("word ");
+        }
+        TokenStream stream = new DeadlineTokenFilter(new WhitespaceTokenizer(new StringReader(text.toString())), 0L);
+        stream.reset();
+        int count = 0;
+        while (stream.incrementToken())
+        {
+            count++;
+        }
+        stream.end();
+        stream.close();
+        Assert.assertEquals(1000, count);
+    }
+
+    @Test
+    public void taskRunsInRequestLocale() throws Exception
+    {
+        I18NUtil.setLocale(Locale.FRENCH);
+        HighlightTask task = new HighlightTask(new Callable<NamedList>()
+        {
+            @Override
+            public NamedList call()
+            {
+                NamedList summaries = new SimpleOrderedMap();
+                summaries.add("locale", I18NUtil.getLocale());
+                return summaries;
+            }
+        }, I18NUtil.getLocaleOrNull());
+        I18NUtil.setLocale(Locale.GERMAN);
+
+        NamedList summaries = executor.submit(task).get();
+        Assert.assertEquals(Locale.FRENCH, summaries.get("locale"));
+
+        // The pool thread is left in its own locale
+        Locale poolLocale = executor.submit(new Callable<Locale>()
+        {
+            @Override
+            public Locale call()
+            {
+                return I18NUtil.getLocaleOrNull();
+            }
+        }).get();
+        Assert.assertNull(poolLocale);
+    }
+
+    @Test
+    public void abandonedTaskDoesNotRun() throws Exception
+    {
+        final AtomicBoolean ran = new AtomicBoolean(false);
+        HighlightTask task = new HighlightTask(new Callable<NamedList>()
+        {
+            @Override
+            public NamedList call()
+            {
+                ran.set(true);
+                return new SimpleOrderedMap();
+            }
+        }, null);
+
+        Assert.assertTrue(task.abandon());
+        Assert.assertFalse(task.abandon());
+        Assert.assertNull(task.call());
+        Assert.assertFalse(ran.get());
+    }
+
+    @Test
+    public void awaitWaitsForRunningTasksAndCancelsQueuedTasks() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean finished = new AtomicBoolean(false);
+        final AtomicBoolean queuedRan = new AtomicBoolean(false);
+        HighlightTask running = new HighlightTask(new Callable<NamedList>()
+        {
+            @Override
+            public NamedList call() throws Exception
+            {
+                started.countDown();
+                Thread.sleep(200);
+                finished.set(true);
+                return new SimpleOrderedMap();
+            }
+        }, null);
+        HighlightTask queued = new HighlightTask(new Callable<NamedList>()
+        {
+            @Override
+            public NamedList call()
+            {
+                queuedRan.set(true);
+                return new SimpleOrderedMap();
+            }
+        }, null);
+        Future<NamedList> runningFuture = executor.submit(running);
+        Future<NamedList> queuedFuture = executor.submit(queued);
+        started.await();
+
+        AlfrescoSolrHighlighter.awaitTasks(Arrays.asList(running, queued), Arrays.asList(runningFuture, queuedFuture));
+
+        Assert.assertTrue(finished.get());
+        Assert.assertFalse(runningFuture.isCancelled());
+        Assert.assertTrue(queuedFuture.isCancelled());
+        Assert.assertFalse(queuedRan.get());
+    }
+}
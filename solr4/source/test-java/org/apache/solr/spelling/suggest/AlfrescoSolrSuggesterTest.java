@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.apache.solr.spelling.suggest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.search.suggest.Lookup.LookupResult;
+import org.apache.lucene.util.CharsRef;
+import org.apache.solr.SolrTestCaseJ4;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.apache.solr.spelling.SolrSpellChecker;
+import org.apache.solr.util.RefCounted;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests the updates of {@link AlfrescoSolrSuggester} between full builds.
+ */
+public class AlfrescoSolrSuggesterTest extends SolrTestCaseJ4 {
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    // Keep the segments of each commit apart
+    System.setProperty("solr.tests.mergePolicy", "org.apache.lucene.index.LogDocMergePolicy");
+    initCore("solrconfig-basic.xml", "schema-rerank.xml", getFile("./source/test-files").getAbsolutePath());
+  }
+
+  @AfterClass
+  public static void afterClass() {
+    System.clearProperty("solr.tests.mergePolicy");
+  }
+
+  @Override
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    clearIndex();
+    assertU(commit());
+  }
+
+  @Test
+  public void testMergeAddsUpWeights() {
+    List<LookupResult> main = Arrays.asList(result("apple", 5), result("apricot", 4), result("avocado", 1));
+    List<LookupResult> delta1 = Arrays.asList(result("avocado", 3), result("almond", 2));
+    List<LookupResult> delta2 = Arrays.asList(result("avocado", 3), result("apricot", 2));
+
+    List<LookupResult> merged = AlfrescoSolrSuggester.merge(Arrays.asList(main, delta1, delta2), 3);
+
+    assertEquals(3, merged.size());
+    assertEquals("avocado", merged.get(0).key.toString());
+    assertEquals(7, merged.get(0).value);
+    assertEquals("apricot", merged.get(1).key.toString());
+    assertEquals(6, merged.get(1).value);
+    assertEquals("apple", merged.get(2).key.toString());
+    assertEquals(5, merged.get(2).value);
+  }
+
+  @Test
+  public void testMergeWithoutDeltas() {
+    List<LookupResult> main = Arrays.asList(result("apple", 5), result("apricot", 4));
+    List<LookupResult> merged = AlfrescoSolrSuggester.merge(Arrays.asList(main, new ArrayList<LookupResult>()), 10);
+    assertEquals(2, merged.size());
+    assertEquals("apple", merged.get(0).key.toString());
+    assertEquals("apricot", merged.get(1).key.toString());
+  }
+
+  @Test
+  public void testUpdateAddsOneLookupPerCommit() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      assertU(adoc("id", Integer.toString(i), "term_s", "apple"));
+    }
+    assertU(commit());
+
+    AlfrescoSolrSuggester suggester = new AlfrescoSolrSuggester();
+    suggester.init(config(), h.getCore());
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      suggester.build(h.getCore(), searcher.get());
+    } finally {
+      searcher.decref();
+    }
+    assertWeight(suggester, "apple", 10);
+
+    assertU(adoc("id", "10", "term_s", "apple"));
+    assertU(adoc("id", "11", "term_s", "apricot"));
+    assertU(commit());
+    AlfrescoSolrSuggester updated = update(suggester, 1.0f);
+    assertNotNull(updated);
+    assertEquals(1, updated.getDeltaLookupCount());
+    assertWeight(updated, "apple", 11);
+    assertWeight(updated, "apricot", 1);
+    // The live suggester is left as it was
+    assertWeight(suggester, "apple", 10);
+
+    assertU(adoc("id", "12", "term_s", "apricot"));
+    assertU(commit());
+    updated = update(updated, 1.0f);
+    assertNotNull(updated);
+    // Only the segment of the last commit is added, the earlier delta is kept
+    assertEquals(2, updated.getDeltaLookupCount());
+    assertWeight(updated, "apple", 11);
+    assertWeight(updated, "apricot", 2);
+
+    // A commit without new segments keeps the delta lookups
+    assertU(commit());
+    updated = update(updated, 1.0f);
+    assertNotNull(updated);
+    assertEquals(2, updated.getDeltaLookupCount());
+  }
+
+  @Test
+  public void testUpdateNeedsFullBuild() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      assertU(adoc("id", Integer.toString(i), "term_s", "apple"));
+    }
+    assertU(commit());
+
+    AlfrescoSolrSuggester suggester = new AlfrescoSolrSuggester();
+    suggester.init(config(), h.getCore());
+    // Never built, so the segments are not known
+    assertNull(update(suggester, 1.0f));
+
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      suggester.build(h.getCore(), searcher.get());
+    } finally {
+      searcher.decref();
+    }
+
+    // The new segments hold more than the allowed share of the documents
+    for (int i = 10; i < 15; i++) {
+      assertU(adoc("id", Integer.toString(i), "term_s", "apricot"));
+    }
+    assertU(commit());
+    assertNull(update(suggester, 0.1f));
+
+    // The built segments have been merged away
+    assertU(optimize());
+    assertNull(update(suggester, 1.0f));
+  }
+
+  private static AlfrescoSolrSuggester update(AlfrescoSolrSuggester suggester, float maxDeltaRatio) throws Exception {
+    RefCounted<SolrIndexSearcher> searcher = h.getCore().getSearcher();
+    try {
+      return suggester.update(h.getCore(), searcher.get(), maxDeltaRatio);
+    } finally {
+      searcher.decref();
+    }
+  }
+
+  private static void assertWeight(AlfrescoSolrSuggester suggester, String term, long weight) throws Exception {
+    SuggesterResult result = suggester.getSuggestions(new SuggesterOptions(new CharsRef(term), 10));
+    for (LookupResult lookupResult : result.getLookupResult(suggester.getName(), term)) {
+      if (lookupResult.key.toString().equals(term)) {
+        assertEquals(weight, lookupResult.value);
+        return;
+      }
+    }
+    fail("No suggestion for " + term);
+  }
+
+  private static NamedList<Object> config() {
+    NamedList<Object> config = new NamedList<>();
+    config.add(AlfrescoSolrSuggester.NAME, "test");
+    config.add(AlfrescoSolrSuggester.LOOKUP_IMPL, "org.apache.solr.spelling.suggest.tst.TSTLookupFactory");
+    config.add(AlfrescoSolrSuggester.DICTIONARY_IMPL, "org.apache.solr.spelling.suggest.HighFrequencyDictionaryFactory");
+    config.add(SolrSpellChecker.FIELD, "term_s");
+    return config;
+  }
+
+  private static LookupResult result(String key, long value) {
+    return new LookupResult(key, value);
+  }
+}